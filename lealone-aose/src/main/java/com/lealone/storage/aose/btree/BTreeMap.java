@@ -8,6 +8,7 @@ package com.lealone.storage.aose.btree;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -32,6 +33,7 @@ import com.lealone.storage.aose.btree.page.Page;
 import com.lealone.storage.aose.btree.page.PageOperations.Append;
 import com.lealone.storage.aose.btree.page.PageOperations.Put;
 import com.lealone.storage.aose.btree.page.PageOperations.PutIfAbsent;
+import com.lealone.storage.aose.btree.page.PageOperations.PutIfAbsentBatch;
 import com.lealone.storage.aose.btree.page.PageOperations.Remove;
 import com.lealone.storage.aose.btree.page.PageOperations.WriteOperation;
 import com.lealone.storage.aose.btree.page.PageReference;
@@ -594,6 +596,15 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         return runPageOperation(session, putIfAbsent);
     }
 
+    @Override
+    public void putIfAbsent(InternalSession session, List<K> keys, List<V> values,
+            AsyncResultHandler<Integer> handler) {
+        for (V value : values)
+            checkWrite(value);
+        PutIfAbsentBatch<K, V> putIfAbsent = new PutIfAbsentBatch<>(this, keys, values, handler);
+        runPageOperation(session, putIfAbsent);
+    }
+
     @Override
     public K append(V value) {
         return append0(null, value, null);
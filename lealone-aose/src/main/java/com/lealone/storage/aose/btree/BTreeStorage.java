@@ -23,6 +23,7 @@ import com.lealone.storage.StorageSetting;
 import com.lealone.storage.aose.btree.chunk.Chunk;
 import com.lealone.storage.aose.btree.chunk.ChunkCompactor;
 import com.lealone.storage.aose.btree.chunk.ChunkManager;
+import com.lealone.storage.aose.btree.chunk.RedoLogSegmentManager;
 import com.lealone.storage.aose.btree.page.Page;
 import com.lealone.storage.aose.btree.page.PageInfo;
 import com.lealone.storage.aose.btree.page.PageReference;
@@ -48,6 +49,11 @@ public class BTreeStorage {
 
     private final BTreeGC bgc;
 
+    // 为null时redo log追加到最后一个chunk文件的末尾
+    private RedoLogSegmentManager redoLogSegmentManager;
+    private boolean redoLogSegmentEnabled;
+    private String redoLogSegmentDir;
+
     /**
      * The compression level for new pages (0 for disabled, 1 for fast, 2 for high).
      * Even if disabled, the storage may contain (old) compressed pages.
@@ -95,6 +101,30 @@ public class BTreeStorage {
         else {
             chunkManager.init(mapBaseDir);
         }
+        initRedoLogSegmentManager();
+    }
+
+    private void initRedoLogSegmentManager() {
+        int segmentSize = getIntValue(StorageSetting.REDO_LOG_SEGMENT_SIZE, 0);
+        Object dir = map.getConfig(StorageSetting.REDO_LOG_SEGMENT_DIR.name());
+        if (dir != null) {
+            // 多个数据库可以共用同一个目录
+            String storageName = FileUtils.getName(map.getStorage().getStoragePath());
+            redoLogSegmentDir = dir + File.separator + storageName + File.separator + map.getName();
+        } else {
+            redoLogSegmentDir = mapBaseDir;
+        }
+        redoLogSegmentEnabled = segmentSize > 0;
+        // 没有启用时，如果还有以前留下的段文件也要读出来
+        if (redoLogSegmentEnabled || (FileUtils.exists(redoLogSegmentDir)
+                && RedoLogSegmentManager.hasSegments(redoLogSegmentDir))) {
+            Chunk c = chunkManager.getLastChunk();
+            long checkpointPos = c == null ? -1 : c.getRedoLogSegmentPos();
+            if (segmentSize <= 0)
+                segmentSize = 64 * 1024 * 1024;
+            redoLogSegmentManager = new RedoLogSegmentManager(redoLogSegmentDir, segmentSize,
+                    map.getConfig(), checkpointPos);
+        }
     }
 
     private int getIntValue(Enum<?> key, int defaultValue) {
@@ -245,6 +275,14 @@ public class BTreeStorage {
             return;
         bgc.close();
         chunkManager.clear();
+        if (redoLogSegmentManager != null) {
+            redoLogLock.lock();
+            try {
+                redoLogSegmentManager.clear();
+            } finally {
+                redoLogLock.unlock();
+            }
+        }
     }
 
     synchronized void remove() {
@@ -252,6 +290,8 @@ public class BTreeStorage {
         if (map.isInMemory())
             return;
         FileUtils.deleteRecursive(mapBaseDir, true);
+        if (redoLogSegmentDir != null && !redoLogSegmentDir.equals(mapBaseDir))
+            FileUtils.deleteRecursive(redoLogSegmentDir, true);
     }
 
     boolean isClosed() {
@@ -286,6 +326,8 @@ public class BTreeStorage {
                 save();
             chunkManager.close();
             closed = true;
+            if (redoLogSegmentManager != null)
+                redoLogSegmentManager.close();
         } finally {
             bgc.close();
         }
@@ -323,9 +365,12 @@ public class BTreeStorage {
         Chunk lastChunk;
         String lastUnusedChunk = null;
         long lastRedoLogPos = -1;
+        long redoLogSegmentPos = -1;
         boolean isLastChunkUsed = false;
         redoLogLock.lock();
         try {
+            if (redoLogSegmentManager != null)
+                redoLogSegmentPos = redoLogSegmentManager.getCurrentPos();
             lastChunk = chunkManager.getLastChunk();
             if (lastChunk != null) {
                 lastRedoLogPos = lastChunk.size();
@@ -362,9 +407,31 @@ public class BTreeStorage {
         c.setLastTransactionId(map.getLastTransactionId());
         c.setLastRedoLogPos(lastRedoLogPos);
         c.setLastUnusedChunk(lastUnusedChunk);
+        if (redoLogSegmentEnabled)
+            c.setRedoLogSegmentPos(redoLogSegmentPos);
 
         c.write(chunkBody, chunkManager, appendMode);
 
+        // 新的chunk写成功后，检查点之前的redo log段可以回收了
+        if (redoLogSegmentManager != null) {
+            boolean needPreallocate = false;
+            redoLogLock.lock();
+            try {
+                if (redoLogSegmentEnabled) {
+                    redoLogSegmentManager.recycle(redoLogSegmentPos);
+                    needPreallocate = redoLogSegmentManager.needPreallocate();
+                } else {
+                    redoLogSegmentManager.clear(); // 以前留下的段文件已经不需要了
+                    redoLogSegmentManager = null;
+                }
+            } finally {
+                redoLogLock.unlock();
+            }
+            // 不持有redoLogLock，写redo log的线程不用等下一个段写满0
+            if (needPreallocate)
+                redoLogSegmentManager.preallocate();
+        }
+
         // 最新的chunk写成功后再删除UnusedChunks，不能提前删除，因为UnusedChunks也包含被重写的chunk
         // 若最新的chunk写失败了，被重写的chunk文件也提前删除就会丢失数据
         chunkCompactor.removeUnusedChunks();
@@ -407,6 +474,10 @@ public class BTreeStorage {
     void writeRedoLog(ByteBuffer log) {
         redoLogLock.lock();
         try {
+            if (redoLogSegmentEnabled) {
+                redoLogSegmentManager.write(log);
+                return;
+            }
             Chunk c = chunkManager.getLastChunk();
             if (c == null) {
                 c = chunkManager.createChunk();
@@ -425,6 +496,36 @@ public class BTreeStorage {
     }
 
     ByteBuffer readRedoLog() {
+        redoLogLock.lock();
+        try {
+            ByteBuffer log = readChunkRedoLog();
+            if (redoLogSegmentManager == null)
+                return log;
+            Chunk c = chunkManager.getLastChunk();
+            long checkpointPos = c == null ? -1 : c.getRedoLogSegmentPos();
+            ByteBuffer segmentLog = redoLogSegmentManager.read(checkpointPos);
+            // 另一种模式下写的redo log一定是更早的
+            if (redoLogSegmentEnabled)
+                return concat(log, segmentLog);
+            else
+                return concat(segmentLog, log);
+        } finally {
+            redoLogLock.unlock();
+        }
+    }
+
+    private static ByteBuffer concat(ByteBuffer log1, ByteBuffer log2) {
+        if (log1 == null || !log1.hasRemaining())
+            return log2;
+        if (log2 == null || !log2.hasRemaining())
+            return log1;
+        ByteBuffer buffer = ByteBuffer.allocate(log1.remaining() + log2.remaining());
+        buffer.put(log1).put(log2);
+        buffer.flip();
+        return buffer;
+    }
+
+    private ByteBuffer readChunkRedoLog() {
         redoLogLock.lock();
         try {
             Chunk c = chunkManager.getLastChunk();
@@ -464,6 +565,10 @@ public class BTreeStorage {
     void sync() {
         redoLogLock.lock();
         try {
+            if (redoLogSegmentEnabled) {
+                redoLogSegmentManager.sync();
+                return;
+            }
             if (lastWriteChunk != null) {
                 lastWriteChunk.fileStorage.sync();
                 lastWriteChunk = null;
@@ -490,7 +595,7 @@ public class BTreeStorage {
                 int len = log.getInt();
                 int pos = log.position();
                 int type = log.get();
-                if (type > 1) {
+                if (type == 2 || type == 3 || type == 5) { // 涉及多个map的事务才有事务id
                     long transactionId = DataUtils.readVarLong(log);
                     if (transactionId == lastTransactionId)
                         return true;
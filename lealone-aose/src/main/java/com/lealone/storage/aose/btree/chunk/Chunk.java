@@ -276,6 +276,7 @@ public class Chunk {
         lastTransactionId = DataUtils.readHexLong(map, "lastTransactionId", -1);
         lastRedoLogPos = DataUtils.readHexLong(map, "lastRedoLogPos", -1);
         lastUnusedChunk = map.get("lastUnusedChunk");
+        redoLogSegmentPos = DataUtils.readHexLong(map, "redoLogSegmentPos", -1);
     }
 
     private StringBuilder asStringBuilder() {
@@ -301,6 +302,8 @@ public class Chunk {
         DataUtils.appendMap(buff, "lastRedoLogPos", lastRedoLogPos);
         if (lastUnusedChunk != null)
             DataUtils.appendMap(buff, "lastUnusedChunk", lastUnusedChunk);
+        if (redoLogSegmentPos >= 0)
+            DataUtils.appendMap(buff, "redoLogSegmentPos", redoLogSegmentPos);
         return buff;
     }
 
@@ -391,4 +394,15 @@ public class Chunk {
     public void setLastUnusedChunk(String lastUnusedChunk) {
         this.lastUnusedChunk = lastUnusedChunk;
     }
+
+    // 启用RedoLogSegmentManager后，刷脏页之前的redo log位置，恢复时从这里开始读
+    private long redoLogSegmentPos = -1;
+
+    public long getRedoLogSegmentPos() {
+        return redoLogSegmentPos;
+    }
+
+    public void setRedoLogSegmentPos(long redoLogSegmentPos) {
+        this.redoLogSegmentPos = redoLogSegmentPos;
+    }
 }
@@ -0,0 +1,420 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.storage.aose.btree.chunk;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32C;
+
+import com.lealone.storage.fs.FileStorage;
+import com.lealone.storage.fs.FileUtils;
+
+/**
+ * 把redo log写到预先分配好的固定大小的段文件中，而不是追加到chunk文件的末尾。
+ * <p>
+ * 段文件由检查点线程预先创建并写满0，写redo log时文件大小不变，sync只需要同步数据，不需要同步文件元数据。
+ * 刷脏页生成新的chunk后，检查点之前的段文件会被回收，改名后给新的段复用。
+ * 写redo log时不会创建并填充段文件，没有准备好的段时先用一个空文件，sync时要同步文件元数据。
+ * <p>
+ * 每个map都有自己的段，所有map回收和预先分配的段加起来不超过MAX_RESERVED_BYTES，超过时直接删除，
+ * 这样很多索引时也不会每个都占用好几个段的磁盘空间。
+ * <p>
+ * 段文件名格式: r_[sequence].redo，每次写入的格式: [length][sequence][checksum][data]，
+ * 读取时遇到length为0或sequence跟文件名不一致(回收前的旧数据)就结束，
+ * 遇到checksum不对或者不完整的块就不再读后面的段，后面的段不能跳过中间丢失的数据。
+ * 超过段大小的一次写入会分成多块，length的最高位表示后面还有块，只有读到最后一块才算完整。
+ * <p>
+ * 创建或改名段文件后，要先sync目录才能认为redo log已经持久化，
+ * 否则系统崩溃后文件可能还是旧的文件名，里面的数据会被当成回收前的旧数据跳过。
+ *
+ * 调用者已经确保线程安全
+ */
+public class RedoLogSegmentManager {
+
+    public static final String SUFFIX_REDO_LOG_FILE = ".redo";
+    private static final int BLOCK_HEADER_SIZE = 4 + 8 + 4;
+    private static final int MORE_BLOCKS = 0x80000000;
+    private static final int MAX_FREE_SEGMENTS = 2;
+    private static final long MAX_RESERVED_BYTES = 256L * 1024 * 1024;
+    private static final String SPARE_FILE_NAME = "r_spare.tmp";
+    private static final ByteBuffer ZERO_BUFFER = ByteBuffer.allocateDirect(1024 * 1024);
+
+    // 所有map回收和预先分配的段占用的磁盘空间
+    private static final AtomicLong reservedBytes = new AtomicLong();
+
+    private final String dir;
+    private final int segmentSize;
+    private final Map<String, Object> config;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final ArrayDeque<Segment> freeSegments = new ArrayDeque<>();
+    // 检查点线程预先分配好的段，写redo log的线程直接拿去用
+    private final AtomicReference<Segment> spare = new AtomicReference<>();
+    // 上次sync之后写过的段，切换段时前一个段也要sync
+    private final ArrayList<Segment> unsyncedSegments = new ArrayList<>(2);
+    private Segment current;
+    private long maxSeq;
+    // 上次sync之后创建或改名过段文件
+    private boolean dirChanged;
+
+    public RedoLogSegmentManager(String dir, int segmentSize, Map<String, Object> config,
+            long checkpointPos) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.config = config;
+        if (!FileUtils.exists(dir))
+            FileUtils.createDirectories(dir);
+        File[] files = new File(dir).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String f = file.getName();
+                if (f.equals(SPARE_FILE_NAME)) {
+                    loadSpare(file);
+                    continue;
+                }
+                if (!f.startsWith("r_") || !f.endsWith(SUFFIX_REDO_LOG_FILE))
+                    continue;
+                // 系统异常终止时刚创建但是还没写数据的文件
+                if (file.length() == 0) {
+                    FileUtils.delete(file.getAbsolutePath());
+                    continue;
+                }
+                long seq = getSeq(f);
+                segments.put(seq, new Segment(seq, file.getAbsolutePath()));
+                if (seq > maxSeq)
+                    maxSeq = seq;
+            }
+        }
+        if (checkpointPos >= 0) {
+            // 检查点所在的段可能还没有创建，新的段不能使用比它小的sequence，否则读取时会被跳过
+            long checkpointSeq = checkpointPos >>> 32;
+            if (maxSeq < checkpointSeq - 1)
+                maxSeq = checkpointSeq - 1;
+            recycleSegments(checkpointPos);
+        }
+    }
+
+    // 上次预先分配的段写满0之后才能用，没写完的直接删除
+    private void loadSpare(File file) {
+        Segment s = new Segment(-1, file.getAbsolutePath());
+        if (file.length() == segmentSize && reserve(s, segmentSize)) {
+            s.fileStorage = FileStorage.open(s.fileName, config);
+            spare.set(s);
+        } else {
+            FileUtils.delete(s.fileName);
+        }
+    }
+
+    public static boolean hasSegments(String dir) {
+        File[] files = new File(dir).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(SUFFIX_REDO_LOG_FILE))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getSeq(String fileName) {
+        return Long.parseLong(fileName.substring(2, fileName.length() - SUFFIX_REDO_LOG_FILE.length()));
+    }
+
+    private String getFileName(long seq) {
+        return dir + File.separator + "r_" + seq + SUFFIX_REDO_LOG_FILE;
+    }
+
+    // 高32位是段的sequence，低32位是段内的位置
+    public static long getPos(long seq, int offset) {
+        return (seq << 32) | offset;
+    }
+
+    public long getCurrentPos() {
+        if (current == null)
+            return getPos(maxSeq + 1, 0);
+        return getPos(current.seq, current.pos);
+    }
+
+    public void write(ByteBuffer log) {
+        int len = log.remaining();
+        if (current == null || (current.pos > 0 && current.pos + BLOCK_HEADER_SIZE + len > segmentSize))
+            nextSegment();
+        // 新的段也放不下时分成多块写，段文件的大小保持不变
+        while (current.pos + BLOCK_HEADER_SIZE + len > segmentSize) {
+            int blockLen = segmentSize - current.pos - BLOCK_HEADER_SIZE;
+            ByteBuffer block = log.duplicate();
+            block.limit(block.position() + blockLen);
+            writeBlock(block, blockLen | MORE_BLOCKS);
+            log.position(log.position() + blockLen);
+            len -= blockLen;
+            nextSegment();
+        }
+        writeBlock(log, len);
+    }
+
+    private void writeBlock(ByteBuffer data, int lenAndFlags) {
+        int len = data.remaining();
+        CRC32C crc = new CRC32C();
+        crc.update(data.duplicate());
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        header.putInt(lenAndFlags).putLong(current.seq).putInt((int) crc.getValue());
+        header.flip();
+        // 先写数据再写头，头写成功了数据一定是完整的，sync前由checksum保证
+        current.fileStorage.writeFully(current.pos + BLOCK_HEADER_SIZE, data);
+        current.fileStorage.writeFully(current.pos, header);
+        current.pos += BLOCK_HEADER_SIZE + len;
+        if (!unsyncedSegments.contains(current))
+            unsyncedSegments.add(current);
+    }
+
+    private void nextSegment() {
+        long seq = ++maxSeq;
+        String fileName = getFileName(seq);
+        Segment s = freeSegments.poll();
+        if (s == null)
+            s = spare.getAndSet(null);
+        if (s != null) {
+            // 复用已经回收或预先分配的段，老数据的sequence跟新文件名不一致，读取时会被忽略
+            release(s);
+            s.fileStorage.close();
+            FileUtils.move(s.fileName, fileName);
+            s.seq = seq;
+            s.fileName = fileName;
+            s.pos = 0;
+            s.fileStorage = FileStorage.open(fileName, config);
+        } else {
+            // 检查点线程还没有准备好段，不在这里写满0，先用空文件，写入时文件会变大
+            s = new Segment(seq, fileName);
+            s.pos = 0;
+            s.fileStorage = FileStorage.open(fileName, config);
+        }
+        s.fixedSize = s.fileStorage.size() >= segmentSize;
+        segments.put(seq, s);
+        current = s;
+        dirChanged = true;
+    }
+
+    /**
+     * 当前的段已经用了一半并且没有可以复用的段时，要预先分配下一个段。
+     */
+    public boolean needPreallocate() {
+        return current != null && current.pos >= segmentSize / 2 && freeSegments.isEmpty()
+                && spare.get() == null;
+    }
+
+    /**
+     * 在检查点线程中创建下一个段并写满0，调用者不需要加锁，写redo log的线程不会被阻塞。
+     */
+    public void preallocate() {
+        Segment s = new Segment(-1, dir + File.separator + SPARE_FILE_NAME);
+        if (!reserve(s, segmentSize))
+            return;
+        try {
+            s.fileStorage = FileStorage.open(s.fileName, config);
+            long pos = 0;
+            while (pos < segmentSize) {
+                ByteBuffer buff = ZERO_BUFFER.duplicate();
+                if (buff.remaining() > segmentSize - pos)
+                    buff.limit((int) (segmentSize - pos));
+                s.fileStorage.writeFully(pos, buff);
+                pos += buff.limit();
+            }
+            s.fileStorage.sync(); // 文件大小在这里就固定了，之后只需要同步数据
+        } catch (Exception e) {
+            // 预先分配失败(比如磁盘满了)不影响检查点，写redo log时会先用空文件
+            delete(s);
+            return;
+        }
+        spare.set(s);
+    }
+
+    public void sync() {
+        for (Segment s : unsyncedSegments) {
+            if (s.fixedSize)
+                s.fileStorage.syncData();
+            else
+                s.fileStorage.sync(); // 文件变大了，还要同步文件元数据
+        }
+        unsyncedSegments.clear();
+        if (dirChanged) {
+            FileUtils.syncDirectory(dir);
+            dirChanged = false;
+        }
+    }
+
+    // 读取从检查点之后的所有redo log
+    public ByteBuffer read(long checkpointPos) {
+        long checkpointSeq = checkpointPos < 0 ? 0 : checkpointPos >>> 32;
+        int checkpointOffset = checkpointPos < 0 ? 0 : (int) checkpointPos;
+        ArrayList<ByteBuffer> list = new ArrayList<>();
+        int capacity = 0;
+        // 分成多块的一次写入，还没有读到最后一块
+        ArrayList<ByteBuffer> pending = new ArrayList<>();
+        int pendingCapacity = 0;
+        long lastSeq = -1;
+        for (Segment s : segments.tailMap(checkpointSeq, true).values()) {
+            // 中间缺了段，后面的段不能再读了
+            if (lastSeq >= 0 && s.seq != lastSeq + 1)
+                break;
+            lastSeq = s.seq;
+            if (s.fileStorage == null)
+                s.fileStorage = FileStorage.open(s.fileName, config);
+            long start = s.seq == checkpointSeq ? checkpointOffset : 0;
+            long pos = start;
+            long size = s.fileStorage.size();
+            boolean torn = false;
+            while (pos + BLOCK_HEADER_SIZE <= size) {
+                ByteBuffer header = s.fileStorage.readFully(pos, BLOCK_HEADER_SIZE);
+                int lenAndFlags = header.getInt();
+                int len = lenAndFlags & ~MORE_BLOCKS;
+                long seq = header.getLong();
+                int checksum = header.getInt();
+                if (len <= 0 || seq != s.seq)
+                    break;
+                // 当前段的块不完整，说明崩溃时这次写入还没有完成
+                if (pos + BLOCK_HEADER_SIZE + len > size) {
+                    torn = true;
+                    break;
+                }
+                ByteBuffer data = s.fileStorage.readFully(pos + BLOCK_HEADER_SIZE, len);
+                CRC32C crc = new CRC32C();
+                crc.update(data.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    torn = true;
+                    break;
+                }
+                pending.add(data);
+                pendingCapacity += len;
+                pos += BLOCK_HEADER_SIZE + len;
+                if ((lenAndFlags & MORE_BLOCKS) == 0) {
+                    list.addAll(pending);
+                    capacity += pendingCapacity;
+                    pending.clear();
+                    pendingCapacity = 0;
+                }
+            }
+            // 带标记的块总是写到段的末尾，没读到末尾就结束了说明后面的块不完整
+            if (pos < size && !pending.isEmpty()) {
+                pending.clear();
+                pendingCapacity = 0;
+            }
+            // 写redo log时只有前一个段放不下才会创建新的段，所以新的段不会是空的，
+            // 段的末尾不完整或者是空的段时，后面的段都是崩溃前没有按顺序持久化的数据，不能再读了
+            if (torn || (pos == start && s.seq != checkpointSeq))
+                break;
+        }
+        if (capacity == 0)
+            return null;
+        ByteBuffer buffer = ByteBuffer.allocate(capacity);
+        for (ByteBuffer data : list)
+            buffer.put(data);
+        buffer.flip();
+        return buffer;
+    }
+
+    // 检查点之前的段都可以回收了
+    public void recycle(long checkpointPos) {
+        recycleSegments(checkpointPos);
+    }
+
+    private void recycleSegments(long checkpointPos) {
+        long checkpointSeq = checkpointPos >>> 32;
+        while (!segments.isEmpty() && segments.firstKey() < checkpointSeq) {
+            Segment s = segments.pollFirstEntry().getValue();
+            if (s == current)
+                current = null;
+            unsyncedSegments.remove(s);
+            if (freeSegments.size() < MAX_FREE_SEGMENTS) {
+                if (s.fileStorage == null)
+                    s.fileStorage = FileStorage.open(s.fileName, config);
+                if (reserve(s, s.fileStorage.size())) {
+                    freeSegments.add(s);
+                    continue;
+                }
+            }
+            delete(s);
+        }
+    }
+
+    // 表被truncate时，所有的redo log都不需要了
+    public void clear() {
+        for (Segment s : segments.values())
+            delete(s);
+        for (Segment s : freeSegments)
+            delete(s);
+        Segment s = spare.getAndSet(null);
+        if (s != null)
+            delete(s);
+        segments.clear();
+        freeSegments.clear();
+        unsyncedSegments.clear();
+        current = null;
+    }
+
+    public void close() {
+        for (Segment s : segments.values()) {
+            if (s.fileStorage != null)
+                s.fileStorage.close();
+        }
+        for (Segment s : freeSegments) {
+            release(s);
+            s.fileStorage.close();
+        }
+        Segment s = spare.getAndSet(null);
+        if (s != null) {
+            release(s);
+            s.fileStorage.close();
+        }
+    }
+
+    private static boolean reserve(Segment s, long size) {
+        while (true) {
+            long reserved = reservedBytes.get();
+            if (reserved + size > MAX_RESERVED_BYTES)
+                return false;
+            if (reservedBytes.compareAndSet(reserved, reserved + size)) {
+                s.reserved = size;
+                return true;
+            }
+        }
+    }
+
+    private static void release(Segment s) {
+        if (s.reserved > 0) {
+            reservedBytes.addAndGet(-s.reserved);
+            s.reserved = 0;
+        }
+    }
+
+    private static void delete(Segment s) {
+        release(s);
+        if (s.fileStorage != null) {
+            s.fileStorage.close();
+            s.fileStorage = null;
+        }
+        FileUtils.delete(s.fileName);
+    }
+
+    private static class Segment {
+        long seq;
+        String fileName;
+        FileStorage fileStorage;
+        int pos;
+        boolean fixedSize; // 文件已经写满0，sync时只需要同步数据
+        long reserved; // 回收或预先分配时占用的磁盘空间
+
+        Segment(long seq, String fileName) {
+            this.seq = seq;
+            this.fileName = fileName;
+        }
+    }
+}
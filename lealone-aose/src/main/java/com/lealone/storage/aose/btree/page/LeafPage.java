@@ -6,6 +6,7 @@
 package com.lealone.storage.aose.btree.page;
 
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import com.lealone.agent.SystemOutline;
 import com.lealone.agent.SystemOutlineNode;
@@ -125,6 +126,53 @@ public abstract class LeafPage extends LocalPage {
         return p;
     }
 
+    // 一次插入多个新key，indexes是它们在当前page中的插入位置(从小到大)，整个page只需要copy一次
+    public Page copyAndInsertLeaf(int[] indexes, List<?> keys, List<?> values, int from, int count) {
+        boolean keyOnly = getPageType() < 3;
+        Object[] oldValues = keyOnly ? null : getValues();
+        int oldLen = this.keys.length;
+        int len = oldLen + count;
+        Object[] newKeys = new Object[len];
+        Object[] newValues = keyOnly ? null : new Object[len];
+        StorageDataType keyType = map.getKeyType();
+        StorageDataType valueType = map.getValueType();
+        int mem = 0;
+        int src = 0, dest = 0;
+        for (int i = 0; i < count; i++) {
+            int n = indexes[i] - src;
+            if (n > 0) {
+                System.arraycopy(this.keys, src, newKeys, dest, n);
+                if (!keyOnly)
+                    System.arraycopy(oldValues, src, newValues, dest, n);
+                src += n;
+                dest += n;
+            }
+            Object value = values.get(from + i);
+            if (keyOnly) {
+                newKeys[dest] = value; // 只有keys没有values的page只存放value
+            } else {
+                Object key = keys.get(from + i);
+                newKeys[dest] = key;
+                newValues[dest] = value;
+                mem += keyType.getMemory(key);
+            }
+            mem += valueType.getMemory(value);
+            dest++;
+        }
+        if (src < oldLen) {
+            System.arraycopy(this.keys, src, newKeys, dest, oldLen - src);
+            if (!keyOnly)
+                System.arraycopy(oldValues, src, newValues, dest, oldLen - src);
+        }
+        LeafPage p = copyLeaf(newKeys, newValues);
+        p.addMemory(mem);
+        for (int i = 0; i < count; i++) {
+            map.incrementSize();// 累加全局计数器
+            setPageListener(valueType, values.get(from + i));
+        }
+        return p;
+    }
+
     protected void setPageListener(StorageDataType type, Object value) {
         if (type.isLockable()) {
             Lockable lockable = (Lockable) value;
@@ -5,6 +5,8 @@
  */
 package com.lealone.storage.aose.btree.page;
 
+import java.util.List;
+
 import com.lealone.common.exceptions.DbException;
 import com.lealone.db.async.AsyncResultHandler;
 import com.lealone.db.scheduler.InternalScheduler;
@@ -16,6 +18,7 @@ import com.lealone.storage.aose.btree.page.PageInfo.SplittedPageInfo;
 import com.lealone.storage.page.PageListener;
 import com.lealone.storage.page.PageOperation;
 import com.lealone.storage.page.PageOperation.PageOperationResult;
+import com.lealone.storage.type.StorageDataType;
 
 public abstract class PageOperations {
 
@@ -73,7 +76,7 @@ public abstract class PageOperations {
             return result;
         }
 
-        private boolean isPageChanged() {
+        boolean isPageChanged() {
             // leaf page被切割了或者root page从leaf page变成node page
             return pRef.isDataStructureChanged() || pRef.isNodePage();
         }
@@ -112,7 +115,7 @@ public abstract class PageOperations {
             }
         }
 
-        private PageOperationResult retry(boolean unlock) {
+        PageOperationResult retry(boolean unlock) {
             if (unlock)
                 pRef.unlock();
             pRef = null;
@@ -220,6 +223,132 @@ public abstract class PageOperations {
         }
     }
 
+    // 批量放入多个按从小到大排好序的新key，同一个leaf page中的key只需要加一次锁、copy一次page，
+    // 遇到已经存在的key就停下，结果是成功放入的个数
+    public static class PutIfAbsentBatch<K, V> extends WriteOperation<K, V, Integer> {
+
+        private final List<K> keys;
+        private final List<V> values;
+        private final int size;
+        private final int[] indexes;
+        private int pos; // 下一个要放入的key，加锁失败后再次运行时从这里继续
+        private boolean stopped;
+
+        // 当前leaf page能放入的key要小于它，为null时说明是最右边的leaf page
+        private Object upperKey;
+
+        public PutIfAbsentBatch(BTreeMap<K, V> map, List<K> keys, List<V> values,
+                AsyncResultHandler<Integer> resultHandler) {
+            super(map, null, resultHandler);
+            this.keys = keys;
+            this.values = values;
+            size = keys.size();
+            indexes = new int[size];
+        }
+
+        @Override
+        public PageOperationResult run(InternalScheduler scheduler, boolean waitingIfLocked) {
+            while (pos < size && !stopped) {
+                if (pRef == null) {
+                    pRef = gotoLeafPage().getRef();
+                    pListener = pRef.getPageListener();
+                }
+                if (isPageChanged())
+                    return retry(false);
+                if (!pRef.tryLock(scheduler, waitingIfLocked))
+                    return PageOperationResult.LOCKED;
+                p = pRef.getPage();
+                if (p == null || isPageChanged())
+                    return retry(true);
+                try {
+                    if (!writeLeaf(scheduler))
+                        return retry(true);
+                } catch (Throwable t) {
+                    pRef.unlock();
+                    if (resultHandler != null) {
+                        resultHandler.handleException(t);
+                    } else {
+                        throw DbException.convert(t);
+                    }
+                    return PageOperationResult.FAILED;
+                }
+                pRef.unlock();
+                pRef = null;
+            }
+            result = pos;
+            if (resultHandler != null) {
+                resultHandler.handleResult(result);
+            }
+            return PageOperationResult.SUCCEEDED;
+        }
+
+        // 定位leaf page时顺便记下它能放入的key的上限，
+        // 页面被切割时会重新定位，其他页面的变动只会让这个上限变大，所以不会放错
+        @Override
+        protected Page gotoLeafPage() {
+            key = keys.get(pos);
+            upperKey = null;
+            Page p = map.getRootPage();
+            while (p.isNode()) {
+                int index = p.getPageIndex(key);
+                if (index < p.getKeyCount())
+                    upperKey = p.getKey(index);
+                p = p.getChildPage(index);
+            }
+            return p;
+        }
+
+        @Override
+        protected Object writeLocal(int index, InternalScheduler scheduler) {
+            throw DbException.getInternalError();
+        }
+
+        private boolean writeLeaf(InternalScheduler scheduler) {
+            currentSession = scheduler.getCurrentSession();
+            StorageDataType keyType = map.getKeyType();
+            StorageDataType valueType = map.getValueType();
+            long maxMemory = map.getBTreeStorage().getPageSize();
+            long memory = p.getMemory();
+            boolean exists = false;
+            int count = 0;
+            for (int i = pos; i < size; i++) {
+                K k = keys.get(i);
+                if (count > 0) {
+                    // 不在当前leaf page的范围内了
+                    if (upperKey != null && keyType.compare(k, upperKey) >= 0)
+                        break;
+                    // 跟前一个key相同，当成已经存在
+                    if (keyType.compare(k, keys.get(i - 1)) == 0) {
+                        exists = true;
+                        break;
+                    }
+                    // 一次不能放入太多，否则切割一次之后page还是太大
+                    if (memory > maxMemory)
+                        break;
+                }
+                int index = p.binarySearch(k);
+                if (index >= 0) {
+                    exists = true;
+                    break;
+                }
+                indexes[count++] = -index - 1;
+                memory += valueType.getMemory(values.get(i));
+            }
+            if (count > 0) {
+                if (!map.isInMemory() && !pRef.markDirtyPage(pListener))
+                    return false;
+                p = ((LeafPage) p).copyAndInsertLeaf(indexes, keys, values, pos, count);
+                map.setMaxKey(keys.get(pos + count - 1));
+                pRef.replacePage(p);
+                pos += count;
+                if (p.needSplit())
+                    asyncSplitPage(scheduler, true, currentSession, pRef);
+            }
+            stopped = exists;
+            return true;
+        }
+    }
+
     public static class Append<K, V> extends Put<K, V, K> {
 
         public Append(BTreeMap<K, V> map, V value, AsyncResultHandler<K> resultHandler) {
@@ -27,6 +27,8 @@ import com.lealone.storage.type.StorageDataType;
 import com.lealone.storage.type.StorageDataTypeFactory;
 import com.lealone.transaction.Transaction;
 import com.lealone.transaction.TransactionMap;
+import com.lealone.transaction.TransactionStatistics;
+import com.lealone.transaction.TransactionStatistics.Phase;
 import com.lealone.transaction.aote.lock.RowLock;
 import com.lealone.transaction.aote.log.LogSyncService;
 import com.lealone.transaction.aote.log.RedoLogRecord;
@@ -60,6 +62,10 @@ public class AOTransaction implements Transaction {
     private LinkedList<RowLock> locks; // 行锁
     private int maxCommittedLogId = -1;
 
+    // 启用TransactionStatistics后才会记录，单位纳秒
+    private long commitStartTime;
+    private long syncedTime;
+
     public AOTransaction(AOTransactionEngine engine, long tid, RunMode runMode, int level) {
         this(engine, tid, runMode, level, null);
     }
@@ -257,25 +263,31 @@ public class AOTransaction implements Transaction {
         // 生成commitTimestamp的时机很严格，需要等到redo log sync完成后才能生成，
         // checkpoint线程和可重复读的事务都依赖它
         commitTimestamp = transactionEngine.nextTransactionId();
+        syncedTime = TransactionStatistics.startTime();
     }
 
     @Override
     public void asyncCommit(Runnable asyncTask) {
         SystemOutline.createNode(SystemOutlineNode.asyncCommit);
+        commitStartTime = TransactionStatistics.startTime();
         this.asyncTask = asyncTask;
         writeRedoLog(true);
     }
 
     @Override
     public void asyncCommitComplete() {
+        TransactionStatistics.record(scheduler, Phase.SCHEDULE, syncedTime);
         commitFinal();
         if (asyncTask != null) {
+            long startTime = TransactionStatistics.startTime();
             try {
                 asyncTask.run();
             } catch (Exception e) {
                 throw DbException.convert(e);
             }
+            TransactionStatistics.record(scheduler, Phase.RESPONSE_SEND, startTime);
         }
+        TransactionStatistics.record(scheduler, Phase.COMMIT, commitStartTime);
     }
 
     @Override
@@ -284,8 +296,10 @@ public class AOTransaction implements Transaction {
     }
 
     private void commitLocal() {
+        commitStartTime = TransactionStatistics.startTime();
         writeRedoLog(false);
         commitFinal();
+        TransactionStatistics.record(scheduler, Phase.COMMIT, commitStartTime);
     }
 
     protected void commitFinal() {
@@ -299,7 +313,9 @@ public class AOTransaction implements Transaction {
         if (t == null)
             return;
 
+        long startTime = TransactionStatistics.startTime();
         maxCommittedLogId = t.undoLog.commit(transactionEngine); // 先提交，事务变成结束状态再解锁
+        TransactionStatistics.record(t.scheduler, Phase.UNDO_LOG_COMMIT, startTime);
         t.endTransaction(false);
     }
 
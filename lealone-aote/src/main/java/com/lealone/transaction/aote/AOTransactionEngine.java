@@ -13,6 +13,7 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.lealone.common.util.MapUtils;
 import com.lealone.common.util.ShutdownHookUtils;
 import com.lealone.db.RunMode;
 import com.lealone.db.SysProperties;
@@ -27,6 +28,7 @@ import com.lealone.storage.StorageEventListener;
 import com.lealone.storage.StorageMap;
 import com.lealone.transaction.TransactionEngine;
 import com.lealone.transaction.TransactionEngineBase;
+import com.lealone.transaction.TransactionStatistics;
 import com.lealone.transaction.aote.log.LogSyncService;
 import com.lealone.transaction.aote.tm.TransactionManager;
 
@@ -153,6 +155,7 @@ public class AOTransactionEngine extends TransactionEngineBase implements Storag
         if (logSyncService != null)
             return;
         super.init(config);
+        TransactionStatistics.init(config);
         initServices();
         setGlobalShutdownHook();
     }
@@ -297,7 +300,9 @@ public class AOTransactionEngine extends TransactionEngineBase implements Storag
             logSyncService.start();
         }
 
-        schedulerCount = Math.max(1, schedulerCount / 2); // 默认是scheduler的一半
+        // 默认是scheduler的一半，最多跟scheduler一样多，每个LogSyncService负责一部分map的redo log
+        int serviceCount = MapUtils.getInt(config, "log_sync_service_count", schedulerCount / 2);
+        schedulerCount = Math.max(1, Math.min(serviceCount, schedulerCount));
         logSyncServices = new LogSyncService[schedulerCount];
         logSyncServices[0] = logSyncService;
         for (int i = 1; i < schedulerCount; i++) {
@@ -5,6 +5,7 @@
  */
 package com.lealone.transaction.aote;
 
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -27,6 +28,7 @@ import com.lealone.transaction.TransactionMapCursor;
 import com.lealone.transaction.aote.TransactionalValue.OldValue;
 import com.lealone.transaction.aote.log.UndoLog;
 import com.lealone.transaction.aote.log.UndoLogRecord;
+import com.lealone.transaction.aote.log.UndoLogRecord.GroupULR;
 
 public class AOTransactionMap<K, V> implements TransactionMap<K, V> {
 
@@ -352,12 +354,17 @@ public class AOTransactionMap<K, V> implements TransactionMap<K, V> {
         add(key, lockable, true, null, handler);
     }
 
-    @SuppressWarnings("unchecked")
     private void add(K key, Lockable lockable, boolean ifAbsent, AtomicReference<V> vRef,
             AsyncResultHandler<Integer> topHandler) {
         DataUtils.checkNotNull(lockable, "lockable");
         transaction.checkNotClosed();
         TransactionalValue.insertLock(lockable, transaction); // 内部有增加行锁
+        add0(key, lockable, ifAbsent, vRef, topHandler);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void add0(K key, Lockable lockable, boolean ifAbsent, AtomicReference<V> vRef,
+            AsyncResultHandler<Integer> topHandler) {
         lockable.setMetaVersion(getValueType().getMetaVersion());
         UndoLogRecord r = addUndoLog(key, lockable, null);
         AsyncResultHandler<Lockable> handler = ar -> {
@@ -391,6 +398,65 @@ public class AOTransactionMap<K, V> implements TransactionMap<K, V> {
             map.put(transaction.getSession(), key, lockable, handler);
     }
 
+    // 先给所有记录加锁，然后批量放入存储层，只产生一条UndoLogRecord，
+    // 遇到已经存在的key时按单条记录处理，之后再继续批量放入剩下的记录
+    @Override
+    public void addIfAbsent(List<K> keys, List<? extends Lockable> lockables,
+            AtomicReference<K> duplicateKey, AsyncResultHandler<Integer> handler) {
+        transaction.checkNotClosed();
+        int size = keys.size();
+        int metaVersion = getValueType().getMetaVersion();
+        for (int i = 0; i < size; i++) {
+            Lockable lockable = lockables.get(i);
+            DataUtils.checkNotNull(lockable, "lockable");
+            TransactionalValue.insertLock(lockable, transaction); // 内部有增加行锁
+            lockable.setMetaVersion(metaVersion);
+        }
+        GroupULR r = (GroupULR) transaction.undoLog.add(map, keys, lockables, new Object[size]);
+        addIfAbsent(keys, lockables, 0, r, duplicateKey, handler);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addIfAbsent(List<K> keys, List<? extends Lockable> lockables, int from, GroupULR r,
+            AtomicReference<K> duplicateKey, AsyncResultHandler<Integer> handler) {
+        int size = keys.size();
+        List<Lockable> values = (List<Lockable>) lockables.subList(from, size);
+        map.putIfAbsent(transaction.getSession(), keys.subList(from, size), values, ar -> {
+            if (ar.isFailed()) {
+                // 出错前可能已经放入了一部分，没有放入的记录还没有PageListener
+                for (int i = from; i < size; i++) {
+                    if (lockables.get(i).getPageListener() == null)
+                        r.setUndone(i);
+                }
+                handler.handleException(ar.getCause());
+                return;
+            }
+            int index = from + ar.getResult().intValue();
+            if (index >= size) {
+                handler.handleResult(Transaction.OPERATION_COMPLETE);
+                return;
+            }
+            // 已经存在了，可能是当前事务删除的记录，按单条记录处理
+            K key = keys.get(index);
+            r.setUndone(index);
+            add0(key, lockables.get(index), true, null, ar2 -> {
+                if (ar2.isSucceeded()
+                        && ar2.getResult().intValue() == Transaction.OPERATION_COMPLETE) {
+                    if (index + 1 < size)
+                        addIfAbsent(keys, lockables, index + 1, r, duplicateKey, handler);
+                    else
+                        handler.handle(ar2);
+                } else {
+                    for (int i = index + 1; i < size; i++)
+                        r.setUndone(i);
+                    if (ar2.isSucceeded())
+                        duplicateKey.set(key);
+                    handler.handle(ar2);
+                }
+            });
+        });
+    }
+
     @Override
     public int tryUpdate(K key, V newValue, Lockable lockable, boolean isLockedBySelf) {
         SystemOutline.createNode(SystemOutlineNode.tryUpdate);
@@ -426,6 +492,30 @@ public class AOTransactionMap<K, V> implements TransactionMap<K, V> {
         return Transaction.OPERATION_COMPLETE;
     }
 
+    // 所有记录都已经被当前事务锁住，所以不需要再加锁，并且只产生一条UndoLogRecord
+    @Override
+    public void tryUpdateOrRemove(List<K> keys, List<V> newValues,
+            List<? extends Lockable> lockables) {
+        transaction.checkNotClosed();
+        int size = keys.size();
+        int metaVersion = getValueType().getMetaVersion();
+        Object[] oldValues = new Object[size];
+        for (int i = 0; i < size; i++) {
+            K key = keys.get(i);
+            Lockable lockable = lockables.get(i);
+            DataUtils.checkNotNull(lockable, "lockable");
+            if (lockable.isNoneLock()) {
+                TransactionalValue.setTransaction(transaction, lockable); // 二级索引需要设置
+                if (markDirtyPage(key, lockable) != null)
+                    map.put(key, lockable);
+            }
+            lockable.setMetaVersion(metaVersion);
+            oldValues[i] = lockable.getLockedValue();
+            lockable.setLockedValue(newValues == null ? null : newValues.get(i));
+        }
+        transaction.undoLog.add(map, keys, lockables, oldValues);
+    }
+
     @Override
     public int tryLock(K key, Lockable lockable) {
         DataUtils.checkNotNull(lockable, "lockable");
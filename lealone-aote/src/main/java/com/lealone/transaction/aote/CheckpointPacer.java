@@ -0,0 +1,117 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.transaction.aote;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.lealone.common.util.MapUtils;
+import com.lealone.storage.StorageMap;
+import com.lealone.storage.StorageMap.RedoLogBuffer;
+
+// 自适应检查点，根据redo log的增长速度和脏页占用的内存，每一轮只刷一部分map的脏页，
+// 把刷脏页的IO分摊到多个周期，同时保证崩溃恢复时需要重放的redo log不超过恢复时间目标
+class CheckpointPacer {
+
+    // 未刷脏页的redo log低于这个比例时不需要为了恢复时间刷脏页
+    private static final double LOW_WATERMARK = 0.5;
+
+    private final long maxRedoLogSize; // 恢复时间目标内能重放的redo log字节数
+    private long lastTotalRedoLogSize = -1;
+
+    CheckpointPacer(Map<String, String> config) {
+        // 默认1分钟
+        long recoveryTimeTarget = MapUtils.getLong(config, "recovery_time_target", 60 * 1000);
+        // 默认每秒32M
+        long replayRate = MapUtils.getLong(config, "redo_log_replay_rate", 32 * 1024 * 1024);
+        maxRedoLogSize = Math.max(1, recoveryTimeTarget * replayRate / 1000);
+    }
+
+    static CheckpointPacer create(Map<String, String> config) {
+        if (MapUtils.getBoolean(config, "adaptive_checkpoint", false))
+            return new CheckpointPacer(config);
+        return null;
+    }
+
+    long getMaxRedoLogSize() {
+        return maxRedoLogSize;
+    }
+
+    static long getUnsavedRedoLogSize(StorageMap<?, ?> map) {
+        RedoLogBuffer buffer = map.getRedoLogBuffer();
+        return buffer == null ? 0 : buffer.getUnsavedRedoLogSize();
+    }
+
+    // 返回本轮需要刷脏页的map，dirtyMemory中的值是collectDirtyMemory的结果
+    ArrayList<StorageMap<?, ?>> selectMaps(Map<StorageMap<?, ?>, AtomicLong> dirtyMemory) {
+        ArrayList<StorageMap<?, ?>> selected = new ArrayList<>();
+        ArrayList<StorageMap<?, ?>> byRedoLog = new ArrayList<>();
+        ArrayList<StorageMap<?, ?>> byMemory = new ArrayList<>();
+        long totalUnsaved = 0;
+        long totalRedoLogSize = 0;
+        for (Entry<StorageMap<?, ?>, AtomicLong> e : dirtyMemory.entrySet()) {
+            StorageMap<?, ?> map = e.getKey();
+            if (map.isClosed())
+                continue;
+            RedoLogBuffer buffer = map.getRedoLogBuffer();
+            if (buffer != null)
+                totalRedoLogSize += buffer.getRedoLogSize();
+            long size = e.getValue().get();
+            if (size <= 0)
+                continue;
+            // 脏页占用的内存超过阈值了，跟原来一样必须刷
+            if (size > map.getCacheSize()) {
+                selected.add(map);
+                continue;
+            }
+            totalUnsaved += getUnsavedRedoLogSize(map);
+            byRedoLog.add(map);
+            if (size >= map.getCacheSize() * LOW_WATERMARK)
+                byMemory.add(map);
+        }
+        // 上一轮到现在新产生的redo log，第一轮不做判断
+        long redoLogGrowth = lastTotalRedoLogSize < 0 ? 0 : totalRedoLogSize - lastTotalRedoLogSize;
+        lastTotalRedoLogSize = totalRedoLogSize;
+
+        // 需要重放的redo log超过了低水位，优先刷redo log最多的map
+        long lowWatermark = (long) (maxRedoLogSize * LOW_WATERMARK);
+        if (totalUnsaved > lowWatermark) {
+            byRedoLog.sort((m1, m2) -> Long.compare(getUnsavedRedoLogSize(m2),
+                    getUnsavedRedoLogSize(m1)));
+            for (StorageMap<?, ?> map : byRedoLog) {
+                if (totalUnsaved <= lowWatermark)
+                    break;
+                selected.add(map);
+                totalUnsaved -= getUnsavedRedoLogSize(map);
+            }
+        }
+
+        // 脏页内存接近阈值的map按比例从高到低刷，写入量跟redo log的增长速度挂钩，
+        // 越接近恢复时间目标刷得越多，每轮至少刷一个
+        if (!byMemory.isEmpty()) {
+            byMemory.removeAll(selected);
+            byMemory.sort((m1, m2) -> Double.compare(getDirtyRatio(m2, dirtyMemory),
+                    getDirtyRatio(m1, dirtyMemory)));
+            double pressure = Math.min(1.0, (double) totalUnsaved / maxRedoLogSize);
+            long budget = (long) (redoLogGrowth * (1 + pressure));
+            for (StorageMap<?, ?> map : byMemory) {
+                if (budget <= 0 && !selected.isEmpty())
+                    break;
+                selected.add(map);
+                budget -= dirtyMemory.get(map).get();
+            }
+        }
+        return selected;
+    }
+
+    private static double getDirtyRatio(StorageMap<?, ?> map,
+            Map<StorageMap<?, ?>, AtomicLong> dirtyMemory) {
+        long cacheSize = map.getCacheSize();
+        return cacheSize <= 0 ? 1.0 : (double) dirtyMemory.get(map).get() / cacheSize;
+    }
+}
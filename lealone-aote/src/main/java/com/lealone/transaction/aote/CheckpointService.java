@@ -5,6 +5,7 @@
  */
 package com.lealone.transaction.aote;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
@@ -16,6 +17,7 @@ import com.lealone.common.logging.LoggerFactory;
 import com.lealone.common.util.MapUtils;
 import com.lealone.db.lock.Lockable;
 import com.lealone.storage.StorageMap;
+import com.lealone.storage.StorageMap.RedoLogBuffer;
 import com.lealone.storage.page.IPageReference;
 import com.lealone.transaction.TransactionEngine.GcTask;
 import com.lealone.transaction.aote.TransactionalValue.OldValue;
@@ -29,6 +31,7 @@ public class CheckpointService implements Runnable {
     private final LogSyncService logSyncService;
     private final long checkpointPeriod;
     private final long loopInterval;
+    private final CheckpointPacer pacer; // 为null时不启用自适应检查点
 
     // 以下三个字段都是低频场景使用，会有多个线程执行add和remove
     private final CopyOnWriteArrayList<Runnable> forceCheckpointTasks = new CopyOnWriteArrayList<>();
@@ -52,6 +55,7 @@ public class CheckpointService implements Runnable {
         if (checkpointPeriod < loopInterval)
             loopInterval = checkpointPeriod;
         this.loopInterval = loopInterval;
+        pacer = CheckpointPacer.create(config);
     }
 
     public long getLoopInterval() {
@@ -230,16 +234,34 @@ public class CheckpointService implements Runnable {
             return;
         boolean needSave = collectDirtyMemory();
 
+        if (!force && !isClosed && pacer != null
+                && lastSavedAt + checkpointPeriod >= System.currentTimeMillis()) {
+            // 启用自适应检查点后，每轮只刷挑选出来的map
+            List<StorageMap<?, ?>> selected = pacer.selectMaps(maps);
+            if (!selected.isEmpty()) {
+                workingThread = new Thread(() -> {
+                    save(selected);
+                    workingThread = null;
+                });
+                workingThread.start();
+            }
+            return;
+        }
+
+        boolean periodExpired = lastSavedAt + checkpointPeriod < System.currentTimeMillis();
         if (force // 强制刷脏页
                 || needSave // 有map的脏页占用的预估内存大于阈值
                 || isClosed // 关闭前要刷脏页
-                || lastSavedAt + checkpointPeriod < System.currentTimeMillis()) // 周期超过阈值了
+                || periodExpired) // 周期超过阈值了
         {
+            // 启用自适应检查点后，脏页内存一直低于阈值又没被挑选出来的map也可能有很多redo log，
+            // 到了周期时把有未刷脏页redo log的map也刷掉，这样需要重放的redo log才不会超过恢复时间目标
+            boolean saveUnsavedRedoLog = pacer != null && periodExpired;
             if (isClosing) { // 正在关闭时，直接用当前线程保存
-                save(force, true);
+                save(force, saveUnsavedRedoLog, true);
             } else {
                 workingThread = new Thread(() -> {
-                    save(force, false);
+                    save(force, saveUnsavedRedoLog, false);
                     workingThread = null;
                 });
                 workingThread.start();
@@ -261,27 +283,16 @@ public class CheckpointService implements Runnable {
         return needSave;
     }
 
-    private void save(boolean force, boolean isClosing) {
+    private void save(boolean force, boolean saveUnsavedRedoLog, boolean isClosing) {
         long lastTransactionId = logSyncService.getRedoLog().getLastTransactionId();
         try {
             for (Entry<StorageMap<?, ?>, AtomicLong> e : maps.entrySet()) {
                 StorageMap<?, ?> map = e.getKey();
                 long size = e.getValue().get();
                 // 准备耍刷页前如果表被删除了那就直接忽略
-                if (size > 0 && !map.isClosed() && (force || size > map.getCacheSize())) {
-                    long t1 = System.currentTimeMillis();
-                    if (!isClosing)
-                        workingThread.setName("Saving-" + map.getName());
-                    map.setLastTransactionId(lastTransactionId);
-                    try {
-                        map.save(size);
-                    } finally {
-                        map.setLastTransactionId(-1);
-                    }
-                    if (logger.isDebugEnabled()) {
-                        long time = System.currentTimeMillis() - t1;
-                        logger.debug("Save {}, size: {}, time: {} ms", map.getName(), size, time);
-                    }
+                if (size > 0 && !map.isClosed() && (force || size > map.getCacheSize()
+                        || saveUnsavedRedoLog && CheckpointPacer.getUnsavedRedoLogSize(map) > 0)) {
+                    save(map, size, lastTransactionId, isClosing);
                 }
             }
             lastSavedAt = System.currentTimeMillis();
@@ -289,4 +300,39 @@ public class CheckpointService implements Runnable {
             logger.error("Failed to execute save", t);
         }
     }
+
+    // 自适应检查点只刷部分map，不更新lastSavedAt，到了周期时再刷脏页超过阈值和有未刷脏页redo log的map
+    private void save(List<StorageMap<?, ?>> selected) {
+        long lastTransactionId = logSyncService.getRedoLog().getLastTransactionId();
+        try {
+            for (StorageMap<?, ?> map : selected) {
+                AtomicLong size = maps.get(map);
+                if (size != null && size.get() > 0 && !map.isClosed())
+                    save(map, size.get(), lastTransactionId, false);
+            }
+        } catch (Throwable t) {
+            logger.error("Failed to execute save", t);
+        }
+    }
+
+    private void save(StorageMap<?, ?> map, long size, long lastTransactionId, boolean isClosing) {
+        long t1 = System.currentTimeMillis();
+        if (!isClosing)
+            workingThread.setName("Saving-" + map.getName());
+        // 先记下来，刷脏页期间新写入的redo log还是需要重放的
+        RedoLogBuffer redoLogBuffer = map.getRedoLogBuffer();
+        long redoLogSize = redoLogBuffer == null ? 0 : redoLogBuffer.getRedoLogSize();
+        map.setLastTransactionId(lastTransactionId);
+        try {
+            map.save(size);
+        } finally {
+            map.setLastTransactionId(-1);
+        }
+        if (redoLogBuffer != null)
+            redoLogBuffer.setSavedRedoLogSize(redoLogSize);
+        if (logger.isDebugEnabled()) {
+            long time = System.currentTimeMillis() - t1;
+            logger.debug("Save {}, size: {}, time: {} ms", map.getName(), size, time);
+        }
+    }
 }
@@ -38,6 +38,8 @@ import com.lealone.storage.fs.FileStorage;
 import com.lealone.storage.fs.FileUtils;
 import com.lealone.storage.type.StorageDataType;
 import com.lealone.transaction.PendingTransaction;
+import com.lealone.transaction.TransactionStatistics;
+import com.lealone.transaction.TransactionStatistics.Phase;
 import com.lealone.transaction.aote.TransactionalValue;
 
 public class RedoLog {
@@ -60,6 +62,10 @@ public class RedoLog {
     private long lastTransactionId;
     private int syncServiceIndex;
 
+    // 启用TransactionStatistics后才会记录，单位纳秒
+    private long writeTime;
+    private long syncTime;
+
     public RedoLog(Map<String, String> config, LogSyncService logSyncService) {
         this.config = config;
         this.logSyncService = logSyncService;
@@ -220,7 +226,7 @@ public class RedoLog {
             type = kv.get();
             if (type == 1) {
                 metaVersion = DataUtils.readVarInt(kv);
-            } else if (type > 1) {
+            } else if (type == 2 || type == 3 || type == 5) {
                 long transactionId = DataUtils.readVarLong(kv);
                 if (!readMapNames(map, kv, transactionId)) {
                     kv.position(pos + len); // 无效的事务直接忽略
@@ -230,9 +236,26 @@ public class RedoLog {
                     metaVersion = DataUtils.readVarInt(kv);
                 }
             }
+            if (type >= 4) { // 批量操作的多条记录
+                int count = kv.getInt();
+                for (int i = 0; i < count; i++) {
+                    byte op = kv.get();
+                    metaVersion = op == 0 ? 0 : DataUtils.readVarInt(kv);
+                    key = kt.read(kv, formatVersion);
+                    redo(map, indexMaps, vt, kv, handler, formatVersion, op == 0, key, metaVersion);
+                }
+                return;
+            }
             key = kt.read(kv, formatVersion);
         }
-        if (type == 0 || type == 2) {
+        redo(map, indexMaps, vt, kv, handler, formatVersion, type == 0 || type == 2, key,
+                metaVersion);
+    }
+
+    private void redo(StorageMap<Object, Object> map, List<StorageMap<Object, Object>> indexMaps,
+            StorageDataType vt, ByteBuffer kv, AsyncResultHandler<Object> handler, int formatVersion,
+            boolean remove, Object key, int metaVersion) {
+        if (remove) {
             map.remove(key, ar -> {
                 Object result = ar.getResult();
                 if (result != null) {
@@ -298,13 +321,21 @@ public class RedoLog {
         AtomicLong redoLogRecordCount = logSyncService.getRedoLogRecordCount();
         long logLength = 0;
         int writeCount = 0;
+        // 记录哪些调度器的事务需要等待Periodic场景最后的sync
+        boolean[] syncedSchedulers = isPeriodic && TransactionStatistics.isEnabled()
+                ? new boolean[waitingSchedulerCount]
+                : null;
         while (redoLogRecordCount.get() > 0) {
             // Instant的场景会在while循环内调用sync，所以重新创建，避免重复执行
             if (!isPeriodic) {
                 logs = new HashMap<>();
             }
             PendingTransaction[] lastPts = new PendingTransaction[waitingSchedulerCount];
-            PendingTransaction[] pts = new PendingTransaction[waitingSchedulerCount];
+            // 本轮真正写入了RedoLogRecord的调度器，写入和sync的耗时只记到这些调度器上
+            boolean[] writtenSchedulers = TransactionStatistics.isEnabled()
+                    ? new boolean[waitingSchedulerCount]
+                    : null;
+            PendingTransactionHeap pts = new PendingTransactionHeap(waitingSchedulerCount);
             // 先找到每个调度器还没有同步的PendingTransaction
             for (int i = 0; i < waitingSchedulerCount; i++) {
                 InternalScheduler scheduler = waitingSchedulers[i];
@@ -317,7 +348,7 @@ public class RedoLog {
                         pt = pt.getNext();
                         continue;
                     }
-                    pts[scheduler.getId()] = pt;
+                    pts.add(pt);
                     break;
                 }
             }
@@ -333,8 +364,12 @@ public class RedoLog {
                         pendingTransactions.put(pt, pt);
                     }
                     lastTransactionId = pt.getTransaction().getTransactionId();
+                    TransactionStatistics.record(pt.getScheduler(), Phase.LOG_SYNC_QUEUE,
+                            pt.getCreatedTime());
 
                     buffLength += r.write(logs, syncServiceIndex);
+                    if (writtenSchedulers != null)
+                        writtenSchedulers[pt.getScheduler().getId()] = true;
                     if (buffLength > BUFF_SIZE) {
                         buffLength = 0;
                         logLength += write(logs);
@@ -350,18 +385,27 @@ public class RedoLog {
                             logSyncService.getCheckpointService().executeCheckpoint();
                     }
                 }
-                int index = pt.getScheduler().getId();
-                lastPts[index] = pt;
-                pts[index] = pt.getNext();
+                lastPts[pt.getScheduler().getId()] = pt;
+                pts.addNext(pt);
                 pt = nextPendingTransaction(pts);
             }
 
             if (buffLength > 0)
                 logLength += write(logs);
+            recordTime(writtenSchedulers, Phase.REDO_LOG_WRITE, writeTime);
+            writeTime = 0;
 
             if (logLength > 0 && !isPeriodic) {
                 logLength = 0;
                 sync(logs);
+                recordTime(writtenSchedulers, Phase.REDO_LOG_SYNC, syncTime);
+                syncTime = 0;
+            }
+            if (syncedSchedulers != null && writtenSchedulers != null) {
+                for (int i = 0; i < waitingSchedulerCount; i++) {
+                    if (writtenSchedulers[i])
+                        syncedSchedulers[i] = true;
+                }
             }
             for (int i = 0; i < waitingSchedulerCount; i++) {
                 InternalScheduler scheduler = waitingSchedulers[i];
@@ -382,6 +426,24 @@ public class RedoLog {
         }
         if (logLength > 0 && isPeriodic) {
             sync(logs);
+            if (syncedSchedulers != null) {
+                for (int i = 0; i < waitingSchedulerCount; i++) {
+                    if (syncedSchedulers[i])
+                        TransactionStatistics.recordTime(i, Phase.REDO_LOG_SYNC, syncTime);
+                }
+            }
+            syncTime = 0;
+        }
+    }
+
+    // 批量写入和sync的耗时记到写入了RedoLogRecord的每个调度器上，
+    // 只是遍历过但是没有记录要写的调度器不算
+    private static void recordTime(boolean[] writtenSchedulers, Phase phase, long time) {
+        if (time <= 0 || writtenSchedulers == null)
+            return;
+        for (int i = 0, len = writtenSchedulers.length; i < len; i++) {
+            if (writtenSchedulers[i])
+                TransactionStatistics.recordTime(i, phase, time);
         }
     }
 
@@ -411,40 +473,93 @@ public class RedoLog {
         }
     }
 
-    private PendingTransaction nextPendingTransaction(PendingTransaction[] pts) {
-        PendingTransaction minPendingTransaction = null;
-        long minCommitTimestamp = Long.MAX_VALUE;
-        for (int i = 0, len = pts.length; i < len; i++) {
-            PendingTransaction pt = pts[i];
-            while (pt != null) {
-                // 涉及多表的事务，如果没有全部同步完，当前线程不能重复写
-                if (pt.isSynced() || containsPendingTransaction(pt)) {
-                    pt = pt.getNext();
-                    pts[i] = pt;
-                    continue;
-                }
-                if (pt.getLogId() < minCommitTimestamp) {
-                    minCommitTimestamp = pt.getLogId();
-                    minPendingTransaction = pt;
+    private PendingTransaction nextPendingTransaction(PendingTransactionHeap pts) {
+        PendingTransaction pt = pts.poll();
+        while (pt != null) {
+            // 涉及多表的事务，如果没有全部同步完，当前线程不能重复写
+            if (pt.isSynced() || containsPendingTransaction(pt)) {
+                pts.addNext(pt);
+                pt = pts.poll();
+                continue;
+            }
+            break;
+        }
+        return pt;
+    }
+
+    // 每个调度器的PendingTransaction已经按logId排好序了，用一个按logId排序的小顶堆做多路归并，
+    // 每个调度器最多只有一个PendingTransaction在堆中，调度器很多时不用每次都遍历所有调度器
+    private static class PendingTransactionHeap {
+
+        private final PendingTransaction[] heap;
+        private int size;
+
+        PendingTransactionHeap(int capacity) {
+            heap = new PendingTransaction[capacity];
+        }
+
+        void add(PendingTransaction pt) {
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent].getLogId() <= pt.getLogId())
+                    break;
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = pt;
+        }
+
+        // 同一个调度器的下一个PendingTransaction
+        void addNext(PendingTransaction pt) {
+            PendingTransaction next = pt.getNext();
+            if (next != null)
+                add(next);
+        }
+
+        PendingTransaction poll() {
+            if (size == 0)
+                return null;
+            PendingTransaction min = heap[0];
+            PendingTransaction last = heap[--size];
+            heap[size] = null;
+            if (size > 0) {
+                int i = 0;
+                int half = size >>> 1;
+                while (i < half) {
+                    int child = (i << 1) + 1;
+                    int right = child + 1;
+                    if (right < size && heap[right].getLogId() < heap[child].getLogId())
+                        child = right;
+                    if (last.getLogId() <= heap[child].getLogId())
+                        break;
+                    heap[i] = heap[child];
+                    i = child;
                 }
-                break;
+                heap[i] = last;
             }
+            return min;
         }
-        return minPendingTransaction;
     }
 
     private int write(Map<String, RedoLogBuffer> logs) {
+        long startTime = TransactionStatistics.startTime();
         int length = 0;
         for (RedoLogBuffer logBuffer : logs.values()) {
             length += logBuffer.writeRedoLog();
         }
+        if (startTime > 0)
+            writeTime += System.nanoTime() - startTime;
         return length;
     }
 
     private void sync(Map<String, RedoLogBuffer> logs) {
+        long startTime = TransactionStatistics.startTime();
         for (RedoLogBuffer logBuffer : logs.values()) {
             logBuffer.sync();
         }
+        if (startTime > 0)
+            syncTime += System.nanoTime() - startTime;
         runPendingTransactions();
     }
 
@@ -7,6 +7,7 @@ package com.lealone.transaction.aote.log;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -20,6 +21,7 @@ import com.lealone.storage.StorageMap;
 import com.lealone.storage.StorageMap.RedoLogBuffer;
 import com.lealone.transaction.aote.AOTransaction;
 import com.lealone.transaction.aote.AOTransactionEngine;
+import com.lealone.transaction.aote.log.UndoLogRecord.GroupULR;
 import com.lealone.transaction.aote.log.UndoLogRecord.KeyOnlyULR;
 import com.lealone.transaction.aote.log.UndoLogRecord.KeyValueULR;
 
@@ -95,39 +97,64 @@ public class UndoLog {
         if (map.getKeyType().isKeyOnly()) {
             return add(new KeyOnlyULR(map, key, lockable, oldValue));
         } else {
-            int logServiceIndex;
-            if (map.isInMemory()) {
-                logServiceIndex = -1;
-            } else {
-                logServiceIndex = map.getRedoLogServiceIndex();
-                if (logServiceIndex >= 0) {
-                    if (redoLogServiceIndexs != null) {
+            int logServiceIndex = addMap(map);
+            return add(new KeyValueULR(map, key, lockable, oldValue, logServiceIndex));
+        }
+    }
+
+    // 批量更新或删除同一个map中的多条记录时，只在UndoLog中增加一条GroupULR，
+    // 调用这个方法前lockables中的新值和metaVersion都已经设置好了
+    public UndoLogRecord add(StorageMap<?, ?> map, List<?> keys, List<? extends Lockable> lockables,
+            Object[] oldValues) {
+        SystemOutline.createNode(SystemOutlineNode.UndoLogRecord_add);
+        int size = keys.size();
+        UndoLogRecord[] records = new UndoLogRecord[size];
+        if (map.getKeyType().isKeyOnly()) {
+            for (int i = 0; i < size; i++)
+                records[i] = new KeyOnlyULR(map, keys.get(i), lockables.get(i), oldValues[i]);
+        } else {
+            int logServiceIndex = addMap(map);
+            for (int i = 0; i < size; i++)
+                records[i] = new KeyValueULR(map, keys.get(i), lockables.get(i), oldValues[i],
+                        logServiceIndex);
+        }
+        return add(new GroupULR(map, records));
+    }
+
+    // 记录需要写RedoLog的map，返回map对应的RedoLogServiceIndex
+    private int addMap(StorageMap<?, ?> map) {
+        int logServiceIndex;
+        if (map.isInMemory()) {
+            logServiceIndex = -1;
+        } else {
+            logServiceIndex = map.getRedoLogServiceIndex();
+            if (logServiceIndex >= 0) {
+                if (redoLogServiceIndexs != null) {
+                    redoLogServiceIndexs.add(logServiceIndex);
+                } else {
+                    if (lastLogServiceIndex < 0) {
+                        lastLogServiceIndex = logServiceIndex;
+                    } else if (lastLogServiceIndex != logServiceIndex) {
+                        redoLogServiceIndexs = new ConcurrentSkipListSet<>();
+                        redoLogServiceIndexs.add(lastLogServiceIndex);
                         redoLogServiceIndexs.add(logServiceIndex);
-                    } else {
-                        if (lastLogServiceIndex < 0) {
-                            lastLogServiceIndex = logServiceIndex;
-                        } else if (lastLogServiceIndex != logServiceIndex) {
-                            redoLogServiceIndexs = new ConcurrentSkipListSet<>();
-                            redoLogServiceIndexs.add(lastLogServiceIndex);
-                            redoLogServiceIndexs.add(logServiceIndex);
-                        }
                     }
-                    if (maps != null) {
+                }
+                if (maps != null) {
+                    maps.put(map, new AtomicBoolean(false));
+                } else {
+                    if (lastMap == null) {
+                        lastMap = map;
+                    } else if (lastMap != map) {
+                        maps = new ConcurrentHashMap<>();
                         maps.put(map, new AtomicBoolean(false));
-                    } else {
-                        if (lastMap == null) {
-                            lastMap = map;
-                        } else if (lastMap != map) {
-                            maps = new ConcurrentHashMap<>();
-                            maps.put(map, new AtomicBoolean(false));
-                            maps.put(lastMap, new AtomicBoolean(false));
-                            lastMap = null; // 在isMultiMaps()中判断lastMap为null就能返回true
-                        }
+                        maps.put(lastMap, new AtomicBoolean(false));
+                        lastMap = null; // 在isMultiMaps()中判断lastMap为null就能返回true
                     }
                 }
             }
-            return add(new KeyValueULR(map, key, lockable, oldValue, logServiceIndex));
         }
+        return logServiceIndex;
     }
 
     private UndoLogRecord add(UndoLogRecord r) {
@@ -171,7 +171,7 @@ public abstract class UndoLogRecord {
             return len;
         }
 
-        private void writeMapNames(DataBuffer buff, UndoLog undoLog) {
+        private static void writeMapNames(DataBuffer buff, UndoLog undoLog) {
             Map<StorageMap<?, ?>, AtomicBoolean> maps = undoLog.getMaps();
             buff.putVarInt(maps.size());
             for (StorageMap<?, ?> map : maps.keySet())
@@ -179,6 +179,100 @@ public abstract class UndoLogRecord {
         }
     }
 
+    // 批量更新或删除同一个map中的多条记录时使用，在UndoLog中只占一个位置
+    public static class GroupULR extends UndoLogRecord {
+
+        private final UndoLogRecord[] records;
+
+        public GroupULR(StorageMap<?, ?> map, UndoLogRecord[] records) {
+            super(map, null, null, null);
+            this.records = records;
+        }
+
+        @Override
+        public void setUndone(boolean undone) {
+            super.setUndone(undone);
+            for (UndoLogRecord r : records)
+                r.setUndone(undone);
+        }
+
+        // 批量增加记录时，没有放入的记录在提交或回滚时直接忽略
+        public void setUndone(int index) {
+            records[index].setUndone(true);
+        }
+
+        @Override
+        protected void commitUpdate() {
+        }
+
+        @Override
+        public void commit(AOTransactionEngine te) {
+            if (ignore())
+                return;
+            for (UndoLogRecord r : records)
+                r.commit(te);
+        }
+
+        @Override
+        public void rollback(AOTransactionEngine te) {
+            if (ignore())
+                return;
+            for (int i = records.length - 1; i >= 0; i--)
+                records[i].rollback(te);
+        }
+
+        // 所有记录只写一条redo log，格式: 类型(4或5) [事务id 所有map名] 记录数 (操作类型 [metaVersion] key [value])*
+        @Override
+        public int writeForRedo(Map<String, RedoLogBuffer> logs, int logServiceIndex, UndoLog undoLog) {
+            if (map.getKeyType().isKeyOnly() || ignore() || map.isInMemory())
+                return 0;
+            KeyValueULR first = (KeyValueULR) records[0];
+            if (logServiceIndex != first.logServiceIndex)
+                return 0;
+            RedoLogBuffer logBuffer = map.getRedoLogBuffer();
+            if (logBuffer == null)
+                return 0;
+            DataBuffer log = logBuffer.getLog();
+            int pos = log.position();
+            log.putInt(0);
+            if (undoLog.isMultiMaps()) {
+                log.put((byte) 5);
+                log.putVarLong(undoLog.getTransactionId());
+                KeyValueULR.writeMapNames(log, undoLog);
+            } else {
+                log.put((byte) 4);
+            }
+            int countPos = log.position();
+            log.putInt(0);
+            int count = 0;
+            for (UndoLogRecord r : records) {
+                if (r.ignore())
+                    continue;
+                KeyValueULR kv = (KeyValueULR) r;
+                if (kv.newValue == null) { // 删除
+                    log.put((byte) 0);
+                    map.getKeyType().write(log, kv.key, FormatVersion.FORMAT_VERSION);
+                } else { // 增加
+                    log.put((byte) 1);
+                    log.putVarInt(kv.metaVersion);
+                    map.getKeyType().write(log, kv.key, FormatVersion.FORMAT_VERSION);
+                    map.getValueType().getRawType().write(log, kv.lockable, kv.newValue,
+                            FormatVersion.FORMAT_VERSION);
+                }
+                count++;
+            }
+            if (count == 0) { // 都撤销了
+                log.position(pos);
+                return 0;
+            }
+            logs.put(map.getName(), logBuffer);
+            log.putInt(countPos, count);
+            int len = log.position() - pos;
+            log.putInt(pos, len - 4);
+            return len;
+        }
+    }
+
     // 兼容老版本的redo log
     public static void readForRedo(ByteBuffer buff, Map<String, List<ByteBuffer>> pendingRedoLog) {
         while (buff.hasRemaining()) {
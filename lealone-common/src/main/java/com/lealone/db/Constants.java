@@ -139,6 +139,36 @@ public class Constants {
      */
     public static final int DEFAULT_MAX_OPERATION_MEMORY = 100000;
 
+    /**
+     * The default for the setting MAX_SORT_MEMORY (16 MB).
+     */
+    public static final int DEFAULT_MAX_SORT_MEMORY = 16 * 1024 * 1024;
+
+    /**
+     * The default for the setting MAX_AGGREGATE_MEMORY (64 MB).
+     */
+    public static final int DEFAULT_MAX_AGGREGATE_MEMORY = 64 * 1024 * 1024;
+
+    /**
+     * The default for the setting MAX_JOIN_MEMORY (64 MB).
+     */
+    public static final int DEFAULT_MAX_JOIN_MEMORY = 64 * 1024 * 1024;
+
+    /**
+     * The default for the setting PLAN_CACHE_SIZE.
+     */
+    public static final int DEFAULT_PLAN_CACHE_SIZE = 256;
+
+    /**
+     * The default for the setting RESULT_CACHE_SIZE.
+     */
+    public static final int DEFAULT_RESULT_CACHE_SIZE = 256;
+
+    /**
+     * The default for the setting RESULT_CACHE_MEMORY (16 MB).
+     */
+    public static final int DEFAULT_RESULT_CACHE_MEMORY = 16 * 1024 * 1024;
+
     /**
      * The default cache size in MB.
      */
@@ -247,6 +277,11 @@ public class Constants {
      */
     public static final int SELECTIVITY_DEFAULT = 50;
 
+    /**
+     * The default number of histogram buckets used by ANALYZE ... HISTOGRAM.
+     */
+    public static final int DEFAULT_HISTOGRAM_BUCKETS = 64;
+
     /**
      * The number of distinct values to keep in memory when running ANALYZE.
      */
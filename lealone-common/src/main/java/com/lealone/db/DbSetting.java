@@ -28,10 +28,14 @@ public enum DbSetting {
     OPTIMIZE_INSERT_FROM_SELECT,
     OPTIMIZE_IN_LIST,
     OPTIMIZE_IN_SELECT,
+    OPTIMIZE_CORRELATED_SUBQUERY,
     OPTIMIZE_IS_NULL,
     OPTIMIZE_OR,
     OPTIMIZE_TWO_EQUALS,
     QUERY_CACHE_SIZE,
+    PLAN_CACHE_SIZE,
+    RESULT_CACHE_SIZE,
+    RESULT_CACHE_MEMORY,
     RECOMPILE_ALWAYS,
     ROWID,
     DEFAULT_STORAGE_ENGINE,
@@ -56,6 +60,9 @@ public enum DbSetting {
     MAX_MEMORY_ROWS,
     MAX_MEMORY_UNDO,
     MAX_OPERATION_MEMORY,
+    MAX_SORT_MEMORY,
+    MAX_AGGREGATE_MEMORY,
+    MAX_JOIN_MEMORY,
     MODE,
     OPTIMIZE_REUSE_RESULTS,
     REFERENTIAL_INTEGRITY,
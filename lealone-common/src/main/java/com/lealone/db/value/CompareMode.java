@@ -149,6 +149,27 @@ public class CompareMode {
         return a.compareTo(b);
     }
 
+    /**
+     * Calculate the hash code of a string. Strings that are equal according to
+     * compareString must have the same hash code. The hash code is persisted,
+     * so it must not depend on the runtime environment.
+     *
+     * @param s the string
+     * @param ignoreCase true if a case-insensitive comparison is made
+     * @return the hash code
+     */
+    public int hashString(String s, boolean ignoreCase) {
+        if (!ignoreCase) {
+            return s.hashCode();
+        }
+        // 跟String.compareToIgnoreCase一样逐个字符转换
+        int hash = 0;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        }
+        return hash;
+    }
+
     /**
      * Get the collation name.
      *
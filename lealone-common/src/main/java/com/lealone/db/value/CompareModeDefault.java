@@ -7,6 +7,7 @@ package com.lealone.db.value;
 
 import java.text.CollationKey;
 import java.text.Collator;
+import java.util.Arrays;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.SmallLRUCache;
@@ -53,6 +54,16 @@ public class CompareModeDefault extends CompareMode {
         return comp;
     }
 
+    @Override
+    public int hashString(String s, boolean ignoreCase) {
+        if (ignoreCase) {
+            s = s.toUpperCase();
+        }
+        // 比较相等的字符串collation key也相同
+        CollationKey key = collationKeys != null ? getKey(s) : collator.getCollationKey(s);
+        return Arrays.hashCode(key.toByteArray());
+    }
+
     @Override
     public boolean equalsChars(String a, int ai, String b, int bi, boolean ignoreCase) {
         return compareString(a.substring(ai, ai + 1), b.substring(bi, bi + 1), ignoreCase) == 0;
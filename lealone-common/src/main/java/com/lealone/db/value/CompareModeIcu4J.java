@@ -6,6 +6,7 @@
 package com.lealone.db.value;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Locale;
 
@@ -19,10 +20,20 @@ import com.lealone.common.util.Utils;
 public class CompareModeIcu4J extends CompareMode {
 
     private final Comparator<String> collator;
+    private final Method getCollationKeyMethod;
+    private final Method toByteArrayMethod;
 
     protected CompareModeIcu4J(String name, int strength, boolean binaryUnsigned) {
         super(name, strength, binaryUnsigned);
         collator = getIcu4jCollator(name, strength);
+        try {
+            getCollationKeyMethod = Utils.loadUserClass("com.ibm.icu.text.Collator")
+                    .getMethod("getCollationKey", String.class);
+            toByteArrayMethod = Utils.loadUserClass("com.ibm.icu.text.CollationKey")
+                    .getMethod("toByteArray");
+        } catch (Exception e) {
+            throw DbException.convert(e);
+        }
     }
 
     @Override
@@ -34,6 +45,20 @@ public class CompareModeIcu4J extends CompareMode {
         return collator.compare(a, b);
     }
 
+    @Override
+    public int hashString(String s, boolean ignoreCase) {
+        if (ignoreCase) {
+            s = s.toUpperCase();
+        }
+        // 比较相等的字符串collation key也相同
+        try {
+            Object key = getCollationKeyMethod.invoke(collator, s);
+            return Arrays.hashCode((byte[]) toByteArrayMethod.invoke(key));
+        } catch (Exception e) {
+            throw DbException.convert(e);
+        }
+    }
+
     @Override
     public boolean equalsChars(String a, int ai, String b, int bi, boolean ignoreCase) {
         return compareString(a.substring(ai, ai + 1), b.substring(bi, bi + 1), ignoreCase) == 0;
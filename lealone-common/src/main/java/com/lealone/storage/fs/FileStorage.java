@@ -442,6 +442,21 @@ public class FileStorage {
         }
     }
 
+    /**
+     * Flush the file content only, without forcing file metadata updates.
+     * The file size must not be changed since the last sync.
+     */
+    public void syncData() {
+        try {
+            FileChannel file = this.file;
+            if (file != null && file.isOpen())
+                file.force(false);
+        } catch (IOException e) {
+            closeFileSilently();
+            throw newISE(DataUtils.ERROR_WRITING_FAILED, "Could not sync file {0}", fileName, e);
+        }
+    }
+
     /**
      * Re-open the file. The file pointer will be reset to the previous
      * location.
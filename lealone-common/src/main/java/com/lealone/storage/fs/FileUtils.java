@@ -13,9 +13,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.lealone.common.util.DataUtils;
+
 /**
  * This utility class contains utility functions that use the file system abstraction.
  */
@@ -125,6 +129,24 @@ public class FileUtils {
         FilePath.get(source).moveTo(FilePath.get(target), true);
     }
 
+    /**
+     * Flush the directory entries, so that files created or renamed in the
+     * directory survive a crash. Windows does not allow to open a directory,
+     * and there the file system takes care of the metadata itself.
+     *
+     * @param dir the directory name
+     */
+    public static void syncDirectory(String dir) {
+        if (File.separatorChar == '\\')
+            return;
+        try (FileChannel channel = FileChannel.open(Paths.get(dir), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            throw DataUtils.newIllegalStateException(DataUtils.ERROR_WRITING_FAILED,
+                    "Could not sync directory {0}", dir, e);
+        }
+    }
+
     /**
      * Get the file or directory name (the last element of the path).
      * This method is similar to Java 7 <code>java.nio.file.Path.getName</code>.
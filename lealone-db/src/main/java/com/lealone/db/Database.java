@@ -55,6 +55,9 @@ import com.lealone.db.schema.SchemaObject;
 import com.lealone.db.schema.Sequence;
 import com.lealone.db.schema.TriggerObject;
 import com.lealone.db.service.ExternalService;
+import com.lealone.db.session.CompiledClassCache;
+import com.lealone.db.session.PlanCache;
+import com.lealone.db.session.ResultCache;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.session.Session;
 import com.lealone.db.stats.QueryStatisticsData;
@@ -163,6 +166,9 @@ public class Database extends DbObjectBase implements DataHandler {
 
     private final AtomicLong modificationDataId = new AtomicLong();
     private final AtomicLong modificationMetaId = new AtomicLong();
+    private final PlanCache planCache;
+    private final ResultCache resultCache;
+    private final CompiledClassCache compiledClassCache = new CompiledClassCache();
 
     private Table meta;
     private String metaStorageEngineName;
@@ -229,6 +235,9 @@ public class Database extends DbObjectBase implements DataHandler {
                 dbObjectsArray[type.value] = new TransactionalDbObjects();
             }
         }
+        // 其他字段都初始化好之后再创建，它们会用到dbSettings
+        planCache = new PlanCache(this);
+        resultCache = new ResultCache(this);
         setDatabase(this);
     }
 
@@ -1556,6 +1565,30 @@ public class Database extends DbObjectBase implements DataHandler {
         return dbSettings.maxOperationMemory;
     }
 
+    public int getMaxSortMemory() {
+        return dbSettings.maxSortMemory;
+    }
+
+    public PlanCache getPlanCache() {
+        return planCache;
+    }
+
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public CompiledClassCache getCompiledClassCache() {
+        return compiledClassCache;
+    }
+
+    public int getMaxAggregateMemory() {
+        return dbSettings.maxAggregateMemory;
+    }
+
+    public int getMaxJoinMemory() {
+        return dbSettings.maxJoinMemory;
+    }
+
     public synchronized void setCloseDelay(int value) {
         this.closeDelay = value;
     }
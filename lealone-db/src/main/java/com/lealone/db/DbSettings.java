@@ -189,6 +189,15 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean optimizeInSelect = get(DbSetting.OPTIMIZE_IN_SELECT, true);
 
+    /**
+     * Database setting <code>OPTIMIZE_CORRELATED_SUBQUERY</code> (default: true).<br />
+     * Cache the results of IN(SELECT ...), EXISTS(...) and scalar subqueries
+     * by the values of the referenced outer columns, so that a correlated
+     * subquery is only executed once for each distinct correlation value.
+     */
+    public final boolean optimizeCorrelatedSubquery = get(DbSetting.OPTIMIZE_CORRELATED_SUBQUERY,
+            true);
+
     /**
      * Database setting <code>OPTIMIZE_IS_NULL</code> (default: true).<br />
      * Use an index for condition of the form columnName IS NULL.
@@ -219,6 +228,34 @@ public class DbSettings extends SettingsBase {
      */
     public final int queryCacheSize = get(DbSetting.QUERY_CACHE_SIZE, 8);
 
+    /**
+     * Database setting <code>PLAN_CACHE_SIZE</code> (default: 256).<br />
+     * The size of the database wide plan cache, in number of cached statements.
+     * Statements evicted from the query cache of a session are moved to this cache,
+     * so other sessions can reuse them without parsing and optimizing again.
+     * The cache is only used if the query cache is enabled.
+     */
+    public final int planCacheSize = get(DbSetting.PLAN_CACHE_SIZE,
+            Constants.DEFAULT_PLAN_CACHE_SIZE);
+
+    /**
+     * Database setting <code>RESULT_CACHE_SIZE</code> (default: 256).<br />
+     * The size of the database wide query result cache, in number of cached results.
+     * Results are shared by all sessions and are only invalidated
+     * when one of the tables used by the query is modified.
+     * The cache is only used if the query cache is enabled
+     * and OPTIMIZE_REUSE_RESULTS is true.
+     */
+    public final int resultCacheSize = get(DbSetting.RESULT_CACHE_SIZE,
+            Constants.DEFAULT_RESULT_CACHE_SIZE);
+
+    /**
+     * Database setting <code>RESULT_CACHE_MEMORY</code> (default: 16 MB).<br />
+     * The maximum estimated memory in bytes used by the database wide query result cache.
+     */
+    public final int resultCacheMemory = get(DbSetting.RESULT_CACHE_MEMORY,
+            Constants.DEFAULT_RESULT_CACHE_MEMORY);
+
     /**
      * Database setting <code>RECOMPILE_ALWAYS</code> (default: false).<br />
      * Always recompile prepared statements.
@@ -301,6 +338,13 @@ public class DbSettings extends SettingsBase {
     public final int maxMemoryUndo = get(DbSetting.MAX_MEMORY_UNDO, Constants.DEFAULT_MAX_MEMORY_UNDO);
     public final int maxOperationMemory = get(DbSetting.MAX_OPERATION_MEMORY,
             Constants.DEFAULT_MAX_OPERATION_MEMORY);
+    // 外部排序时每个run在内存中最多占用的字节数
+    public final int maxSortMemory = get(DbSetting.MAX_SORT_MEMORY, Constants.DEFAULT_MAX_SORT_MEMORY);
+    // group by的分组在内存中最多占用的字节数，超过后溢出到临时文件
+    public final int maxAggregateMemory = get(DbSetting.MAX_AGGREGATE_MEMORY,
+            Constants.DEFAULT_MAX_AGGREGATE_MEMORY);
+    // hash join的哈希表在内存中最多占用的字节数，超过后溢出到临时map
+    public final int maxJoinMemory = get(DbSetting.MAX_JOIN_MEMORY, Constants.DEFAULT_MAX_JOIN_MEMORY);
 
     public final boolean optimizeReuseResults = get(DbSetting.OPTIMIZE_REUSE_RESULTS, true);
     public final boolean referentialIntegrity = get(DbSetting.REFERENTIAL_INTEGRITY, true);
@@ -7,6 +7,9 @@ package com.lealone.db.index;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.db.async.AsyncResultHandler;
@@ -18,6 +21,7 @@ import com.lealone.db.session.ServerSession;
 import com.lealone.db.table.Column;
 import com.lealone.db.table.Table;
 import com.lealone.db.value.Value;
+import com.lealone.sql.IExpression;
 import com.lealone.storage.CursorParameters;
 import com.lealone.storage.page.PageKey;
 
@@ -72,6 +76,34 @@ public interface Index extends SchemaObject {
      */
     int getColumnIndex(Column col);
 
+    /**
+     * Get the included columns, they are stored in the index but not used for searching.
+     *
+     * @return the included columns, or null
+     */
+    default Column[] getIncludeColumns() {
+        return null;
+    }
+
+    /**
+     * Get the predicate of a partial index, only the rows that match it are stored in the index.
+     *
+     * @return the predicate, or null
+     */
+    default IExpression getPredicate() {
+        return null;
+    }
+
+    /**
+     * Check if the given columns can be read from the index entries without looking up the rows.
+     *
+     * @param columns the columns, the columns of other tables are ignored
+     * @return true if all the columns are covered
+     */
+    default boolean isCovering(Set<Column> columns) {
+        return false;
+    }
+
     /**
      * Get the message to show in a EXPLAIN statement.
      *
@@ -89,6 +121,21 @@ public interface Index extends SchemaObject {
         throw DbException.getUnsupportedException("add row");
     }
 
+    /**
+     * Add a batch of new rows to the index.
+     * The handler is called once after all rows are added.
+     *
+     * @param session the session
+     * @param rows the rows
+     * @param handler the handler
+     */
+    default void addRows(ServerSession session, List<Row> rows, AsyncResultHandler<Integer> handler) {
+        AsyncResultHandler<Integer> batchHandler = createBatchHandler(rows.size(), handler);
+        for (Row row : rows) {
+            add(session, row, batchHandler);
+        }
+    }
+
     default void update(ServerSession session, Row oldRow, Row newRow, Value[] oldColumns,
             int[] updateColumns, boolean isLockedBySelf, AsyncResultHandler<Integer> handler) {
         remove(session, oldRow, oldColumns, isLockedBySelf, ar1 -> {
@@ -113,6 +160,60 @@ public interface Index extends SchemaObject {
         throw DbException.getUnsupportedException("remove row");
     }
 
+    /**
+     * Update a batch of rows that are already locked by the current transaction.
+     * The handler is called once after all rows are updated.
+     *
+     * @param session the session
+     * @param oldRows the old rows
+     * @param newRows the new rows
+     * @param oldColumnsList the old column values of each row
+     * @param updateColumns the updated column ids
+     * @param handler the handler
+     */
+    default void updateRows(ServerSession session, List<Row> oldRows, List<Row> newRows,
+            List<Value[]> oldColumnsList, int[] updateColumns, AsyncResultHandler<Integer> handler) {
+        int size = oldRows.size();
+        AsyncResultHandler<Integer> batchHandler = createBatchHandler(size, handler);
+        for (int i = 0; i < size; i++) {
+            update(session, oldRows.get(i), newRows.get(i), oldColumnsList.get(i), updateColumns, true,
+                    batchHandler);
+        }
+    }
+
+    /**
+     * Remove a batch of rows that are already locked by the current transaction.
+     * The handler is called once after all rows are removed.
+     *
+     * @param session the session
+     * @param rows the rows
+     * @param oldColumnsList the old column values of each row
+     * @param handler the handler
+     */
+    default void removeRows(ServerSession session, List<Row> rows, List<Value[]> oldColumnsList,
+            AsyncResultHandler<Integer> handler) {
+        int size = rows.size();
+        AsyncResultHandler<Integer> batchHandler = createBatchHandler(size, handler);
+        for (int i = 0; i < size; i++) {
+            remove(session, rows.get(i), oldColumnsList.get(i), true, batchHandler);
+        }
+    }
+
+    // 所有记录都成功后才回调一次，如果其中之一出错了，取第一个异常
+    static AsyncResultHandler<Integer> createBatchHandler(int count,
+            AsyncResultHandler<Integer> handler) {
+        AtomicInteger counter = new AtomicInteger(count);
+        AtomicBoolean isFailed = new AtomicBoolean();
+        return ar -> {
+            if (ar.isSucceeded()) {
+                if (counter.decrementAndGet() == 0 && !isFailed.get())
+                    handler.handle(ar);
+            } else if (isFailed.compareAndSet(false, true)) {
+                handler.handle(ar);
+            }
+        };
+    }
+
     /**
      * Find a row or a list of rows and create a cursor to iterate over the result.
      *
@@ -220,6 +321,39 @@ public interface Index extends SchemaObject {
      */
     double getCost(ServerSession session, int[] masks, SortOrder sortOrder);
 
+    /**
+     * Estimate the cost to search for rows given the search mask and the
+     * fractions estimated from the column histograms.
+     *
+     * @param session the session
+     * @param masks per-column comparison bit masks
+     * @param fractions per-column fraction of matching rows, 0 means unknown
+     * @param sortOrder the sort order
+     * @return the estimated cost
+     */
+    default double getCost(ServerSession session, int[] masks, double[] fractions,
+            SortOrder sortOrder) {
+        return getCost(session, masks, sortOrder);
+    }
+
+    /**
+     * Estimate the cost like {@link #getCost(ServerSession, int[], double[], SortOrder)},
+     * the columns referenced by the query are used to check if it is an index-only scan.
+     *
+     * @param session the session
+     * @param masks per-column comparison bit masks
+     * @param fractions per-column fraction of matching rows, may be null
+     * @param sortOrder the sort order
+     * @param columns the columns referenced by the query, may be null
+     * @return the estimated cost
+     */
+    default double getCost(ServerSession session, int[] masks, double[] fractions,
+            SortOrder sortOrder, Set<Column> columns) {
+        if (fractions == null)
+            return getCost(session, masks, sortOrder);
+        return getCost(session, masks, fractions, sortOrder);
+    }
+
     /**
      * Get the used disk space for this index.
      *
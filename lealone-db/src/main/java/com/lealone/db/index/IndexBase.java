@@ -20,6 +20,7 @@ import com.lealone.db.session.ServerSession;
 import com.lealone.db.table.Column;
 import com.lealone.db.table.Table;
 import com.lealone.db.value.Value;
+import com.lealone.sql.IExpression;
 import com.lealone.transaction.Transaction;
 
 /**
@@ -138,7 +139,8 @@ public abstract class IndexBase extends SchemaObjectBase implements Index {
             return 0;
         }
         for (int i = 0, len = indexColumns.length; i < len; i++) {
-            int index = columnIds[i];
+            // 表达式索引的虚拟字段在增删字段后id会变，所以不用columnIds
+            int index = columns[i].getColumnId();
 
             Value v1 = rowData.getValue(index);
             Value v2 = compare.getValue(index);
@@ -170,6 +172,10 @@ public abstract class IndexBase extends SchemaObjectBase implements Index {
         return comp;
     }
 
+    private static double getFraction(double[] fractions, int columnId) {
+        return fractions == null ? 0 : fractions[columnId];
+    }
+
     /**
      * Calculate the cost for the given mask as if this index was a typical
      * b-tree range index. This is the estimated cost required to search one
@@ -183,6 +189,21 @@ public abstract class IndexBase extends SchemaObjectBase implements Index {
      */
     // 代价的计算总体上是围绕行数进行的
     protected long getCostRangeIndex(int[] masks, long rowCount, SortOrder sortOrder) {
+        return getCostRangeIndex(masks, null, rowCount, sortOrder);
+    }
+
+    /**
+     * Calculate the cost like {@link #getCostRangeIndex(int[], long, SortOrder)},
+     * but use the fractions estimated from the column histograms if available.
+     *
+     * @param masks the search mask
+     * @param fractions per-column fraction of matching rows, 0 means unknown
+     * @param rowCount the number of rows in the index
+     * @param sortOrder the sort order
+     * @return the estimated cost
+     */
+    protected long getCostRangeIndex(int[] masks, double[] fractions, long rowCount,
+            SortOrder sortOrder) {
         rowCount += Constants.COST_ROW_OFFSET;
         if (masks == null) {
             return rowCount;
@@ -190,6 +211,7 @@ public abstract class IndexBase extends SchemaObjectBase implements Index {
         long cost = rowCount;
         long rows = rowCount;
         int totalSelectivity = 0;
+        double totalFraction = 1; // 有直方图的EQUALITY字段的比例之积
         int maskIndexColumnCount = 0;
         for (int i = 0, len = columns.length; i < len; i++) {
             maskIndexColumnCount++;
@@ -212,16 +234,26 @@ public abstract class IndexBase extends SchemaObjectBase implements Index {
                     cost = 3;
                     break;
                 }
-                totalSelectivity = 100
-                        - ((100 - totalSelectivity) * (100 - column.getSelectivity()) / 100);
+                double fraction = getFraction(fractions, index);
+                if (fraction > 0) {
+                    totalFraction *= fraction;
+                } else {
+                    totalSelectivity = 100
+                            - ((100 - totalSelectivity) * (100 - column.getSelectivity()) / 100);
+                }
                 // totalSelectivity变大时distinctRows变大
                 long distinctRows = rowCount * totalSelectivity / 100;
                 if (distinctRows <= 0) {
                     distinctRows = 1;
                 }
                 // distinctRows变大，则rowCount / distinctRows变小，rows也变小
-                rows = Math.max(rowCount / distinctRows, 1);
+                rows = Math.max((long) (rowCount / distinctRows * totalFraction), 1);
                 cost = 2 + rows; // rows也变小，所以cost也变小
+            } else if (getFraction(fractions, index) > 0 && (mask & (IndexConditionType.RANGE
+                    | IndexConditionType.START | IndexConditionType.END)) != 0) {
+                // 按直方图估算出来的比例计算要扫描的记录数，RANGE、START、END不再用固定的比例
+                cost = 2 + Math.max((long) (rows * getFraction(fractions, index)), 1);
+                break;
             } else if ((mask & IndexConditionType.RANGE) == IndexConditionType.RANGE) {
                 // 见TableFilter.getBestPlanItem中的注释
                 cost = 2 + rows / 4; // rows开始时加了1000，所以rows / 4总是大于1的
@@ -315,6 +347,19 @@ public abstract class IndexBase extends SchemaObjectBase implements Index {
             buff.append(" COMMENT ").append(StringUtils.quoteStringSQL(comment));
         }
         buff.append('(').append(getColumnListSQL()).append(')');
+        Column[] includeColumns = getIncludeColumns();
+        if (includeColumns != null) {
+            StatementBuilder b = new StatementBuilder(" INCLUDE(");
+            for (Column c : includeColumns) {
+                b.appendExceptFirst(", ");
+                b.append(c.getSQL());
+            }
+            buff.append(b.append(')').toString());
+        }
+        IExpression predicate = getPredicate();
+        if (predicate != null) {
+            buff.append(" WHERE ").append(predicate.getSQL());
+        }
         return buff.toString();
     }
 
@@ -336,6 +381,10 @@ public abstract class IndexBase extends SchemaObjectBase implements Index {
     public void removeChildrenAndResources(ServerSession session, DbObjectLock lock) {
         table.removeIndex(this);
         remove(session);
+        for (Column c : columns) {
+            if (c.isVirtual())
+                table.removeVirtualColumn(c);
+        }
     }
 
     @Override
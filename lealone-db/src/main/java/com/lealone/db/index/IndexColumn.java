@@ -8,6 +8,7 @@ package com.lealone.db.index;
 import com.lealone.db.result.SortOrder;
 import com.lealone.db.table.Column;
 import com.lealone.db.table.Table;
+import com.lealone.sql.IExpression;
 
 /**
  * This represents a column item of an index. This is required because some
@@ -25,6 +26,11 @@ public class IndexColumn {
      */
     public Column column;
 
+    /**
+     * The expression of an expression index, or null.
+     */
+    public IExpression expression;
+
     /**
      * The sort type. Ascending (the default) and descending are supported;
      * nulls can be sorted first or last.
@@ -81,7 +87,8 @@ public class IndexColumn {
      */
     public static void mapColumns(IndexColumn[] indexColumns, Table table) {
         for (IndexColumn col : indexColumns) {
-            col.column = table.getColumn(col.columnName);
+            if (col.expression == null)
+                col.column = table.getColumn(col.columnName);
         }
     }
 }
@@ -290,6 +290,11 @@ public class IndexOperator implements Runnable, SchedulerTaskManager {
             this.columns = columns;
         }
 
+        // 批量增加记录时要等primaryIndex分配好row key后再回填
+        public void setRowKey(long rowKey) {
+            this.rowKey = rowKey;
+        }
+
         public int getSavepointId() {
             return savepointId;
         }
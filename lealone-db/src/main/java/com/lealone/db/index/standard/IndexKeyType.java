@@ -23,7 +23,8 @@ public abstract class IndexKeyType extends StandardDataType {
 
     public static IndexKeyType create(CompareMode compareMode, int[] sortTypes,
             StandardSecondaryIndex index) {
-        if (sortTypes.length == 1) {
+        // 有include字段时IndexKey总是CompoundIndexKey
+        if (sortTypes.length == 1 && index.getIncludeColumns() == null) {
             return new SingleIndexKeyType(compareMode, sortTypes, index);
         } else {
             return new CompoundIndexKeyType(compareMode, sortTypes, index);
@@ -198,13 +199,35 @@ public abstract class IndexKeyType extends StandardDataType {
                 if (bx == null)
                     return 1;
             }
-            int comp = compareValues(ax, bx);
+            int comp = ax.length > sortTypes.length || bx.length > sortTypes.length
+                    ? compareIndexColumns(ax, bx)
+                    : compareValues(ax, bx);
             if (comp == 0 && !isUnique) // 唯一索引key不需要比较最后的rowId
                 return Long.compare(aKey.getKey(), bKey.getKey());
             else
                 return Long.signum(comp);
         }
 
+        // 只比较索引字段，跳过后面的include字段
+        private int compareIndexColumns(Value[] ax, Value[] bx) {
+            int al = Math.min(ax.length, sortTypes.length);
+            int bl = Math.min(bx.length, sortTypes.length);
+            int len = Math.min(al, bl);
+            for (int i = 0; i < len; i++) {
+                int comp = compareValue(ax[i], bx[i], sortTypes[i]);
+                if (comp != 0) {
+                    return comp;
+                }
+            }
+            // 跟compareValues一样，只有前面几个索引字段的key排在以它们开头的key后面
+            if (len < al) {
+                return -1;
+            } else if (len < bl) {
+                return 1;
+            }
+            return 0;
+        }
+
         @Override
         public int getMemory(Object obj) {
             IndexKey k = (IndexKey) obj;
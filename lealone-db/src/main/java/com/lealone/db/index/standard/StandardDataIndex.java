@@ -21,12 +21,15 @@ public abstract class StandardDataIndex<K, V> extends IndexBase {
 
     protected StandardDataIndex(StandardTable table, int id, String name, IndexType indexType,
             IndexColumn[] indexColumns) {
+        this(table, id, name, indexType, indexColumns, indexType.isScan()
+                ? table.getMapNameForTable(id) : table.getMapNameForIndex(id));
+    }
+
+    protected StandardDataIndex(StandardTable table, int id, String name, IndexType indexType,
+            IndexColumn[] indexColumns, String mapName) {
         super(table, id, name, indexType, indexColumns);
         this.table = table;
-        if (indexType.isScan())
-            mapName = table.getMapNameForTable(id);
-        else
-            mapName = table.getMapNameForIndex(id);
+        this.mapName = mapName;
     }
 
     @Override
@@ -77,7 +77,14 @@ public class StandardDelegateIndex extends IndexBase {
 
     @Override
     public double getCost(ServerSession session, int[] masks, SortOrder sortOrder) {
-        return 10 * getCostRangeIndex(masks, mainIndex.getRowCountApproximation(), sortOrder);
+        return getCost(session, masks, null, sortOrder);
+    }
+
+    @Override
+    public double getCost(ServerSession session, int[] masks, double[] fractions,
+            SortOrder sortOrder) {
+        return 10 * getCostRangeIndex(masks, fractions, mainIndex.getRowCountApproximation(),
+                sortOrder);
     }
 
     @Override
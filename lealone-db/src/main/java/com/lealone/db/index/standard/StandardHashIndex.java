@@ -0,0 +1,150 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.index.standard;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.db.api.ErrorCode;
+import com.lealone.db.index.Cursor;
+import com.lealone.db.index.IndexColumn;
+import com.lealone.db.index.IndexConditionType;
+import com.lealone.db.index.IndexType;
+import com.lealone.db.result.SortOrder;
+import com.lealone.db.row.SearchRow;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Column;
+import com.lealone.db.table.StandardTable;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueInt;
+
+/**
+ * 持久化的hash索引，支持多字段。
+ *
+ * IndexKey的第一个字段是所有索引字段的hash值，后面才是索引字段，
+ * 所以索引记录先按hash值排序，相同的索引字段值总是挨在一起，只能用于等值查找。
+ * 因为是保存在普通的TransactionMap中，事务可见性、内存统计和持久化都跟StandardSecondaryIndex一样，
+ * 重启后也不需要重建。IndexKey的格式跟StandardSecondaryIndex不一样，所以用单独的map名。
+ *
+ * @author zhh
+ */
+public class StandardHashIndex extends StandardSecondaryIndex {
+
+    public StandardHashIndex(ServerSession session, StandardTable table, int id, String indexName,
+            IndexType indexType, IndexColumn[] indexColumns) {
+        super(session, table, id, indexName, indexType, indexColumns, null,
+                table.getMapNameForHashIndex(id));
+    }
+
+    @Override
+    protected int[] getSortTypes() {
+        int[] sortTypes = new int[indexColumns.length + 1];
+        sortTypes[0] = SortOrder.ASCENDING; // hash字段
+        for (int i = 0; i < indexColumns.length; i++) {
+            sortTypes[i + 1] = indexColumns[i].sortType;
+        }
+        return sortTypes;
+    }
+
+    @Override
+    protected IndexKey convertToKey(SearchRow r, Value[] columnArray) {
+        if (r == null)
+            return null;
+        int len = columns.length;
+        Value[] array = new Value[len + 1];
+        int hash = 0;
+        for (int i = 0; i < len; i++) {
+            Value v = convertValue(columns[i], columnArray);
+            array[i + 1] = v;
+            hash = 31 * hash + hashValue(v);
+        }
+        array[0] = ValueInt.get(hash);
+        return IndexKey.create(r.getKey(), array);
+    }
+
+    // hash值是持久化的，只能依赖跟运行环境无关的hashCode，
+    // 并且compareTo相等的两个值必须得到相同的hash值
+    private int hashValue(Value v) {
+        if (v == null)
+            return 0;
+        switch (v.getType()) {
+        case Value.DECIMAL:
+            // 1.0和1.00比较是相等的，但是BigDecimal.hashCode不同
+            return v.getBigDecimal().stripTrailingZeros().hashCode();
+        case Value.STRING_IGNORECASE:
+            return database.getCompareMode().hashString(v.getString(), true);
+        case Value.STRING:
+        case Value.STRING_FIXED:
+            // 使用了collation时，比较相等的字符串不一定相同，要按collation规范化后再算hash值
+            return database.getCompareMode().hashString(v.getString(), false);
+        default:
+            return v.hashCode();
+        }
+    }
+
+    @Override
+    protected SearchRow convertToSearchRow(IndexKey iKey) {
+        Value[] array = iKey.getColumns();
+        IndexKey key = IndexKey.create(iKey.getKey(), Arrays.copyOfRange(array, 1, array.length));
+        return super.convertToSearchRow(key);
+    }
+
+    @Override
+    public Cursor find(ServerSession session, SearchRow first, SearchRow last) {
+        if (first == null || last == null) {
+            throw DbException.getInternalError();
+        }
+        return super.find(session, first, last);
+    }
+
+    // 按hash值排序，后面的记录可能比last小，所以只要不相等就结束
+    @Override
+    protected boolean isAfterLast(SearchRow searchRow, SearchRow last) {
+        return compareRows(searchRow, last) != 0;
+    }
+
+    @Override
+    public double getCost(ServerSession session, int[] masks, double[] fractions,
+            SortOrder sortOrder, Set<Column> referencedColumns) {
+        if (masks == null) {
+            return Long.MAX_VALUE;
+        }
+        for (Column column : columns) {
+            int index = column.getColumnId();
+            int mask = masks[index];
+            if ((mask & IndexConditionType.EQUALITY) != IndexConditionType.EQUALITY) {
+                return Long.MAX_VALUE;
+            }
+        }
+        try {
+            // 所有索引字段都是等值查找，只需要定位一次，比StandardSecondaryIndex的代价低
+            return 2 * getCostRangeIndex(masks, fractions, dataMap.getRawSize(), null);
+        } catch (IllegalStateException e) {
+            throw DbException.get(ErrorCode.OBJECT_CLOSED, e);
+        }
+    }
+
+    @Override
+    public boolean canGetFirstOrLast() {
+        return false;
+    }
+
+    @Override
+    public SearchRow findFirstOrLast(ServerSession session, boolean first) {
+        throw DbException.getUnsupportedException("HASH");
+    }
+
+    @Override
+    public boolean supportsDistinctQuery() {
+        return false;
+    }
+
+    @Override
+    public boolean canScan() {
+        return false;
+    }
+}
@@ -5,8 +5,10 @@
  */
 package com.lealone.db.index.standard;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.db.Constants;
@@ -159,12 +161,7 @@ public class StandardPrimaryIndex extends StandardDataIndex<Row, Row> {
             map.addIfAbsent(row, row, ar -> {
                 if (ar.isSucceeded()) {
                     if (ar.getResult().intValue() == Transaction.OPERATION_DATA_DUPLICATE) {
-                        String sql = "PRIMARY KEY ON " + table.getSQL();
-                        if (mainIndexColumn >= 0 && mainIndexColumn < indexColumns.length) {
-                            sql += "(" + indexColumns[mainIndexColumn].getSQL() + ")";
-                        }
-                        DbException e = DbException.get(ErrorCode.DUPLICATE_KEY_1, sql);
-                        onException(handler, e);
+                        onException(handler, getDuplicatePrimaryKeyException());
                         return;
                     }
                     session.setLastIdentity(row.getKey());
@@ -186,6 +183,59 @@ public class StandardPrimaryIndex extends StandardDataIndex<Row, Row> {
         }
     }
 
+    private DbException getDuplicatePrimaryKeyException() {
+        String sql = "PRIMARY KEY ON " + table.getSQL();
+        if (mainIndexColumn >= 0 && mainIndexColumn < indexColumns.length) {
+            sql += "(" + indexColumns[mainIndexColumn].getSQL() + ")";
+        }
+        return DbException.get(ErrorCode.DUPLICATE_KEY_1, sql);
+    }
+
+    @Override
+    public void addRows(ServerSession session, List<Row> rows, AsyncResultHandler<Integer> handler) {
+        // 需要处理lob字段时还是逐行增加
+        if (table.containsLargeObject()) {
+            super.addRows(session, rows, handler);
+            return;
+        }
+        if (mainIndexColumn == -1) {
+            int count = 0;
+            for (Row row : rows) {
+                if (row.getKey() == 0)
+                    count++;
+            }
+            // 一次分配所有记录的row key
+            if (count > 0) {
+                long key = dataMap.getAndAddKey(count);
+                for (Row row : rows) {
+                    if (row.getKey() == 0)
+                        row.setKey(++key);
+                }
+            }
+        } else {
+            for (Row row : rows) {
+                row.setKey(row.getValue(mainIndexColumn).getLong());
+            }
+        }
+        TransactionMap<Row, Row> map = getTransactionMap(session);
+        // 按row key排好序后批量放入，row key递增时都追加到最后一个leaf page
+        ArrayList<Row> sortedRows = new ArrayList<>(rows);
+        sortedRows.sort((r1, r2) -> map.getKeyType().compare(r1, r2));
+        map.addIfAbsent(sortedRows, sortedRows, new AtomicReference<>(), ar -> {
+            if (ar.isSucceeded()) {
+                if (ar.getResult().intValue() == Transaction.OPERATION_DATA_DUPLICATE) {
+                    onException(handler, getDuplicatePrimaryKeyException());
+                    return;
+                }
+                session.setLastIdentity(rows.get(rows.size() - 1).getKey());
+                for (Row row : rows) {
+                    table.alterRowsIfNeeded(session, row, true);
+                }
+            }
+            handler.handle(ar);
+        });
+    }
+
     static boolean containsColumn(int[] updateColumns, int cid) {
         for (int i = 0; i < updateColumns.length; i++) {
             if (updateColumns[i] == cid) {
@@ -253,6 +303,32 @@ public class StandardPrimaryIndex extends StandardDataIndex<Row, Row> {
         onComplete(handler, map.tryRemove(row, row, isLockedBySelf));
     }
 
+    @Override
+    public void updateRows(ServerSession session, List<Row> oldRows, List<Row> newRows,
+            List<Value[]> oldColumnsList, int[] updateColumns, AsyncResultHandler<Integer> handler) {
+        // 修改了主键字段或者需要处理lob字段时还是逐行更新
+        if ((mainIndexColumn != -1 && containsColumn(updateColumns, mainIndexColumn))
+                || table.containsLargeObject()) {
+            super.updateRows(session, oldRows, newRows, oldColumnsList, updateColumns, handler);
+            return;
+        }
+        // 所有记录都已经被当前事务锁住了，直接批量更新即可
+        getTransactionMap(session).tryUpdateOrRemove(newRows, newRows, oldRows);
+        session.setLastIdentity(newRows.get(newRows.size() - 1).getKey());
+        onComplete(handler);
+    }
+
+    @Override
+    public void removeRows(ServerSession session, List<Row> rows, List<Value[]> oldColumnsList,
+            AsyncResultHandler<Integer> handler) {
+        if (table.containsLargeObject()) {
+            super.removeRows(session, rows, oldColumnsList, handler);
+            return;
+        }
+        getTransactionMap(session).tryUpdateOrRemove(rows, null, rows);
+        onComplete(handler);
+    }
+
     public int tryLock(ServerSession session, Row row) {
         return getTransactionMap(session).tryLock(row, row);
     }
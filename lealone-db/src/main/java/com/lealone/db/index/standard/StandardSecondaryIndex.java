@@ -5,8 +5,14 @@
  */
 package com.lealone.db.index.standard;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.db.api.ErrorCode;
@@ -14,19 +20,23 @@ import com.lealone.db.async.AsyncResultHandler;
 import com.lealone.db.index.Cursor;
 import com.lealone.db.index.Index;
 import com.lealone.db.index.IndexColumn;
+import com.lealone.db.index.IndexConditionType;
 import com.lealone.db.index.IndexOperator;
 import com.lealone.db.index.IndexType;
+import com.lealone.db.index.standard.IndexKey.CompoundIndexKey;
 import com.lealone.db.lock.Lockable;
 import com.lealone.db.result.SortOrder;
 import com.lealone.db.row.Row;
 import com.lealone.db.row.SearchRow;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.table.Column;
+import com.lealone.db.table.ColumnStatistics;
 import com.lealone.db.table.StandardTable;
 import com.lealone.db.value.Value;
 import com.lealone.db.value.ValueEnum;
 import com.lealone.db.value.ValueLong;
 import com.lealone.db.value.ValueNull;
+import com.lealone.sql.IExpression;
 import com.lealone.storage.Storage;
 import com.lealone.storage.StorageMap;
 import com.lealone.storage.StorageSetting;
@@ -40,23 +50,172 @@ import com.lealone.transaction.TransactionMapCursor;
  */
 public class StandardSecondaryIndex extends StandardDataIndex<IndexKey, IndexKey> {
 
+    // 第一个索引字段平均每个值至少对应这么多条记录时才考虑跳跃扫描(skip scan)
+    private static final int SKIP_SCAN_MIN_ROWS_PER_KEY = 10;
+
     private Long lastIndexedRowKey;
     private boolean building;
 
+    // 跟索引字段一起保存在IndexKey中，但不参与比较，查询只用到索引字段和它们时不需要再读主索引
+    private final Column[] includeColumns;
+
+    // 表达式索引的虚拟字段，值要用表达式从记录中计算出来
+    private final boolean hasVirtualColumns;
+    // 虚拟字段的表达式中引用的字段，这些字段没有更新时虚拟字段的值也不会变
+    private final Column[] virtualBaseColumns;
+
+    // 部分索引的过滤条件，只有满足条件的记录才会加到索引中
+    private IExpression predicate;
+    private IExpression.Evaluator predicateEvaluator;
+    private Column[] predicateColumns; // 过滤条件中引用的字段
+
     public StandardSecondaryIndex(ServerSession session, StandardTable table, int id, String indexName,
             IndexType indexType, IndexColumn[] indexColumns) {
-        super(table, id, indexName, indexType, indexColumns);
+        this(session, table, id, indexName, indexType, indexColumns, null);
+    }
+
+    public StandardSecondaryIndex(ServerSession session, StandardTable table, int id, String indexName,
+            IndexType indexType, IndexColumn[] indexColumns, Column[] includeColumns) {
+        this(session, table, id, indexName, indexType, indexColumns, includeColumns,
+                table.getMapNameForIndex(id));
+    }
+
+    protected StandardSecondaryIndex(ServerSession session, StandardTable table, int id,
+            String indexName, IndexType indexType, IndexColumn[] indexColumns,
+            Column[] includeColumns, String mapName) {
+        super(table, id, indexName, indexType, indexColumns, mapName);
+        if (includeColumns != null && includeColumns.length == 0)
+            includeColumns = null;
+        this.includeColumns = includeColumns;
+        HashSet<Column> virtualBaseColumns = new HashSet<>();
+        for (Column c : columns) {
+            if (c.isVirtual())
+                c.getDefaultExpression().getColumns(virtualBaseColumns);
+        }
+        this.hasVirtualColumns = hasVirtualColumn(columns);
+        this.virtualBaseColumns = virtualBaseColumns.toArray(new Column[0]);
         if (!database.isStarting()) {
             checkIndexColumnTypes(indexColumns);
+            if (includeColumns != null)
+                checkIncludeColumnTypes(includeColumns);
         }
         dataMap = openMap(session, mapName);
     }
 
-    private TransactionMap<IndexKey, IndexKey> openMap(ServerSession session, String mapName) {
+    private static boolean hasVirtualColumn(Column[] columns) {
+        for (Column c : columns) {
+            if (c.isVirtual())
+                return true;
+        }
+        return false;
+    }
+
+    public void setPredicate(IExpression predicate, IExpression.Evaluator evaluator) {
+        this.predicate = predicate;
+        this.predicateEvaluator = evaluator;
+        HashSet<Column> set = new HashSet<>();
+        predicate.getColumns(set);
+        predicateColumns = set.toArray(new Column[0]);
+    }
+
+    @Override
+    public IExpression getPredicate() {
+        return predicate;
+    }
+
+    // 记录是否满足部分索引的过滤条件，跟WHERE一样，NULL也当成不满足，
+    // predicateEvaluator每次计算都用自己的当前记录，多个调度线程可以同时计算
+    private boolean isIndexed(ServerSession session, Row row, Value[] columnArray) {
+        if (predicate == null)
+            return true;
+        Value v = predicateEvaluator.getExpressionValue(session, predicate,
+                getRow(row, columnArray));
+        return v != ValueNull.INSTANCE && v.getBoolean();
+    }
+
+    // 过滤条件中的字段都没有变时，更新前后是否满足过滤条件也不会变
+    private boolean isIndexed(ServerSession session, Row oldRow, Row newRow, Value[] oldColumns,
+            int[] updateColumns, boolean oldIndexed) {
+        if (predicate == null || !needUpdate(predicateColumns, oldColumns, newRow.getColumns(),
+                updateColumns))
+            return oldIndexed;
+        return isIndexed(session, newRow, newRow.getColumns());
+    }
+
+    private static Row getRow(Row row, Value[] columnArray) {
+        return row.getColumns() == columnArray ? row : new Row(row.getKey(), columnArray);
+    }
+
+    private IndexKey convertToKey(ServerSession session, Row row, Value[] columnArray) {
+        if (hasVirtualColumns)
+            columnArray = computeVirtualColumns(session, row, columnArray);
+        return convertToKey(row, columnArray);
+    }
+
+    // 虚拟字段的值不在记录中，复制一份字段值，把用表达式算出来的值放到虚拟字段的位置
+    private Value[] computeVirtualColumns(ServerSession session, Row row, Value[] columnArray) {
+        int len = columnArray.length;
+        for (Column c : columns) {
+            if (c.isVirtual())
+                len = Math.max(len, c.getColumnId() + 1);
+        }
+        Value[] array = Arrays.copyOf(columnArray, len);
+        Row r = getRow(row, columnArray);
+        for (Column c : columns) {
+            if (c.isVirtual())
+                array[c.getColumnId()] = c.computeValue(session, r);
+        }
+        return array;
+    }
+
+    private static void checkIncludeColumnTypes(Column[] columns) {
+        for (Column c : columns) {
+            int type = c.getType();
+            if (type == Value.CLOB || type == Value.BLOB) {
+                throw DbException.getUnsupportedException(
+                        "Include BLOB or CLOB column: " + c.getCreateSQL());
+            }
+        }
+    }
+
+    @Override
+    public Column[] getIncludeColumns() {
+        return includeColumns;
+    }
+
+    @Override
+    public boolean isCovering(Set<Column> referencedColumns) {
+        int mainIndexColumn = table.getScanIndex(null).getMainIndexColumn();
+        for (Column c : referencedColumns) {
+            if (c.getTable() != table || c.getColumnId() < 0 || c.getColumnId() == mainIndexColumn)
+                continue;
+            if (getColumnIndex(c) < 0 && !isIncludeColumn(c))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isIncludeColumn(Column c) {
+        if (includeColumns != null) {
+            for (Column ic : includeColumns) {
+                if (ic == c)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    // IndexKey中每个字段的排序类型，子类在索引字段前面加了其他字段时需要覆盖
+    protected int[] getSortTypes() {
         int[] sortTypes = new int[indexColumns.length];
         for (int i = 0; i < indexColumns.length; i++) {
             sortTypes[i] = indexColumns[i].sortType;
         }
+        return sortTypes;
+    }
+
+    private TransactionMap<IndexKey, IndexKey> openMap(ServerSession session, String mapName) {
+        int[] sortTypes = getSortTypes();
         IndexKeyType keyType = IndexKeyType.create(database.getCompareMode(), sortTypes, this);
         Storage storage = database.getStorage(table.getStorageEngine());
         Map<String, String> parameters = table.getParameters();
@@ -99,7 +258,12 @@ public class StandardSecondaryIndex extends StandardDataIndex<IndexKey, IndexKey
 
     @Override
     public void add(ServerSession session, Row row, AsyncResultHandler<Integer> handler) {
-        final IndexKey key = convertToKey(row);
+        if (!isIndexed(session, row, row.getColumns())) {
+            if (!session.isFastPath())
+                onComplete(handler);
+            return;
+        }
+        final IndexKey key = convertToKey(session, row, row.getColumns());
         if (session.isFastPath()) {
             getStorageMap().put(key, key, AsyncResultHandler.emptyHandler());
             return;
@@ -123,33 +287,183 @@ public class StandardSecondaryIndex extends StandardDataIndex<IndexKey, IndexKey
     @Override
     public void update(ServerSession session, Row oldRow, Row newRow, Value[] oldColumns,
             int[] updateColumns, boolean isLockedBySelf, AsyncResultHandler<Integer> handler) {
-        boolean needUpdate = false;
-        // row key不同了都要更新索引
-        if (oldRow.getKey() != newRow.getKey()) {
-            needUpdate = true;
-        } else {
-            Value[] newColumns = newRow.getColumns();
-            // 只有索引字段被更新时且新值和旧值不同时才更新索引
-            for (Column c : columns) {
-                int cid = c.getColumnId();
-                if (StandardPrimaryIndex.containsColumn(updateColumns, cid)) {
-                    if (oldColumns[cid].compareTo(newColumns[cid]) != 0) {
-                        needUpdate = true;
-                        break;
-                    }
-                }
+        if (predicate != null) {
+            boolean oldIndexed = isIndexed(session, oldRow, oldColumns);
+            boolean newIndexed = isIndexed(session, oldRow, newRow, oldColumns, updateColumns,
+                    oldIndexed);
+            // 更新后记录进入或离开了部分索引的范围，只需要增加或删除索引key
+            if (oldIndexed != newIndexed) {
+                if (oldIndexed)
+                    remove(session, oldRow, oldColumns, isLockedBySelf, handler);
+                else
+                    add(session, newRow, handler);
+                return;
+            } else if (!oldIndexed) {
+                onComplete(handler);
+                return;
             }
         }
-        if (needUpdate)
+        if (needUpdate(oldRow, newRow, oldColumns, updateColumns))
             super.update(session, oldRow, newRow, oldColumns, updateColumns, isLockedBySelf, handler);
         else
             onComplete(handler);
     }
 
+    private boolean needUpdate(Row oldRow, Row newRow, Value[] oldColumns, int[] updateColumns) {
+        // row key不同了都要更新索引
+        if (oldRow.getKey() != newRow.getKey())
+            return true;
+        Value[] newColumns = newRow.getColumns();
+        // 虚拟字段的表达式中引用的字段变了，虚拟字段的值就可能变了
+        if (hasVirtualColumns
+                && needUpdate(virtualBaseColumns, oldColumns, newColumns, updateColumns))
+            return true;
+        // 只有索引字段被更新时且新值和旧值不同时才更新索引
+        if (needUpdate(columns, oldColumns, newColumns, updateColumns))
+            return true;
+        // include字段的值也保存在索引中，变了之后也要更新，
+        // 索引key没有变，会在同一个事务中先删除再增加，其他事务还是读到旧值
+        return includeColumns != null
+                && needUpdate(includeColumns, oldColumns, newColumns, updateColumns);
+    }
+
+    private static boolean needUpdate(Column[] columns, Value[] oldColumns, Value[] newColumns,
+            int[] updateColumns) {
+        for (Column c : columns) {
+            int cid = c.getColumnId();
+            if (StandardPrimaryIndex.containsColumn(updateColumns, cid)) {
+                if (oldColumns[cid].compareTo(newColumns[cid]) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void updateRows(ServerSession session, List<Row> oldRows, List<Row> newRows,
+            List<Value[]> oldColumnsList, int[] updateColumns, AsyncResultHandler<Integer> handler) {
+        if (session.isFastPath()) {
+            super.updateRows(session, oldRows, newRows, oldColumnsList, updateColumns, handler);
+            return;
+        }
+        int size = oldRows.size();
+        ArrayList<Row> removedRows = new ArrayList<>(size);
+        ArrayList<Row> addedRows = new ArrayList<>(size);
+        ArrayList<Value[]> removedColumnsList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Row oldRow = oldRows.get(i);
+            Row newRow = newRows.get(i);
+            Value[] oldColumns = oldColumnsList.get(i);
+            boolean oldIndexed = isIndexed(session, oldRow, oldColumns);
+            boolean newIndexed = isIndexed(session, oldRow, newRow, oldColumns, updateColumns,
+                    oldIndexed);
+            boolean changed = oldIndexed && newIndexed
+                    && needUpdate(oldRow, newRow, oldColumns, updateColumns);
+            if (oldIndexed && (changed || !newIndexed)) {
+                removedRows.add(oldRow);
+                removedColumnsList.add(oldColumns);
+            }
+            if (newIndexed && (changed || !oldIndexed)) {
+                addedRows.add(newRow);
+            }
+        }
+        // 先批量删除旧的索引key，只产生一条UndoLogRecord，然后再增加新的索引key
+        if (!removedRows.isEmpty())
+            removeKeys(session, removedRows, removedColumnsList);
+        if (addedRows.isEmpty()) {
+            onComplete(handler);
+            return;
+        }
+        addKeys(session, addedRows, handler);
+    }
+
+    @Override
+    public void addRows(ServerSession session, List<Row> rows, AsyncResultHandler<Integer> handler) {
+        if (session.isFastPath()) {
+            super.addRows(session, rows, handler);
+            return;
+        }
+        if (predicate != null) {
+            ArrayList<Row> indexedRows = new ArrayList<>(rows.size());
+            for (Row row : rows) {
+                if (isIndexed(session, row, row.getColumns()))
+                    indexedRows.add(row);
+            }
+            rows = indexedRows;
+        }
+        if (rows.isEmpty())
+            onComplete(handler);
+        else
+            addKeys(session, rows, handler);
+    }
+
+    // 按索引key排好序后批量放入，同一个leaf page中的key只需要加一次锁，并且只产生一条UndoLogRecord
+    private void addKeys(ServerSession session, List<Row> rows, AsyncResultHandler<Integer> handler) {
+        TransactionMap<IndexKey, IndexKey> map = getTransactionMap(session);
+        ArrayList<IndexKey> keys = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            keys.add(convertToKey(session, row, row.getColumns()));
+        }
+        keys.sort((k1, k2) -> map.getKeyType().compare(k1, k2));
+        AtomicReference<IndexKey> duplicateKey = new AtomicReference<>();
+        map.addIfAbsent(keys, keys, duplicateKey, ar -> {
+            if (ar.isSucceeded() && ar.getResult().intValue() == Transaction.OPERATION_DATA_DUPLICATE) {
+                DbException e = getDuplicateKeyException(duplicateKey.get().toString());
+                onException(handler, e);
+            } else {
+                handler.handle(ar);
+            }
+        });
+    }
+
+    @Override
+    public void removeRows(ServerSession session, List<Row> rows, List<Value[]> oldColumnsList,
+            AsyncResultHandler<Integer> handler) {
+        if (session.isFastPath()) {
+            super.removeRows(session, rows, oldColumnsList, handler);
+            return;
+        }
+        if (predicate != null) {
+            int size = rows.size();
+            ArrayList<Row> indexedRows = new ArrayList<>(size);
+            ArrayList<Value[]> indexedColumnsList = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                if (isIndexed(session, rows.get(i), oldColumnsList.get(i))) {
+                    indexedRows.add(rows.get(i));
+                    indexedColumnsList.add(oldColumnsList.get(i));
+                }
+            }
+            rows = indexedRows;
+            oldColumnsList = indexedColumnsList;
+        }
+        if (!rows.isEmpty())
+            removeKeys(session, rows, oldColumnsList);
+        onComplete(handler);
+    }
+
+    private void removeKeys(ServerSession session, List<Row> rows, List<Value[]> oldColumnsList) {
+        TransactionMap<IndexKey, IndexKey> map = getTransactionMap(session);
+        int size = rows.size();
+        ArrayList<IndexKey> keys = new ArrayList<>(size);
+        ArrayList<Lockable> lockables = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            IndexKey key = convertToKey(session, rows.get(i), oldColumnsList.get(i));
+            keys.add(key);
+            lockables.add(map.getLockableValue(key));
+        }
+        map.tryUpdateOrRemove(keys, null, lockables);
+    }
+
     @Override
     public void remove(ServerSession session, Row row, Value[] oldColumns, boolean isLockedBySelf,
             AsyncResultHandler<Integer> handler) {
-        IndexKey key = convertToKey(row, oldColumns);
+        if (!isIndexed(session, row, oldColumns)) {
+            if (!session.isFastPath())
+                onComplete(handler);
+            return;
+        }
+        IndexKey key = convertToKey(session, row, oldColumns);
         if (session.isFastPath()) {
             getStorageMap().remove(key, AsyncResultHandler.emptyHandler());
             return;
@@ -202,45 +516,135 @@ public class StandardSecondaryIndex extends StandardDataIndex<IndexKey, IndexKey
             } else {
                 return new SsiRegularCursor(session, tmCursor, last);
             }
+        } else if (isSkipScan(first, last)) {
+            return new SsiSkipScanCursor(session, map, first, last);
         } else {
             return new SsiRegularCursor(session, map.cursor(min), last);
         }
     }
 
+    // 第一个索引字段没有条件，而第二个索引字段有条件时，按第一个字段的不同值逐个定位到子范围中查找
+    private boolean isSkipScan(SearchRow first, SearchRow last) {
+        if (columns.length < 2)
+            return false;
+        int leading = columns[0].getColumnId();
+        int second = columns[1].getColumnId();
+        if (first != null && first.getValue(leading) != null
+                || last != null && last.getValue(leading) != null)
+            return false;
+        if ((first == null || first.getValue(second) == null)
+                && (last == null || last.getValue(second) == null))
+            return false;
+        return canSkipScan(dataMap.getRawSize());
+    }
+
+    private boolean canSkipScan(long rowCount) {
+        return getLeadingDistinctCount(rowCount) <= rowCount / SKIP_SCAN_MIN_ROWS_PER_KEY;
+    }
+
+    // 估算第一个索引字段有多少个不同的值，有直方图时用统计出来的值，否则用selectivity
+    private long getLeadingDistinctCount(long rowCount) {
+        Column c = columns[0];
+        ColumnStatistics statistics = c.getStatistics();
+        long distinct;
+        if (statistics != null) {
+            distinct = statistics.getDistinctCount();
+            if (statistics.getNullCount() > 0)
+                distinct++;
+        } else {
+            distinct = rowCount * c.getSelectivity() / 100;
+        }
+        return Math.max(Math.min(distinct, rowCount), 1);
+    }
+
+    /**
+     * Calculate the cost of a skip scan, that is seeking once for each distinct value
+     * of the first index column and then searching the range of the following columns.
+     *
+     * @param masks the search mask
+     * @param fractions per-column fraction of matching rows, 0 means unknown
+     * @param rowCount the number of rows in the index
+     * @param sortOrder the sort order
+     * @return the estimated cost, or Long.MAX_VALUE if a skip scan can not be used
+     */
+    private long getSkipScanCost(int[] masks, double[] fractions, long rowCount,
+            SortOrder sortOrder) {
+        if (masks == null || columns.length < 2 || masks[columns[0].getColumnId()] != 0
+                || masks[columns[1].getColumnId()] == 0 || !canSkipScan(rowCount))
+            return Long.MAX_VALUE;
+        // 每个子范围的代价相当于第一个索引字段是等值条件时的代价
+        int[] leadingMasks = masks.clone();
+        leadingMasks[columns[0].getColumnId()] = IndexConditionType.EQUALITY;
+        long cost = getCostRangeIndex(leadingMasks, fractions, rowCount, sortOrder);
+        return getLeadingDistinctCount(rowCount) * cost;
+    }
+
     public IndexKey convertToKey(SearchRow r) {
         if (r == null)
             return null;
         return convertToKey(r, r.getColumns());
     }
 
-    private IndexKey convertToKey(SearchRow r, Value[] columnArray) {
+    protected IndexKey convertToKey(SearchRow r, Value[] columnArray) {
         if (r == null)
             return null;
         int len = columns.length;
-        Value[] array = new Value[len];
+        Value[] array = new Value[includeColumns == null ? len : len + includeColumns.length];
         for (int i = 0; i < len; i++) {
-            Column c = columns[i];
-            int idx = c.getColumnId();
-            Value v = columnArray[idx];
-            if (v != null) {
-                if (c.isEnumType()) {
-                    try {
-                        array[i] = c.convert(v);
-                    } catch (Throwable t) {
-                        array[i] = ValueEnum.get(-1);
-                    }
-                } else {
-                    array[i] = v.convertTo(c.getType());
-                }
+            array[i] = convertValue(columns[i], columnArray);
+        }
+        if (includeColumns != null) {
+            for (int i = 0; i < includeColumns.length; i++) {
+                array[len + i] = convertValue(includeColumns[i], columnArray);
             }
         }
         return IndexKey.create(r.getKey(), array);
     }
 
+    protected static Value convertValue(Column c, Value[] columnArray) {
+        Value v = columnArray[c.getColumnId()];
+        if (v == null)
+            return null;
+        if (c.isEnumType()) {
+            try {
+                return c.convert(v);
+            } catch (Throwable t) {
+                return ValueEnum.get(-1);
+            }
+        } else {
+            return v.convertTo(c.getType());
+        }
+    }
+
     @Override
     public double getCost(ServerSession session, int[] masks, SortOrder sortOrder) {
+        return getCost(session, masks, null, sortOrder);
+    }
+
+    @Override
+    public double getCost(ServerSession session, int[] masks, double[] fractions,
+            SortOrder sortOrder) {
+        return getCost(session, masks, fractions, sortOrder, null);
+    }
+
+    @Override
+    public double getCost(ServerSession session, int[] masks, double[] fractions,
+            SortOrder sortOrder, Set<Column> referencedColumns) {
         try {
-            return 10 * getCostRangeIndex(masks, dataMap.getRawSize(), sortOrder);
+            long rowCount = dataMap.getRawSize();
+            long cost = getCostRangeIndex(masks, fractions, rowCount, sortOrder);
+            long skipScanCost = getSkipScanCost(masks, fractions, rowCount, sortOrder);
+            boolean skipScan = skipScanCost < cost;
+            if (skipScan)
+                cost = skipScanCost;
+            // 只读索引就够了(index-only scan)时不需要再按row key到主索引中找记录，
+            // 普通索引只在按范围查找时才考虑，全索引扫描不比全表扫描快多少
+            if (referencedColumns != null && isCovering(referencedColumns)
+                    && (includeColumns != null || skipScan
+                            || masks != null && masks[columns[0].getColumnId()] != 0)) {
+                return 5 * cost;
+            }
+            return 10 * cost;
         } catch (IllegalStateException e) {
             throw DbException.get(ErrorCode.OBJECT_CLOSED, e);
         }
@@ -263,9 +667,14 @@ public class StandardSecondaryIndex extends StandardDataIndex<IndexKey, IndexKey
         return convertToSearchRow(key);
     }
 
+    @Override
+    public boolean canGetFirstOrLast() {
+        return predicate == null;
+    }
+
     @Override
     public boolean supportsDistinctQuery() {
-        return true;
+        return predicate == null;
     }
 
     @Override
@@ -283,18 +692,29 @@ public class StandardSecondaryIndex extends StandardDataIndex<IndexKey, IndexKey
         }
     }
 
+    /**
+     * Check if the cursor has gone past the last row of the search range.
+     *
+     * @param searchRow the current row
+     * @param last the last row of the search range
+     * @return true if the cursor should stop
+     */
+    protected boolean isAfterLast(SearchRow searchRow, SearchRow last) {
+        return compareRows(searchRow, last) > 0;
+    }
+
     /**
      * Convert array of values to a SearchRow.
      *
      * @param iKey the index key
      * @return the row
      */
-    private SearchRow convertToSearchRow(IndexKey iKey) {
+    protected SearchRow convertToSearchRow(IndexKey iKey) {
         Value[] array = iKey.getColumns();
-        int len = array.length;
-        SearchRow searchRow = table.getTemplateRow();
+        SearchRow searchRow = table.getTemplateSearchRow();
         searchRow.setKey(iKey.getKey());
         Column[] cols = getColumns();
+        int len = Math.min(array.length, cols.length);
         for (int i = 0; i < len; i++) {
             Column c = cols[i];
             int idx = c.getColumnId();
@@ -303,6 +723,16 @@ public class StandardSecondaryIndex extends StandardDataIndex<IndexKey, IndexKey
                 v = c.convert(v);
             searchRow.setValue(idx, v);
         }
+        // include字段在索引字段后面，TableFilter可以直接从SearchRow中读取它们
+        if (includeColumns != null && array.length > cols.length) {
+            for (int i = 0; i < includeColumns.length; i++) {
+                Column c = includeColumns[i];
+                Value v = array[cols.length + i];
+                if (c.isEnumType())
+                    v = c.convert(v);
+                searchRow.setValue(c.getColumnId(), v);
+            }
+        }
         int idx = table.getScanIndex(null).getMainIndexColumn();
         if (idx >= 0) {
             Column c = table.getColumn(idx);
@@ -356,8 +786,9 @@ public class StandardSecondaryIndex extends StandardDataIndex<IndexKey, IndexKey
 
         protected IndexKey getIndexKey(TransactionMapCursor<IndexKey, IndexKey> tmCursor) {
             IndexKey current = tmCursor.getKey();
-            // 正在被删除时，读老的
-            if (current.getLockedValue() == null)
+            // 正在被删除时，读老的，
+            // 有include字段时总是读当前事务可见的版本，其他事务未提交的include字段值不能被读到
+            if (current.getLockedValue() == null || includeColumns != null)
                 current = tmCursor.getValue();
             return current;
         }
@@ -383,7 +814,7 @@ public class StandardSecondaryIndex extends StandardDataIndex<IndexKey, IndexKey
             if (tmCursor.next()) {
                 IndexKey current = getIndexKey(tmCursor);
                 searchRow = createSearchRow(current);
-                if (searchRow != null && last != null && compareRows(searchRow, last) > 0) {
+                if (searchRow != null && last != null && isAfterLast(searchRow, last)) {
                     searchRow = null;
                 }
             } else {
@@ -415,7 +846,7 @@ public class StandardSecondaryIndex extends StandardDataIndex<IndexKey, IndexKey
                 if (tmCursor.next()) {
                     IndexKey current = getIndexKey(tmCursor);
                     searchRow = createSearchRow(current);
-                    if (searchRow != null && last != null && compareRows(searchRow, last) > 0) {
+                    if (searchRow != null && last != null && isAfterLast(searchRow, last)) {
                         searchRow = null;
                     }
                 } else {
@@ -436,6 +867,84 @@ public class StandardSecondaryIndex extends StandardDataIndex<IndexKey, IndexKey
         }
     }
 
+    private class SsiSkipScanCursor extends StandardSecondaryIndexCursor {
+
+        private final TransactionMap<IndexKey, IndexKey> map;
+        private final SearchRow first;
+        private final SearchRow last;
+        private final int leadingColumnId;
+        private TransactionMapCursor<IndexKey, IndexKey> tmCursor;
+        private Value leading; // 当前子范围中第一个索引字段的值
+
+        public SsiSkipScanCursor(ServerSession session, TransactionMap<IndexKey, IndexKey> map,
+                SearchRow first, SearchRow last) {
+            super(session);
+            this.map = map;
+            this.leadingColumnId = columns[0].getColumnId();
+            // 复制一份，因为每个子范围都要修改第一个索引字段的值
+            this.first = copySearchRow(first);
+            this.last = last == null ? null : copySearchRow(last);
+        }
+
+        private SearchRow copySearchRow(SearchRow row) {
+            SearchRow copy = table.getTemplateSearchRow();
+            if (row != null) {
+                for (Column c : columns) {
+                    int id = c.getColumnId();
+                    copy.setValue(id, row.getValue(id));
+                }
+            }
+            return copy;
+        }
+
+        @Override
+        protected SearchRow nextSearchRow() {
+            while (true) {
+                if (tmCursor == null && !nextRange()) {
+                    return null;
+                }
+                if (!tmCursor.next()) {
+                    return null;
+                }
+                IndexKey current = getIndexKey(tmCursor);
+                SearchRow searchRow = createSearchRow(current);
+                // 已经到了下一个值或者超出了当前子范围，跳到下一个值
+                if (!isSameLeading(searchRow.getValue(leadingColumnId))
+                        || last != null && compareRows(searchRow, last) > 0) {
+                    tmCursor = null;
+                    continue;
+                }
+                return searchRow;
+            }
+        }
+
+        private boolean nextRange() {
+            // 只有第一个字段的IndexKey排在所有以它开头的IndexKey后面
+            IndexKey prefix = leading == null ? null
+                    : new CompoundIndexKey(Long.MAX_VALUE, new Value[] { leading });
+            IndexKey next = map.higherKey(prefix);
+            if (next == null) {
+                return false;
+            }
+            leading = next.getColumns()[0];
+            first.setValue(leadingColumnId, leading);
+            if (last != null)
+                last.setValue(leadingColumnId, leading);
+            IndexKey min = convertToKey(first);
+            min.setKey(Long.MIN_VALUE);
+            tmCursor = map.cursor(min);
+            return true;
+        }
+
+        private boolean isSameLeading(Value v) {
+            if (v == leading)
+                return true;
+            if (v == ValueNull.INSTANCE || leading == ValueNull.INSTANCE)
+                return false;
+            return table.compareTypeSafe(v, leading) == 0;
+        }
+    }
+
     private class SsiDistinctCursor extends StandardSecondaryIndexCursor {
 
         private final TransactionMap<IndexKey, IndexKey> map;
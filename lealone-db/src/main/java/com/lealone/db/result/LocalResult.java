@@ -8,7 +8,9 @@ package com.lealone.db.result;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.Utils;
@@ -44,6 +46,11 @@ public class LocalResult implements Result, ResultTarget {
     private boolean distinct;
     private boolean closed;
 
+    // 有排序和limit时只保留最前面的topN行，堆顶是当前保留的行中排在最后的那一行
+    private PriorityQueue<TopNRow> topNRows;
+    private int topN;
+    private long topNRowId;
+
     /**
      * Construct a local result object.
      */
@@ -115,6 +122,26 @@ public class LocalResult implements Result, ResultTarget {
         return copy;
     }
 
+    /**
+     * 创建一个只读的浅拷贝，多个session可以同时读。
+     * 拷贝中的行已经做完了distinct、排序、offset和limit，调用done()时不会再修改共用的行。
+     *
+     * @param targetSession the session of the copy
+     * @return 结果集在磁盘上时返回null
+     */
+    public LocalResult createReadOnlyCopy(ServerSession targetSession) {
+        if (external != null) {
+            return null;
+        }
+        LocalResult copy = createShallowCopy(targetSession);
+        if (copy != null) {
+            copy.sort = null;
+            copy.distinct = false;
+            copy.distinctRows = null;
+        }
+        return copy;
+    }
+
     /**
      * Set the sort order.
      *
@@ -124,6 +151,47 @@ public class LocalResult implements Result, ResultTarget {
         this.sort = sort;
     }
 
+    /**
+     * Only keep the first topN rows according to the sort order.
+     * Must be called after setSortOrder and before any row is added.
+     * If topN is bigger than maxMemoryRows, all rows are kept as before.
+     *
+     * @param topN offset + limit
+     */
+    public void setTopN(int topN) {
+        if (sort != null && !distinct && external == null && rowCount == 0 && topN > 0
+                && topN <= maxMemoryRows) {
+            this.topN = topN;
+            topNRows = new PriorityQueue<>(Math.min(topN, 1024) + 1, (r1, r2) -> compare(r2, r1));
+        }
+    }
+
+    private int compare(TopNRow r1, TopNRow r2) {
+        int comp = sort.compare(r1.values, r2.values);
+        // 排序字段相同时先加入的排在前面，跟全部排序时的结果一样
+        return comp != 0 ? comp : Long.compare(r1.id, r2.id);
+    }
+
+    private void addTopNRow(Value[] values) {
+        if (topNRows.size() < topN) {
+            topNRows.add(new TopNRow(values, topNRowId++));
+        } else if (sort.compare(values, topNRows.peek().values) < 0) {
+            topNRows.poll();
+            topNRows.add(new TopNRow(values, topNRowId++));
+        }
+        rowCount = topNRows.size();
+    }
+
+    private static class TopNRow {
+        final Value[] values;
+        final long id;
+
+        TopNRow(Value[] values, long id) {
+            this.values = values;
+            this.id = id;
+        }
+    }
+
     /**
      * Remove duplicate rows.
      */
@@ -239,11 +307,18 @@ public class LocalResult implements Result, ResultTarget {
             }
             return false;
         }
+        if (topNRows != null) {
+            addTopNRow(values);
+            return false;
+        }
         rows.add(values);
         rowCount++;
         if (rows.size() > maxMemoryRows) {
             if (external == null) {
-                external = new ResultTempMap(session, expressions, false, sort);
+                if (sort != null)
+                    external = new ResultExternalSort(session, expressions, sort);
+                else
+                    external = new ResultTempMap(session, expressions, false, sort);
             }
             addRowsToDisk();
         }
@@ -264,6 +339,20 @@ public class LocalResult implements Result, ResultTarget {
      * This method is called after all rows have been added.
      */
     public void done() {
+        if (topNRows != null) {
+            TopNRow[] a = topNRows.toArray(new TopNRow[0]);
+            Arrays.sort(a, this::compare);
+            rows = new ArrayList<>(a.length);
+            for (TopNRow r : a)
+                rows.add(r.values);
+            rowCount = rows.size();
+            topNRows = null;
+            // 已经排好序了
+            applyOffset();
+            applyLimit();
+            reset();
+            return;
+        }
         if (distinct) {
             if (distinctRows != null) {
                 rows = distinctRows.values();
@@ -272,7 +361,7 @@ public class LocalResult implements Result, ResultTarget {
                 if (external != null && sort != null) {
                     ResultExternal temp = external;
                     // 只做排序了，所以传false
-                    external = new ResultTempMap(session, expressions, false, sort);
+                    external = new ResultExternalSort(session, expressions, sort);
                     temp.reset();
                     rows = new ArrayList<>();
                     // offset和limit只作用于最终结果
@@ -0,0 +1,258 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.result;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.db.Constants;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.Value;
+import com.lealone.sql.IExpression;
+
+/**
+ * 外部排序，只用于不需要去重的排序结果。
+ * <p>
+ * 加入的记录先放在内存中，占用的字节数超过maxSortMemory后排好序顺序写到一个run文件(ResultTempFile)，
+ * done()之后在next()中对所有的run做k路归并，每个run只需要一个读缓冲区。
+ * run太多时先分批归并成更大的run，避免同时打开太多文件。
+ * <p>
+ * 排序字段相同的记录按加入的顺序返回，跟在内存中排序的结果一样。
+ */
+// 单线程操作
+public class ResultExternalSort implements ResultExternal {
+
+    private static final int MAX_MERGE_RUNS = 64; // 一次最多归并的run个数
+
+    private final ServerSession session;
+    private final SortOrder sort;
+    private final int columnCount;
+    private final int maxSortMemory;
+    private final ResultExternalSort parent;
+
+    private ArrayList<Value[]> buffer = new ArrayList<>();
+    private long bufferMemory;
+    private ArrayList<ResultTempFile> runs = new ArrayList<>();
+    private ArrayList<Value[]> lastRun; // 最后一批不用写文件，直接在内存中参与归并
+    private int rowCount;
+
+    private boolean closed;
+    private int childCount;
+
+    private PriorityQueue<RunReader> readers;
+
+    ResultExternalSort(ServerSession session, IExpression[] expressions, SortOrder sort) {
+        this.session = session;
+        this.sort = sort;
+        columnCount = expressions.length;
+        maxSortMemory = session.getDatabase().getMaxSortMemory();
+        parent = null;
+    }
+
+    private ResultExternalSort(ResultExternalSort parent) {
+        this.session = parent.session;
+        this.sort = parent.sort;
+        this.columnCount = parent.columnCount;
+        this.maxSortMemory = parent.maxSortMemory;
+        this.parent = parent;
+        this.runs = parent.runs;
+        this.lastRun = parent.lastRun;
+        this.rowCount = parent.rowCount;
+        this.buffer = null;
+    }
+
+    @Override
+    public ResultExternal createShallowCopy() {
+        if (parent != null) {
+            return parent.createShallowCopy();
+        }
+        if (closed) {
+            return null;
+        }
+        childCount++;
+        return new ResultExternalSort(this);
+    }
+
+    @Override
+    public int removeDistinct(Value[] values) {
+        throw DbException.throwInternalError();
+    }
+
+    @Override
+    public boolean containsDistinct(Value[] values) {
+        throw DbException.throwInternalError();
+    }
+
+    @Override
+    public int addRow(Value[] values) {
+        buffer.add(values);
+        bufferMemory += getMemory(values);
+        rowCount++;
+        if (bufferMemory > maxSortMemory) {
+            runs.add(writeRun(buffer));
+            buffer = new ArrayList<>();
+            bufferMemory = 0;
+        }
+        return rowCount;
+    }
+
+    @Override
+    public int addRows(ArrayList<Value[]> rows) {
+        for (Value[] values : rows) {
+            addRow(values);
+        }
+        return rowCount;
+    }
+
+    private static int getMemory(Value[] values) {
+        int memory = Constants.MEMORY_OBJECT + values.length * Constants.MEMORY_POINTER;
+        for (Value v : values) {
+            if (v != null)
+                memory += v.getMemory();
+        }
+        return memory;
+    }
+
+    @Override
+    public void done() {
+        if (buffer == null)
+            return;
+        sort.sort(buffer);
+        lastRun = buffer;
+        buffer = null;
+        // 分批归并，相邻的run合并后仍然放在原来的位置，这样排序字段相同的记录还是按加入的顺序返回
+        while (runs.size() + 1 > MAX_MERGE_RUNS) {
+            ArrayList<ResultTempFile> newRuns = new ArrayList<>();
+            for (int i = 0, size = runs.size(); i < size; i += MAX_MERGE_RUNS) {
+                int end = Math.min(i + MAX_MERGE_RUNS, size);
+                if (end - i == 1) {
+                    newRuns.add(runs.get(i));
+                } else {
+                    newRuns.add(mergeRuns(runs.subList(i, end)));
+                }
+            }
+            runs = newRuns;
+        }
+    }
+
+    private ResultTempFile mergeRuns(List<ResultTempFile> list) {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(list.size(), this::compare);
+        for (int i = 0, size = list.size(); i < size; i++) {
+            RunReader r = new RunReader(list.get(i), null, i);
+            if (r.next())
+                queue.add(r);
+        }
+        ResultTempFile run = new ResultTempFile(session.getDatabase(), columnCount);
+        while (!queue.isEmpty()) {
+            RunReader r = queue.poll();
+            run.addRow(r.current);
+            if (r.next())
+                queue.add(r);
+        }
+        run.done();
+        for (ResultTempFile r : list)
+            r.close();
+        return run;
+    }
+
+    private ResultTempFile writeRun(ArrayList<Value[]> rows) {
+        sort.sort(rows);
+        ResultTempFile run = new ResultTempFile(session.getDatabase(), columnCount);
+        for (Value[] values : rows)
+            run.addRow(values);
+        run.done();
+        return run;
+    }
+
+    private int compare(RunReader r1, RunReader r2) {
+        int comp = sort.compare(r1.current, r2.current);
+        return comp != 0 ? comp : Integer.compare(r1.index, r2.index);
+    }
+
+    @Override
+    public Value[] next() {
+        if (readers == null) {
+            int size = runs.size() + 1;
+            readers = new PriorityQueue<>(size, this::compare);
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader r = new RunReader(runs.get(i), null, i);
+                if (r.next())
+                    readers.add(r);
+            }
+            RunReader r = new RunReader(null, lastRun, runs.size());
+            if (r.next())
+                readers.add(r);
+        }
+        RunReader r = readers.poll();
+        if (r == null)
+            return null;
+        Value[] values = r.current;
+        if (r.next())
+            readers.add(r);
+        return values;
+    }
+
+    @Override
+    public void reset() {
+        readers = null;
+    }
+
+    private void closeChild() {
+        if (--childCount == 0 && closed) {
+            closeRuns();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        readers = null;
+        if (parent != null) {
+            parent.closeChild();
+        } else {
+            if (childCount == 0) {
+                closeRuns();
+            }
+        }
+    }
+
+    private void closeRuns() {
+        for (ResultTempFile run : runs)
+            run.close();
+        runs.clear();
+        buffer = null;
+        lastRun = null;
+    }
+
+    // 顺序读取一个run，lastRun还在内存中时直接遍历
+    private static class RunReader {
+
+        private final ResultTempFile.Reader reader;
+        private final ArrayList<Value[]> rows;
+        private final int index;
+        private int rowIndex;
+        private Value[] current;
+
+        RunReader(ResultTempFile run, ArrayList<Value[]> rows, int index) {
+            this.reader = run == null ? null : run.createReader();
+            this.rows = rows;
+            this.index = index;
+        }
+
+        boolean next() {
+            if (rows != null)
+                current = rowIndex < rows.size() ? rows.get(rowIndex++) : null;
+            else
+                current = reader.next();
+            return current != null;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.result;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.db.Constants;
+import com.lealone.db.DataBuffer;
+import com.lealone.db.Database;
+import com.lealone.db.SysProperties;
+import com.lealone.db.value.Value;
+import com.lealone.storage.fs.FileStorage;
+import com.lealone.storage.fs.FileUtils;
+
+/**
+ * 只能顺序写、顺序读的临时文件，用来存放外部排序和hash聚合溢出到磁盘的记录。
+ * <p>
+ * 每条记录的格式是[字节数, 字段值...]，所有记录的字段个数相同。
+ * 写完之后调用done()，然后可以创建多个Reader各自从头开始读。
+ */
+public class ResultTempFile {
+
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final FileStorage file;
+    private final int columnCount;
+    private DataBuffer writeBuffer = DataBuffer.create(WRITE_BUFFER_SIZE);
+    private long length;
+    private long rowCount;
+
+    public ResultTempFile(Database db, int columnCount) {
+        this.columnCount = columnCount;
+        String path = db.getDatabasePath();
+        if (path == null || path.isEmpty()) {
+            path = SysProperties.PREFIX_TEMP_FILE;
+        }
+        String fileName;
+        try {
+            fileName = FileUtils.createTempFile(path, Constants.SUFFIX_TEMP_FILE, true, true);
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, path);
+        }
+        file = db.openFile(fileName, "rw", false);
+        file.autoDelete();
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public void addRow(Value[] values) {
+        DataBuffer buff = writeBuffer;
+        int start = buff.position();
+        buff.putInt(0);
+        for (int i = 0; i < columnCount; i++)
+            buff.writeValue(values[i]);
+        buff.putInt(start, buff.position() - start - 4);
+        rowCount++;
+        if (buff.position() >= WRITE_BUFFER_SIZE)
+            flush();
+    }
+
+    private void flush() {
+        ByteBuffer b = writeBuffer.getAndFlipBuffer();
+        int len = b.remaining();
+        if (len > 0) {
+            file.writeFully(length, b);
+            length += len;
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * 所有记录都写完了
+     */
+    public void done() {
+        if (writeBuffer != null) {
+            flush();
+            writeBuffer = null;
+        }
+    }
+
+    public Reader createReader() {
+        return new Reader();
+    }
+
+    public void close() {
+        writeBuffer = null;
+        file.closeAndDeleteSilently();
+    }
+
+    public class Reader {
+
+        private ByteBuffer readBuff;
+        private long readPos; // readBuff在文件中的起始位置
+
+        /**
+         * 读下一条记录
+         *
+         * @return 下一条记录，已经读完了就返回null
+         */
+        public Value[] next() {
+            if (!ensure(4))
+                return null;
+            int len = readBuff.getInt();
+            if (!ensure(len))
+                throw DbException.throwInternalError("unexpected end of temp file " + file);
+            Value[] values = new Value[columnCount];
+            for (int i = 0; i < columnCount; i++)
+                values[i] = DataBuffer.readValue(readBuff);
+            return values;
+        }
+
+        // 确保读缓冲区中至少还有len个字节，文件读完了就返回false
+        private boolean ensure(int len) {
+            if (readBuff != null && readBuff.remaining() >= len)
+                return true;
+            long pos = readBuff == null ? 0 : readPos + readBuff.position();
+            long remaining = length - pos;
+            if (remaining < len)
+                return false;
+            int size = (int) Math.min(Math.max(len, READ_BUFFER_SIZE), remaining);
+            readBuff = file.readFully(pos, size);
+            readPos = pos;
+            return true;
+        }
+    }
+}
@@ -136,7 +136,7 @@ public class ResultTempMap implements ResultExternal {
             if (sortColumnIndexes != null) {
                 Value[] key = new Value[sortColumnIndexes.length + 1];
                 for (int i = 0; i < sortColumnIndexes.length; i++) {
-                    key[i] = values[i];
+                    key[i] = values[sortColumnIndexes[i]];
                 }
                 key[sortColumnIndexes.length] = ValueLong.get(rowCount);
                 storageMap.put(ValueArray.get(key), a);
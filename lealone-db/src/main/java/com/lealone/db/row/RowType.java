@@ -66,6 +66,11 @@ public class RowType extends StandardDataType {
         return 32 + getColumnsMemory(r);
     }
 
+    // 只估算row当前的字段，不考虑锁
+    public static int getMemory(Row r) {
+        return 32 + getColumnsMemory(r.getColumns());
+    }
+
     @Override
     public int getColumnsMemory(Object obj) {
         return getColumnsMemory((Value[]) obj);
@@ -30,6 +30,7 @@ import com.lealone.db.row.Row;
 import com.lealone.db.service.Service;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.table.CreateTableData;
+import com.lealone.db.table.MaterializedView;
 import com.lealone.db.table.StandardTable;
 import com.lealone.db.table.Table;
 import com.lealone.db.table.TableFactory;
@@ -735,18 +736,25 @@ public class Schema extends DbObjectBase {
      * @return the created {@link Table} object
      */
     public Table createTable(CreateTableData data) {
+        StorageEngine engine = getStorageEngine(data);
+        if (engine instanceof TableFactory) {
+            return ((TableFactory) engine).createTable(data);
+        }
+        return new StandardTable(data, engine);
+    }
+
+    public MaterializedView createMaterializedView(CreateTableData data, String querySQL) {
+        return new MaterializedView(data, getStorageEngine(data), querySQL);
+    }
+
+    private StorageEngine getStorageEngine(CreateTableData data) {
         data.schema = this;
         // 用默认的数据库参数
         if (data.storageEngineName == null) {
             data.storageEngineName = database.getDefaultStorageEngineName();
         }
         if (data.storageEngineName != null) {
-            StorageEngine engine = PluggableEngine.getEngine(StorageEngine.class,
-                    data.storageEngineName);
-            if (engine instanceof TableFactory) {
-                return ((TableFactory) engine).createTable(data);
-            }
-            return new StandardTable(data, engine);
+            return PluggableEngine.getEngine(StorageEngine.class, data.storageEngineName);
         }
         throw DbException.convert(new NullPointerException("table engine is null"));
     }
@@ -0,0 +1,48 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.session;
+
+import com.lealone.common.util.SmallLRUCache;
+
+/**
+ * 数据库级别的动态编译类缓存，所有session共用。
+ * <p>
+ * key是生成的源代码，相同的表达式只需要编译一次。每个类都有自己的ClassLoader，
+ * 淘汰出去的类在没有语句使用后就可以被卸载，不会一直占用metaspace。
+ */
+public class CompiledClassCache {
+
+    private static final int MAX_SIZE = 256;
+
+    private final SmallLRUCache<String, Class<?>> classes = SmallLRUCache.newInstance(MAX_SIZE);
+    private long hits;
+    private long misses;
+
+    public synchronized Class<?> get(String key) {
+        Class<?> clz = classes.get(key);
+        if (clz != null)
+            hits++;
+        else
+            misses++;
+        return clz;
+    }
+
+    public synchronized void put(String key, Class<?> clz) {
+        classes.put(key, clz);
+    }
+
+    public synchronized int size() {
+        return classes.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.session;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.lealone.db.Database;
+import com.lealone.sql.PreparedSQLStatement;
+
+/**
+ * 数据库级别的执行计划缓存，所有session共用。
+ * <p>
+ * session的语句缓存满了或者session关闭时，把已经关闭的语句放到这里，
+ * 其他session遇到相同的SQL、用户、当前schema、schema搜索路径和相关的session设置时，
+ * 直接取出来换成自己的session，不用再解析和优化。执行DDL后modificationMetaId变了，缓存的语句全部作废。
+ */
+public class PlanCache {
+
+    private final Database database;
+    // key是ServerSession.getPlanCacheKey返回的字符串，同一个key可能有多个空闲的语句
+    private final LinkedHashMap<String, ArrayDeque<PreparedSQLStatement>> statements = //
+            new LinkedHashMap<>(16, 0.75f, true);
+    private int size; // 缓存的语句个数
+    private long modificationMetaId = -1;
+
+    public PlanCache(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * 取出一个空闲的语句，取出后其他session就不能再用了
+     *
+     * @param key 语句的key
+     * @return 没有时返回null
+     */
+    public synchronized PreparedSQLStatement take(String key) {
+        if (size == 0 || !checkModificationMetaId())
+            return null;
+        ArrayDeque<PreparedSQLStatement> queue = statements.get(key);
+        if (queue == null)
+            return null;
+        PreparedSQLStatement ps = queue.poll();
+        if (queue.isEmpty())
+            statements.remove(key);
+        size--;
+        return ps;
+    }
+
+    /**
+     * 放入一个已经关闭的语句
+     *
+     * @param key 语句的key
+     * @param ps 语句
+     * @param modificationMetaId 准备语句时数据库的modificationMetaId
+     */
+    public synchronized void offer(String key, PreparedSQLStatement ps, long modificationMetaId) {
+        int maxSize = database.getSettings().planCacheSize;
+        if (maxSize <= 0) {
+            clear();
+            return;
+        }
+        checkModificationMetaId();
+        if (modificationMetaId != this.modificationMetaId)
+            return;
+        // 先淘汰最久没用的
+        Iterator<Map.Entry<String, ArrayDeque<PreparedSQLStatement>>> it = statements.entrySet()
+                .iterator();
+        while (size >= maxSize && it.hasNext()) {
+            ArrayDeque<PreparedSQLStatement> queue = it.next().getValue();
+            queue.poll();
+            if (queue.isEmpty())
+                it.remove();
+            size--;
+        }
+        statements.computeIfAbsent(key, k -> new ArrayDeque<>()).add(ps);
+        size++;
+    }
+
+    public synchronized void clear() {
+        statements.clear();
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private boolean checkModificationMetaId() {
+        long id = database.getModificationMetaId();
+        if (id != modificationMetaId) {
+            clear();
+            modificationMetaId = id;
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.session;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.lealone.db.Constants;
+import com.lealone.db.Database;
+import com.lealone.db.DbSettings;
+import com.lealone.db.result.LocalResult;
+import com.lealone.db.value.DataType;
+import com.lealone.db.value.Value;
+
+/**
+ * 数据库级别的查询结果缓存，所有session共用。
+ * <p>
+ * key是查询的执行计划SQL加上参数值，每个结果记下查询开始前用到的表的最大修改id，
+ * 只要这些表没有被修改过结果就能用，其他表的修改不会让它失效。
+ * 按最近最少使用淘汰，结果个数和估算的内存都有上限。执行DDL后modificationMetaId变了，缓存全部作废。
+ *
+ * @author zhh
+ */
+public class ResultCache {
+
+    private static class CachedResult {
+        final LocalResult result;
+        final long dataModificationId;
+        final long memory;
+
+        CachedResult(LocalResult result, long dataModificationId, long memory) {
+            this.result = result;
+            this.dataModificationId = dataModificationId;
+            this.memory = memory;
+        }
+    }
+
+    private final Database database;
+    private final LinkedHashMap<String, CachedResult> results = new LinkedHashMap<>(16, 0.75f, true);
+    private long memory; // 缓存的所有结果估算占用的字节数
+    private long modificationMetaId = -1;
+    private long hits;
+    private long misses;
+
+    public ResultCache(Database database) {
+        this.database = database;
+    }
+
+    public boolean isEnabled() {
+        DbSettings settings = database.getSettings();
+        return settings.resultCacheSize > 0 && settings.resultCacheMemory > 0;
+    }
+
+    /**
+     * 取出缓存的结果
+     *
+     * @param session 当前session
+     * @param key 查询的key
+     * @param dataModificationId 查询用到的表当前的最大修改id
+     * @return 没有或者表已经被修改过时返回null，否则返回结果的只读拷贝
+     */
+    public synchronized LocalResult get(ServerSession session, String key, long dataModificationId) {
+        checkModificationMetaId();
+        CachedResult r = results.get(key);
+        if (r != null && r.dataModificationId != dataModificationId) {
+            remove(key, r);
+            r = null;
+        }
+        if (r == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        LocalResult copy = r.result.createReadOnlyCopy(session);
+        copy.reset();
+        return copy;
+    }
+
+    /**
+     * 放入一个查询结果
+     *
+     * @param key 查询的key
+     * @param result 查询结果，只缓存全部在内存中的结果
+     * @param dataModificationId 查询开始前用到的表的最大修改id
+     */
+    public void put(String key, LocalResult result, long dataModificationId) {
+        DbSettings settings = database.getSettings();
+        int maxSize = settings.resultCacheSize;
+        long maxMemory = settings.resultCacheMemory;
+        if (maxSize <= 0 || maxMemory <= 0) {
+            clear();
+            return;
+        }
+        for (int i = 0, count = result.getVisibleColumnCount(); i < count; i++) {
+            // 大对象跟session相关，session关闭后可能就读不了了
+            if (DataType.isLargeObject(result.getColumnType(i)))
+                return;
+        }
+        LocalResult r = result.createReadOnlyCopy(null);
+        if (r == null)
+            return;
+        // 一个结果不能占用太多的内存，否则会把其他结果都挤出去
+        long m = getMemory(r, maxMemory / 4);
+        if (m > maxMemory / 4)
+            return;
+        synchronized (this) {
+            checkModificationMetaId();
+            CachedResult old = results.get(key);
+            if (old != null)
+                remove(key, old);
+            // 先淘汰最久没用的
+            Iterator<Map.Entry<String, CachedResult>> it = results.entrySet().iterator();
+            while ((results.size() >= maxSize || memory + m > maxMemory) && it.hasNext()) {
+                memory -= it.next().getValue().memory;
+                it.remove();
+            }
+            results.put(key, new CachedResult(r, dataModificationId, m));
+            memory += m;
+        }
+    }
+
+    public synchronized void clear() {
+        results.clear();
+        memory = 0;
+    }
+
+    public synchronized int size() {
+        return results.size();
+    }
+
+    public synchronized long getMemory() {
+        return memory;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void remove(String key, CachedResult r) {
+        results.remove(key);
+        memory -= r.memory;
+    }
+
+    private void checkModificationMetaId() {
+        long id = database.getModificationMetaId();
+        if (id != modificationMetaId) {
+            clear();
+            modificationMetaId = id;
+        }
+    }
+
+    // 估算结果占用的内存，超过max就不用再算了
+    private static long getMemory(LocalResult r, long max) {
+        long m = Constants.MEMORY_OBJECT;
+        while (m <= max && r.next()) {
+            Value[] row = r.currentRow();
+            m += Constants.MEMORY_OBJECT + Constants.MEMORY_POINTER * row.length;
+            for (Value v : row) {
+                if (v != null)
+                    m += v.getMemory();
+            }
+        }
+        r.reset();
+        return m;
+    }
+}
@@ -10,6 +10,7 @@ import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Random;
@@ -50,6 +51,8 @@ import com.lealone.db.scheduler.InternalScheduler;
 import com.lealone.db.scheduler.Scheduler;
 import com.lealone.db.scheduler.SchedulerThread;
 import com.lealone.db.schema.Schema;
+import com.lealone.db.table.MaterializedView;
+import com.lealone.db.table.StandardTable;
 import com.lealone.db.table.Table;
 import com.lealone.db.util.ExpiringMap;
 import com.lealone.db.value.Value;
@@ -68,6 +71,8 @@ import com.lealone.sql.SQLParser;
 import com.lealone.sql.SQLStatement;
 import com.lealone.storage.lob.LobStorage;
 import com.lealone.transaction.Transaction;
+import com.lealone.transaction.TransactionStatistics;
+import com.lealone.transaction.TransactionStatistics.Phase;
 
 /**
  * A session represents an embedded database connection. When using the server
@@ -110,6 +115,13 @@ public class ServerSession extends SessionBase implements InternalSession {
     private HashMap<String, ValueLob> unlinkLobMapAtCommit;
     private HashMap<String, ValueLob> unlinkLobMapAtRollback;
     private boolean containsLargeObject;
+    // 物化视图的基表变化了哪些key，提交后才交给物化视图
+    private HashMap<MaterializedView, MaterializedView.Changes> materializedViewChangesAtCommit;
+    // 刷新物化视图时取走的key，回滚时要还给物化视图
+    private HashMap<MaterializedView, MaterializedView.Changes> materializedViewChangesAtRollback;
+    // 当前事务修改过的表，事务结束时要更新它们的修改id
+    private HashSet<StandardTable> modifiedTables;
+    private StandardTable lastModifiedTable;
     private int systemIdentifier;
     private HashMap<String, Procedure> procedures;
     private boolean autoCommitAtTransactionEnd;
@@ -474,8 +486,10 @@ public class ServerSession extends SessionBase implements InternalSession {
         if (closed) {
             throw DbException.get(ErrorCode.CONNECTION_BROKEN_1, "session closed");
         }
-        PreparedSQLStatement ps;
+        PreparedSQLStatement ps = null;
+        String key = null;
         if (queryCacheSize > 0) {
+            key = getPlanCacheKey(sql);
             if (queryCache == null) {
                 queryCache = SmallLRUCache.newInstance(queryCacheSize);
                 modificationMetaID = database.getModificationMetaId();
@@ -485,19 +499,35 @@ public class ServerSession extends SessionBase implements InternalSession {
                     queryCache.clear();
                     modificationMetaID = newModificationMetaID;
                 } else {
-                    ps = queryCache.get(sql);
+                    ps = queryCache.get(key);
                     if (ps != null && ps.canReuse()) {
                         ps.reuse();
                         return ps;
                     }
                 }
             }
+            // 再看看其他session是否准备过相同的语句
+            ps = database.getPlanCache().take(key);
+            if (ps != null) {
+                ps.changeSession(this);
+                ps.reuse();
+            }
+        }
+        if (ps == null) {
+            SQLParser parser = createParser();
+            ps = parser.parse(sql).prepare();
         }
-        SQLParser parser = createParser();
-        ps = parser.parse(sql).prepare();
         if (queryCache != null) {
             if (ps.isCacheable()) {
-                queryCache.put(sql, ps);
+                if (queryCache.size() >= queryCacheSize && !queryCache.containsKey(key)) {
+                    // 把最久没用的语句移到数据库级别的执行计划缓存中
+                    Iterator<Map.Entry<String, PreparedSQLStatement>> it = queryCache.entrySet()
+                            .iterator();
+                    Map.Entry<String, PreparedSQLStatement> eldest = it.next();
+                    it.remove();
+                    sharePlan(eldest.getKey(), eldest.getValue());
+                }
+                queryCache.put(key, ps);
             }
         }
         if (fetchSize != -1)
@@ -505,6 +535,38 @@ public class ServerSession extends SessionBase implements InternalSession {
         return ps;
     }
 
+    // 同一个SQL在不同用户、当前schema和schema搜索路径下可能对应不同的对象，
+    // 准备语句时还会用到兼容模式(解析)和EXPRESSION_COMPILE_THRESHOLD(Select中的ExpressionJit)，
+    // 这些设置不同的session不能共用同一个语句
+    private String getPlanCacheKey(String sql) {
+        StringBuilder buff = new StringBuilder();
+        buff.append(user.getName()).append('\n').append(currentSchemaName).append('\n');
+        if (schemaSearchPath != null) {
+            for (String schema : schemaSearchPath)
+                buff.append(schema).append(',');
+        }
+        buff.append('\n').append(database.getMode().getName());
+        buff.append(',').append(expressionCompileThreshold);
+        return buff.append('\n').append(sql).toString();
+    }
+
+    // 只有已经关闭的语句才能给其他session使用
+    private void sharePlan(String key, PreparedSQLStatement ps) {
+        if (ps.canReuse() && modificationMetaID == database.getModificationMetaId()
+                && ps.isShareable()) {
+            database.getPlanCache().offer(key, ps, modificationMetaID);
+        }
+    }
+
+    private void shareQueryCache() {
+        if (queryCache != null) {
+            for (Map.Entry<String, PreparedSQLStatement> e : queryCache.entrySet())
+                sharePlan(e.getKey(), e.getValue());
+            queryCache.clear();
+            queryCache = null;
+        }
+    }
+
     private short executingStatements;
 
     public void startCurrentCommand(PreparedSQLStatement statement) {
@@ -644,6 +706,7 @@ public class ServerSession extends SessionBase implements InternalSession {
         wakeUpWaitingSchedulers();
         transactionStart = 0;
         transaction = null;
+        endModifiedTables();
     }
 
     private void unlinkLob(HashMap<String, ValueLob> lobMap) {
@@ -675,6 +738,7 @@ public class ServerSession extends SessionBase implements InternalSession {
 
     private void commitFinal() {
         commitOrRollbackNestedConnections(true);
+        endMaterializedViewChanges(true);
         if (!containsDDL) {
             // do not clean the temp tables if the last command was a create/drop
             cleanTempTables(false);
@@ -740,6 +804,7 @@ public class ServerSession extends SessionBase implements InternalSession {
         commitOrRollbackNestedConnections(false);
         checkCommitRollback();
         transaction.rollback();
+        endMaterializedViewChanges(false);
         cleanTempTables(false);
         unlockAll(false);
         endTransaction();
@@ -814,6 +879,7 @@ public class ServerSession extends SessionBase implements InternalSession {
         if (!closed) {
             try {
                 database.checkPowerOff();
+                shareQueryCache();
                 closeAllCache();
                 cleanTempTables(true);
                 database.removeSession(this);
@@ -1096,6 +1162,64 @@ public class ServerSession extends SessionBase implements InternalSession {
         containsLargeObject = true;
     }
 
+    public MaterializedView.Changes getMaterializedViewChanges(MaterializedView view) {
+        if (materializedViewChangesAtCommit == null) {
+            materializedViewChangesAtCommit = new HashMap<>();
+        }
+        return materializedViewChangesAtCommit.computeIfAbsent(view,
+                k -> new MaterializedView.Changes(false));
+    }
+
+    public void addMaterializedViewChangesAtRollback(MaterializedView view,
+            MaterializedView.Changes changes) {
+        if (materializedViewChangesAtRollback == null) {
+            materializedViewChangesAtRollback = new HashMap<>();
+        }
+        MaterializedView.Changes old = materializedViewChangesAtRollback.get(view);
+        if (old == null)
+            materializedViewChangesAtRollback.put(view, changes);
+        else
+            old.addAll(changes);
+    }
+
+    private void endMaterializedViewChanges(boolean commit) {
+        HashMap<MaterializedView, MaterializedView.Changes> map = commit
+                ? materializedViewChangesAtCommit
+                : materializedViewChangesAtRollback;
+        materializedViewChangesAtCommit = null;
+        materializedViewChangesAtRollback = null;
+        if (map != null) {
+            for (Map.Entry<MaterializedView, MaterializedView.Changes> e : map.entrySet()) {
+                e.getKey().addPendingChanges(e.getValue());
+            }
+        }
+    }
+
+    public void addModifiedTable(StandardTable table) {
+        if (table == lastModifiedTable)
+            return;
+        if (modifiedTables == null)
+            modifiedTables = new HashSet<>();
+        modifiedTables.add(table);
+        lastModifiedTable = table;
+    }
+
+    /**
+     * 当前事务是否修改过表，修改过时能读到自己还没提交的数据
+     */
+    public boolean containsModifiedTables() {
+        return modifiedTables != null;
+    }
+
+    private void endModifiedTables() {
+        if (modifiedTables != null) {
+            for (StandardTable table : modifiedTables)
+                table.onTransactionEnd();
+            modifiedTables = null;
+            lastModifiedTable = null;
+        }
+    }
+
     public void unlinkAtRollback(ValueLob v) {
         if (DbException.ASSERT) {
             DbException.assertTrue(v.isLinked());
@@ -1349,6 +1473,7 @@ public class ServerSession extends SessionBase implements InternalSession {
     private volatile Transaction lockedByTransaction;
     private Object lockedObject;
     private long lockStartTime;
+    private long lockStartNanoTime; // 启用TransactionStatistics后才会记录
 
     @Override
     public void setLockedBy(SessionStatus sessionStatus, Transaction lockedByTransaction,
@@ -1358,6 +1483,7 @@ public class ServerSession extends SessionBase implements InternalSession {
         this.lockedObject = lockedObject;
         if (lockedByTransaction != null) {
             lockStartTime = System.currentTimeMillis();
+            lockStartNanoTime = TransactionStatistics.startTime();
             lockedBy = (ServerSession) lockedByTransaction.getSession();
         } else {
             lockStartTime = 0;
@@ -1496,6 +1622,7 @@ public class ServerSession extends SessionBase implements InternalSession {
             if (DbException.ASSERT) {
                 DbException.assertTrue(lockedByTransaction != null);
             }
+            TransactionStatistics.record(scheduler, Phase.LOCK_WAIT, lockStartNanoTime);
             reset(SessionStatus.RETRYING_RETURN_ACK);
         }
     }
@@ -1547,6 +1674,7 @@ public class ServerSession extends SessionBase implements InternalSession {
         lockedByTransaction = null;
         lockedObject = null;
         lockStartTime = 0;
+        lockStartNanoTime = 0;
     }
 
     private void clean() {
@@ -83,9 +83,11 @@ public class Column {
     private boolean convertNullToDefault;
     private Sequence sequence;
     private boolean isComputed;
+    private boolean isVirtual;
     private IExpression.Evaluator defaultExpressionEvaluator;
     private IExpression.Evaluator checkConstraintEvaluator;
     private int selectivity;
+    private ColumnStatistics statistics;
     private String comment;
     private boolean primaryKey;
 
@@ -169,8 +171,13 @@ public class Column {
      * @param row the row
      * @return the value
      */
-    synchronized Value computeValue(ServerSession session, Row row) {
-        return defaultExpressionEvaluator.getExpressionValue(session, defaultExpression, row);
+    public Value computeValue(ServerSession session, Row row) {
+        // 虚拟字段的evaluator每次计算都用自己的当前记录，不需要同步
+        if (isVirtual)
+            return defaultExpressionEvaluator.getExpressionValue(session, defaultExpression, row);
+        synchronized (this) {
+            return defaultExpressionEvaluator.getExpressionValue(session, defaultExpression, row);
+        }
     }
 
     /**
@@ -184,6 +191,23 @@ public class Column {
         this.defaultExpression = expression;
     }
 
+    public boolean isVirtual() {
+        return isVirtual;
+    }
+
+    /**
+     * Make this column a virtual column of an expression index,
+     * the value is not stored in the rows but computed from the expression.
+     *
+     * @param expression the expression, the columns are already mapped
+     * @param evaluator the evaluator of the expression
+     */
+    public void setVirtualExpression(IExpression expression, IExpression.Evaluator evaluator) {
+        this.isVirtual = true;
+        this.defaultExpression = expression;
+        this.defaultExpressionEvaluator = evaluator;
+    }
+
     /**
      * Set the table and column id.
      *
@@ -222,6 +246,8 @@ public class Column {
     }
 
     public String getSQL() {
+        if (isVirtual)
+            return defaultExpression.getSQL();
         return quoteIdentifier(name);
     }
 
@@ -459,6 +485,10 @@ public class Column {
         if (selectivity != 0) {
             buff.append(" SELECTIVITY ").append(selectivity);
         }
+        if (statistics != null) {
+            buff.append(' ');
+            statistics.getSQL(buff);
+        }
         if (comment != null) {
             buff.append(" COMMENT ").append(StringUtils.quoteStringSQL(comment));
         }
@@ -547,6 +577,19 @@ public class Column {
         this.selectivity = selectivity;
     }
 
+    /**
+     * Get the statistics created by ANALYZE ... HISTOGRAM.
+     *
+     * @return the statistics, or null if not analyzed
+     */
+    public ColumnStatistics getStatistics() {
+        return statistics;
+    }
+
+    public void setStatistics(ColumnStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     /**
      * Add a check constraint expression to this column. An existing check
      * constraint constraint is added using AND.
@@ -0,0 +1,295 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.table;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.lealone.db.value.CompareMode;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueNull;
+
+/**
+ * 字段的统计信息，由ANALYZE ... HISTOGRAM生成，跟字段定义一起保存。
+ * <p>
+ * 除了记录数、null值的个数和估算的不同值个数之外，还有一个等深直方图，
+ * bounds是把排序后的抽样值分成个数相同的若干个桶之后每个桶的边界，
+ * 出现次数很多的值会占据多个桶，所以数据倾斜时也能估算出比较准确的比例。
+ */
+public class ColumnStatistics {
+
+    private static final int MAX_BOUND_LENGTH = 256;
+
+    private final long rowCount;
+    private final long nullCount;
+    private final long distinctCount;
+    private final Value[] bounds; // 可能为null
+
+    public ColumnStatistics(long rowCount, long nullCount, long distinctCount, Value[] bounds) {
+        this.rowCount = rowCount;
+        this.nullCount = nullCount;
+        this.distinctCount = distinctCount;
+        this.bounds = bounds != null && bounds.length >= 2 ? bounds : null;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getNullCount() {
+        return nullCount;
+    }
+
+    public long getDistinctCount() {
+        return distinctCount;
+    }
+
+    public Value[] getBounds() {
+        return bounds;
+    }
+
+    public void getSQL(StringBuilder buff) {
+        buff.append("STATISTICS(").append(rowCount).append(", ").append(nullCount).append(", ")
+                .append(distinctCount);
+        if (bounds != null) {
+            for (Value v : bounds)
+                buff.append(", ").append(v.getSQL());
+        }
+        buff.append(')');
+    }
+
+    private double getNonNullFraction() {
+        return rowCount <= 0 ? 1 : (double) (rowCount - nullCount) / rowCount;
+    }
+
+    // 估算出来的比例不能为0，否则代价就没有区别了
+    private double adjust(double fraction) {
+        double min = 1.0 / (rowCount + 1);
+        return fraction < min ? min : (fraction > 1 ? 1 : fraction);
+    }
+
+    /**
+     * 估算字段等于v的记录占总记录数的比例
+     *
+     * @param v 已经转换成字段类型的值
+     * @param mode 比较模式
+     * @return 比例
+     */
+    public double getEqualFraction(Value v, CompareMode mode) {
+        if (v == ValueNull.INSTANCE)
+            return adjust(0);
+        double nonNull = getNonNullFraction();
+        double uniform = nonNull / Math.max(distinctCount, 1);
+        if (bounds == null)
+            return adjust(uniform);
+        int buckets = bounds.length - 1;
+        int first = lowerBound(v, mode);
+        if (first > buckets || first == 0 && bounds[0].compareTo(v, mode) > 0
+                || first == buckets && bounds[buckets].compareTo(v, mode) != 0)
+            return adjust(first > buckets || first == 0 ? 0 : uniform);
+        // 出现次数多的值至少占据了count - 1个桶
+        int count = 0;
+        for (int i = first; i <= buckets && bounds[i].compareTo(v, mode) == 0; i++)
+            count++;
+        if (count >= 2)
+            return adjust(Math.max(nonNull * (count - 1) / buckets, uniform));
+        return adjust(uniform);
+    }
+
+    /**
+     * 估算字段小于(或小于等于)v的记录占总记录数的比例
+     */
+    public double getLessFraction(Value v, boolean inclusive, CompareMode mode) {
+        if (v == ValueNull.INSTANCE)
+            return adjust(0);
+        if (bounds == null)
+            return 0;
+        double f = getLess(v, mode);
+        if (inclusive)
+            f += getEqualFraction(v, mode) / getNonNullFraction();
+        return adjust(f * getNonNullFraction());
+    }
+
+    /**
+     * 估算字段大于(或大于等于)v的记录占总记录数的比例
+     */
+    public double getGreaterFraction(Value v, boolean inclusive, CompareMode mode) {
+        if (v == ValueNull.INSTANCE)
+            return adjust(0);
+        if (bounds == null)
+            return 0;
+        double f = 1 - getLess(v, mode);
+        if (!inclusive)
+            f -= getEqualFraction(v, mode) / getNonNullFraction();
+        return adjust(f * getNonNullFraction());
+    }
+
+    // 非null值中小于v的比例
+    private double getLess(Value v, CompareMode mode) {
+        int buckets = bounds.length - 1;
+        int i = lowerBound(v, mode);
+        if (i == 0)
+            return 0;
+        if (i > buckets)
+            return 1;
+        // v在bounds[i - 1]和bounds[i]之间，数值类型按线性插值算出在桶中的位置
+        double pos = 0.5;
+        if (bounds[i].compareTo(v, mode) == 0) {
+            pos = 1;
+        } else if (isNumeric(v.getType())) {
+            double low = bounds[i - 1].getDouble();
+            double high = bounds[i].getDouble();
+            if (high > low)
+                pos = (v.getDouble() - low) / (high - low);
+        }
+        return (i - 1 + pos) / buckets;
+    }
+
+    // 返回第一个大于等于v的边界的下标，都小于v时返回bounds.length
+    private int lowerBound(Value v, CompareMode mode) {
+        int low = 0, high = bounds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (bounds[mid].compareTo(v, mode) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static boolean isNumeric(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DECIMAL:
+        case Value.FLOAT:
+        case Value.DOUBLE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * 只有能比较大小并且能用SQL字面量保存的类型才建立直方图
+     *
+     * @param type 字段类型
+     * @return 支持时返回true
+     */
+    public static boolean isSupported(int type) {
+        switch (type) {
+        case Value.BOOLEAN:
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DECIMAL:
+        case Value.FLOAT:
+        case Value.DOUBLE:
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+        case Value.STRING:
+        case Value.STRING_IGNORECASE:
+        case Value.STRING_FIXED:
+        case Value.UUID:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * 用抽样得到的非null值建立统计信息
+     *
+     * @param rowCount 总记录数
+     * @param nullCount null值的个数
+     * @param sample 抽样得到的非null值
+     * @param size 抽样值的个数
+     * @param buckets 直方图的桶数
+     * @param mode 比较模式
+     * @return 统计信息
+     */
+    public static ColumnStatistics create(long rowCount, long nullCount, Value[] sample, int size,
+            int buckets, CompareMode mode) {
+        if (size == 0)
+            return new ColumnStatistics(rowCount, nullCount, 0, null);
+        Value[] values = Arrays.copyOf(sample, size);
+        Arrays.sort(values, (v1, v2) -> v1.compareTo(v2, mode));
+        // 抽样中的不同值个数d和只出现一次的值个数f1
+        int d = 0, f1 = 0;
+        for (int i = 0; i < size;) {
+            int j = i + 1;
+            while (j < size && values[j].compareTo(values[i], mode) == 0)
+                j++;
+            d++;
+            if (j - i == 1)
+                f1++;
+            i = j;
+        }
+        long nonNullCount = rowCount - nullCount;
+        long distinctCount = estimateDistinctCount(size, d, f1, nonNullCount);
+
+        int b = Math.min(buckets, size);
+        Value[] bounds = new Value[b + 1];
+        for (int k = 0; k <= b; k++) {
+            Value v = values[(int) ((long) k * (size - 1) / b)];
+            // 太长的值不保存，只保留不同值个数和null值个数
+            if (v.getType() != Value.UUID && v.getString().length() > MAX_BOUND_LENGTH) {
+                bounds = null;
+                break;
+            }
+            bounds[k] = v;
+        }
+        return new ColumnStatistics(rowCount, nullCount, distinctCount, bounds);
+    }
+
+    // Haas-Stokes的Duj1估算方法: n * d / (n - f1 + f1 * n / N)
+    private static long estimateDistinctCount(int n, int d, int f1, long total) {
+        if (n >= total)
+            return d;
+        double denominator = n - f1 + (double) f1 * n / total;
+        long distinct = denominator <= 0 ? total : (long) (n * (double) d / denominator);
+        return Math.max(d, Math.min(distinct, total));
+    }
+
+    /**
+     * 蓄水池抽样，表中的每一行被抽中的概率相同
+     */
+    public static class Reservoir {
+
+        private final Random random = new Random();
+        private final Object[] rows;
+        private long count;
+        private int size;
+
+        public Reservoir(int capacity) {
+            rows = new Object[capacity];
+        }
+
+        public void add(Object row) {
+            count++;
+            if (size < rows.length) {
+                rows[size++] = row;
+            } else {
+                long j = (long) (random.nextDouble() * count);
+                if (j < rows.length)
+                    rows[(int) j] = row;
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Object get(int i) {
+            return rows[i];
+        }
+    }
+}
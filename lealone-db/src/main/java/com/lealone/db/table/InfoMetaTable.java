@@ -56,6 +56,8 @@ import com.lealone.db.schema.TriggerObject;
 import com.lealone.db.schema.UserAggregate;
 import com.lealone.db.schema.UserDataType;
 import com.lealone.db.service.Service;
+import com.lealone.db.session.CompiledClassCache;
+import com.lealone.db.session.ResultCache;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.util.Csv;
 import com.lealone.db.value.CompareMode;
@@ -646,6 +648,19 @@ public class InfoMetaTable extends MetaTable {
                 add(rows, e.getKey(), "database", e.getValue());
             }
 
+            // 数据库级别的查询结果缓存的统计信息
+            ResultCache resultCache = database.getResultCache();
+            add(rows, "RESULT_CACHE_HITS", "statistics", "" + resultCache.getHits());
+            add(rows, "RESULT_CACHE_MISSES", "statistics", "" + resultCache.getMisses());
+            add(rows, "RESULT_CACHE_ENTRIES", "statistics", "" + resultCache.size());
+            add(rows, "RESULT_CACHE_MEMORY_USED", "statistics", "" + resultCache.getMemory());
+
+            // 编译表达式生成的类的缓存
+            CompiledClassCache classCache = database.getCompiledClassCache();
+            add(rows, "COMPILED_CLASS_CACHE_HITS", "statistics", "" + classCache.getHits());
+            add(rows, "COMPILED_CLASS_CACHE_MISSES", "statistics", "" + classCache.getMisses());
+            add(rows, "COMPILED_CLASS_CACHE_ENTRIES", "statistics", "" + classCache.size());
+
             // session settings
             for (Entry<String, String> e : session.getSettings().entrySet()) {
                 add(rows, e.getKey(), "session", e.getValue());
@@ -0,0 +1,309 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.common.util.StatementBuilder;
+import com.lealone.common.util.StringUtils;
+import com.lealone.db.api.Trigger;
+import com.lealone.db.lock.DbObjectLock;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueArray;
+import com.lealone.storage.StorageEngine;
+
+/**
+ * 物化视图，查询结果保存在一个标准表中，读物化视图跟读普通的表一样。
+ * <p>
+ * 物化视图注册到基表后，基表写记录时会按KeyMapping算出记录影响了物化视图中的哪些key，
+ * 事务提交后这些key才加到待刷新的集合中，增量刷新时只需要删除并重新查询这些key对应的行。
+ * 算不出key的变化(比如TRUNCATE)、待刷新的key太多以及数据库重启后，下一次刷新是全量刷新。
+ *
+ * @author zhh
+ */
+public class MaterializedView extends StandardTable {
+
+    // 待刷新的key太多时不如直接全量刷新
+    private static final int MAX_PENDING_KEYS = 10000;
+
+    private final String querySQL;
+    private ServerSession refreshSession; // 只有正在刷新物化视图的session能写它
+
+    private ArrayList<Table> baseTables = new ArrayList<>();
+    private int[] baseTableVersions = new int[0];
+    private volatile Map<Table, KeyMapping> keyMappings = new HashMap<>();
+    private Changes pendingChanges = new Changes(true); // 重启后还没有注册到基表，只能全量刷新
+
+    public MaterializedView(CreateTableData data, StorageEngine storageEngine, String querySQL) {
+        super(data, storageEngine);
+        this.querySQL = querySQL;
+    }
+
+    public String getQuerySQL() {
+        return querySQL;
+    }
+
+    public void setRefreshSession(ServerSession refreshSession) {
+        this.refreshSession = refreshSession;
+    }
+
+    /**
+     * 基表或者基表的字段变了以后要重新注册，并且做一次全量刷新。
+     *
+     * @param tables 查询用到的所有基表，包括子查询和普通视图中用到的表
+     * @return 基表和基表的字段都没有变化时返回true
+     */
+    public synchronized boolean isRegistered(ArrayList<Table> tables) {
+        if (tables.size() != baseTables.size() || !baseTables.containsAll(tables)) {
+            return false;
+        }
+        for (int i = 0, size = baseTables.size(); i < size; i++) {
+            if (baseTables.get(i).getVersion() != baseTableVersions[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 注册到基表，之后基表的记录变化都会被捕获。
+     *
+     * @param tables 查询用到的所有基表
+     * @param mappings 每个基表的记录对应物化视图中的哪些key，没有的基表变化后只能全量刷新
+     */
+    public synchronized void register(ArrayList<Table> tables, Map<Table, KeyMapping> mappings) {
+        unregister();
+        keyMappings = mappings;
+        baseTables = new ArrayList<>(tables);
+        baseTableVersions = new int[tables.size()];
+        for (int i = 0, size = tables.size(); i < size; i++) {
+            Table t = tables.get(i);
+            baseTableVersions[i] = t.getVersion();
+            if (t instanceof StandardTable) {
+                ((StandardTable) t).addMaterializedView(this);
+            }
+        }
+    }
+
+    private void unregister() {
+        for (Table t : baseTables) {
+            if (t instanceof StandardTable) {
+                ((StandardTable) t).removeMaterializedView(this);
+            }
+        }
+        baseTables = new ArrayList<>();
+        baseTableVersions = new int[0];
+    }
+
+    public Map<Table, KeyMapping> getKeyMappings() {
+        return keyMappings;
+    }
+
+    /**
+     * 取走所有待刷新的key，刷新失败或者刷新它的事务回滚时要用addPendingChanges还回来。
+     */
+    public synchronized Changes takePendingChanges() {
+        Changes changes = pendingChanges;
+        pendingChanges = new Changes(false);
+        return changes;
+    }
+
+    public synchronized void addPendingChanges(Changes changes) {
+        pendingChanges.addAll(changes);
+    }
+
+    /**
+     * 基表写记录时调用，oldRow和newRow都为null表示不知道哪些记录变了。
+     */
+    void captureRowChange(ServerSession session, Table table, Value[] oldRow, Value[] newRow) {
+        Changes changes = session.getMaterializedViewChanges(this);
+        KeyMapping mapping = keyMappings.get(table);
+        // 基表ALTER之后还没有重新注册，字段的位置可能已经变了
+        if (mapping == null || mapping.baseVersion != table.getVersion()
+                || (oldRow == null && newRow == null)) {
+            changes.setFull();
+            return;
+        }
+        try {
+            if (oldRow != null)
+                changes.addKey(mapping, mapping.getKey(oldRow));
+            if (newRow != null)
+                changes.addKey(mapping, mapping.getKey(newRow));
+        } catch (DbException e) {
+            // 基表字段的值转换成物化视图字段的类型失败了
+            changes.setFull();
+        }
+    }
+
+    @Override
+    public void fire(ServerSession session, int type, boolean beforeAction) {
+        // 物化视图的数据只能通过刷新来修改
+        if (beforeAction && type != Trigger.SELECT && session != refreshSession) {
+            throw DbException.getUnsupportedException("modifying materialized view " + getSQL());
+        }
+        super.fire(session, type, beforeAction);
+    }
+
+    @Override
+    public void checkSupportAlter() {
+        throw DbException.getUnsupportedException("alter materialized view " + getSQL());
+    }
+
+    @Override
+    public boolean canTruncate() {
+        return false;
+    }
+
+    @Override
+    public String getCreateSQL() {
+        StatementBuilder buff = new StatementBuilder("CREATE MATERIALIZED VIEW ");
+        buff.append(getSQL());
+        if (comment != null) {
+            buff.append(" COMMENT ").append(StringUtils.quoteStringSQL(comment));
+        }
+        buff.append("(\n    ");
+        for (Column column : columns) {
+            buff.appendExceptFirst(",\n    ");
+            buff.append(column.getCreateSQL());
+        }
+        buff.append("\n) AS\n").append(querySQL);
+        return buff.toString();
+    }
+
+    @Override
+    public String getDropSQL() {
+        return "DROP MATERIALIZED VIEW IF EXISTS " + getSQL();
+    }
+
+    @Override
+    public void removeChildrenAndResources(ServerSession session, DbObjectLock lock) {
+        synchronized (this) {
+            unregister();
+        }
+        super.removeChildrenAndResources(session, lock);
+    }
+
+    /**
+     * 基表的字段跟物化视图的key字段的对应关系，
+     * viewColumns相同的KeyMapping是相等的，它们的key放在一起刷新。
+     */
+    public static class KeyMapping {
+
+        private final int baseVersion;
+        private final int[] baseColumns; // 基表字段的位置
+        private final int[] viewColumns; // 物化视图字段的位置
+        private final int[] viewTypes;
+
+        public KeyMapping(int baseVersion, int[] baseColumns, int[] viewColumns, int[] viewTypes) {
+            this.baseVersion = baseVersion;
+            this.baseColumns = baseColumns;
+            this.viewColumns = viewColumns;
+            this.viewTypes = viewTypes;
+        }
+
+        public int[] getBaseColumns() {
+            return baseColumns;
+        }
+
+        public int[] getViewColumns() {
+            return viewColumns;
+        }
+
+        ValueArray getKey(Value[] baseRow) {
+            Value[] key = new Value[baseColumns.length];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = baseRow[baseColumns[i]].convertTo(viewTypes[i]);
+            }
+            return ValueArray.get(key);
+        }
+
+        public ValueArray getViewKey(Value[] viewRow) {
+            Value[] key = new Value[viewColumns.length];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = viewRow[viewColumns[i]];
+            }
+            return ValueArray.get(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(viewColumns);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof KeyMapping
+                    && Arrays.equals(viewColumns, ((KeyMapping) obj).viewColumns);
+        }
+    }
+
+    /**
+     * 物化视图需要刷新的key，full为true时需要全量刷新。
+     */
+    public static class Changes {
+
+        private boolean full;
+        private HashMap<KeyMapping, HashSet<ValueArray>> keys = new HashMap<>();
+        private int keyCount;
+
+        public Changes(boolean full) {
+            setFull(full);
+        }
+
+        public boolean isFull() {
+            return full;
+        }
+
+        public void setFull() {
+            setFull(true);
+        }
+
+        private void setFull(boolean full) {
+            this.full = full;
+            if (full) {
+                keys = null;
+                keyCount = 0;
+            }
+        }
+
+        public boolean isEmpty() {
+            return !full && keyCount == 0;
+        }
+
+        public HashMap<KeyMapping, HashSet<ValueArray>> getKeys() {
+            return keys;
+        }
+
+        void addKey(KeyMapping mapping, ValueArray key) {
+            if (full)
+                return;
+            if (keys.computeIfAbsent(mapping, k -> new HashSet<>()).add(key)
+                    && ++keyCount > MAX_PENDING_KEYS) {
+                setFull();
+            }
+        }
+
+        public void addAll(Changes changes) {
+            if (full)
+                return;
+            if (changes.full) {
+                setFull();
+                return;
+            }
+            for (Map.Entry<KeyMapping, HashSet<ValueArray>> e : changes.keys.entrySet()) {
+                for (ValueArray key : e.getValue()) {
+                    addKey(e.getKey(), key);
+                }
+            }
+        }
+    }
+}
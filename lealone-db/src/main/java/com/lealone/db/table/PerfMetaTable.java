@@ -14,6 +14,8 @@ import com.lealone.db.row.SearchRow;
 import com.lealone.db.schema.Schema;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.stats.QueryStatisticsData;
+import com.lealone.transaction.TransactionStatistics;
+import com.lealone.transaction.TransactionStatistics.Histogram;
 
 /**
  * This class is responsible to build the database performance meta data pseudo tables.
@@ -21,9 +23,10 @@ import com.lealone.db.stats.QueryStatisticsData;
 public class PerfMetaTable extends MetaTable {
 
     private static final int QUERY_STATISTICS = 0;
+    private static final int TRANSACTION_STATISTICS = QUERY_STATISTICS + 1;
 
     public static int getMetaTableTypeCount() {
-        return QUERY_STATISTICS + 1;
+        return TRANSACTION_STATISTICS + 1;
     }
 
     public PerfMetaTable(Schema schema, int id, int type) {
@@ -44,6 +47,13 @@ public class PerfMetaTable extends MetaTable {
                     "AVERAGE_ROW_COUNT DOUBLE", "STD_DEV_ROW_COUNT DOUBLE");
             break;
         }
+        case TRANSACTION_STATISTICS: {
+            setObjectName("TRANSACTION_STATISTICS");
+            cols = createColumns("SCHEDULER_ID INT", "PHASE", "COUNT LONG",
+                    "CUMULATIVE_TIME DOUBLE", "AVERAGE_TIME DOUBLE", "MAX_TIME DOUBLE",
+                    "P50_TIME DOUBLE", "P90_TIME DOUBLE", "P99_TIME DOUBLE");
+            break;
+        }
         default:
             throw DbException.getInternalError("type=" + type);
         }
@@ -88,6 +98,34 @@ public class PerfMetaTable extends MetaTable {
             }
             break;
         }
+        case TRANSACTION_STATISTICS: {
+            // 时间的单位都是毫秒
+            for (Histogram h : TransactionStatistics.getHistograms()) {
+                long count = h.getCount();
+                if (count == 0) // 并发reset了
+                    continue;
+                add(rows,
+                        // SCHEDULER_ID
+                        "" + h.getSchedulerId(),
+                        // PHASE
+                        h.getPhase().name(),
+                        // COUNT
+                        "" + count,
+                        // CUMULATIVE_TIME
+                        "" + h.getTotalTime() / 1000d / 1000,
+                        // AVERAGE_TIME
+                        "" + h.getTotalTime() / count / 1000d / 1000,
+                        // MAX_TIME
+                        "" + h.getMaxTime() / 1000d / 1000,
+                        // P50_TIME
+                        "" + h.getPercentile(0.5) / 1000d / 1000,
+                        // P90_TIME
+                        "" + h.getPercentile(0.9) / 1000d / 1000,
+                        // P99_TIME
+                        "" + h.getPercentile(0.99) / 1000d / 1000);
+            }
+            break;
+        }
         default:
             throw DbException.getInternalError("type=" + type);
         }
@@ -38,6 +38,7 @@ import com.lealone.db.index.IndexType;
 import com.lealone.db.index.hash.NonUniqueHashIndex;
 import com.lealone.db.index.hash.UniqueHashIndex;
 import com.lealone.db.index.standard.StandardDelegateIndex;
+import com.lealone.db.index.standard.StandardHashIndex;
 import com.lealone.db.index.standard.StandardPrimaryIndex;
 import com.lealone.db.index.standard.StandardSecondaryIndex;
 import com.lealone.db.lock.DbObjectLock;
@@ -49,6 +50,8 @@ import com.lealone.db.session.ServerSession;
 import com.lealone.db.table.Column.EnumColumn;
 import com.lealone.db.value.DataType;
 import com.lealone.db.value.Value;
+import com.lealone.sql.IExpression;
+import com.lealone.storage.Storage;
 import com.lealone.storage.StorageEngine;
 import com.lealone.storage.StorageMap;
 import com.lealone.storage.StorageSetting;
@@ -66,7 +69,7 @@ public class StandardTable extends Table {
     // add或remove时会copy一份
     private ArrayList<Index> indexes = Utils.newSmallArrayList();
     // 以下两个都不包含Delegate索引
-    private ArrayList<Index> indexesSync = Utils.newSmallArrayList(); // 只包含unique和primary
+    private ArrayList<Index> indexesSync = Utils.newSmallArrayList(); // unique、primary和带include字段的索引
     private ArrayList<Index> indexesAsync = Utils.newSmallArrayList();
 
     private final StandardPrimaryIndex primaryIndex;
@@ -75,13 +78,15 @@ public class StandardTable extends Table {
     private final boolean globalTemporary;
     private final TableAnalyzer tableAnalyzer;
 
-    private long lastModificationId;
+    // 其他session查询时会读，用volatile保证能看到最新的值
+    private volatile long lastModificationId;
     private Column rowIdColumn;
     private int[] largeObjectColumns;
     private DataHandler dataHandler;
     private final boolean useTableLobStorage;
 
     private final ArrayList<IndexOperator> indexOperators = Utils.newSmallArrayList();
+    private volatile ArrayList<MaterializedView> materializedViews; // 依赖这个表的物化视图
 
     public StandardTable(CreateTableData data, StorageEngine storageEngine) {
         super(data.schema, data.id, data.tableName, data.persistIndexes, data.persistData);
@@ -262,7 +267,16 @@ public class StandardTable extends Table {
 
     @Override
     public Index addIndex(ServerSession session, String indexName, int indexId, IndexColumn[] cols,
+            Column[] includeColumns, IExpression predicate, IExpression.Evaluator evaluator,
             IndexType indexType, boolean create, String indexComment, DbObjectLock lock) {
+        if (includeColumns != null && (indexType.isPrimaryKey() || indexType.isHash())) {
+            throw DbException.getUnsupportedException("INCLUDE for primary key or hash index");
+        }
+        // 部分索引和表达式索引只能用StandardSecondaryIndex实现
+        boolean hasExpressions = predicate != null || hasVirtualColumn(cols);
+        if (hasExpressions && indexType.isPrimaryKey()) {
+            throw DbException.getUnsupportedException("WHERE or expression for primary key");
+        }
         if (indexType.isPrimaryKey()) {
             for (IndexColumn c : cols) {
                 Column column = c.column;
@@ -274,11 +288,16 @@ public class StandardTable extends Table {
         }
         Index index;
         int mainIndexColumn = getMainIndexColumn(indexType, cols);
-        if (indexType.isDelegate()) {
+        if (includeColumns != null) {
+            index = new StandardSecondaryIndex(session, this, indexId, indexName, indexType, cols,
+                    includeColumns);
+        } else if (indexType.isDelegate()) {
             index = createDelegateIndex(indexId, indexName, indexType, mainIndexColumn);
         } else {
             if (database.isStarting()) {
-                if (database.getStorage(storageEngine).hasMap(getMapNameForIndex(indexId))) {
+                Storage storage = database.getStorage(storageEngine);
+                if (storage.hasMap(getMapNameForIndex(indexId))
+                        || storage.hasMap(getMapNameForHashIndex(indexId))) {
                     mainIndexColumn = -1;
                 }
             } else if (primaryIndex.getRowCountMax() != 0) {
@@ -286,20 +305,28 @@ public class StandardTable extends Table {
             }
             if (mainIndexColumn != -1) {
                 index = createDelegateIndex(indexId, indexName, indexType, mainIndexColumn);
-            } else if (indexType.isHash() && cols.length <= 1) {
+            } else if (indexType.isHash() && cols.length <= 1 && !isPersistIndexes()
+                    && !hasExpressions) {
+                // 索引不持久化时单字段的hash索引直接用内存中的ConcurrentHashMap
                 if (indexType.isUnique()) {
                     index = new UniqueHashIndex(this, indexId, indexName, indexType, cols);
                 } else {
                     index = new NonUniqueHashIndex(this, indexId, indexName, indexType, cols);
                 }
+            } else if (indexType.isHash() && !isOldHashIndex(indexId)) {
+                index = new StandardHashIndex(session, this, indexId, indexName, indexType, cols);
             } else {
                 index = new StandardSecondaryIndex(session, this, indexId, indexName, indexType, cols);
             }
         }
+        if (predicate != null) {
+            ((StandardSecondaryIndex) index).setPredicate(predicate, evaluator);
+        }
         index.setTemporary(isTemporary());
         // 先加到indexesSync或indexesAsync中，新记录可以直接写入
         if (!indexType.isDelegate()) {
-            if (indexType.isUnique()) {
+            // 有include字段的索引也要同步更新，这样查询只读索引时当前事务也能读到自己更新过的include字段
+            if (indexType.isUnique() || includeColumns != null) {
                 indexesSync = copyOnAdd(indexesSync, index);
             } else {
                 indexesAsync = copyOnAdd(indexesAsync, index);
@@ -324,6 +351,21 @@ public class StandardTable extends Table {
         return index;
     }
 
+    // 以前持久化的多字段hash索引是用StandardSecondaryIndex实现的，索引记录中没有hash值，
+    // 启动时还有这样的map就继续用StandardSecondaryIndex，StandardHashIndex用的是另一个map
+    private boolean isOldHashIndex(int indexId) {
+        return database.isStarting()
+                && database.getStorage(storageEngine).hasMap(getMapNameForIndex(indexId));
+    }
+
+    private static boolean hasVirtualColumn(IndexColumn[] cols) {
+        for (IndexColumn c : cols) {
+            if (c.column.isVirtual())
+                return true;
+        }
+        return false;
+    }
+
     private void addIndexOperator(ServerSession session, Index index) {
         InternalScheduler scheduler = (InternalScheduler) session.getScheduler().getSchedulerFactory()
                 .getScheduler();
@@ -384,6 +426,26 @@ public class StandardTable extends Table {
         };
     }
 
+    private AsyncResultHandler<Integer> createHandler(ServerSession session,
+            AsyncResultHandler<Integer> topHandler, AtomicInteger count, AtomicBoolean isFailed,
+            List<IndexOperation> ios, int rowCount) {
+        return ar -> {
+            if (ar.isSucceeded()) {
+                if (count.decrementAndGet() == 0 && !isFailed.get()) {
+                    if (ios != null) {
+                        for (int i = 0; i < rowCount; i++)
+                            IndexOperator.addIndexOperation(session, this, ios.get(i));
+                    }
+                    topHandler.handle(ar);
+                    if (tableAnalyzer != null)
+                        tableAnalyzer.analyzeIfRequired(session, rowCount);
+                }
+            } else if (isFailed.compareAndSet(false, true)) {
+                topHandler.handle(ar);
+            }
+        };
+    }
+
     private void analyzeIfRequired(ServerSession session) {
         if (tableAnalyzer != null)
             tableAnalyzer.analyzeIfRequired(session);
@@ -395,10 +457,17 @@ public class StandardTable extends Table {
             tableAnalyzer.analyze(session, sample);
     }
 
+    @Override
+    public void analyze(ServerSession session, int sample, int buckets) {
+        if (tableAnalyzer != null)
+            tableAnalyzer.analyze(session, sample, buckets);
+    }
+
     @Override
     public void addRow(ServerSession session, Row row, AsyncResultHandler<Integer> handler) {
         SystemOutline.createNode(SystemOutlineNode.addRow);
-        lastModificationId = database.getNextModificationDataId();
+        setDataModified(session);
+        captureRowChange(session, null, row.getColumns());
         if (containsLargeObject()) {
             AsyncResultHandler<Integer> topHandler = handler;
             // 增加row全部成功后再连接大对象
@@ -459,16 +528,83 @@ public class StandardTable extends Table {
         }
     }
 
+    // 大对象需要在增加记录成功后逐行连接，所以还是逐行增加
+    @Override
+    public boolean supportsBatchAdd() {
+        return !containsLargeObject();
+    }
+
+    // 批量增加时每个索引只调用一次addRows，所有行都增加成功后才回调handler
+    @Override
+    public void addRows(ServerSession session, List<Row> rows, AsyncResultHandler<Integer> handler) {
+        setDataModified(session);
+        int rowCount = rows.size();
+        for (int i = 0; i < rowCount; i++) {
+            captureRowChange(session, null, rows.get(i).getColumns());
+        }
+        ArrayList<Index> oldIndexes = indexesSync;
+        int size = oldIndexes.size();
+        AtomicInteger count = new AtomicInteger(size);
+        AtomicBoolean isFailed = new AtomicBoolean();
+
+        // 要在写入之前创建，这样事务提交后才能执行，没有主键时row key等primaryIndex分配后再回填
+        ArrayList<IndexOperation> ios = indexesAsync.isEmpty() ? null : new ArrayList<>(rowCount);
+        if (ios != null) {
+            for (int i = 0; i < rowCount; i++) {
+                Row row = rows.get(i);
+                IndexOperation io = IndexOperator.createAIO(row.getKey(), row.getColumns());
+                io.setTransaction(session.getTransaction());
+                ios.add(io);
+            }
+        }
+
+        // 第一个是PrimaryIndex
+        primaryIndex.addRows(session, rows, ar -> {
+            if (ar.isSucceeded()) {
+                if (ios != null) {
+                    for (int i = 0; i < rowCount; i++)
+                        ios.get(i).setRowKey(rows.get(i).getKey());
+                }
+                if (count.decrementAndGet() == 0) {
+                    if (ios != null) {
+                        for (int i = 0; i < rowCount; i++)
+                            IndexOperator.addIndexOperation(session, this, ios.get(i));
+                    }
+                    handler.handle(ar);
+                    if (tableAnalyzer != null)
+                        tableAnalyzer.analyzeIfRequired(session, rowCount);
+                    return;
+                }
+                for (int i = 1; i < size && !isFailed.get(); i++) {
+                    Index index = oldIndexes.get(i);
+                    index.addRows(session, rows,
+                            createHandler(session, handler, count, isFailed, ios, rowCount));
+                }
+            } else {
+                handler.handle(ar);
+            }
+        });
+
+        // 看看有没有刚刚创建的索引，如果有就让它也写入新记录
+        ArrayList<Index> newIndexes = indexesSync;
+        if (oldIndexes != newIndexes) {
+            for (Index index : getNewIndexes(oldIndexes, newIndexes)) {
+                index.addRows(session, rows, AsyncResultHandler.emptyHandler());
+            }
+        }
+    }
+
     @Override
     public void updateRow(ServerSession session, Row oldRow, Row newRow, int[] updateColumns,
             boolean isLockedBySelf, AsyncResultHandler<Integer> handler) {
         SystemOutline.createNode(SystemOutlineNode.updateRow);
-        lastModificationId = database.getNextModificationDataId();
+        setDataModified(session);
         ArrayList<Index> oldIndexes = indexesSync;
         int size = oldIndexes.size();
         AtomicInteger count = new AtomicInteger(size);
         AtomicBoolean isFailed = new AtomicBoolean();
         Value[] oldColumns = oldRow.getColumns(); // 会改变，所以提前保留旧的
+        captureRowChange(session, oldColumns, newRow.getColumns());
 
         IndexOperation io = null;
         if (!indexesAsync.isEmpty()) {
@@ -498,12 +634,13 @@ public class StandardTable extends Table {
     public void removeRow(ServerSession session, Row row, boolean isLockedBySelf,
             AsyncResultHandler<Integer> handler) {
         SystemOutline.createNode(SystemOutlineNode.removeRow);
-        lastModificationId = database.getNextModificationDataId();
+        setDataModified(session);
         ArrayList<Index> oldIndexes = indexesSync;
         int size = oldIndexes.size();
         AtomicInteger count = new AtomicInteger(size);
         AtomicBoolean isFailed = new AtomicBoolean();
         Value[] oldColumns = row.getColumns(); // 会改变，所以提前保留旧的
+        captureRowChange(session, oldColumns, null);
 
         IndexOperation io = null;
         if (!indexesAsync.isEmpty()) {
@@ -527,6 +664,125 @@ public class StandardTable extends Table {
         }
     }
 
+    @Override
+    public boolean supportsBatchUpDel() {
+        return true;
+    }
+
+    // 批量更新时每个索引只调用一次updateRows，所有行都更新成功后才回调handler
+    @Override
+    public void updateRows(ServerSession session, List<Row> oldRows, List<Row> newRows,
+            int[] updateColumns, AsyncResultHandler<Integer> handler) {
+        setDataModified(session);
+        ArrayList<Index> oldIndexes = indexesSync;
+        int size = oldIndexes.size();
+        AtomicInteger count = new AtomicInteger(size);
+        AtomicBoolean isFailed = new AtomicBoolean();
+        int rowCount = oldRows.size();
+        ArrayList<Value[]> oldColumnsList = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            oldColumnsList.add(oldRows.get(i).getColumns()); // 会改变，所以提前保留旧的
+            captureRowChange(session, oldColumnsList.get(i), newRows.get(i).getColumns());
+        }
+
+        ArrayList<IndexOperation> ios = null;
+        if (!indexesAsync.isEmpty()) {
+            ios = new ArrayList<>(rowCount);
+            for (int i = 0; i < rowCount; i++) {
+                Row oldRow = oldRows.get(i);
+                Row newRow = newRows.get(i);
+                IndexOperation io = IndexOperator.createUIO(oldRow.getKey(), newRow.getKey(),
+                        oldColumnsList.get(i), newRow.getColumns(), updateColumns);
+                io.setTransaction(session.getTransaction());
+                ios.add(io);
+            }
+        }
+
+        // 第一个是PrimaryIndex
+        for (int i = 0; i < size && !isFailed.get(); i++) {
+            Index index = oldIndexes.get(i);
+            index.updateRows(session, oldRows, newRows, oldColumnsList, updateColumns,
+                    createHandler(session, handler, count, isFailed, ios, rowCount));
+        }
+
+        // 看看有没有刚刚创建的索引，如果有也更新它
+        ArrayList<Index> newIndexes = indexesSync;
+        if (oldIndexes != newIndexes) {
+            for (Index index : getNewIndexes(oldIndexes, newIndexes)) {
+                index.updateRows(session, oldRows, newRows, oldColumnsList, updateColumns,
+                        AsyncResultHandler.emptyHandler());
+            }
+        }
+    }
+
+    @Override
+    public void removeRows(ServerSession session, List<Row> rows, AsyncResultHandler<Integer> handler) {
+        setDataModified(session);
+        ArrayList<Index> oldIndexes = indexesSync;
+        int size = oldIndexes.size();
+        AtomicInteger count = new AtomicInteger(size);
+        AtomicBoolean isFailed = new AtomicBoolean();
+        int rowCount = rows.size();
+        ArrayList<Value[]> oldColumnsList = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            oldColumnsList.add(rows.get(i).getColumns()); // 会改变，所以提前保留旧的
+            captureRowChange(session, oldColumnsList.get(i), null);
+        }
+
+        ArrayList<IndexOperation> ios = null;
+        if (!indexesAsync.isEmpty()) {
+            ios = new ArrayList<>(rowCount);
+            for (int i = 0; i < rowCount; i++) {
+                IndexOperation io = IndexOperator.createRIO(rows.get(i).getKey(),
+                        oldColumnsList.get(i));
+                io.setTransaction(session.getTransaction());
+                ios.add(io);
+            }
+        }
+
+        for (int i = size - 1; i >= 0 && !isFailed.get(); i--) {
+            Index index = oldIndexes.get(i);
+            index.removeRows(session, rows, oldColumnsList,
+                    createHandler(session, handler, count, isFailed, ios, rowCount));
+        }
+
+        // 看看有没有刚刚创建的索引，如果有也删除它的记录
+        ArrayList<Index> newIndexes = indexesSync;
+        if (oldIndexes != newIndexes) {
+            for (Index index : getNewIndexes(oldIndexes, newIndexes)) {
+                index.removeRows(session, rows, oldColumnsList, AsyncResultHandler.emptyHandler());
+            }
+        }
+    }
+
+    public synchronized void addMaterializedView(MaterializedView view) {
+        ArrayList<MaterializedView> views = materializedViews;
+        views = views == null ? new ArrayList<>(1) : new ArrayList<>(views);
+        if (!views.contains(view)) {
+            views.add(view);
+        }
+        materializedViews = views;
+    }
+
+    public synchronized void removeMaterializedView(MaterializedView view) {
+        ArrayList<MaterializedView> views = materializedViews;
+        if (views != null && views.contains(view)) {
+            views = new ArrayList<>(views);
+            views.remove(view);
+            materializedViews = views.isEmpty() ? null : views;
+        }
+    }
+
+    // 把记录的变化交给依赖这个表的物化视图，oldRow和newRow都为null表示不知道哪些记录变了
+    private void captureRowChange(ServerSession session, Value[] oldRow, Value[] newRow) {
+        ArrayList<MaterializedView> views = materializedViews;
+        if (views != null) {
+            for (int i = 0, size = views.size(); i < size; i++) {
+                views.get(i).captureRowChange(session, this, oldRow, newRow);
+            }
+        }
+    }
+
     @Override
     public int tryLockRow(ServerSession session, Row row) {
         // 只锁主索引即可
@@ -535,7 +791,8 @@ public class StandardTable extends Table {
 
     @Override
     public void truncate(ServerSession session) {
-        lastModificationId = database.getNextModificationDataId();
+        setDataModified(session);
+        captureRowChange(session, null, null);
         ArrayList<Index> oldIndexes = indexes;
         for (int i = oldIndexes.size() - 1; i >= 0; i--) {
             Index index = oldIndexes.get(i);
@@ -549,7 +806,7 @@ public class StandardTable extends Table {
 
     @Override
     public void repair(ServerSession session) {
-        lastModificationId = database.getNextModificationDataId();
+        setDataModified(session);
         primaryIndex.repair(session);
     }
 
@@ -600,6 +857,19 @@ public class StandardTable extends Table {
         return lastModificationId;
     }
 
+    private void setDataModified(ServerSession session) {
+        lastModificationId = database.getNextModificationDataId();
+        session.addModifiedTable(this);
+    }
+
+    /**
+     * 修改过这个表的事务结束时调用，
+     * 事务提交之前其他session查询这个表得到的结果就不会被当成最新的结果了。
+     */
+    public void onTransactionEnd() {
+        lastModificationId = database.getNextModificationDataId();
+    }
+
     @Override
     public boolean containsLargeObject() {
         return largeObjectColumns != null;
@@ -710,6 +980,11 @@ public class StandardTable extends Table {
         return getMapName("i", database.getId(), id);
     }
 
+    // hash索引的IndexKey多了一个hash字段，跟StandardSecondaryIndex用不同的map名
+    public String getMapNameForHashIndex(int id) {
+        return getMapName("h", database.getId(), id);
+    }
+
     private static String getMapName(Object... args) {
         StringBuilder name = new StringBuilder();
         for (Object arg : args) {
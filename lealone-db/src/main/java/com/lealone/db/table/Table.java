@@ -6,6 +6,7 @@
 package com.lealone.db.table;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -65,6 +66,13 @@ public abstract class Table extends SchemaObjectBase {
      */
     protected Column[] columns;
 
+    /**
+     * The virtual columns of the expression indexes, the column id starts with columns.length.
+     * The values are computed from the expressions and not stored in the rows,
+     * a removed virtual column leaves a null slot so that the ids of the others are kept.
+     */
+    private Column[] virtualColumns = new Column[0];
+
     /**
      * Protected tables are not listed in the meta data and are excluded when
      * using the SCRIPT command.
@@ -163,6 +171,48 @@ public abstract class Table extends SchemaObjectBase {
      */
     public Index addIndex(ServerSession session, String indexName, int indexId, IndexColumn[] cols,
             IndexType indexType, boolean create, String indexComment, DbObjectLock lock) {
+        return addIndex(session, indexName, indexId, cols, null, indexType, create, indexComment,
+                lock);
+    }
+
+    /**
+     * Create an index for this table, the values of the included columns are stored in the index
+     *
+     * @param session the session
+     * @param indexName the name of the index
+     * @param indexId the id
+     * @param cols the index columns
+     * @param includeColumns the included columns, or null
+     * @param indexType the index type
+     * @param create whether this is a new index
+     * @param indexComment the comment
+     * @return the index
+     */
+    public Index addIndex(ServerSession session, String indexName, int indexId, IndexColumn[] cols,
+            Column[] includeColumns, IndexType indexType, boolean create, String indexComment,
+            DbObjectLock lock) {
+        return addIndex(session, indexName, indexId, cols, includeColumns, null, null, indexType,
+                create, indexComment, lock);
+    }
+
+    /**
+     * Create a partial index for this table, only the rows that match the predicate are indexed
+     *
+     * @param session the session
+     * @param indexName the name of the index
+     * @param indexId the id
+     * @param cols the index columns
+     * @param includeColumns the included columns, or null
+     * @param predicate the predicate, or null
+     * @param evaluator the evaluator of the predicate
+     * @param indexType the index type
+     * @param create whether this is a new index
+     * @param indexComment the comment
+     * @return the index
+     */
+    public Index addIndex(ServerSession session, String indexName, int indexId, IndexColumn[] cols,
+            Column[] includeColumns, IExpression predicate, IExpression.Evaluator evaluator,
+            IndexType indexType, boolean create, String indexComment, DbObjectLock lock) {
         throw newUnsupportedException();
     }
 
@@ -173,6 +223,16 @@ public abstract class Table extends SchemaObjectBase {
     public void analyze(ServerSession session, int sample) {
     }
 
+    /**
+     * Analyze the table and create the histograms of the columns.
+     *
+     * @param session the session
+     * @param sample the number of sample rows, 0 means all rows
+     * @param buckets the number of histogram buckets
+     */
+    public void analyze(ServerSession session, int sample, int buckets) {
+    }
+
     /**
      * Add a row to the table and all indexes.
      *
@@ -188,6 +248,19 @@ public abstract class Table extends SchemaObjectBase {
         throw newUnsupportedException();
     }
 
+    /**
+     * Whether new rows can be added in batches.
+     *
+     * @return true if addRows is supported
+     */
+    public boolean supportsBatchAdd() {
+        return false;
+    }
+
+    public void addRows(ServerSession session, List<Row> rows, AsyncResultHandler<Integer> handler) {
+        throw newUnsupportedException();
+    }
+
     /**
      * Update a row from the table and all indexes.
      *
@@ -225,6 +298,25 @@ public abstract class Table extends SchemaObjectBase {
         throw newUnsupportedException();
     }
 
+    /**
+     * Whether rows can be updated or removed in batches,
+     * which requires that the rows are already locked by the current transaction.
+     *
+     * @return true if updateRows and removeRows are supported
+     */
+    public boolean supportsBatchUpDel() {
+        return false;
+    }
+
+    public void updateRows(ServerSession session, List<Row> oldRows, List<Row> newRows,
+            int[] updateColumns, AsyncResultHandler<Integer> handler) {
+        throw newUnsupportedException();
+    }
+
+    public void removeRows(ServerSession session, List<Row> rows, AsyncResultHandler<Integer> handler) {
+        throw newUnsupportedException();
+    }
+
     /**
      * Remove all rows from the table and indexes.
      *
@@ -416,6 +508,62 @@ public abstract class Table extends SchemaObjectBase {
             columnMap.put(columnName, col);
             col.setTable(this, i);
         }
+        for (int i = 0, len = virtualColumns.length; i < len; i++) {
+            if (virtualColumns[i] != null)
+                virtualColumns[i].setTable(this, columns.length + i);
+        }
+    }
+
+    public Column[] getVirtualColumns() {
+        return virtualColumns;
+    }
+
+    /**
+     * Find the virtual column of an expression index.
+     *
+     * @param sql the SQL of the expression
+     * @return the virtual column or null
+     */
+    public Column findVirtualColumn(String sql) {
+        for (Column c : virtualColumns) {
+            if (c != null && c.getSQL().equals(sql))
+                return c;
+        }
+        return null;
+    }
+
+    /**
+     * Add a virtual column for an expression index.
+     *
+     * @param column the virtual column
+     */
+    public synchronized void addVirtualColumn(Column column) {
+        int len = virtualColumns.length;
+        Column[] newColumns = Arrays.copyOf(virtualColumns, len + 1);
+        newColumns[len] = column;
+        column.setTable(this, columns.length + len);
+        virtualColumns = newColumns;
+    }
+
+    /**
+     * Remove a virtual column if no other index uses it.
+     *
+     * @param column the virtual column
+     */
+    public synchronized void removeVirtualColumn(Column column) {
+        ArrayList<Index> indexes = getIndexes();
+        if (indexes != null) {
+            for (Index index : indexes) {
+                if (index.getColumnIndex(column) >= 0)
+                    return;
+            }
+        }
+        Column[] newColumns = virtualColumns.clone();
+        for (int i = 0; i < newColumns.length; i++) {
+            if (newColumns[i] == column)
+                newColumns[i] = null;
+        }
+        virtualColumns = newColumns;
     }
 
     public void setNewColumns(Column[] columns) {
@@ -532,9 +680,13 @@ public abstract class Table extends SchemaObjectBase {
                     continue;
                 }
                 if (index.getColumnIndex(col) < 0) {
+                    Column[] includeColumns = index.getIncludeColumns();
+                    if (includeColumns != null && Arrays.asList(includeColumns).contains(col)
+                            || isReferencedByExpressions(index, col))
+                        throw DbException.get(ErrorCode.COLUMN_IS_REFERENCED_1, index.getSQL());
                     continue;
                 }
-                if (index.getColumns().length == 1) {
+                if (index.getColumns().length == 1 && index.getIncludeColumns() == null) {
                     indexesToDrop.add(index);
                 } else {
                     throw DbException.get(ErrorCode.COLUMN_IS_REFERENCED_1, index.getSQL());
@@ -552,10 +704,32 @@ public abstract class Table extends SchemaObjectBase {
         }
     }
 
+    // 表达式索引的表达式和部分索引的过滤条件中是否引用了这个字段
+    private static boolean isReferencedByExpressions(Index index, Column col) {
+        HashSet<Column> set = new HashSet<>();
+        for (Column c : index.getColumns()) {
+            if (c.isVirtual())
+                c.getDefaultExpression().getColumns(set);
+        }
+        if (index.getPredicate() != null)
+            index.getPredicate().getColumns(set);
+        return set.contains(col);
+    }
+
     public Row getTemplateRow() {
         return new Row(new Value[columns.length]);
     }
 
+    /**
+     * Get a new row to search in the indexes, the values of the virtual columns
+     * can be set too.
+     *
+     * @return the row
+     */
+    public Row getTemplateSearchRow() {
+        return new Row(new Value[columns.length + virtualColumns.length]);
+    }
+
     public synchronized Row getNullRow() {
         if (nullRow == null) {
             nullRow = new Row(new Value[columns.length]);
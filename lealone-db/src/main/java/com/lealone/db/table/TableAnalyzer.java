@@ -9,15 +9,20 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.lealone.common.util.StatementBuilder;
 import com.lealone.db.auth.Right;
+import com.lealone.db.index.Cursor;
 import com.lealone.db.result.Result;
+import com.lealone.db.row.Row;
 import com.lealone.db.scheduler.Scheduler;
 import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.CompareMode;
 import com.lealone.db.value.Value;
 import com.lealone.db.value.ValueNull;
 import com.lealone.sql.PreparedSQLStatement;
 
 public class TableAnalyzer {
 
+    private static final int MAX_HISTOGRAM_SAMPLE = 1000000;
+
     private final Table table;
     private final AtomicBoolean analyzing = new AtomicBoolean();
     private int nextAnalyze;
@@ -34,7 +39,12 @@ public class TableAnalyzer {
 
     // 允许多线程运行，对changesSinceAnalyze计数虽然不是线程安全的，但不要求准确，所以不必用原子操作
     public void analyzeIfRequired(ServerSession session) {
-        if (nextAnalyze > changesSinceAnalyze++) {
+        analyzeIfRequired(session, 1);
+    }
+
+    public void analyzeIfRequired(ServerSession session, int changes) {
+        changesSinceAnalyze += changes;
+        if (nextAnalyze >= changesSinceAnalyze) {
             return;
         }
         if (analyzing.compareAndSet(false, true)) {
@@ -77,6 +87,18 @@ public class TableAnalyzer {
         }
     }
 
+    // 通过手工执行ANALYZE ... HISTOGRAM语句调用
+    public void analyze(ServerSession session, int sample, int buckets) {
+        if (analyzing.compareAndSet(false, true)) {
+            try {
+                if (checkTable(session, table, true))
+                    createHistograms(session, table, sample, buckets);
+            } finally {
+                analyzing.set(false);
+            }
+        }
+    }
+
     /**
      * Analyze this table.
      *
@@ -86,27 +108,10 @@ public class TableAnalyzer {
      * @param manual whether the command was called by the user
      */
     private void analyzeTable(ServerSession session, Table table, int sample, boolean manual) {
-        if (table.getTableType() != TableType.STANDARD_TABLE || table.isHidden() || session == null) {
-            return;
-        }
-        if (!manual && table.hasSelectTrigger()) {
-            return;
-        }
-        if (table.isTemporary() && !table.isGlobalTemporary()
-                && session.findLocalTempTable(table.getName()) == null) {
-            return;
-        }
-        if (!session.getUser().hasRight(table, Right.SELECT)) {
-            return;
-        }
-        // if the connection is closed and there is something to undo
-        if (session.getCancel() != 0) {
+        if (!checkTable(session, table, manual)) {
             return;
         }
         Column[] columns = table.getColumns();
-        if (columns.length == 0) {
-            return;
-        }
         StatementBuilder buff = new StatementBuilder("SELECT ");
         for (Column col : columns) {
             buff.appendExceptFirst(", ");
@@ -127,6 +132,77 @@ public class TableAnalyzer {
         analyzeTable(session, table, sql);
     }
 
+    private static boolean checkTable(ServerSession session, Table table, boolean manual) {
+        if (table.getTableType() != TableType.STANDARD_TABLE || table.isHidden() || session == null) {
+            return false;
+        }
+        if (!manual && table.hasSelectTrigger()) {
+            return false;
+        }
+        if (table.isTemporary() && !table.isGlobalTemporary()
+                && session.findLocalTempTable(table.getName()) == null) {
+            return false;
+        }
+        if (!session.getUser().hasRight(table, Right.SELECT)) {
+            return false;
+        }
+        // if the connection is closed and there is something to undo
+        if (session.getCancel() != 0) {
+            return false;
+        }
+        return table.getColumns().length > 0;
+    }
+
+    // 扫描全表，null值个数和总记录数是准确的，不同值个数和直方图用蓄水池抽样的记录来算
+    private static void createHistograms(ServerSession session, Table table, int sample,
+            int buckets) {
+        Column[] columns = table.getColumns();
+        int capacity = sample > 0 ? sample : MAX_HISTOGRAM_SAMPLE;
+        ColumnStatistics.Reservoir reservoir = new ColumnStatistics.Reservoir(capacity);
+        long[] nullCounts = new long[columns.length];
+        long rowCount = 0;
+        Cursor cursor = table.getScanIndex(session).find(session, null, null);
+        while (cursor.next()) {
+            Row row = cursor.get();
+            Value[] values = new Value[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                if (ColumnStatistics.isSupported(columns[i].getType())) {
+                    Value v = row.getValue(i);
+                    if (v == null || v == ValueNull.INSTANCE)
+                        nullCounts[i]++;
+                    else
+                        values[i] = v;
+                }
+            }
+            reservoir.add(values);
+            rowCount++;
+        }
+        CompareMode mode = session.getDatabase().getCompareMode();
+        int size = reservoir.size();
+        Value[] sampleValues = new Value[size];
+        for (int i = 0; i < columns.length; i++) {
+            Column c = columns[i];
+            if (!ColumnStatistics.isSupported(c.getType())) {
+                c.setStatistics(null);
+                continue;
+            }
+            int n = 0;
+            for (int j = 0; j < size; j++) {
+                Value v = ((Value[]) reservoir.get(j))[i];
+                if (v != null)
+                    sampleValues[n++] = v;
+            }
+            ColumnStatistics statistics = ColumnStatistics.create(rowCount, nullCounts[i],
+                    sampleValues, n, buckets, mode);
+            c.setStatistics(statistics);
+            if (rowCount > 0) {
+                long selectivity = statistics.getDistinctCount() * 100 / rowCount;
+                c.setSelectivity(selectivity <= 0 ? 1 : (int) selectivity);
+            }
+        }
+        session.getDatabase().updateMeta(session, table);
+    }
+
     private static void analyzeTable(ServerSession session, Table table, String sql) {
         // 执行updateMeta时会修改modificationMetaID，所以queryCache不起作用
         PreparedSQLStatement command = session.prepareStatement(sql);
@@ -372,6 +372,10 @@ public class TableView extends Table {
         return querySQL;
     }
 
+    public boolean isRecursive() {
+        return recursive;
+    }
+
     private void removeViewFromTables() {
         if (tables != null) {
             for (Table t : tables) {
@@ -59,6 +59,15 @@ public interface PreparedSQLStatement extends SQLStatement, ManualCloseable {
         return null;
     }
 
+    // 是否能放到数据库级别的执行计划缓存中给其他session使用
+    default boolean isShareable() {
+        return false;
+    }
+
+    // 从执行计划缓存中取出来后换成新的session
+    default void changeSession(Session session) {
+    }
+
     Result query(int maxRows);
 
     int update();
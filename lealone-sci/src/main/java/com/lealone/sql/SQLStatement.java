@@ -487,5 +487,15 @@ public interface SQLStatement extends SQLCommand {
      */
     int REPAIR_TABLE = 150;
 
+    /**
+     * The type of a CREATE MATERIALIZED VIEW statement.
+     */
+    int CREATE_MATERIALIZED_VIEW = 151;
+
+    /**
+     * The type of a REFRESH MATERIALIZED VIEW statement.
+     */
+    int REFRESH_MATERIALIZED_VIEW = 152;
+
     String INTERNAL_SAVEPOINT = "_INTERNAL_SAVEPOINT_";
 }
@@ -278,6 +278,18 @@ public interface StorageMap<K, V> {
         putIfAbsent(key, value, handler);
     }
 
+    // keys要按从小到大排好序，遇到已经存在的key就停下，handler得到的是成功放入的个数
+    default void putIfAbsent(InternalSession session, List<K> keys, List<V> values,
+            AsyncResultHandler<Integer> handler) {
+        for (int i = 0, size = keys.size(); i < size; i++) {
+            if (putIfAbsent(keys.get(i), values.get(i)) != null) {
+                handleAsyncResult(handler, i);
+                return;
+            }
+        }
+        handleAsyncResult(handler, keys.size());
+    }
+
     default void append(V value, AsyncResultHandler<K> handler) {
         K k = append(value);
         handleAsyncResult(handler, k);
@@ -348,6 +360,10 @@ public interface StorageMap<K, V> {
         private DataBuffer log;
         private long lastSyncedAt = System.currentTimeMillis();
 
+        // 只有一个LogSyncService线程写redo log，检查点线程只读redoLogSize
+        private volatile long redoLogSize; // 累计写入的redo log字节数
+        private volatile long savedRedoLogSize; // 上次刷脏页之前已经写入的redo log字节数
+
         public RedoLogBuffer(StorageMap<?, ?> map) {
             this.map = map;
         }
@@ -374,9 +390,23 @@ public interface StorageMap<K, V> {
             int length = buffer.limit();
             map.writeRedoLog(buffer);
             log.clear();
+            redoLogSize += length;
             return length;
         }
 
+        public long getRedoLogSize() {
+            return redoLogSize;
+        }
+
+        // 刷脏页之后，在这之前写入的redo log在恢复时就不需要再执行了
+        public void setSavedRedoLogSize(long savedRedoLogSize) {
+            this.savedRedoLogSize = savedRedoLogSize;
+        }
+
+        public long getUnsavedRedoLogSize() {
+            return redoLogSize - savedRedoLogSize;
+        }
+
         public void clearIdleBuffer(long now, long maxIdleTime) {
             if (log != null && lastSyncedAt + maxIdleTime < now) {
                 log = null;
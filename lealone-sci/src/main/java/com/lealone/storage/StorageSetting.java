@@ -13,6 +13,8 @@ public enum StorageSetting {
     MAP_TYPE,
     USE_TABLE_LOB_STORAGE,
     MAX_CHUNK_SIZE,
+    REDO_LOG_SEGMENT_SIZE,
+    REDO_LOG_SEGMENT_DIR,
 
     RUN_MODE
 }
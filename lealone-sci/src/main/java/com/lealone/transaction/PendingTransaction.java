@@ -36,6 +36,7 @@ public class PendingTransaction extends LinkableBase<PendingTransaction> {
     private final Object redoLogRecord;
 
     private final long logId;
+    private final long createdTime = TransactionStatistics.startTime();
     private volatile CountDownLatch latch;
     private volatile boolean synced;
     private boolean completed;
@@ -58,6 +59,10 @@ public class PendingTransaction extends LinkableBase<PendingTransaction> {
         return logId;
     }
 
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
     public void setLatch(CountDownLatch latch) {
         this.latch = latch;
     }
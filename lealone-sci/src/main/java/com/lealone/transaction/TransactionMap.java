@@ -5,6 +5,11 @@
  */
 package com.lealone.transaction;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import com.lealone.db.async.AsyncResultHandler;
 import com.lealone.db.lock.Lockable;
 import com.lealone.storage.CursorParameters;
@@ -52,6 +57,29 @@ public interface TransactionMap<K, V> extends StorageMap<K, V> {
 
     public void addIfAbsent(K key, Lockable lockable, AsyncResultHandler<Integer> handler);
 
+    // 批量增加按从小到大排好序的多条新记录，全部成功后handler得到Transaction.OPERATION_COMPLETE，
+    // 遇到重复的key时得到Transaction.OPERATION_DATA_DUPLICATE，并把这个key放到duplicateKey中，
+    // 实现类可以只产生一条UndoLogRecord
+    public default void addIfAbsent(List<K> keys, List<? extends Lockable> lockables,
+            AtomicReference<K> duplicateKey, AsyncResultHandler<Integer> handler) {
+        int size = keys.size();
+        AtomicInteger counter = new AtomicInteger(size);
+        AtomicBoolean isDone = new AtomicBoolean();
+        for (int i = 0; i < size; i++) {
+            K key = keys.get(i);
+            addIfAbsent(key, lockables.get(i), ar -> {
+                if (ar.isSucceeded() && ar.getResult().intValue() == Transaction.OPERATION_COMPLETE) {
+                    if (counter.decrementAndGet() == 0 && isDone.compareAndSet(false, true))
+                        handler.handle(ar);
+                } else if (isDone.compareAndSet(false, true)) {
+                    if (ar.isSucceeded())
+                        duplicateKey.set(key);
+                    handler.handle(ar);
+                }
+            });
+        }
+    }
+
     // 若是定义成append(lockable,handler)，java的泛型会识别为append(V value,handler)
     public void append(AsyncResultHandler<K> handler, Lockable lockable);
 
@@ -69,6 +97,18 @@ public interface TransactionMap<K, V> extends StorageMap<K, V> {
 
     public int tryRemove(K key, Lockable lockable, boolean isLockedBySelf);
 
+    // 批量更新或删除已经被当前事务锁住的多条记录，newValues为null时代表删除，
+    // 实现类可以只产生一条UndoLogRecord
+    public default void tryUpdateOrRemove(List<K> keys, List<V> newValues,
+            List<? extends Lockable> lockables) {
+        for (int i = 0, size = keys.size(); i < size; i++) {
+            if (newValues == null)
+                tryRemove(keys.get(i), lockables.get(i), true);
+            else
+                tryUpdate(keys.get(i), newValues.get(i), lockables.get(i), true);
+        }
+    }
+
     public int tryLock(K key, Lockable lockable);
 
     public boolean isLocked(Lockable lockable);
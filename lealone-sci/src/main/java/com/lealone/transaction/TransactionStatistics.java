@@ -0,0 +1,168 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.lealone.common.util.MapUtils;
+import com.lealone.db.scheduler.InternalScheduler;
+
+// 统计事务生命周期中各个阶段的耗时，按调度器分开统计，默认不启用
+public class TransactionStatistics {
+
+    public static enum Phase {
+        LOCK_WAIT, // 等待其他事务释放行锁
+        LOG_SYNC_QUEUE, // 提交后等待LogSyncService线程处理
+        REDO_LOG_WRITE, // RedoLog.save写文件
+        REDO_LOG_SYNC, // fsync
+        SCHEDULE, // redo log同步完成后等待调度线程继续执行
+        UNDO_LOG_COMMIT, // UndoLog.commit
+        RESPONSE_SEND, // 给客户端发送响应
+        COMMIT; // 从开始提交到提交完成的总耗时
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static volatile boolean enabled;
+    // 第一维是调度器id+1，下标0用来统计不在调度线程中执行的事务
+    private static volatile Histogram[][] histograms = new Histogram[0][];
+
+    public static synchronized void init(Map<String, String> config) {
+        int schedulerCount = MapUtils.getSchedulerCount(config);
+        if (histograms.length < schedulerCount + 1) {
+            Histogram[][] a = new Histogram[schedulerCount + 1][];
+            System.arraycopy(histograms, 0, a, 0, histograms.length);
+            for (int i = histograms.length; i < a.length; i++) {
+                a[i] = new Histogram[PHASES.length];
+                for (Phase phase : PHASES)
+                    a[i][phase.ordinal()] = new Histogram(i - 1, phase);
+            }
+            histograms = a;
+        }
+        if (config.containsKey("transaction_statistics"))
+            enabled = MapUtils.getBoolean(config, "transaction_statistics", false);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        TransactionStatistics.enabled = enabled;
+    }
+
+    // 没有启用时返回0，调用record时会忽略
+    public static long startTime() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public static void record(InternalScheduler scheduler, Phase phase, long startTime) {
+        if (startTime > 0 && enabled)
+            recordTime(scheduler == null ? -1 : scheduler.getId(), phase, System.nanoTime() - startTime);
+    }
+
+    public static void recordTime(int schedulerId, Phase phase, long nanos) {
+        Histogram[][] histograms = TransactionStatistics.histograms;
+        int index = schedulerId + 1;
+        if (index >= 0 && index < histograms.length)
+            histograms[index][phase.ordinal()].add(nanos);
+    }
+
+    public static List<Histogram> getHistograms() {
+        ArrayList<Histogram> list = new ArrayList<>();
+        for (Histogram[] a : histograms) {
+            for (Histogram h : a) {
+                if (h.getCount() > 0)
+                    list.add(h);
+            }
+        }
+        return list;
+    }
+
+    public static void reset() {
+        for (Histogram[] a : histograms) {
+            for (Histogram h : a)
+                h.reset();
+        }
+    }
+
+    // 按微秒的2的幂次分桶，第i个桶的上限是2^i微秒
+    public static class Histogram {
+
+        private static final int BUCKET_COUNT = 40;
+
+        private final int schedulerId;
+        private final Phase phase;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+        private final AtomicLong maxTime = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+        Histogram(int schedulerId, Phase phase) {
+            this.schedulerId = schedulerId;
+            this.phase = phase;
+        }
+
+        public int getSchedulerId() {
+            return schedulerId;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotalTime() {
+            return totalTime.get();
+        }
+
+        public long getMaxTime() {
+            return maxTime.get();
+        }
+
+        void add(long nanos) {
+            if (nanos < 0)
+                nanos = 0;
+            count.incrementAndGet();
+            totalTime.addAndGet(nanos);
+            long max = maxTime.get();
+            while (nanos > max && !maxTime.compareAndSet(max, nanos))
+                max = maxTime.get();
+            long micros = nanos / 1000;
+            int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+            buckets.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+        }
+
+        // 返回纳秒，取所在桶的上限，不会超过最大值
+        public long getPercentile(double percentile) {
+            long total = count.get();
+            if (total == 0)
+                return 0;
+            long target = (long) Math.ceil(total * percentile);
+            long sum = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                sum += buckets.get(i);
+                if (sum >= target)
+                    return Math.min((1L << i) * 1000, maxTime.get());
+            }
+            return maxTime.get();
+        }
+
+        void reset() {
+            count.set(0);
+            totalTime.set(0);
+            maxTime.set(0);
+            for (int i = 0; i < BUCKET_COUNT; i++)
+                buckets.set(i, 0);
+        }
+    }
+}
@@ -6,6 +6,7 @@
 package com.lealone.server.handler;
 
 import java.sql.Statement;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -68,20 +69,20 @@ class BatchStatementPacketHandlers extends PacketHandlers {
                 return handleOhter(task, packet, command);
         }
 
+        // 所有参数绑定到同一条语句，作为一个整体执行，新记录也会批量增加到索引中
         private Packet handleMerSert(PacketHandleTask task, BatchStatementPreparedUpdate packet,
                 MerSert command) {
             command.setBatchParameterValues(packet.batchParameterValues);
+            task.si().updateLastActiveTime();
             LinkableTask subTask = new LinkableTask() {
                 @Override
                 public void run() {
                     PreparedSQLStatement.Yieldable<?> yieldable = command.createYieldableUpdate(ar -> {
+                        int[] results = command.getBatchUpdateCounts();
                         command.setBatchParameterValues(null);
-                        int size = packet.size;
-                        int result = ar.isSucceeded() ? 1 : Statement.EXECUTE_FAILED;
-                        int[] results = new int[size];
-                        for (int i = 0; i < size; i++) {
-                            results[i] = result;
-                        }
+                        // 语句失败时所有记录都不生效
+                        if (ar.isFailed())
+                            Arrays.fill(results, Statement.EXECUTE_FAILED);
                         task.sendResponse(new BatchStatementUpdateAck(results.length, results));
                     });
                     task.submitYieldableCommand(yieldable);
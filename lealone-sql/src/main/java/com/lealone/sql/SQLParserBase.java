@@ -46,12 +46,14 @@ import com.lealone.db.service.Service;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.session.SessionSetting;
 import com.lealone.db.table.Column;
+import com.lealone.db.table.ColumnStatistics;
 import com.lealone.db.table.Column.EnumColumn;
 import com.lealone.db.table.Column.ListColumn;
 import com.lealone.db.table.Column.MapColumn;
 import com.lealone.db.table.Column.SetColumn;
 import com.lealone.db.table.CreateTableData;
 import com.lealone.db.table.DummyTable;
+import com.lealone.db.table.MaterializedView;
 import com.lealone.db.table.RangeTable;
 import com.lealone.db.table.Table;
 import com.lealone.db.table.TableView;
@@ -95,6 +97,7 @@ import com.lealone.sql.ddl.CreateConstant;
 import com.lealone.sql.ddl.CreateDatabase;
 import com.lealone.sql.ddl.CreateFunctionAlias;
 import com.lealone.sql.ddl.CreateIndex;
+import com.lealone.sql.ddl.CreateMaterializedView;
 import com.lealone.sql.ddl.CreateRole;
 import com.lealone.sql.ddl.CreateSchema;
 import com.lealone.sql.ddl.CreateSequence;
@@ -122,6 +125,7 @@ import com.lealone.sql.ddl.DropUserDataType;
 import com.lealone.sql.ddl.DropView;
 import com.lealone.sql.ddl.GrantRevoke;
 import com.lealone.sql.ddl.PrepareProcedure;
+import com.lealone.sql.ddl.RefreshMaterializedView;
 import com.lealone.sql.ddl.RepairTable;
 import com.lealone.sql.ddl.SetComment;
 import com.lealone.sql.ddl.TruncateTable;
@@ -157,6 +161,7 @@ import com.lealone.sql.expression.Variable;
 import com.lealone.sql.expression.Wildcard;
 import com.lealone.sql.expression.aggregate.AGroupConcat;
 import com.lealone.sql.expression.aggregate.Aggregate;
+import com.lealone.sql.expression.aggregate.BuiltInAggregate;
 import com.lealone.sql.expression.aggregate.JavaAggregate;
 import com.lealone.sql.expression.condition.CompareLike;
 import com.lealone.sql.expression.condition.Comparison;
@@ -173,6 +178,9 @@ import com.lealone.sql.expression.function.StringFunction;
 import com.lealone.sql.expression.function.SystemFunction;
 import com.lealone.sql.expression.function.TableFunction;
 import com.lealone.sql.expression.subquery.SubQuery;
+import com.lealone.sql.expression.window.Window;
+import com.lealone.sql.expression.window.WindowFrame;
+import com.lealone.sql.expression.window.WindowFunction;
 import com.lealone.sql.optimizer.SingleColumnResolver;
 import com.lealone.sql.optimizer.TableFilter;
 import com.lealone.sql.optimizer.TableFilter.TableFilterVisitor;
@@ -460,6 +468,8 @@ public class SQLParserBase implements SQLParser {
                     s = parseReleaseSavepoint();
                 } else if (readIf("REPAIR")) {
                     s = parseRepair();
+                } else if (readIf("REFRESH")) {
+                    s = parseRefresh();
                 }
                 break;
             case 's':
@@ -585,12 +595,40 @@ public class SQLParserBase implements SQLParser {
 
     protected StatementBase parseAnalyze() {
         Analyze command = new Analyze(session);
+        if (readIf("TABLE")) {
+            command.setTable(readTableOrView());
+        }
         if (readIf("SAMPLE_SIZE")) {
             command.setSample(readPositiveInt());
         }
+        if (readIf("HISTOGRAM")) {
+            int buckets = Constants.DEFAULT_HISTOGRAM_BUCKETS;
+            if (readIf("BUCKETS")) {
+                buckets = readPositiveInt();
+            }
+            command.setBuckets(buckets);
+        }
         return command;
     }
 
+    // STATISTICS(rowCount, nullCount, distinctCount [, bound ...])
+    private ColumnStatistics readColumnStatistics(Column column) {
+        read("(");
+        long rowCount = readLong();
+        read(",");
+        long nullCount = readLong();
+        read(",");
+        long distinctCount = readLong();
+        ArrayList<Value> bounds = new ArrayList<>();
+        while (readIf(",")) {
+            Value v = readExpression().optimize(session).getValue(session);
+            bounds.add(v.convertTo(column.getType()));
+        }
+        read(")");
+        return new ColumnStatistics(rowCount, nullCount, distinctCount,
+                bounds.toArray(new Value[0]));
+    }
+
     protected StatementBase parseShutdown() {
         if (readIf("SERVER")) {
             return parseShutdownServer();
@@ -882,10 +920,23 @@ public class SQLParserBase implements SQLParser {
     }
 
     protected IndexColumn[] parseIndexColumnList() {
+        return parseIndexColumnList(false);
+    }
+
+    // CREATE INDEX中的索引字段还可以是表达式，例如LOWER(email)
+    protected IndexColumn[] parseIndexColumnList(boolean allowExpressions) {
         ArrayList<IndexColumn> columns = Utils.newSmallArrayList();
         do {
             IndexColumn column = new IndexColumn();
-            column.columnName = readColumnIdentifier();
+            if (allowExpressions) {
+                Expression e = readExpression();
+                if (e instanceof ExpressionColumn)
+                    column.columnName = ((ExpressionColumn) e).getOriginalColumnName();
+                else
+                    column.expression = e;
+            } else {
+                column.columnName = readColumnIdentifier();
+            }
             columns.add(column);
             if (readIf("ASC")) {
                 // ignore
@@ -1161,6 +1212,19 @@ public class SQLParserBase implements SQLParser {
         return command;
     }
 
+    protected StatementBase parseRefresh() {
+        read("MATERIALIZED");
+        read("VIEW");
+        Table table = readTableOrView();
+        if (!(table instanceof MaterializedView)) {
+            throw DbException.get(ErrorCode.VIEW_NOT_FOUND_1, table.getSQL());
+        }
+        RefreshMaterializedView command = new RefreshMaterializedView(session, table.getSchema());
+        command.setView((MaterializedView) table);
+        command.setFull(readIf("FULL"));
+        return command;
+    }
+
     protected StatementBase parseRepair() {
         read("TABLE");
         Table table = readTableOrView();
@@ -1270,6 +1334,16 @@ public class SQLParserBase implements SQLParser {
                 command.setDropAction(ConstraintReferential.SET_DEFAULT);
             }
             return command;
+        } else if (readIf("MATERIALIZED")) {
+            read("VIEW");
+            boolean ifExists = readIfExists(false);
+            String viewName = readIdentifierWithSchema();
+            DropTable command = new DropTable(session, getSchema());
+            command.setTableName(viewName);
+            command.setMaterializedView(true);
+            ifExists = readIfExists(ifExists);
+            command.setIfExists(ifExists);
+            return command;
         } else if (readIf("INDEX")) {
             boolean ifExists = readIfExists(false);
             String indexName = readIdentifierWithSchema();
@@ -2224,7 +2298,6 @@ public class SQLParserBase implements SQLParser {
         if (currentSelect == null) {
             throw getSyntaxError();
         }
-        currentSelect.setGroupQuery();
         Expression r;
         if (aggregateType == Aggregate.COUNT) {
             if (readIf("*")) {
@@ -2265,9 +2338,136 @@ public class SQLParserBase implements SQLParser {
             r = Aggregate.create(aggregateType, readExpression(), currentSelect, distinct);
         }
         read(")");
+        if (readIf("OVER")) {
+            return readAggregateWindowFunction((BuiltInAggregate) r, aggregateName);
+        }
+        currentSelect.setGroupQuery();
         return r;
     }
 
+    // 带OVER子句的聚合函数不是分组查询
+    private Expression readAggregateWindowFunction(BuiltInAggregate aggregate, String aggregateName) {
+        switch (aggregate.getAType()) {
+        case Aggregate.GROUP_CONCAT:
+        case Aggregate.HISTOGRAM:
+        case Aggregate.SELECTIVITY:
+            throw DbException.getUnsupportedException(aggregateName + " OVER");
+        }
+        if (aggregate.isDistinct()) {
+            throw DbException.getUnsupportedException(aggregateName + "(DISTINCT) OVER");
+        }
+        WindowFunction f = new WindowFunction(aggregate, readWindow());
+        currentSelect.setWindowQuery();
+        return f;
+    }
+
+    protected Expression readWindowFunction(int functionType, String name) {
+        if (currentSelect == null) {
+            throw getSyntaxError();
+        }
+        ArrayList<Expression> args = Utils.newSmallArrayList();
+        if (!readIf(")")) {
+            do {
+                args.add(readExpression());
+            } while (readIf(","));
+            read(")");
+        }
+        int size = args.size();
+        if (functionType == WindowFunction.LAG || functionType == WindowFunction.LEAD) {
+            if (size < 1 || size > 3)
+                throw DbException.get(ErrorCode.INVALID_PARAMETER_COUNT_2, name, "1..3");
+        } else if (size != 0) {
+            throw DbException.get(ErrorCode.INVALID_PARAMETER_COUNT_2, name, "0");
+        }
+        read("OVER");
+        WindowFunction f = new WindowFunction(functionType, args.toArray(new Expression[size]),
+                readWindow());
+        currentSelect.setWindowQuery();
+        return f;
+    }
+
+    protected Window readWindow() {
+        read("(");
+        ArrayList<Expression> partitionBy = null;
+        if (readIf("PARTITION")) {
+            read("BY");
+            partitionBy = Utils.newSmallArrayList();
+            do {
+                partitionBy.add(readExpression());
+            } while (readIf(","));
+        }
+        ArrayList<SelectOrderBy> orderBy = null;
+        if (readIf("ORDER")) {
+            read("BY");
+            orderBy = Utils.newSmallArrayList();
+            do {
+                SelectOrderBy order = new SelectOrderBy();
+                order.expression = readExpression();
+                if (readIf("DESC")) {
+                    order.descending = true;
+                } else {
+                    readIf("ASC");
+                }
+                if (readIf("NULLS")) {
+                    if (readIf("FIRST")) {
+                        order.nullsFirst = true;
+                    } else {
+                        read("LAST");
+                        order.nullsLast = true;
+                    }
+                }
+                orderBy.add(order);
+            } while (readIf(","));
+        }
+        WindowFrame frame = null;
+        boolean rows = readIf("ROWS");
+        if (rows || readIf("RANGE")) {
+            frame = new WindowFrame(rows);
+            if (readIf("BETWEEN")) {
+                readWindowFrameBound(frame, true);
+                read("AND");
+                readWindowFrameBound(frame, false);
+            } else {
+                readWindowFrameBound(frame, true);
+            }
+        }
+        read(")");
+        return new Window(partitionBy, orderBy, frame);
+    }
+
+    private void readWindowFrameBound(WindowFrame frame, boolean start) {
+        int type;
+        Expression offset = null;
+        if (readIf("UNBOUNDED")) {
+            if (readIf("PRECEDING")) {
+                type = WindowFrame.UNBOUNDED_PRECEDING;
+            } else {
+                read("FOLLOWING");
+                type = WindowFrame.UNBOUNDED_FOLLOWING;
+            }
+        } else if (readIf("CURRENT")) {
+            read("ROW");
+            type = WindowFrame.CURRENT_ROW;
+        } else {
+            offset = readExpression();
+            if (readIf("PRECEDING")) {
+                type = WindowFrame.PRECEDING;
+            } else {
+                read("FOLLOWING");
+                type = WindowFrame.FOLLOWING;
+            }
+        }
+        if (start) {
+            if (type == WindowFrame.UNBOUNDED_FOLLOWING)
+                throw getSyntaxError();
+            frame.setStart(type, offset);
+        } else {
+            if (type == WindowFrame.UNBOUNDED_PRECEDING)
+                throw getSyntaxError();
+            frame.setEnd(type, offset);
+        }
+    }
+
     protected ArrayList<SelectOrderBy> parseSimpleOrderList() {
         ArrayList<SelectOrderBy> orderList = Utils.newSmallArrayList();
         do {
@@ -2322,6 +2522,13 @@ public class SQLParserBase implements SQLParser {
         return agg;
     }
 
+    protected int getWindowFunctionType(String name) {
+        if (!identifiersToUpper) {
+            name = StringUtils.toUpperEnglish(name);
+        }
+        return WindowFunction.getFunctionType(name);
+    }
+
     protected int getAggregateType(String name) {
         if (!identifiersToUpper) {
             // if not yet converted to uppercase, do it now
@@ -2342,6 +2549,11 @@ public class SQLParserBase implements SQLParser {
         if (agg >= 0) {
             return readAggregate(agg, name);
         }
+        int windowType = getWindowFunctionType(name);
+        if (windowType > WindowFunction.ROW_NUMBER
+                && findFunctionAlias(session.getCurrentSchemaName(), name) == null) {
+            return readWindowFunction(windowType, name);
+        }
         Function function = Function.getFunction(database, name);
         if (function == null) {
             UserAggregate aggregate = getSchema(session.getCurrentSchemaName()).findAggregate(session,
@@ -2486,12 +2698,20 @@ public class SQLParserBase implements SQLParser {
             tf.setColumns(columns);
             break;
         }
-        case SystemFunction.ROW_NUMBER:
+        case SystemFunction.ROW_NUMBER: {
             read(")");
             read("OVER");
-            read("(");
-            read(")");
-            return new Rownum(currentSelect == null ? currentStatement : currentSelect);
+            Window window = readWindow();
+            // 空窗口等价于ROWNUM
+            if (window.isEmpty()) {
+                return new Rownum(currentSelect == null ? currentStatement : currentSelect);
+            }
+            if (currentSelect == null) {
+                throw getSyntaxError();
+            }
+            currentSelect.setWindowQuery();
+            return new WindowFunction(WindowFunction.ROW_NUMBER, new Expression[0], window);
+        }
         default:
             if (!readIf(")")) {
                 int i = 0;
@@ -3982,6 +4202,9 @@ public class SQLParserBase implements SQLParser {
             int value = readPositiveInt();
             column.setSelectivity(value);
         }
+        if (readIf("STATISTICS")) {
+            column.setStatistics(readColumnStatistics(column));
+        }
         String comment = readCommentIf();
         if (comment != null) {
             column.setComment(comment);
@@ -4209,6 +4432,9 @@ public class SQLParserBase implements SQLParser {
         boolean force = readIf("FORCE");
         if (readIf("VIEW")) {
             return parseCreateView(force, orReplace);
+        } else if (readIf("MATERIALIZED")) {
+            read("VIEW");
+            return parseCreateMaterializedView();
         } else if (readIf("ALIAS")) {
             return parseCreateFunctionAlias(force);
         } else if (readIf("SEQUENCE")) {
@@ -4312,7 +4538,11 @@ public class SQLParserBase implements SQLParser {
             command.setIndexName(indexName);
             command.setComment(readCommentIf());
             read("(");
-            command.setIndexColumns(parseIndexColumnList());
+            command.setIndexColumns(parseIndexColumnList(true));
+            if (readIf("INCLUDE")) {
+                read("(");
+                command.setIncludeColumnNames(parseColumnList());
+            }
 
             if (readIf("USING")) {
                 if (hash) {
@@ -4327,6 +4557,9 @@ public class SQLParserBase implements SQLParser {
                 }
 
             }
+            if (readIf("WHERE")) {
+                command.setPredicate(readExpression());
+            }
             command.setHash(hash);
             return command;
         }
@@ -5048,6 +5281,38 @@ public class SQLParserBase implements SQLParser {
         return command;
     }
 
+    protected CreateMaterializedView parseCreateMaterializedView() {
+        boolean ifNotExists = readIfNotExists();
+        String viewName = readIdentifierWithSchema();
+        Schema schema = getSchema();
+        CreateMaterializedView command = new CreateMaterializedView(session, schema);
+        command.setPersistIndexes(database.getDefaultTableType() == Table.TYPE_CACHED);
+        command.setPersistData(true);
+        command.setIfNotExists(ifNotExists);
+        command.setTableName(viewName);
+        command.setComment(readCommentIf());
+        if (readIf("(")) {
+            if (!readIf(")")) {
+                parseTableDefinition(schema, command, viewName);
+            }
+        }
+        if (database.getSettings().defaultStorageEngine != null) {
+            command.setStorageEngineName(database.getSettings().defaultStorageEngine);
+        }
+        String select = StringUtils.cache(sqlCommand.substring(parseIndex));
+        read("AS");
+        // 数据库启动时基表可能还没有创建，只保存查询语句
+        if (database.isStarting()) {
+            command.setQuerySQL(select);
+            while (currentTokenType != END) {
+                read();
+            }
+        } else {
+            command.setQuery(parseSelect());
+        }
+        return command;
+    }
+
     protected TransactionStatement parseCheckpoint() {
         readIf("SYNC"); // 兼容原来的CHECKPOINT_SYNC命令
         return new TransactionStatement(session, SQLStatement.CHECKPOINT);
@@ -7,11 +7,13 @@ package com.lealone.sql;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.trace.Trace;
 import com.lealone.common.util.StatementBuilder;
 import com.lealone.db.Database;
+import com.lealone.db.DbObject;
 import com.lealone.db.SysProperties;
 import com.lealone.db.api.DatabaseEventListener;
 import com.lealone.db.api.ErrorCode;
@@ -22,6 +24,7 @@ import com.lealone.db.command.CommandParameter;
 import com.lealone.db.result.Result;
 import com.lealone.db.scheduler.SchedulerThread;
 import com.lealone.db.session.ServerSession;
+import com.lealone.db.session.Session;
 import com.lealone.db.session.SessionStatus;
 import com.lealone.db.table.Table;
 import com.lealone.db.value.Value;
@@ -100,6 +103,36 @@ public abstract class StatementBase implements PreparedSQLStatement, ParsedSQLSt
         this.session = currentSession;
     }
 
+    @Override
+    public void changeSession(Session session) {
+        setSession((ServerSession) session);
+    }
+
+    /**
+     * 语句引用的表都是普通表时才能给其他session使用，视图和局部临时表跟创建它们的session相关。
+     *
+     * @param dependencies 语句引用的数据库对象
+     * @return 能共享时返回true
+     */
+    protected static boolean isShareable(Set<DbObject> dependencies) {
+        for (DbObject obj : dependencies) {
+            if (obj instanceof Table) {
+                Table table = (Table) obj;
+                switch (table.getTableType()) {
+                case STANDARD_TABLE:
+                case RANGE_TABLE:
+                case DUMMY_TABLE:
+                    break;
+                default:
+                    return false;
+                }
+                if (table.isTemporary() && !table.isGlobalTemporary())
+                    return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Get the SQL statement.
      *
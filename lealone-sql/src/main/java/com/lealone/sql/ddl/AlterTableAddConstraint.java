@@ -370,6 +370,10 @@ public class AlterTableAddConstraint extends SchemaStatement {
         if (idx.getTable() != table || !idx.getIndexType().isUnique()) {
             return false;
         }
+        // 部分索引不包含所有记录
+        if (idx.getPredicate() != null) {
+            return false;
+        }
         Column[] indexCols = idx.getColumns();
         if (indexCols.length > cols.length) {
             return false;
@@ -394,6 +398,9 @@ public class AlterTableAddConstraint extends SchemaStatement {
             // can't use the scan index or index of another table
             return false;
         }
+        if (existingIndex.getPredicate() != null) {
+            return false;
+        }
         Column[] indexCols = existingIndex.getColumns();
 
         if (moreColumnsOk) {
@@ -12,7 +12,7 @@ import com.lealone.sql.SQLStatement;
 
 /**
  * This class represents the statement
- * ANALYZE
+ * ANALYZE [TABLE tableName] [SAMPLE_SIZE n] [HISTOGRAM [BUCKETS n]]
  */
 public class Analyze extends DefinitionStatement {
 
@@ -21,6 +21,16 @@ public class Analyze extends DefinitionStatement {
      */
     private int sample;
 
+    /**
+     * The table to analyze, null means all tables.
+     */
+    private Table table;
+
+    /**
+     * The number of histogram buckets, 0 means no histogram.
+     */
+    private int buckets;
+
     public Analyze(ServerSession session) {
         super(session);
         sample = session.getDatabase().getSettings().analyzeSample;
@@ -35,13 +45,32 @@ public class Analyze extends DefinitionStatement {
         this.sample = sample;
     }
 
+    public void setTable(Table table) {
+        this.table = table;
+    }
+
+    public void setBuckets(int buckets) {
+        this.buckets = buckets;
+    }
+
     @Override
     public int update() {
         session.getUser().checkAdmin();
         Database db = session.getDatabase();
-        for (Table table : db.getAllTablesAndViews(false)) {
-            table.analyze(session, sample);
+        if (table != null) {
+            analyze(table);
+        } else {
+            for (Table table : db.getAllTablesAndViews(false)) {
+                analyze(table);
+            }
         }
         return 0;
     }
+
+    private void analyze(Table table) {
+        if (buckets > 0)
+            table.analyze(session, sample, buckets);
+        else
+            table.analyze(session, sample);
+    }
 }
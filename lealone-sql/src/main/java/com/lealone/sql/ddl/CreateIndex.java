@@ -5,6 +5,8 @@
  */
 package com.lealone.sql.ddl;
 
+import java.util.HashSet;
+
 import com.lealone.common.exceptions.DbException;
 import com.lealone.db.Constants;
 import com.lealone.db.DbObjectType;
@@ -15,8 +17,13 @@ import com.lealone.db.index.IndexType;
 import com.lealone.db.lock.DbObjectLock;
 import com.lealone.db.schema.Schema;
 import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Column;
 import com.lealone.db.table.Table;
 import com.lealone.sql.SQLStatement;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
+import com.lealone.sql.optimizer.RowExpressionFilter;
+import com.lealone.sql.optimizer.TableFilter;
 
 /**
  * This class represents the statement
@@ -30,6 +37,8 @@ public class CreateIndex extends SchemaStatement {
     private String tableName;
     private String indexName;
     private IndexColumn[] indexColumns;
+    private String[] includeColumnNames;
+    private Expression predicate;
     private boolean ifNotExists;
     private boolean primaryKey, unique, hash;
     private String comment;
@@ -55,6 +64,14 @@ public class CreateIndex extends SchemaStatement {
         this.indexColumns = columns;
     }
 
+    public void setIncludeColumnNames(String[] includeColumnNames) {
+        this.includeColumnNames = includeColumnNames;
+    }
+
+    public void setPredicate(Expression predicate) {
+        this.predicate = predicate;
+    }
+
     public void setIfNotExists(boolean ifNotExists) {
         this.ifNotExists = ifNotExists;
     }
@@ -111,9 +128,85 @@ public class CreateIndex extends SchemaStatement {
         } else {
             indexType = IndexType.createNonUnique(hash);
         }
-        IndexColumn.mapColumns(indexColumns, table);
-        boolean create = !session.getDatabase().isStarting();
-        table.addIndex(session, indexName, id, indexColumns, indexType, create, comment, lock);
+        try {
+            mapExpressions(table);
+            IndexColumn.mapColumns(indexColumns, table);
+            Column[] includeColumns = getIncludeColumns(table);
+            TableFilter filter = null;
+            if (predicate != null) {
+                filter = new RowExpressionFilter(session, table);
+                predicate = prepareExpression(predicate, filter);
+            }
+            boolean create = !session.getDatabase().isStarting();
+            table.addIndex(session, indexName, id, indexColumns, includeColumns, predicate, filter,
+                    indexType, create, comment, lock);
+        } catch (DbException e) {
+            // 索引没有建成功，新加的虚拟字段也要删掉
+            for (IndexColumn c : indexColumns) {
+                if (c.column != null && c.column.isVirtual())
+                    table.removeVirtualColumn(c.column);
+            }
+            throw e;
+        }
         return 0;
     }
+
+    // 表达式索引的每个表达式对应表中的一个虚拟字段，多个索引的相同表达式共用一个虚拟字段
+    private void mapExpressions(Table table) {
+        for (IndexColumn c : indexColumns) {
+            if (c.expression == null)
+                continue;
+            TableFilter filter = new RowExpressionFilter(session, table);
+            Expression e = prepareExpression((Expression) c.expression, filter);
+            if (e.isConstant()) {
+                throw DbException.getUnsupportedException("constant index expression " + e.getSQL());
+            }
+            Column column = table.findVirtualColumn(e.getSQL());
+            if (column == null) {
+                column = new Column(e.getSQL(), e.getType(), e.getPrecision(), e.getScale(),
+                        e.getDisplaySize());
+                column.setVirtualExpression(e, filter);
+                table.addVirtualColumn(column);
+            }
+            c.expression = column.getDefaultExpression();
+            c.column = column;
+        }
+    }
+
+    // 只能引用当前表的字段，并且每次对同样的记录都要算出同样的值
+    private Expression prepareExpression(Expression e, TableFilter filter) {
+        e.mapColumns(filter, 0);
+        e = e.optimize(session);
+        if (!e.accept(ExpressionVisitorFactory.getDeterministicVisitor())) {
+            throw DbException.getUnsupportedException("non-deterministic expression " + e.getSQL());
+        }
+        HashSet<Column> columns = new HashSet<>();
+        e.getColumns(columns);
+        for (Column c : columns) {
+            if (c.getTable() != filter.getTable()) {
+                throw DbException.getUnsupportedException(
+                        "expression references other tables " + e.getSQL());
+            }
+        }
+        return e;
+    }
+
+    // include字段不能重复，也不能是索引字段
+    private Column[] getIncludeColumns(Table table) {
+        if (includeColumnNames == null)
+            return null;
+        HashSet<Column> set = new HashSet<>();
+        for (IndexColumn c : indexColumns) {
+            set.add(c.column);
+        }
+        Column[] includeColumns = new Column[includeColumnNames.length];
+        for (int i = 0; i < includeColumns.length; i++) {
+            Column c = table.getColumn(includeColumnNames[i]);
+            if (!set.add(c)) {
+                throw DbException.get(ErrorCode.DUPLICATE_COLUMN_NAME_1, c.getSQL());
+            }
+            includeColumns[i] = c;
+        }
+        return includeColumns;
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.ddl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.db.api.ErrorCode;
+import com.lealone.db.index.IndexColumn;
+import com.lealone.db.schema.Schema;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.CreateTableData;
+import com.lealone.db.table.MaterializedView;
+import com.lealone.db.table.MaterializedView.KeyMapping;
+import com.lealone.db.table.Table;
+import com.lealone.sql.SQLStatement;
+import com.lealone.sql.expression.Parameter;
+
+/**
+ * This class represents the statement
+ * CREATE MATERIALIZED VIEW
+ * <p>
+ * 跟CREATE TABLE AS SELECT一样建表并插入查询结果，只是建的是物化视图，另外还会在key字段上建索引。
+ * 数据库启动时只建表，不执行查询，数据已经在表中了。
+ */
+public class CreateMaterializedView extends CreateTable {
+
+    private String querySQL;
+    private MaterializedView view;
+
+    public CreateMaterializedView(ServerSession session, Schema schema) {
+        super(session, schema);
+    }
+
+    @Override
+    public int getType() {
+        return SQLStatement.CREATE_MATERIALIZED_VIEW;
+    }
+
+    public void setQuerySQL(String querySQL) {
+        this.querySQL = querySQL;
+    }
+
+    @Override
+    public int update() {
+        try {
+            return super.update();
+        } finally {
+            if (view != null) {
+                view.setRefreshSession(null);
+            }
+        }
+    }
+
+    @Override
+    protected Table createTable(CreateTableData data) {
+        if (asQuery == null) {
+            return schema.createMaterializedView(data, querySQL);
+        }
+        ArrayList<Parameter> params = asQuery.getParameters();
+        if (params != null && params.size() > 0) {
+            throw DbException.get(ErrorCode.FEATURE_NOT_SUPPORTED_1,
+                    "parameters in materialized views");
+        }
+        view = schema.createMaterializedView(data, asQuery.getPlanSQL());
+        // 先注册到基表再插入查询结果，插入时才提交的基表记录也能被捕获
+        RefreshMaterializedView.register(session, view, asQuery);
+        view.takePendingChanges();
+        view.setRefreshSession(session);
+        addKeyIndexes(data);
+        return view;
+    }
+
+    // 增量刷新时通过物化视图key字段上的索引找出要删除的行，
+    // 索引在插入查询结果之前建好，数据库启动时跟普通索引一样重建
+    private void addKeyIndexes(CreateTableData data) {
+        for (KeyMapping mapping : new LinkedHashSet<>(view.getKeyMappings().values())) {
+            int[] viewColumns = mapping.getViewColumns();
+            IndexColumn[] indexColumns = new IndexColumn[viewColumns.length];
+            for (int i = 0; i < viewColumns.length; i++) {
+                indexColumns[i] = new IndexColumn();
+                indexColumns[i].columnName = data.columns.get(viewColumns[i]).getName();
+            }
+            CreateIndex command = new CreateIndex(session, schema);
+            command.setTableName(data.tableName);
+            command.setIndexColumns(indexColumns);
+            addConstraintCommand(command);
+        }
+    }
+}
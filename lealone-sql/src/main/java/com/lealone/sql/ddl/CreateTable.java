@@ -48,11 +48,11 @@ public class CreateTable extends SchemaStatement {
     protected final CreateTableData data = new CreateTableData();
     protected IndexColumn[] pkColumns;
     protected boolean ifNotExists;
+    protected Query asQuery;
 
     private final ArrayList<DefinitionStatement> constraintCommands = new ArrayList<>();
     private boolean onCommitDrop;
     private boolean onCommitTruncate;
-    private Query asQuery;
     private String comment;
     private String packageName;
     private boolean genCode;
@@ -184,7 +184,7 @@ public class CreateTable extends SchemaStatement {
         data.create = !session.getDatabase().isStarting();
         data.session = session;
         boolean isSessionTemporary = data.temporary && !data.globalTemporary;
-        Table table = schema.createTable(data);
+        Table table = createTable(data);
         ArrayList<Sequence> sequences = new ArrayList<>();
         for (Column c : data.columns) {
             if (c.isAutoIncrement()) {
@@ -261,6 +261,10 @@ public class CreateTable extends SchemaStatement {
         return 0;
     }
 
+    protected Table createTable(CreateTableData data) {
+        return schema.createTable(data);
+    }
+
     private void generateColumnsFromQuery() {
         int columnCount = asQuery.getColumnCount();
         ArrayList<Expression> expressions = asQuery.getExpressions();
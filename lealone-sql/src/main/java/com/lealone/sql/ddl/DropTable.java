@@ -17,6 +17,7 @@ import com.lealone.db.constraint.ConstraintReferential;
 import com.lealone.db.lock.DbObjectLock;
 import com.lealone.db.schema.Schema;
 import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.MaterializedView;
 import com.lealone.db.table.Table;
 import com.lealone.db.table.TableView;
 import com.lealone.sql.SQLStatement;
@@ -35,6 +36,7 @@ public class DropTable extends SchemaStatement {
     private int dropAction;
     private Table table;
     private DropTable next;
+    private boolean materializedView; // DROP MATERIALIZED VIEW
 
     public DropTable(ServerSession session, Schema schema) {
         super(session, schema);
@@ -65,6 +67,10 @@ public class DropTable extends SchemaStatement {
         }
     }
 
+    public void setMaterializedView(boolean materializedView) {
+        this.materializedView = materializedView;
+    }
+
     /**
      * Chain another drop table statement to this statement.
      *
@@ -85,6 +91,9 @@ public class DropTable extends SchemaStatement {
                 throw DbException.get(ErrorCode.TABLE_OR_VIEW_NOT_FOUND_1, tableName);
             }
         } else {
+            if (materializedView && !(table instanceof MaterializedView)) {
+                throw DbException.get(ErrorCode.VIEW_NOT_FOUND_1, tableName);
+            }
             session.getUser().checkRight(table, Right.ALL);
             if (!table.canDrop()) {
                 throw DbException.get(ErrorCode.CANNOT_DROP_TABLE_1, tableName);
@@ -0,0 +1,477 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.ddl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import com.lealone.db.auth.Right;
+import com.lealone.db.index.Cursor;
+import com.lealone.db.index.Index;
+import com.lealone.db.index.IndexType;
+import com.lealone.db.result.Result;
+import com.lealone.db.row.Row;
+import com.lealone.db.schema.Schema;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Column;
+import com.lealone.db.table.MaterializedView;
+import com.lealone.db.table.MaterializedView.Changes;
+import com.lealone.db.table.MaterializedView.KeyMapping;
+import com.lealone.db.table.StandardTable;
+import com.lealone.db.table.Table;
+import com.lealone.db.table.TableView;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueArray;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.SQLStatement;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.ExpressionColumn;
+import com.lealone.sql.expression.Parameter;
+import com.lealone.sql.expression.condition.Comparison;
+import com.lealone.sql.expression.condition.ConditionAndOr;
+import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
+import com.lealone.sql.expression.visitor.VoidExpressionVisitor;
+import com.lealone.sql.optimizer.TableFilter;
+import com.lealone.sql.query.Query;
+import com.lealone.sql.query.Select;
+
+/**
+ * This class represents the statement
+ * REFRESH MATERIALIZED VIEW
+ * <p>
+ * 增量刷新时先通过物化视图key字段上的索引删除待刷新的key对应的行，
+ * 然后在物化视图的查询上加上key字段的IN条件，一次重新查询这些key。
+ *
+ * @author zhh
+ */
+public class RefreshMaterializedView extends SchemaStatement {
+
+    // 待刷新的key没有这么多时总是增量刷新
+    private static final int MIN_FULL_REFRESH_KEYS = 100;
+
+    private MaterializedView view;
+    private boolean full;
+
+    public RefreshMaterializedView(ServerSession session, Schema schema) {
+        super(session, schema);
+    }
+
+    @Override
+    public int getType() {
+        return SQLStatement.REFRESH_MATERIALIZED_VIEW;
+    }
+
+    public void setView(MaterializedView view) {
+        this.view = view;
+    }
+
+    public void setFull(boolean full) {
+        this.full = full;
+    }
+
+    @Override
+    public int update() {
+        session.getUser().checkRight(view, Right.INSERT | Right.DELETE);
+        if (!view.tryExclusiveLock(session))
+            return -1;
+
+        Query query = (Query) session.prepareStatement(view.getQuerySQL(), true);
+        boolean needFull = register(session, view, query);
+        Changes changes = view.takePendingChanges();
+        if (needFull || full)
+            changes.setFull();
+        // 事务回滚时还回去，下一次刷新还要用
+        session.addMaterializedViewChangesAtRollback(view, changes);
+        if (changes.isEmpty())
+            return 0;
+
+        boolean ok = false;
+        view.setRefreshSession(session);
+        try {
+            int count = changes.isFull() || !canRefreshIncrementally(changes) ? refreshFull(query)
+                    : refreshIncrementally(changes);
+            ok = true;
+            return count;
+        } finally {
+            view.setRefreshSession(null);
+            if (!ok)
+                view.addPendingChanges(changes);
+        }
+    }
+
+    private int refreshFull(Query query) {
+        Cursor cursor = view.getScanIndex(session).find(session, null, null);
+        while (cursor.next()) {
+            view.removeRow(session, cursor.get());
+        }
+        return addRows(query, null, null, 0);
+    }
+
+    // 基表的key字段没有索引时每个key都要扫描基表，物化视图的key字段没有索引时找不到要删除的行，
+    // 待刷新的key超过物化视图行数的一半时也不如直接全量刷新
+    private boolean canRefreshIncrementally(Changes changes) {
+        HashMap<KeyMapping, HashSet<ValueArray>> keys = changes.getKeys();
+        long keyCount = 0;
+        for (HashSet<ValueArray> set : keys.values()) {
+            keyCount += set.size();
+        }
+        if (keyCount > MIN_FULL_REFRESH_KEYS && keyCount * 2 > view.getRowCountApproximation())
+            return false;
+        for (KeyMapping mapping : keys.keySet()) {
+            if (findKeyIndex(view, mapping.getViewColumns()) == null)
+                return false;
+        }
+        // viewColumns相同的KeyMapping是相等的，它们对应的基表都要有索引
+        for (Map.Entry<Table, KeyMapping> e : view.getKeyMappings().entrySet()) {
+            KeyMapping mapping = e.getValue();
+            if (keys.containsKey(mapping) && !hasIndex(e.getKey(), mapping.getBaseColumns()))
+                return false;
+        }
+        return true;
+    }
+
+    private int refreshIncrementally(Changes changes) {
+        HashMap<KeyMapping, HashSet<ValueArray>> keys = changes.getKeys();
+        ArrayList<KeyMapping> mappings = new ArrayList<>(keys.keySet());
+        // 通过物化视图key字段上的索引找出要删除的行，不同KeyMapping的key可能对应同一行
+        HashMap<Long, Row> oldRows = new HashMap<>();
+        for (KeyMapping mapping : mappings) {
+            int[] viewColumns = mapping.getViewColumns();
+            Index index = findKeyIndex(view, viewColumns);
+            for (ValueArray key : keys.get(mapping)) {
+                Value[] values = key.getList();
+                Row searchRow = view.getTemplateRow();
+                for (int j = 0; j < viewColumns.length; j++) {
+                    searchRow.setValue(viewColumns[j], values[j]);
+                }
+                Cursor cursor = index.find(session, searchRow, searchRow);
+                while (cursor.next()) {
+                    Row row = cursor.get();
+                    if (key.equals(mapping.getViewKey(row.getColumns())))
+                        oldRows.put(row.getKey(), row);
+                }
+            }
+        }
+        for (Row row : oldRows.values()) {
+            view.removeRow(session, row);
+        }
+        int count = 0;
+        for (int i = 0, size = mappings.size(); i < size; i++) {
+            KeyMapping mapping = mappings.get(i);
+            count += addRows(getKeyQuery(mapping, keys.get(mapping)), keys, mappings, i);
+        }
+        return count;
+    }
+
+    // 每个key字段的所有值放到一个IN条件中，一次查出所有key，
+    // 多个key字段时查出来的行可能比要刷新的多，在addRows中再过滤
+    private Query getKeyQuery(KeyMapping mapping, HashSet<ValueArray> keys) {
+        int[] viewColumns = mapping.getViewColumns();
+        Query query = (Query) session.prepareStatement(view.getQuerySQL(), true);
+        ArrayList<Value> paramValues = new ArrayList<>();
+        for (int j = 0; j < viewColumns.length; j++) {
+            LinkedHashSet<Value> values = new LinkedHashSet<>();
+            for (ValueArray key : keys) {
+                values.add(key.getList()[j]);
+            }
+            // IN匹配不到NULL，这个字段就不加条件了
+            if (values.contains(ValueNull.INSTANCE))
+                continue;
+            ArrayList<Parameter> params = new ArrayList<>(values.size());
+            for (Value v : values) {
+                params.add(new Parameter(paramValues.size()));
+                paramValues.add(v);
+            }
+            query.addGlobalInCondition(params, viewColumns[j]);
+        }
+        if (paramValues.isEmpty())
+            return query;
+        query = (Query) session.prepareStatement(query.getPlanSQL(), true);
+        ArrayList<Parameter> params = query.getParameters();
+        for (int j = 0, size = paramValues.size(); j < size; j++) {
+            params.get(j).setValue(paramValues.get(j));
+        }
+        return query;
+    }
+
+    // 找出前几个字段正好是这些字段的索引，部分索引没有包含所有行，不能用
+    private static Index findKeyIndex(Table table, int[] columnIds) {
+        for (Index index : table.getIndexes()) {
+            Column[] columns = index.getColumns();
+            IndexType type = index.getIndexType();
+            if (type.isScan() || type.isHash() || index.getPredicate() != null
+                    || columns.length < columnIds.length)
+                continue;
+            boolean found = true;
+            for (int i = 0; i < columnIds.length && found; i++) {
+                found = false;
+                for (int columnId : columnIds) {
+                    if (columns[i].getColumnId() == columnId) {
+                        found = true;
+                        break;
+                    }
+                }
+            }
+            if (found)
+                return index;
+        }
+        return null;
+    }
+
+    // 只要有一个key字段是索引的第一个字段，按key查询基表时就能用上索引
+    private static boolean hasIndex(Table table, int[] columnIds) {
+        for (Index index : table.getIndexes()) {
+            if (index.getIndexType().isScan() || index.getPredicate() != null)
+                continue;
+            int first = index.getColumns()[0].getColumnId();
+            for (int columnId : columnIds) {
+                if (first == columnId)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsKey(HashMap<KeyMapping, HashSet<ValueArray>> keys,
+            ArrayList<KeyMapping> mappings, int end, Value[] row) {
+        for (int i = 0; i < end; i++) {
+            KeyMapping mapping = mappings.get(i);
+            if (keys.get(mapping).contains(mapping.getViewKey(row)))
+                return true;
+        }
+        return false;
+    }
+
+    // 增量刷新时只插入第current个KeyMapping的key对应的行，前面的KeyMapping已经插入过的行要跳过
+    private int addRows(Query query, HashMap<KeyMapping, HashSet<ValueArray>> keys,
+            ArrayList<KeyMapping> mappings, int current) {
+        Column[] columns = view.getColumns();
+        int count = 0;
+        Result result = query.query(0);
+        try {
+            while (result.next()) {
+                Value[] values = result.currentRow();
+                Row row = view.getTemplateRow();
+                for (int i = 0; i < columns.length; i++) {
+                    row.setValue(i, columns[i].convert(values[i]));
+                }
+                if (mappings != null) {
+                    KeyMapping mapping = mappings.get(current);
+                    if (!keys.get(mapping).contains(mapping.getViewKey(row.getColumns()))
+                            || containsKey(keys, mappings, current, row.getColumns()))
+                        continue;
+                }
+                view.validateConvertUpdateSequence(session, row);
+                view.addRow(session, row);
+                count++;
+            }
+        } finally {
+            result.close();
+        }
+        return count;
+    }
+
+    /**
+     * 把物化视图注册到查询用到的所有基表。
+     *
+     * @return 基表有变化或者不知道用到了哪些基表时返回true，此时只能全量刷新
+     */
+    static boolean register(ServerSession session, MaterializedView view, Query query) {
+        TableCollector collector = new TableCollector(session);
+        query.accept(collector);
+        ArrayList<Table> tables = collector.tables;
+        if (view.isRegistered(tables))
+            return collector.unknown;
+        Map<Table, KeyMapping> mappings = Collections.emptyMap();
+        if (query instanceof Select)
+            mappings = getKeyMappings(view, (Select) query, tables);
+        view.register(tables, mappings);
+        return true;
+    }
+
+    // 收集查询用到的所有表，包括子查询和普通视图中用到的表，同一个表出现多次时也会收集多次
+    private static class TableCollector extends VoidExpressionVisitor {
+
+        private final ServerSession session;
+        private final ArrayList<Table> tables = new ArrayList<>();
+        private boolean unknown; // 递归视图在刷新时才知道用到了哪些表
+
+        TableCollector(ServerSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public Void visitSelect(Select s) {
+            super.visitSelect(s);
+            for (TableFilter f : s.getFilters()) {
+                addTable(f.getTable());
+                if (f.getJoinCondition() != null)
+                    f.getJoinCondition().accept(this);
+                if (f.getFilterCondition() != null)
+                    f.getFilterCondition().accept(this);
+            }
+            return null;
+        }
+
+        private void addTable(Table table) {
+            if (table instanceof TableView) {
+                TableView view = (TableView) table;
+                if (view.isRecursive())
+                    unknown = true;
+                else
+                    visitQuery((Query) session.prepareStatement(view.getQuery(), true));
+            } else {
+                tables.add(table);
+            }
+        }
+    }
+
+    /**
+     * 找出每个基表的哪些字段等于物化视图的哪些字段，基表的一条记录变化后只会影响这些字段等于它的行。
+     * <p>
+     * 只支持没有窗口函数和limit的单层查询，物化视图的字段必须直接引用表的字段，分组查询时还必须是分组字段，
+     * 基表在查询中只能出现一次并且不能是外连接的右表，
+     * WHERE和内连接ON中AND在一起的字段等值条件可以让基表的字段跟其他表的字段对应起来。
+     */
+    private static Map<Table, KeyMapping> getKeyMappings(MaterializedView view, Select select,
+            ArrayList<Table> tables) {
+        HashMap<Table, KeyMapping> mappings = new HashMap<>();
+        if (select.isWindowQuery() || select.getLimit() != null || select.getOffset() != null
+                || !select.accept(ExpressionVisitorFactory.getDeterministicVisitor()))
+            return mappings;
+        ArrayList<TableFilter> filters = select.getFilters();
+        for (TableFilter f : filters) {
+            if (f.getNestedJoin() != null)
+                return mappings;
+        }
+        HashMap<ColumnRef, ColumnRef> parents = new HashMap<>();
+        addEquivalences(parents, select.getCondition());
+        for (TableFilter f : filters) {
+            if (!f.isJoinOuter() && !f.isJoinOuterIndirect())
+                addEquivalences(parents, f.getJoinCondition());
+        }
+
+        // 可以作为key的物化视图字段
+        ArrayList<Expression> expressions = select.getExpressions();
+        boolean[] groupBy = select.getGroupByExpression();
+        if (select.isGroupQuery() && groupBy == null)
+            return mappings;
+        int columnCount = select.getColumnCount();
+        ColumnRef[] viewRefs = new ColumnRef[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            if (groupBy != null && !groupBy[i])
+                continue;
+            Expression e = expressions.get(i).getNonAliasExpression();
+            if (e instanceof ExpressionColumn) {
+                ExpressionColumn c = (ExpressionColumn) e;
+                TableFilter f = c.getTableFilter();
+                if (f != null && filters.contains(f) && c.getColumn().getColumnId() >= 0)
+                    viewRefs[i] = find(parents, new ColumnRef(f, c.getColumn().getColumnId()));
+            }
+        }
+
+        Column[] viewColumns = view.getColumns();
+        for (TableFilter f : filters) {
+            Table table = f.getTable();
+            if (f.isJoinOuter() || f.isJoinOuterIndirect() || !(table instanceof StandardTable)
+                    || Collections.frequency(tables, table) != 1)
+                continue;
+            ArrayList<int[]> pairs = new ArrayList<>();
+            for (int i = 0; i < columnCount; i++) {
+                if (viewRefs[i] == null)
+                    continue;
+                for (Column column : table.getColumns()) {
+                    ColumnRef ref = find(parents, new ColumnRef(f, column.getColumnId()));
+                    if (ref.equals(viewRefs[i])) {
+                        pairs.add(new int[] { column.getColumnId(), i });
+                        break;
+                    }
+                }
+            }
+            if (pairs.isEmpty())
+                continue;
+            int size = pairs.size();
+            int[] baseColumns = new int[size];
+            int[] viewColumnIds = new int[size];
+            int[] viewTypes = new int[size];
+            for (int i = 0; i < size; i++) {
+                baseColumns[i] = pairs.get(i)[0];
+                viewColumnIds[i] = pairs.get(i)[1];
+                viewTypes[i] = viewColumns[viewColumnIds[i]].getType();
+            }
+            mappings.put(table,
+                    new KeyMapping(table.getVersion(), baseColumns, viewColumnIds, viewTypes));
+        }
+        return mappings;
+    }
+
+    private static void addEquivalences(HashMap<ColumnRef, ColumnRef> parents, Expression e) {
+        if (e instanceof ConditionAndOr) {
+            ConditionAndOr c = (ConditionAndOr) e;
+            if (c.getAndOrType() == ConditionAndOr.AND) {
+                addEquivalences(parents, c.getLeft());
+                addEquivalences(parents, c.getRight());
+            }
+        } else if (e instanceof Comparison) {
+            Comparison c = (Comparison) e;
+            if (c.getCompareType() == Comparison.EQUAL
+                    && c.getLeft() instanceof ExpressionColumn
+                    && c.getRight() instanceof ExpressionColumn) {
+                ColumnRef left = toColumnRef((ExpressionColumn) c.getLeft());
+                ColumnRef right = toColumnRef((ExpressionColumn) c.getRight());
+                if (left != null && right != null) {
+                    left = find(parents, left);
+                    right = find(parents, right);
+                    if (!left.equals(right))
+                        parents.put(left, right);
+                }
+            }
+        }
+    }
+
+    private static ColumnRef toColumnRef(ExpressionColumn c) {
+        TableFilter f = c.getTableFilter();
+        if (f == null || c.getColumn() == null || c.getColumn().getColumnId() < 0)
+            return null;
+        return new ColumnRef(f, c.getColumn().getColumnId());
+    }
+
+    private static ColumnRef find(HashMap<ColumnRef, ColumnRef> parents, ColumnRef ref) {
+        ColumnRef parent;
+        while ((parent = parents.get(ref)) != null) {
+            ref = parent;
+        }
+        return ref;
+    }
+
+    private static class ColumnRef {
+
+        private final TableFilter filter;
+        private final int columnId;
+
+        ColumnRef(TableFilter filter, int columnId) {
+            this.filter = filter;
+            this.columnId = columnId;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(filter) * 31 + columnId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ColumnRef))
+                return false;
+            ColumnRef other = (ColumnRef) obj;
+            return filter == other.filter && columnId == other.columnId;
+        }
+    }
+}
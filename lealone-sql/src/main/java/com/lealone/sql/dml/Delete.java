@@ -5,6 +5,8 @@
  */
 package com.lealone.sql.dml;
 
+import java.util.List;
+
 import com.lealone.agent.SystemOutline;
 import com.lealone.agent.SystemOutlineNode;
 import com.lealone.common.util.StatementBuilder;
@@ -112,5 +114,17 @@ public class Delete extends UpDel {
             }
             return !done;
         }
+
+        @Override
+        protected Row createNewRow(Row oldRow) {
+            return null;
+        }
+
+        @Override
+        protected void upDelRows(List<Row> oldRows, List<Row> newRows) {
+            int rowCount = oldRows.size();
+            onPendingOperationStart();
+            table.removeRows(session, oldRows, ar -> onPendingOperationComplete(ar, rowCount));
+        }
     }
 }
@@ -53,6 +53,7 @@ import com.lealone.db.schema.UserAggregate;
 import com.lealone.db.schema.UserDataType;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.table.Column;
+import com.lealone.db.table.MaterializedView;
 import com.lealone.db.table.Table;
 import com.lealone.db.table.TableType;
 import com.lealone.db.value.Value;
@@ -301,7 +302,8 @@ public class GenScript extends ScriptBase {
                                 + " +/- SELECT COUNT(*) FROM " + table.getSQL();
                         add(rowcount, false);
                     }
-                    if (data) {
+                    // 物化视图的数据在建视图时由查询生成
+                    if (data && !(table instanceof MaterializedView)) {
                         count = generateInsertValues(count, table);
                     }
                 }
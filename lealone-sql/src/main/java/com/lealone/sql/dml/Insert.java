@@ -69,6 +69,13 @@ public class Insert extends MerSert {
             table.fire(session, Trigger.INSERT, false);
         }
 
+        // fireRow()在有行级触发器或者需要逐行检查的约束(表级CHECK、外键)时返回true，这时需要逐行处理，
+        // 主键和唯一约束由索引检查，列上的CHECK约束在validateConvertUpdateSequence中检查
+        @Override
+        protected boolean supportsBatchAdd() {
+            return table.supportsBatchAdd() && !table.fireRow();
+        }
+
         @Override
         protected void merSert(Row row) {
             addRowInternal(row);
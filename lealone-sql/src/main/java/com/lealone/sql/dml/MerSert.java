@@ -6,6 +6,7 @@
 package com.lealone.sql.dml;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 import com.lealone.agent.SystemOutline;
@@ -13,6 +14,7 @@ import com.lealone.agent.SystemOutlineNode;
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.StatementBuilder;
 import com.lealone.db.DataHandler;
+import com.lealone.db.DbObject;
 import com.lealone.db.api.ErrorCode;
 import com.lealone.db.async.AsyncResultHandler;
 import com.lealone.db.command.CommandParameter;
@@ -28,6 +30,7 @@ import com.lealone.sql.executor.YieldableBase;
 import com.lealone.sql.executor.YieldableLoopUpdateBase;
 import com.lealone.sql.expression.Expression;
 import com.lealone.sql.expression.Parameter;
+import com.lealone.sql.expression.visitor.DependenciesVisitor;
 import com.lealone.sql.expression.visitor.DeterministicVisitor;
 import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
 import com.lealone.sql.optimizer.TableFilter;
@@ -42,6 +45,7 @@ public abstract class MerSert extends ManipulationStatement {
     protected final ArrayList<Expression[]> list = new ArrayList<>();
 
     protected List<Value[]> batchParameterValues;
+    protected int[] batchUpdateCounts; // 批量执行时每组参数影响的记录数
 
     public MerSert(ServerSession session) {
         super(session);
@@ -52,6 +56,23 @@ public abstract class MerSert extends ManipulationStatement {
         return true;
     }
 
+    // 只共享values形式的语句
+    @Override
+    public boolean isShareable() {
+        if (prepareAlways || query != null)
+            return false;
+        HashSet<DbObject> dependencies = new HashSet<>();
+        dependencies.add(table);
+        DependenciesVisitor visitor = ExpressionVisitorFactory.getDependenciesVisitor(dependencies);
+        for (Expression[] expr : list) {
+            for (Expression e : expr) {
+                if (e != null)
+                    e.accept(visitor);
+            }
+        }
+        return isShareable(dependencies);
+    }
+
     public void setTable(Table table) {
         this.table = table;
     }
@@ -91,6 +112,12 @@ public abstract class MerSert extends ManipulationStatement {
     @Override
     public void setBatchParameterValues(List<Value[]> batchParameterValues) {
         this.batchParameterValues = batchParameterValues;
+        batchUpdateCounts = batchParameterValues == null ? null
+                : new int[batchParameterValues.size()];
+    }
+
+    public int[] getBatchUpdateCounts() {
+        return batchUpdateCounts;
     }
 
     @Override
@@ -105,13 +132,21 @@ public abstract class MerSert extends ManipulationStatement {
         if (getCurrentRowNumber() > 0)
             return priority;
 
-        if (query != null || list.size() > 10)
+        if (query != null || getValuesRowCount() > 10)
             priority = NORM_PRIORITY - 1;
         else
             priority = MAX_PRIORITY;
         return priority;
     }
 
+    // jdbc批量执行时每组参数都会用到values中的所有行
+    private int getValuesRowCount() {
+        if (batchParameterValues != null)
+            return batchParameterValues.size() * list.size();
+        else
+            return list.size();
+    }
+
     protected void getValuesPlanSQL(StatementBuilder buff) {
         if (list.size() > 0) {
             buff.append("VALUES ");
@@ -205,6 +240,9 @@ public abstract class MerSert extends ManipulationStatement {
     protected static abstract class YieldableMerSert extends YieldableLoopUpdateBase
             implements ResultTarget {
 
+        // 批量模式下攒够这么多行就先增加到表中
+        private static final int MAX_BATCH_SIZE = 256;
+
         final MerSert merSertStatement;
         final Table table;
         final int listSize;
@@ -212,12 +250,14 @@ public abstract class MerSert extends ManipulationStatement {
         int index;
         YieldableBase<Result> yieldableQuery;
 
+        // 批量模式下收集到的新记录，为null时表示不使用批量模式
+        private ArrayList<Row> batchRows;
+
         public YieldableMerSert(MerSert statement, AsyncResultHandler<Integer> asyncHandler) {
             super(statement, asyncHandler);
             this.merSertStatement = statement;
             table = statement.table;
-            listSize = statement.batchParameterValues != null ? statement.batchParameterValues.size()
-                    : statement.list.size();
+            listSize = statement.getValuesRowCount();
         }
 
         @Override
@@ -226,6 +266,14 @@ public abstract class MerSert extends ManipulationStatement {
             if (merSertStatement.query != null) {
                 yieldableQuery = merSertStatement.query.createYieldableQuery(0, false, null, this);
             }
+            if (supportsBatchAdd())
+                batchRows = new ArrayList<>();
+        }
+
+        // 子类允许批量增加新记录时，多行values、insert select以及jdbc批量执行都会攒成一批，
+        // 每个索引只需要调用一次addRows，并且只产生一条UndoLogRecord
+        protected boolean supportsBatchAdd() {
+            return false;
         }
 
         @Override
@@ -249,12 +297,15 @@ public abstract class MerSert extends ManipulationStatement {
                 while (pendingException == null && index < listSize) {
                     merSert(createNewRow());
                     if (yieldIfNeeded(++index)) {
+                        flushBatch();
                         return;
                     }
                 }
+                flushBatch();
                 onLoopEnd();
             } else {
                 yieldableQuery.run();
+                flushBatch();
                 if (yieldableQuery.isStopped()) {
                     onLoopEnd();
                 }
@@ -265,12 +316,16 @@ public abstract class MerSert extends ManipulationStatement {
             Row newRow = table.getTemplateRow(); // newRow的长度是全表字段的个数，会>=columns的长度
             Expression[] expr;
             if (merSertStatement.batchParameterValues != null) {
-                expr = merSertStatement.list.get(0);
-                Value[] parameters = merSertStatement.batchParameterValues.get(index);
-                List<? extends CommandParameter> params = merSertStatement.getParameters();
-                for (int i = 0, size = parameters.length; i < size; i++) {
-                    CommandParameter p = params.get(i);
-                    p.setValue(parameters[i]);
+                int rows = merSertStatement.list.size();
+                expr = merSertStatement.list.get(index % rows);
+                // 同一组参数用于values中的所有行，只需设置一次
+                if (index % rows == 0) {
+                    Value[] parameters = merSertStatement.batchParameterValues.get(index / rows);
+                    List<? extends CommandParameter> params = merSertStatement.getParameters();
+                    for (int i = 0, size = parameters.length; i < size; i++) {
+                        CommandParameter p = params.get(i);
+                        p.setValue(parameters[i]);
+                    }
                 }
             } else {
                 expr = merSertStatement.list.get(index);
@@ -303,19 +358,36 @@ public abstract class MerSert extends ManipulationStatement {
                     Value v = c.convert(values[i]);
                     newRow.setValue(index, v);
                 } catch (DbException ex) {
-                    throw merSertStatement.setRow(ex, updateCount + 1, getSQL(values));
+                    throw merSertStatement.setRow(ex, getRowNumber(), getSQL(values));
                 }
             }
             return newRow;
         }
 
+        // 批量执行时记下当前这组参数影响的记录数，
+        // 只要有一条记录失败整条语句就失败了，所以在发起异步操作时就可以计数
+        protected void addBatchUpdateCount(int count) {
+            if (merSertStatement.batchUpdateCounts != null)
+                merSertStatement.batchUpdateCounts[index / merSertStatement.list.size()] += count;
+        }
+
         protected void addRowInternal(Row newRow) {
             table.validateConvertUpdateSequence(session, newRow);
+            // 批量模式下整批的默认值和自增值在增加到表之前就生成了，
+            // 语句失败时这一批已经用掉的自增值不会回退，跟逐行增加相比序列中的空洞会更大
+            if (batchRows != null) {
+                addBatchUpdateCount(1);
+                batchRows.add(newRow);
+                if (batchRows.size() >= MAX_BATCH_SIZE)
+                    flushBatch();
+                return;
+            }
             boolean done = false;
             boolean fireRow = table.fireRow();
             if (fireRow)
                 done = fireBeforeRow(table, null, newRow);
             if (!done) { // add row
+                addBatchUpdateCount(1);
                 onPendingOperationStart();
                 table.addRow(session, newRow, ar -> {
                     if (fireRow && ar.isSucceeded()) {
@@ -326,13 +398,31 @@ public abstract class MerSert extends ManipulationStatement {
             }
         }
 
+        private void flushBatch() {
+            if (batchRows == null || batchRows.isEmpty())
+                return;
+            ArrayList<Row> rows = batchRows;
+            batchRows = new ArrayList<>();
+            if (pendingException != null)
+                return;
+            int size = rows.size();
+            onPendingOperationStart();
+            table.addRows(session, rows, ar -> onPendingOperationComplete(ar, size));
+        }
+
+        // 还在攒批的行也要算上
+        private int getRowNumber() {
+            return updateCount + (batchRows == null ? 0 : batchRows.size()) + 1;
+        }
+
         protected abstract void merSert(Row row);
 
         // 以下实现ResultTarget接口，可以在执行查询时，边查边增加新记录
         @Override
         public boolean addRow(Value[] values) {
             merSert(createNewRow(values));
-            if (yieldIfNeeded(updateCount + 1)) {
+            if (yieldIfNeeded(getRowNumber())) {
+                flushBatch();
                 return true;
             }
             return false;
@@ -45,6 +45,12 @@ public class Merge extends MerSert {
         return SQLStatement.MERGE;
     }
 
+    // 内部的update语句是用当前session准备的
+    @Override
+    public boolean isShareable() {
+        return false;
+    }
+
     public void setKeys(Column[] keys) {
         this.keys = keys;
     }
@@ -155,6 +161,7 @@ public class Merge extends MerSert {
             int count = mergeStatement.update.update();
             if (count > 0) {
                 updateCount += count;
+                addBatchUpdateCount(count);
             } else if (count == 0) {
                 addRowInternal(row);
             } else if (count != 1) {
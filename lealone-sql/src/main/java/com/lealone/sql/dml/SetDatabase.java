@@ -182,6 +182,21 @@ public class SetDatabase extends SetStatement {
             setDbSetting(value);
             break;
         }
+        case MAX_SORT_MEMORY: {
+            int value = getAndValidateIntValue();
+            setDbSetting(value);
+            break;
+        }
+        case MAX_AGGREGATE_MEMORY: {
+            int value = getAndValidateIntValue();
+            setDbSetting(value);
+            break;
+        }
+        case MAX_JOIN_MEMORY: {
+            int value = getAndValidateIntValue();
+            setDbSetting(value);
+            break;
+        }
         case MODE: {
             String m = getStringValue();
             Mode mode = Mode.getInstance(m);
@@ -259,6 +274,21 @@ public class SetDatabase extends SetStatement {
             }
             break;
         }
+        case PLAN_CACHE_SIZE: {
+            int value = getAndValidateIntValue();
+            setDbSetting(value);
+            if (value <= 0)
+                database.getPlanCache().clear();
+            break;
+        }
+        case RESULT_CACHE_SIZE:
+        case RESULT_CACHE_MEMORY: {
+            int value = getAndValidateIntValue();
+            setDbSetting(value);
+            if (value <= 0)
+                database.getResultCache().clear();
+            break;
+        }
         case CONSISTENCY_LEVEL: {
             int value = getAndValidateIntValue();
             setDbSetting(value);
@@ -5,8 +5,13 @@
  */
 package com.lealone.sql.dml;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
 import com.lealone.common.util.StatementBuilder;
 import com.lealone.db.DataHandler;
+import com.lealone.db.DbObject;
 import com.lealone.db.async.AsyncResultHandler;
 import com.lealone.db.lock.DbObjectLock;
 import com.lealone.db.row.Row;
@@ -19,6 +24,8 @@ import com.lealone.sql.expression.Expression;
 import com.lealone.sql.expression.evaluator.AlwaysTrueEvaluator;
 import com.lealone.sql.expression.evaluator.ExpressionEvaluator;
 import com.lealone.sql.expression.evaluator.ExpressionInterpreter;
+import com.lealone.sql.expression.visitor.DependenciesVisitor;
+import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
 import com.lealone.sql.optimizer.TableFilter;
 import com.lealone.sql.optimizer.TableIterator;
 
@@ -42,6 +49,25 @@ public abstract class UpDel extends ManipulationStatement {
         return true;
     }
 
+    @Override
+    public boolean isShareable() {
+        if (prepareAlways)
+            return false;
+        HashSet<DbObject> dependencies = new HashSet<>();
+        dependencies.add(tableFilter.getTable());
+        DependenciesVisitor visitor = ExpressionVisitorFactory.getDependenciesVisitor(dependencies);
+        if (condition != null)
+            condition.accept(visitor);
+        if (limitExpr != null)
+            limitExpr.accept(visitor);
+        addDependencies(visitor);
+        return isShareable(dependencies);
+    }
+
+    // 子类把其他表达式引用的对象加到visitor中
+    protected void addDependencies(DependenciesVisitor visitor) {
+    }
+
     public void setTableFilter(TableFilter tableFilter) {
         this.tableFilter = tableFilter;
     }
@@ -88,11 +114,20 @@ public abstract class UpDel extends ManipulationStatement {
 
     protected static abstract class YieldableUpDel extends YieldableLoopUpdateBase {
 
+        // 批量模式下同一个page中的行超过这个数量时也要先处理掉
+        private static final int MAX_BATCH_SIZE = 256;
+
         protected final Table table;
         private final int limitRows; // 如果是0，表示不删除任何记录；如果小于0，表示没有限制
         private final ExpressionEvaluator conditionEvaluator;
         private final TableIterator tableIterator;
 
+        // 批量模式下收集到的同一个page中满足条件的行，为null时表示不使用批量模式
+        private final ArrayList<Row> batchRows;
+        private final ArrayList<Object> batchValues; // 遍历时计算条件所用的值
+        private final ArrayList<Row> batchNewRows; // 只有update语句才需要
+        private Object batchPage;
+
         public YieldableUpDel(UpDel statement, AsyncResultHandler<Integer> asyncHandler) {
             super(statement, asyncHandler);
             table = statement.tableFilter.getTable();
@@ -120,6 +155,18 @@ public abstract class UpDel extends ManipulationStatement {
                 conditionEvaluator = new AlwaysTrueEvaluator();
             else
                 conditionEvaluator = new ExpressionInterpreter(session, statement.condition);
+
+            // 有触发器或约束时需要逐行处理，有limit时也逐行处理，避免多加锁
+            if (table.supportsBatchUpDel() && !table.fireRow() && !table.containsLargeObject()
+                    && limitRows < 0) {
+                batchRows = new ArrayList<>();
+                batchValues = new ArrayList<>();
+                batchNewRows = new ArrayList<>();
+            } else {
+                batchRows = null;
+                batchValues = null;
+                batchNewRows = null;
+            }
         }
 
         protected abstract int getRightMask();
@@ -128,6 +175,12 @@ public abstract class UpDel extends ManipulationStatement {
 
         protected abstract boolean upDel(Row oldRow);
 
+        // 批量模式下遍历时调用，update语句基于当前行创建新的row，delete语句返回null
+        protected abstract Row createNewRow(Row oldRow);
+
+        // 批量模式下处理已经被当前事务锁住的多条记录，newRows为null时代表删除
+        protected abstract void upDelRows(List<Row> oldRows, List<Row> newRows);
+
         @Override
         protected void startInternal() {
             session.getUser().checkRight(table, getRightMask());
@@ -175,6 +228,10 @@ public abstract class UpDel extends ManipulationStatement {
         }
 
         private void executeLoopUpdate0() {
+            if (batchRows != null) {
+                executeBatchLoopUpdate();
+                return;
+            }
             while (tableIterator.next() && pendingException == null) {
                 // 不能直接return，执行完一次后再return，否则执行next()得到的记录被跳过了，会产生严重的问题
                 boolean yield = yieldIfNeeded(++loopCount);
@@ -197,5 +254,72 @@ public abstract class UpDel extends ManipulationStatement {
             }
             onLoopEnd();
         }
+
+        // 批量模式: 同一个page中满足条件的行先收集起来，然后一起加锁，再一起更新或删除，
+        // 这样每个page只需要一次异步回调、一条UndoLogRecord以及一次索引维护
+        private void executeBatchLoopUpdate() {
+            while (tableIterator.next() && pendingException == null) {
+                boolean yield = yieldIfNeeded(++loopCount);
+                if (conditionEvaluator.getBooleanValue()) {
+                    Row row = tableIterator.getRow();
+                    if (row != null) { // 为null时说明已经删除了
+                        Object page = TableIterator.getPage(row);
+                        if (!batchRows.isEmpty()
+                                && (page != batchPage || batchRows.size() >= MAX_BATCH_SIZE)) {
+                            if (!flushBatch()) {
+                                tableIterator.retry(row); // 当前行还没有加到batch中
+                                return;
+                            }
+                        }
+                        Row newRow = createNewRow(row);
+                        batchPage = page;
+                        batchRows.add(row);
+                        batchValues.add(row.getLockedValue());
+                        if (newRow != null)
+                            batchNewRows.add(newRow);
+                    }
+                }
+                if (yield) {
+                    flushBatch();
+                    return;
+                }
+            }
+            if (pendingException == null && !flushBatch())
+                return;
+            onLoopEnd();
+        }
+
+        // 返回false表示有记录被其他事务锁住了，剩余的记录需要等待后重新遍历
+        private boolean flushBatch() {
+            int size = batchRows.size();
+            if (size == 0)
+                return true;
+            boolean isUpdate = !batchNewRows.isEmpty();
+            ArrayList<Row> oldRows = new ArrayList<>(size);
+            ArrayList<Row> newRows = isUpdate ? new ArrayList<>(size) : null;
+            boolean locked = true;
+            for (int i = 0; i < size; i++) {
+                Row row = batchRows.get(i);
+                if (!locked) {
+                    tableIterator.retry(row);
+                    continue;
+                }
+                int ret = tableIterator.tryLockRow(row, batchValues.get(i));
+                if (ret > 0) {
+                    oldRows.add(TableIterator.getLockableRow(row));
+                    if (isUpdate)
+                        newRows.add(batchNewRows.get(i));
+                } else if (ret == 0) { // 被其他事务锁住了
+                    locked = false;
+                }
+            }
+            batchRows.clear();
+            batchValues.clear();
+            batchNewRows.clear();
+            batchPage = null;
+            if (!oldRows.isEmpty())
+                upDelRows(oldRows, newRows);
+            return locked;
+        }
     }
 }
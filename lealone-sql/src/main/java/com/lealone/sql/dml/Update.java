@@ -8,6 +8,7 @@ package com.lealone.sql.dml;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 
 import com.lealone.agent.SystemOutline;
 import com.lealone.agent.SystemOutlineNode;
@@ -28,6 +29,7 @@ import com.lealone.sql.executor.YieldableBase;
 import com.lealone.sql.expression.Expression;
 import com.lealone.sql.expression.Parameter;
 import com.lealone.sql.expression.ValueExpression;
+import com.lealone.sql.expression.visitor.DependenciesVisitor;
 import com.lealone.sql.expression.visitor.DeterministicVisitor;
 import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
 
@@ -83,6 +85,12 @@ public class Update extends UpDel {
         return buff.toString();
     }
 
+    @Override
+    protected void addDependencies(DependenciesVisitor visitor) {
+        for (Expression e : expressionMap.values())
+            e.accept(visitor);
+    }
+
     public boolean isDeterministic() {
         DeterministicVisitor dv = ExpressionVisitorFactory.getDeterministicVisitor();
         if (condition != null) {
@@ -167,7 +175,6 @@ public class Update extends UpDel {
         @Override
         protected boolean upDel(Row oldRow) {
             Row newRow = createNewRow(oldRow);
-            table.validateConvertUpdateSequence(session, newRow);
             boolean done = false;
             boolean fireRow = table.fireRow();
             if (fireRow) {
@@ -185,7 +192,16 @@ public class Update extends UpDel {
             return !done;
         }
 
-        private Row createNewRow(Row oldRow) {
+        @Override
+        protected void upDelRows(List<Row> oldRows, List<Row> newRows) {
+            int rowCount = oldRows.size();
+            onPendingOperationStart();
+            table.updateRows(session, oldRows, newRows, updateColumnIndexes,
+                    ar -> onPendingOperationComplete(ar, rowCount));
+        }
+
+        @Override
+        protected Row createNewRow(Row oldRow) {
             Row newRow = table.getTemplateRow();
             newRow.setKey(oldRow.getKey()); // 复用原来的行号
             for (int i = 0; i < columnCount; i++) {
@@ -201,6 +217,7 @@ public class Update extends UpDel {
                 }
                 newRow.setValue(i, newValue);
             }
+            table.validateConvertUpdateSequence(session, newRow);
             return newRow;
         }
     }
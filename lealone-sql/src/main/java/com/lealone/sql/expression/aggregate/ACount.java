@@ -12,6 +12,7 @@ import com.lealone.db.value.Value;
 import com.lealone.db.value.ValueLong;
 import com.lealone.db.value.ValueNull;
 import com.lealone.sql.expression.Expression;
+import com.lealone.sql.operator.ColumnVector;
 import com.lealone.sql.query.Select;
 
 // COUNT(x)
@@ -66,6 +67,18 @@ public class ACount extends BuiltInAggregate {
             return distinct;
         }
 
+        // 批量加入一列中被选中的值，OLAP模式下使用，带distinct时返回false，由调用者逐行调用add
+        public boolean addBatch(ColumnVector vector, int[] selection, int size) {
+            if (distinct)
+                return false;
+            boolean[] nulls = vector.getNulls();
+            for (int i = 0; i < size; i++) {
+                if (!nulls[selection[i]])
+                    count++;
+            }
+            return true;
+        }
+
         @Override
         public void add(ServerSession session, Value v) {
             if (v == ValueNull.INSTANCE) {
@@ -17,6 +17,7 @@ import com.lealone.db.value.ValueDouble;
 import com.lealone.db.value.ValueLong;
 import com.lealone.db.value.ValueNull;
 import com.lealone.sql.expression.Expression;
+import com.lealone.sql.operator.ColumnVector;
 import com.lealone.sql.query.Select;
 
 public class ADefault extends BuiltInAggregate {
@@ -174,6 +175,10 @@ public class ADefault extends BuiltInAggregate {
         private ValueHashMap<AggregateDataDefault> distinctValues;
         private Value value;
         private double m2, mean;
+        // SUM和AVG累加的类型是LONG或DOUBLE时直接用基本类型累加，不用每一行都创建新的Value
+        private int sumType = Value.UNKNOWN;
+        private long longSum;
+        private double doubleSum;
 
         public boolean isDistinct() {
             return distinct;
@@ -204,11 +209,116 @@ public class ADefault extends BuiltInAggregate {
         }
 
         public Value getValue() {
-            return value;
+            return value != null ? value : getPrimitiveSum();
         }
 
         public void setValue(Value value) {
             this.value = value;
+            sumType = Value.UNKNOWN;
+        }
+
+        private boolean addPrimitive(Value v, int type) {
+            switch (type) {
+            case Value.LONG:
+                addLong(v.getLong());
+                return true;
+            case Value.DOUBLE:
+                addDouble(v.getDouble());
+                return true;
+            default:
+                return false;
+            }
+        }
+
+        private void addLong(long x) {
+            if (sumType == Value.UNKNOWN) {
+                longSum = x;
+            } else {
+                long r = longSum + x;
+                // 溢出时跟原来一样由ValueLong.add报错
+                if (((longSum ^ r) & (x ^ r)) < 0)
+                    ValueLong.get(longSum).add(ValueLong.get(x));
+                longSum = r;
+            }
+            sumType = Value.LONG;
+        }
+
+        private void addDouble(double x) {
+            doubleSum = sumType == Value.UNKNOWN ? x : doubleSum + x;
+            sumType = Value.DOUBLE;
+        }
+
+        /**
+         * 批量加入一列中被选中的值，OLAP模式下使用。
+         * 只处理不带distinct的SUM、AVG、MIN、MAX，不能按基本类型计算时返回false，由调用者逐行调用add。
+         *
+         * @param session 当前session
+         * @param vector 聚合函数参数对应的列
+         * @param selection 被选中的记录在vector中的下标
+         * @param size 被选中的记录数
+         * @return 是否已经处理
+         */
+        public boolean addBatch(ServerSession session, ColumnVector vector, int[] selection, int size) {
+            if (distinct)
+                return false;
+            int vectorType = vector.getVectorType();
+            boolean[] nulls = vector.getNulls();
+            switch (type) {
+            case Aggregate.SUM:
+            case Aggregate.AVG: {
+                int t = type == Aggregate.SUM ? dataType : DataType.getAddProofType(dataType);
+                if (value != null || t != vectorType)
+                    return false;
+                long[] longs = vector.getLongs();
+                double[] doubles = vector.getDoubles();
+                for (int i = 0; i < size; i++) {
+                    int row = selection[i];
+                    if (nulls[row])
+                        continue;
+                    count++;
+                    if (longs != null)
+                        addLong(longs[row]);
+                    else
+                        addDouble(doubles[row]);
+                }
+                return true;
+            }
+            case Aggregate.MIN:
+            case Aggregate.MAX: {
+                if (vectorType == Value.UNKNOWN)
+                    return false;
+                int sign = type == Aggregate.MIN ? -1 : 1;
+                int best = -1;
+                for (int i = 0; i < size; i++) {
+                    int row = selection[i];
+                    if (nulls[row])
+                        continue;
+                    count++;
+                    // 相等时跟逐行加入一样保留先出现的值
+                    if (best < 0 || vector.compare(row, best) * sign > 0)
+                        best = row;
+                }
+                if (best >= 0) {
+                    Value v = vector.getValues()[best];
+                    if (value == null || session.getDatabase().compare(v, value) * sign > 0)
+                        value = v;
+                }
+                return true;
+            }
+            default:
+                return false;
+            }
+        }
+
+        private Value getPrimitiveSum() {
+            switch (sumType) {
+            case Value.LONG:
+                return ValueLong.get(longSum);
+            case Value.DOUBLE:
+                return ValueDouble.get(doubleSum);
+            default:
+                return null;
+            }
         }
 
         @Override
@@ -230,6 +340,9 @@ public class ADefault extends BuiltInAggregate {
             }
             switch (type) {
             case Aggregate.SUM:
+                if (value == null && addPrimitive(v, dataType)) {
+                    break;
+                }
                 if (value == null) {
                     value = v.convertTo(dataType);
                 } else {
@@ -238,6 +351,9 @@ public class ADefault extends BuiltInAggregate {
                 }
                 break;
             case Aggregate.AVG:
+                if (value == null && addPrimitive(v, DataType.getAddProofType(dataType))) {
+                    break;
+                }
                 if (value == null) {
                     value = v.convertTo(DataType.getAddProofType(dataType));
                 } else {
@@ -335,11 +451,12 @@ public class ADefault extends BuiltInAggregate {
                 // } else {
                 // v = value;
                 // }
-                v = value;
+                v = getValue();
                 break;
             case Aggregate.AVG:
-                if (value != null) {
-                    v = BuiltInAggregate.divide(value, count);
+                v = getValue();
+                if (v != null) {
+                    v = BuiltInAggregate.divide(v, count);
                 }
                 break;
             case Aggregate.STDDEV_POP: {
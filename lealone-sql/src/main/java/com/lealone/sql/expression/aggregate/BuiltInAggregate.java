@@ -63,6 +63,10 @@ public abstract class BuiltInAggregate extends Aggregate {
         return type;
     }
 
+    public boolean isDistinct() {
+        return distinct;
+    }
+
     @Override
     public Expression getOn() {
         return on;
@@ -102,6 +106,15 @@ public abstract class BuiltInAggregate extends Aggregate {
 
     protected abstract AggregateData createAggregateData();
 
+    // 用作窗口函数时，每个窗口帧单独创建聚合数据，不放到select的currentGroup中
+    public AggregateData createWindowData() {
+        return createAggregateData();
+    }
+
+    public Value getWindowValue(ServerSession session, AggregateData data) {
+        return data.getValue(session);
+    }
+
     public AggregateData getAggregateData() {
         HashMap<Expression, Object> group = select.getCurrentGroup();
         if (group == null) {
@@ -13,6 +13,7 @@ import com.lealone.common.util.StatementBuilder;
 import com.lealone.db.Database;
 import com.lealone.db.SysProperties;
 import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Column;
 import com.lealone.db.value.Value;
 import com.lealone.db.value.ValueBoolean;
 import com.lealone.db.value.ValueNull;
@@ -387,6 +388,7 @@ public class Comparison extends Condition {
         }
         // one side must be from the current filter
         if (l == null && r == null) {
+            createVirtualIndexCondition(filter);
             return;
         }
         if (l != null && r != null) {
@@ -434,6 +436,26 @@ public class Comparison extends Condition {
         }
     }
 
+    // 一边是表达式索引的表达式时，用它对应的虚拟字段作为索引条件
+    private void createVirtualIndexCondition(TableFilter filter) {
+        if (compareType == NOT_EQUAL || compareType == NOT_EQUAL_NULL_SAFE) {
+            return;
+        }
+        NotFromResolverVisitor visitor = ExpressionVisitorFactory.getNotFromResolverVisitor(filter);
+        Column c = filter.findVirtualColumn(left);
+        if (c != null) {
+            if (right.accept(visitor)) {
+                filter.addIndexCondition(IndexCondition.getVirtual(compareType, c, right));
+            }
+            return;
+        }
+        c = filter.findVirtualColumn(right);
+        if (c != null && left.accept(visitor)) {
+            int compareRev = getReversedCompareType(compareType);
+            filter.addIndexCondition(IndexCondition.getVirtual(compareRev, c, left));
+        }
+    }
+
     @Override
     public void addFilterConditions(TableFilter filter, boolean outerJoin) {
         if (compareType == IS_NULL && outerJoin) {
@@ -12,6 +12,7 @@ import com.lealone.db.session.ServerSession;
 import com.lealone.db.value.Value;
 import com.lealone.db.value.ValueBoolean;
 import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.subquery.SubQueryCache;
 import com.lealone.sql.expression.visitor.ExpressionVisitor;
 import com.lealone.sql.query.Query;
 
@@ -21,9 +22,11 @@ import com.lealone.sql.query.Query;
 public class ConditionExists extends Condition {
 
     private final Query query;
+    private final SubQueryCache cache;
 
     public ConditionExists(Query query) {
         this.query = query;
+        cache = new SubQueryCache(query);
     }
 
     public Query getQuery() {
@@ -32,11 +35,21 @@ public class ConditionExists extends Condition {
 
     @Override
     public Value getValue(ServerSession session) {
+        // 相关值相同的外层记录直接用缓存的结果，不再执行子查询
+        Value key = cache.getKey(session, null);
+        if (key != null) {
+            Value v = cache.get(key);
+            if (v != null)
+                return v;
+        }
         query.setSession(session);
         Result result = query.query(1);
         session.addTemporaryResult(result);
         boolean r = result.getRowCount() > 0;
-        return ValueBoolean.get(r);
+        Value v = ValueBoolean.get(r);
+        if (key != null)
+            cache.put(key, v);
+        return v;
     }
 
     @Override
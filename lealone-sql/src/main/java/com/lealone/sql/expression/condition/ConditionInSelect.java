@@ -16,6 +16,7 @@ import com.lealone.db.value.ValueBoolean;
 import com.lealone.db.value.ValueNull;
 import com.lealone.sql.expression.Expression;
 import com.lealone.sql.expression.ExpressionColumn;
+import com.lealone.sql.expression.subquery.SubQueryCache;
 import com.lealone.sql.expression.subquery.SubQueryResult;
 import com.lealone.sql.expression.visitor.ExpressionVisitor;
 import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
@@ -34,7 +35,10 @@ public class ConditionInSelect extends Condition {
     private final Query query;
     private final boolean all;
     private final int compareType;
+    private final SubQueryCache cache;
     private SubQueryResult rows;
+    private ServerSession rowsSession;
+    private long rowsModificationDataId;
 
     public ConditionInSelect(Database database, Expression left, Query query, boolean all,
             int compareType) {
@@ -43,6 +47,7 @@ public class ConditionInSelect extends Condition {
         this.query = query;
         this.all = all;
         this.compareType = compareType;
+        cache = new SubQueryCache(query);
     }
 
     public Expression getLeft() {
@@ -55,14 +60,33 @@ public class ConditionInSelect extends Condition {
 
     @Override
     public Value getValue(ServerSession session) {
-        if (rows == null) {
+        Value l = left.getValue(session);
+        // 相关值和左边的值都相同时直接用缓存的结果
+        Value key = cache.getKey(session, l);
+        if (key != null) {
+            Value v = cache.get(key);
+            if (v != null)
+                return v;
+        }
+        Value v = getValue(session, l);
+        if (key != null)
+            cache.put(key, v);
+        return v;
+    }
+
+    private Value getValue(ServerSession session, Value l) {
+        // 相关子查询或者数据有变化时要重新执行
+        long id = session.getDatabase().getModificationDataId();
+        if (rows == null || rowsSession != session || rowsModificationDataId != id
+                || cache.isCorrelated() || !cache.isCacheable()) {
             query.setSession(session);
             rows = new SubQueryResult(query, 0);
             session.addTemporaryResult(rows);
+            rowsSession = session;
+            rowsModificationDataId = id;
         } else {
             rows.reset();
         }
-        Value l = left.getValue(session);
         if (rows.getRowCount() == 0) {
             return ValueBoolean.get(all);
         } else if (l == ValueNull.INSTANCE) {
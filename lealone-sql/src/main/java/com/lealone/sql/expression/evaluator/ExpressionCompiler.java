@@ -0,0 +1,651 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.expression.evaluator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.common.logging.Logger;
+import com.lealone.common.logging.LoggerFactory;
+import com.lealone.db.session.CompiledClassCache;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Column;
+import com.lealone.db.util.SourceCompiler;
+import com.lealone.db.util.ThreadUtils;
+import com.lealone.db.value.DataType;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.ExpressionColumn;
+import com.lealone.sql.expression.Operation;
+import com.lealone.sql.expression.ValueExpression;
+import com.lealone.sql.expression.condition.Comparison;
+import com.lealone.sql.expression.condition.ConditionAndOr;
+import com.lealone.sql.expression.condition.ConditionInConstantSet;
+import com.lealone.sql.expression.condition.ConditionNot;
+import com.lealone.sql.optimizer.ColumnResolver;
+import com.lealone.sql.query.Select;
+
+/**
+ * 把一个Select中的表达式生成java源代码，再用SourceCompiler编译成JitEvaluator的子类。
+ * <p>
+ * 整数和浮点数直接用long和double计算，比较、AND、OR、NOT的结果用int表示(1是true，0是false，-1是null)，
+ * 这样每一行不用再遍历表达式树，也不用为中间结果创建Value。
+ * 不支持的表达式在生成的代码中还是调用Expression.getValue解释执行，
+ * 整数溢出和除0也交给解释器处理，所以得到的结果和异常都跟解释执行一样。
+ * <p>
+ * javac在后台线程中运行，编译好之前查询继续解释执行；编译出的类按源代码缓存在数据库中。
+ */
+public class ExpressionCompiler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpressionCompiler.class);
+
+    private static final AtomicInteger nextClassId = new AtomicInteger();
+    private static final String CLASS_NAME = "JitEvaluator$";
+
+    private static final LinkedBlockingQueue<Runnable> compileQueue = new LinkedBlockingQueue<>();
+    private static boolean compileThreadStarted;
+
+    // 生成的方法的返回类型
+    private static final int BOOL = 0; // int
+    private static final int LONG = 1; // long，用isNull表示null
+    private static final int DOUBLE = 2; // double，用isNull表示null
+    private static final int VALUE = 3; // Value
+
+    private final ServerSession session;
+    private final Select select;
+    private final ArrayList<Object> args = new ArrayList<>();
+    private final StringBuilder fields = new StringBuilder();
+    private final StringBuilder init = new StringBuilder();
+    private final StringBuilder methods = new StringBuilder();
+    private final ArrayList<Node> roots = new ArrayList<>();
+    private int nodeCount;
+    private String selectArg;
+
+    public ExpressionCompiler(ServerSession session, Select select) {
+        this.session = session;
+        this.select = select;
+    }
+
+    /**
+     * 加入一个需要编译的表达式
+     *
+     * @param e 表达式
+     * @return 表达式在JitEvaluator中的编号，不能编译时返回-1
+     */
+    public int add(Expression e) {
+        Node n = compile(e);
+        if (n.isFallback)
+            return -1;
+        roots.add(n);
+        return roots.size() - 1;
+    }
+
+    public boolean isEmpty() {
+        return roots.isEmpty();
+    }
+
+    public String getSource(String className) {
+        StringBuilder buff = new StringBuilder();
+        buff.append("package com.lealone.sql.expression.evaluator;\n\n");
+        buff.append("import java.util.Arrays;\n");
+        buff.append("import java.util.HashMap;\n");
+        buff.append("import com.lealone.db.session.ServerSession;\n");
+        buff.append("import com.lealone.db.table.Column;\n");
+        buff.append("import com.lealone.db.value.*;\n");
+        buff.append("import com.lealone.sql.expression.Expression;\n");
+        buff.append("import com.lealone.sql.expression.condition.Comparison;\n");
+        buff.append("import com.lealone.sql.optimizer.ColumnResolver;\n");
+        buff.append("import com.lealone.sql.query.Select;\n\n");
+        buff.append("public class ").append(className).append(" extends JitEvaluator {\n\n");
+        buff.append(fields).append('\n');
+        buff.append("    public ").append(className).append("(ServerSession session, Object[] args) {\n");
+        buff.append("        super(session);\n");
+        buff.append(init);
+        buff.append("    }\n\n");
+        buff.append("    @Override\n");
+        buff.append("    public boolean getBooleanValue(int index) {\n");
+        buff.append("        switch (index) {\n");
+        for (int i = 0, size = roots.size(); i < size; i++) {
+            Node n = roots.get(i);
+            String code = n.kind == BOOL ? n.call() + " == 1" : getValueCode(n) + ".getBoolean()";
+            buff.append("        case ").append(i).append(": return ").append(code).append(";\n");
+        }
+        buff.append("        default: throw new IllegalArgumentException(\"index=\" + index);\n");
+        buff.append("        }\n");
+        buff.append("    }\n\n");
+        buff.append("    @Override\n");
+        buff.append("    public Value getValue(int index) {\n");
+        buff.append("        switch (index) {\n");
+        for (int i = 0, size = roots.size(); i < size; i++) {
+            Node n = roots.get(i);
+            buff.append("        case ").append(i).append(": return ").append(getValueCode(n))
+                    .append(";\n");
+        }
+        buff.append("        default: throw new IllegalArgumentException(\"index=\" + index);\n");
+        buff.append("        }\n");
+        buff.append("    }\n\n");
+        buff.append(methods);
+        buff.append("}\n");
+        return buff.toString();
+    }
+
+    /**
+     * 编译加入的所有表达式，生成的源代码相同时直接用缓存的类。
+     * 缓存中没有时在后台线程中编译，不阻塞当前查询。
+     *
+     * @param handler 得到JitEvaluator后调用，编译失败时传入null
+     */
+    public void compile(Consumer<JitEvaluator> handler) {
+        // 用固定的类名生成源代码，这样相同的表达式得到相同的key
+        String source = getSource(CLASS_NAME);
+        Object[] args = this.args.toArray();
+        CompiledClassCache cache = session.getDatabase().getCompiledClassCache();
+        Class<?> clz = cache.get(source);
+        if (clz != null) {
+            handler.accept(newInstance(clz, args));
+            return;
+        }
+        compileQueue.add(() -> {
+            JitEvaluator evaluator = null;
+            try {
+                String className = "JitEvaluator" + nextClassId.incrementAndGet();
+                Class<?> c = SourceCompiler.compileAsClass(
+                        JitEvaluator.class.getPackage().getName() + "." + className,
+                        source.replace(CLASS_NAME, className));
+                cache.put(source, c);
+                evaluator = newInstance(c, args);
+            } catch (Throwable t) {
+                logger.warn("Failed to compile expressions, use interpreter", t);
+            }
+            handler.accept(evaluator);
+        });
+        startCompileThread();
+    }
+
+    private JitEvaluator newInstance(Class<?> clz, Object[] args) {
+        try {
+            return (JitEvaluator) clz.getConstructor(ServerSession.class, Object[].class)
+                    .newInstance(session, args);
+        } catch (Throwable t) {
+            logger.warn("Failed to create JitEvaluator, use interpreter", t);
+            return null;
+        }
+    }
+
+    // 所有数据库共用一个后台编译线程，第一次编译时才启动
+    private static synchronized void startCompileThread() {
+        if (compileThreadStarted)
+            return;
+        compileThreadStarted = true;
+        ThreadUtils.start("ExpressionCompiler", () -> {
+            while (true) {
+                try {
+                    compileQueue.take().run();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+    }
+
+    private static class Node {
+
+        private final int kind;
+        private final int type; // 表达式的数据类型
+        private final String method;
+        private String valueCode; // 得到Value的代码
+        private boolean isFallback;
+
+        Node(int kind, int type, String method) {
+            this.kind = kind;
+            this.type = type;
+            this.method = method;
+        }
+
+        String call() {
+            return method + "()";
+        }
+    }
+
+    private Node newNode(int kind, int type) {
+        return new Node(kind, type, "e" + nodeCount++);
+    }
+
+    private String addArg(Object arg, String type) {
+        String name = "a" + args.size();
+        fields.append("    private final ").append(type).append(' ').append(name).append(";\n");
+        init.append("        ").append(name).append(" = (").append(type).append(") args[")
+                .append(args.size()).append("];\n");
+        args.add(arg);
+        return name;
+    }
+
+    private void addMethod(String returnType, String name, String body) {
+        methods.append("    private ").append(returnType).append(' ').append(name).append("() {\n");
+        for (String line : body.split("\n"))
+            methods.append("        ").append(line).append('\n');
+        methods.append("    }\n\n");
+    }
+
+    private static int getKind(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            return LONG;
+        case Value.FLOAT:
+        case Value.DOUBLE:
+            return DOUBLE;
+        case Value.BOOLEAN:
+            return BOOL;
+        default:
+            return VALUE;
+        }
+    }
+
+    private String getValueCode(Node n) {
+        if (n.valueCode == null) {
+            String name = n.method + "v";
+            switch (n.kind) {
+            case BOOL:
+                addMethod("Value", name, "int b = " + n.call() + ";\n"
+                        + "return b < 0 ? ValueNull.INSTANCE : ValueBoolean.get(b == 1);");
+                break;
+            case LONG:
+                addMethod("Value", name, "long x = " + n.call() + ";\n"
+                        + "return isNull ? ValueNull.INSTANCE : " + box(n.type) + ";");
+                break;
+            case DOUBLE:
+                addMethod("Value", name, "double x = " + n.call() + ";\n"
+                        + "return isNull ? ValueNull.INSTANCE : ValueDouble.get(x);");
+                break;
+            default:
+                throw DbException.getInternalError("kind=" + n.kind);
+            }
+            n.valueCode = name + "()";
+        }
+        return n.valueCode;
+    }
+
+    // 跟Value.add这些方法返回的类型一样
+    private static String box(int type) {
+        switch (type) {
+        case Value.BYTE:
+            return "ValueByte.get((byte) x)";
+        case Value.SHORT:
+            return "ValueShort.get((short) x)";
+        case Value.INT:
+            return "ValueInt.get((int) x)";
+        default:
+            return "ValueLong.get(x)";
+        }
+    }
+
+    private static String asDouble(Node n) {
+        return n.kind == LONG ? "(double) " + n.call() : n.call();
+    }
+
+    private Node compile(Expression e) {
+        Node n;
+        try {
+            n = compileNode(e);
+        } catch (DbException ex) { // 比如无法确定数据类型
+            n = null;
+        }
+        return n != null ? n : fallback(e);
+    }
+
+    private Node compileNode(Expression e) {
+        if (e instanceof ValueExpression)
+            return compileConstant(e.getValue(session));
+        else if (e instanceof ExpressionColumn)
+            return compileColumn((ExpressionColumn) e);
+        else if (e instanceof Comparison)
+            return compileComparison((Comparison) e);
+        else if (e instanceof ConditionAndOr)
+            return compileAndOr((ConditionAndOr) e);
+        else if (e instanceof ConditionNot)
+            return compileNot((ConditionNot) e);
+        else if (e instanceof ConditionInConstantSet)
+            return compileInConstantSet((ConditionInConstantSet) e);
+        else if (e instanceof Operation)
+            return compileOperation((Operation) e);
+        return null;
+    }
+
+    // 不能编译的表达式解释执行
+    private Node fallback(Expression e) {
+        String a = addArg(e, "Expression");
+        int type = e.getType();
+        Node n;
+        if (type == Value.BOOLEAN) {
+            n = newNode(BOOL, type);
+            addMethod("int", n.method, "Value v = " + a + ".getValue(session);\n"
+                    + "return v == ValueNull.INSTANCE ? -1 : v.getBoolean() ? 1 : 0;");
+        } else {
+            n = newNode(VALUE, type);
+            addMethod("Value", n.method, "return " + a + ".getValue(session);");
+        }
+        n.valueCode = a + ".getValue(session)";
+        n.isFallback = true;
+        return n;
+    }
+
+    private Node compileConstant(Value v) {
+        String a = addArg(v, "Value");
+        int type = v.getType();
+        int kind = v == ValueNull.INSTANCE ? VALUE : getKind(type);
+        Node n = newNode(kind, type);
+        switch (kind) {
+        case LONG:
+            addMethod("long", n.method, "isNull = false;\nreturn " + v.getLong() + "L;");
+            break;
+        case DOUBLE:
+            addMethod("double", n.method, "isNull = false;\nreturn Double.longBitsToDouble("
+                    + Double.doubleToRawLongBits(v.getDouble()) + "L);");
+            break;
+        case BOOL:
+            addMethod("int", n.method, "return " + (v.getBoolean() ? 1 : 0) + ";");
+            break;
+        default:
+            addMethod("Value", n.method, "return " + a + ";");
+        }
+        n.valueCode = a;
+        return n;
+    }
+
+    private Node compileColumn(ExpressionColumn ec) {
+        ColumnResolver resolver = ec.getColumnResolver();
+        // 外层查询的字段在ExpressionColumn.getValue中可能要从分组中取值，只编译当前Select的字段
+        if (resolver == null || resolver.getSelect() != select)
+            return null;
+        Column column = ec.getColumn();
+        int type = column.getType();
+        if (DataType.isLargeObject(type))
+            return null;
+        if (selectArg == null)
+            selectArg = addArg(select, "Select");
+        String s = selectArg;
+        String r = addArg(resolver, "ColumnResolver");
+        String c = addArg(column, "Column");
+        String e = addArg(ec, "Expression");
+        int kind = getKind(type);
+        Node n = newNode(kind, type);
+        String read = n.method + "r";
+        // 跟ExpressionColumn.getValue一样先从当前分组中取值，没有当前行时由ExpressionColumn.getValue报错
+        addMethod("Value", read, "HashMap<Expression, Object> values = " + s + ".getCurrentGroup();\n"
+                + "if (values != null) {\n    Value v = (Value) values.get(" + e + ");\n"
+                + "    if (v != null)\n        return v;\n}\n" //
+                + "Value v = " + r + ".getValue(" + c + ");\n"
+                + "return v != null ? v : " + e + ".getValue(session);");
+        n.valueCode = read + "()";
+        switch (kind) {
+        case LONG:
+            addMethod("long", n.method, "Value v = " + read + "();\n" //
+                    + "if (v == ValueNull.INSTANCE) {\n    isNull = true;\n    return 0;\n}\n"
+                    + "isNull = false;\nreturn v.getLong();");
+            break;
+        case DOUBLE:
+            addMethod("double", n.method, "Value v = " + read + "();\n" //
+                    + "if (v == ValueNull.INSTANCE) {\n    isNull = true;\n    return 0;\n}\n"
+                    + "isNull = false;\nreturn v.getDouble();");
+            break;
+        case BOOL:
+            addMethod("int", n.method, "Value v = " + read + "();\n"
+                    + "return v == ValueNull.INSTANCE ? -1 : v.getBoolean() ? 1 : 0;");
+            break;
+        default:
+            addMethod("Value", n.method, "return " + read + "();");
+        }
+        return n;
+    }
+
+    private static String getOperator(int compareType) {
+        switch (compareType) {
+        case Comparison.EQUAL:
+            return "==";
+        case Comparison.NOT_EQUAL:
+            return "!=";
+        case Comparison.BIGGER_EQUAL:
+            return ">=";
+        case Comparison.BIGGER:
+            return ">";
+        case Comparison.SMALLER_EQUAL:
+            return "<=";
+        case Comparison.SMALLER:
+            return "<";
+        default:
+            return null;
+        }
+    }
+
+    private static String isNullCode(Node n) {
+        switch (n.kind) {
+        case LONG:
+        case DOUBLE:
+            return n.call() + ";\nboolean n = isNull;\n";
+        case BOOL:
+            return "boolean n = " + n.call() + " < 0;\n";
+        default:
+            return "boolean n = " + n.call() + " == ValueNull.INSTANCE;\n";
+        }
+    }
+
+    // 跟Comparison.getValue一样，左边为null时不计算右边，两边都转成高阶类型后再比较
+    private Node compileComparison(Comparison c) {
+        int compareType = c.getCompareType();
+        if (compareType == Comparison.IS_NULL || compareType == Comparison.IS_NOT_NULL) {
+            Node l = compile(c.getLeft());
+            Node n = newNode(BOOL, Value.BOOLEAN);
+            boolean isNull = compareType == Comparison.IS_NULL;
+            addMethod("int", n.method, isNullCode(l) + "return n ? " + (isNull ? "1 : 0" : "0 : 1") + ";");
+            return n;
+        }
+        String op = getOperator(compareType);
+        if (op == null)
+            return null;
+        Expression left = c.getLeft();
+        Expression right = c.getRight();
+        int t = Value.getHigherOrder(left.getType(), right.getType());
+        Node l = compile(left);
+        Node r = compile(right);
+        Node n = newNode(BOOL, Value.BOOLEAN);
+        String body;
+        if (l.kind == LONG && r.kind == LONG && getKind(t) == LONG) {
+            body = "long a = " + l.call() + ";\nif (isNull)\n    return -1;\n" //
+                    + "long b = " + r.call() + ";\nif (isNull)\n    return -1;\n" //
+                    + "return a " + op + " b ? 1 : 0;";
+        } else if ((l.kind == LONG || l.kind == DOUBLE) && (r.kind == LONG || r.kind == DOUBLE)
+                && (t == Value.DOUBLE || t == Value.FLOAT && l.kind == DOUBLE && r.kind == DOUBLE)) {
+            // FLOAT转成double后比较的结果跟Float.compare一样
+            body = "double a = " + asDouble(l) + ";\nif (isNull)\n    return -1;\n" //
+                    + "double b = " + asDouble(r) + ";\nif (isNull)\n    return -1;\n" //
+                    + "return Double.compare(a, b) " + op + " 0 ? 1 : 0;";
+        } else {
+            body = "Value a = " + getValueCode(l) + ";\nif (a == ValueNull.INSTANCE)\n    return -1;\n"
+                    + "Value b = " + getValueCode(r) + ";\nif (b == ValueNull.INSTANCE)\n    return -1;\n"
+                    + "return Comparison.compareNotNull(database, a.convertTo(" + t + "), b.convertTo("
+                    + t + "), " + compareType + ") ? 1 : 0;";
+        }
+        addMethod("int", n.method, body);
+        return n;
+    }
+
+    // 跟ConditionAndOr.getValue一样，左边能确定结果时不计算右边
+    private Node compileAndOr(ConditionAndOr c) {
+        Node l = compile(c.getLeft());
+        Node r = compile(c.getRight());
+        if (l.kind != BOOL || r.kind != BOOL)
+            return null;
+        Node n = newNode(BOOL, Value.BOOLEAN);
+        if (c.getAndOrType() == ConditionAndOr.AND) {
+            addMethod("int", n.method, "int a = " + l.call() + ";\nif (a != 1)\n    return a;\n"
+                    + "return " + r.call() + ";");
+        } else {
+            addMethod("int", n.method, "int a = " + l.call() + ";\nif (a == 1)\n    return 1;\n"
+                    + "int b = " + r.call() + ";\nif (b == 1)\n    return 1;\n"
+                    + "return a < 0 || b < 0 ? -1 : 0;");
+        }
+        return n;
+    }
+
+    private Node compileNot(ConditionNot c) {
+        Node l = compile(c.getCondition());
+        if (l.kind != BOOL)
+            return null;
+        Node n = newNode(BOOL, Value.BOOLEAN);
+        addMethod("int", n.method, "int a = " + l.call() + ";\nreturn a < 0 ? -1 : 1 - a;");
+        return n;
+    }
+
+    // 左边是整数时把常量集合变成有序的long数组，用二分查找
+    private Node compileInConstantSet(ConditionInConstantSet c) {
+        if (getKind(c.getLeft().getType()) != LONG)
+            return null;
+        boolean hasNull = false;
+        long[] values = new long[c.getValueSet().size()];
+        int size = 0;
+        for (Value v : c.getValueSet()) {
+            if (v == ValueNull.INSTANCE)
+                hasNull = true;
+            else if (getKind(v.getType()) == LONG)
+                values[size++] = v.getLong();
+            else
+                return null;
+        }
+        values = Arrays.copyOf(values, size);
+        Arrays.sort(values);
+        Node l = compile(c.getLeft());
+        if (l.kind != LONG)
+            return null;
+        String a = addArg(values, "long[]");
+        Node n = newNode(BOOL, Value.BOOLEAN);
+        addMethod("int", n.method, "long x = " + l.call() + ";\nif (isNull)\n    return -1;\n"
+                + "if (Arrays.binarySearch(" + a + ", x) >= 0)\n    return 1;\n" //
+                + "return " + (hasNull ? "-1" : "0") + ";");
+        return n;
+    }
+
+    private Node compileOperation(Operation o) {
+        int opType = o.getOpType();
+        int dataType = o.getType();
+        int kind = getKind(dataType);
+        if (kind != LONG && kind != DOUBLE)
+            return null;
+        String op;
+        switch (opType) {
+        case Operation.PLUS:
+            op = kind == LONG ? "Math.addExact(a, b)" : "a + b";
+            break;
+        case Operation.MINUS:
+            op = kind == LONG ? "Math.subtractExact(a, b)" : "a - b";
+            break;
+        case Operation.MULTIPLY:
+            op = kind == LONG ? "Math.multiplyExact(a, b)" : "a * b";
+            break;
+        case Operation.DIVIDE:
+            op = "a / b";
+            break;
+        case Operation.MODULUS:
+            if (kind != LONG)
+                return null;
+            op = "a % b";
+            break;
+        case Operation.NEGATE:
+            op = kind == LONG ? "Math.negateExact(a)" : "-a";
+            break;
+        default:
+            return null;
+        }
+        boolean isNegate = opType == Operation.NEGATE;
+        if (!isNegate && !o.isConvertRight())
+            return null;
+        // 操作数转成dataType时不能丢失精度
+        if (!isWidening(o.getLeft().getType(), dataType)
+                || !isNegate && !isWidening(o.getRight().getType(), dataType))
+            return null;
+        Node l = compile(o.getLeft());
+        Node r = isNegate ? null : compile(o.getRight());
+        if (!isNumeric(l, kind) || r != null && !isNumeric(r, kind))
+            return null;
+
+        // 溢出、除0这些情况由解释器计算，得到的结果或异常跟解释执行一样
+        String e = addArg(o, "Expression");
+        Node n = newNode(kind, dataType);
+        String javaType = kind == LONG ? "long" : "double";
+        String getter = kind == LONG ? "getLong" : "getDouble";
+        String fallback = n.method + "f";
+        addMethod(javaType, fallback, "Value v = " + e + ".getValue(session);\n" //
+                + "if (v == ValueNull.INSTANCE) {\n    isNull = true;\n    return 0;\n}\n"
+                + "isNull = false;\nreturn v." + getter + "();");
+
+        StringBuilder body = new StringBuilder();
+        // 跟Operation.getValue一样，先计算两边的值再判断null
+        body.append(javaType).append(" a = ").append(kind == LONG ? l.call() : asDouble(l))
+                .append(";\n");
+        if (r != null) {
+            body.append("boolean n = isNull;\n");
+            body.append(javaType).append(" b = ").append(kind == LONG ? r.call() : asDouble(r))
+                    .append(";\n");
+            body.append("if (n || isNull) {\n    isNull = true;\n    return 0;\n}\n");
+        } else {
+            body.append("if (isNull)\n    return 0;\n");
+        }
+        if (opType == Operation.DIVIDE || opType == Operation.MODULUS) {
+            body.append("if (b == 0)\n    return ").append(fallback).append("();\n");
+            if (kind == LONG)
+                body.append("if (a == Long.MIN_VALUE && b == -1)\n    return ").append(fallback)
+                        .append("();\n");
+        }
+        if (kind == LONG) {
+            body.append("long x;\ntry {\n    x = ").append(op).append(";\n");
+            body.append("} catch (ArithmeticException ex) {\n    return ").append(fallback)
+                    .append("();\n}\n");
+            String range = getRange(dataType);
+            if (range != null)
+                body.append("if (").append(range).append(")\n    return ").append(fallback)
+                        .append("();\n");
+            body.append("isNull = false;\nreturn x;");
+        } else {
+            body.append("isNull = false;\nreturn ").append(op).append(';');
+        }
+        addMethod(javaType, n.method, body.toString());
+        return n;
+    }
+
+    private static boolean isWidening(int type, int dataType) {
+        int kind = getKind(dataType);
+        int k = getKind(type);
+        if (kind == LONG)
+            return k == LONG && Value.getHigherOrder(type, dataType) == dataType;
+        // dataType是DOUBLE时整数和浮点数都能转换
+        return dataType == Value.DOUBLE && (k == LONG || k == DOUBLE);
+    }
+
+    private static boolean isNumeric(Node n, int kind) {
+        return kind == LONG ? n.kind == LONG : n.kind == LONG || n.kind == DOUBLE;
+    }
+
+    // 超出dataType范围时交给解释器处理
+    private static String getRange(int dataType) {
+        switch (dataType) {
+        case Value.BYTE:
+            return "x < Byte.MIN_VALUE || x > Byte.MAX_VALUE";
+        case Value.SHORT:
+            return "x < Short.MIN_VALUE || x > Short.MAX_VALUE";
+        case Value.INT:
+            return "x < Integer.MIN_VALUE || x > Integer.MAX_VALUE";
+        default:
+            return null;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.expression.evaluator;
+
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.Value;
+import com.lealone.sql.expression.Expression;
+
+/**
+ * 管理一个Select中需要编译的表达式，计算次数超过阈值后才编译，
+ * 在后台编译完成之前和编译失败时都解释执行。
+ */
+public class ExpressionJit {
+
+    private ServerSession session;
+    private final int threshold;
+    private ExpressionCompiler compiler;
+    private JitEvaluator evaluator;
+    private int count;
+
+    // 由后台编译线程设置
+    private volatile JitEvaluator compiled;
+    private volatile boolean compileDone;
+    private boolean compiling;
+
+    public ExpressionJit(ServerSession session, ExpressionCompiler compiler, int threshold) {
+        this.session = session;
+        this.compiler = compiler;
+        this.threshold = threshold;
+    }
+
+    // 语句给其他session使用时，已经生成的代码换成新的session继续用
+    public void setSession(ServerSession session) {
+        this.session = session;
+        if (evaluator != null)
+            evaluator.setSession(session);
+    }
+
+    public int add(Expression e) {
+        return compiler == null ? -1 : compiler.add(e);
+    }
+
+    private JitEvaluator getEvaluator() {
+        if (evaluator == null && compiler != null && ++count > threshold) {
+            if (!compiler.isEmpty()) {
+                compiling = true;
+                compiler.compile(e -> {
+                    compiled = e;
+                    compileDone = true;
+                });
+            }
+            compiler = null; // 只编译一次，失败了也不再重试
+        }
+        if (compiling && compileDone) {
+            compiling = false;
+            evaluator = compiled;
+            if (evaluator != null)
+                evaluator.setSession(session);
+        }
+        return evaluator;
+    }
+
+    public boolean getBooleanValue(int index, Expression e) {
+        JitEvaluator evaluator = getEvaluator();
+        if (evaluator == null)
+            return e.getBooleanValue(session);
+        return evaluator.getBooleanValue(index);
+    }
+
+    public Value getValue(int index, Expression e) {
+        JitEvaluator evaluator = getEvaluator();
+        if (evaluator == null)
+            return e.getValue(session);
+        return evaluator.getValue(index);
+    }
+}
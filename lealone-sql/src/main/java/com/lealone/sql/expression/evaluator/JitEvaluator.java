@@ -0,0 +1,35 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.expression.evaluator;
+
+import com.lealone.db.Database;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.Value;
+
+/**
+ * ExpressionCompiler生成的类的父类，一个类中包含同一个Select里编译过的所有表达式，用编号区分。
+ */
+public abstract class JitEvaluator {
+
+    protected ServerSession session;
+    protected final Database database;
+
+    // 生成的代码中返回long和double的方法用它表示结果是否为null
+    protected boolean isNull;
+
+    public JitEvaluator(ServerSession session) {
+        this.session = session;
+        this.database = session.getDatabase();
+    }
+
+    public void setSession(ServerSession session) {
+        this.session = session;
+    }
+
+    public abstract boolean getBooleanValue(int index);
+
+    public abstract Value getValue(int index);
+}
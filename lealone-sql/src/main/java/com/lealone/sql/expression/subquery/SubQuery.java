@@ -30,14 +30,29 @@ import com.lealone.sql.query.Query;
 public class SubQuery extends Expression {
 
     private final Query query;
+    private final SubQueryCache cache;
     private Expression expression;
 
     public SubQuery(Query query) {
         this.query = query;
+        cache = new SubQueryCache(query);
     }
 
     @Override
     public Value getValue(ServerSession session) {
+        Value key = cache.getKey(session, null);
+        if (key != null) {
+            Value v = cache.get(key);
+            if (v != null)
+                return v;
+        }
+        Value v = getValueFromQuery(session);
+        if (key != null)
+            cache.put(key, v);
+        return v;
+    }
+
+    private Value getValueFromQuery(ServerSession session) {
         query.setSession(session);
         Result result = query.query(2);
         try {
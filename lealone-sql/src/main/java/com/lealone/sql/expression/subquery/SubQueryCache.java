@@ -0,0 +1,169 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.expression.subquery;
+
+import java.util.ArrayList;
+
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.util.ValueHashMap;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueArray;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.ExpressionColumn;
+import com.lealone.sql.expression.Parameter;
+import com.lealone.sql.expression.visitor.ExpressionVisitor;
+import com.lealone.sql.expression.visitor.ExpressionVisitorBase;
+import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
+import com.lealone.sql.expression.visitor.VoidExpressionVisitor;
+import com.lealone.sql.optimizer.TableFilter;
+import com.lealone.sql.query.Query;
+import com.lealone.sql.query.Select;
+
+/**
+ * 子查询的结果缓存。
+ * <p>
+ * key是子查询引用的外层查询字段的值(相关值)和参数的值，
+ * 外层查询的记录中相关值相同时只需要执行一次子查询，相当于按相关值做hash semi/anti join。
+ * 数据有变化、换了session或者缓存太大时清空，不确定的子查询不缓存。
+ */
+public class SubQueryCache {
+
+    private static final int MAX_SIZE = 10000;
+
+    private final Query query;
+    private Expression[] keyExpressions; // 外层查询的字段和参数，为null表示不能缓存
+    private boolean checked;
+    private ValueHashMap<Value> values;
+    private ServerSession session;
+    private long modificationDataId;
+
+    public SubQueryCache(Query query) {
+        this.query = query;
+    }
+
+    /**
+     * 子查询是否引用了外层查询的字段
+     *
+     * @return 引用时返回true
+     */
+    public boolean isCorrelated() {
+        check();
+        return keyExpressions != null && hasOuterColumn(keyExpressions);
+    }
+
+    /**
+     * 是否能缓存子查询的结果
+     *
+     * @return 能缓存时返回true
+     */
+    public boolean isCacheable() {
+        check();
+        return keyExpressions != null;
+    }
+
+    /**
+     * 计算当前外层记录对应的key
+     *
+     * @param session 当前session
+     * @param extra 额外加入key的值，比如IN左边的值，可以为null
+     * @return 不能缓存时返回null
+     */
+    public Value getKey(ServerSession session, Value extra) {
+        check();
+        if (keyExpressions == null || !session.getDatabase().getSettings().optimizeCorrelatedSubquery)
+            return null;
+        long id = session.getDatabase().getModificationDataId();
+        if (values == null || this.session != session || modificationDataId != id
+                || values.size() >= MAX_SIZE) {
+            values = ValueHashMap.newInstance();
+            this.session = session;
+            modificationDataId = id;
+        }
+        int len = keyExpressions.length;
+        Value[] key = new Value[extra == null ? len : len + 1];
+        for (int i = 0; i < len; i++) {
+            key[i] = keyExpressions[i].getValue(session);
+        }
+        if (extra != null)
+            key[len] = extra;
+        return ValueArray.get(key);
+    }
+
+    public Value get(Value key) {
+        return values.get(key);
+    }
+
+    public void put(Value key, Value value) {
+        values.put(key, value);
+    }
+
+    private void check() {
+        if (checked)
+            return;
+        checked = true;
+        if (!query.accept(ExpressionVisitorFactory.getDeterministicVisitor()))
+            return;
+        ArrayList<Expression> list = new ArrayList<>();
+        query.accept(new KeyVisitor(list));
+        keyExpressions = list.toArray(new Expression[0]);
+    }
+
+    private static boolean hasOuterColumn(Expression[] expressions) {
+        for (Expression e : expressions) {
+            if (e instanceof ExpressionColumn)
+                return true;
+        }
+        return false;
+    }
+
+    // 找出子查询中引用的外层查询字段和参数，跟IndependentVisitor一样用queryLevel判断是不是外层字段
+    private static class KeyVisitor extends VoidExpressionVisitor {
+
+        private final ArrayList<Expression> list;
+
+        KeyVisitor(ArrayList<Expression> list) {
+            this.list = list;
+        }
+
+        @Override
+        protected ExpressionVisitorBase<Void> copy() {
+            return new KeyVisitor(list);
+        }
+
+        @Override
+        public Void visitExpressionColumn(ExpressionColumn e) {
+            if (e.getQueryLevel() >= getQueryLevel())
+                add(e);
+            return null;
+        }
+
+        @Override
+        public Void visitSelect(Select s) {
+            super.visitSelect(s);
+            // JOIN ... ON中也可能引用外层查询的字段
+            ExpressionVisitor<Void> v2 = incrementQueryLevel(1);
+            for (TableFilter f : s.getFilters()) {
+                if (f.getJoinCondition() != null)
+                    f.getJoinCondition().accept(v2);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitParameter(Parameter e) {
+            add(e);
+            return null;
+        }
+
+        private void add(Expression e) {
+            for (Expression e2 : list) {
+                if (e2 == e)
+                    return;
+            }
+            list.add(e);
+        }
+    }
+}
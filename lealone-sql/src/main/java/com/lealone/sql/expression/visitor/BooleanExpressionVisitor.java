@@ -5,6 +5,8 @@
  */
 package com.lealone.sql.expression.visitor;
 
+import com.lealone.sql.expression.window.Window;
+import com.lealone.sql.expression.window.WindowFunction;
 import java.util.ArrayList;
 
 import com.lealone.sql.expression.Alias;
@@ -214,6 +216,31 @@ public abstract class BooleanExpressionVisitor extends ExpressionVisitorBase<Boo
         return visitFunction(e);
     }
 
+    @Override
+    public Boolean visitWindowFunction(WindowFunction e) {
+        for (Expression e2 : e.getArgs()) {
+            if (!e2.accept(this)) {
+                return false;
+            }
+        }
+        Window w = e.getWindow();
+        if (w.getPartitionBy() != null) {
+            for (Expression e2 : w.getPartitionBy()) {
+                if (!e2.accept(this)) {
+                    return false;
+                }
+            }
+        }
+        if (w.getOrderBy() != null) {
+            for (SelectOrderBy o : w.getOrderBy()) {
+                if (!o.expression.accept(this)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     @Override
     public Boolean visitSelect(Select s) {
         ExpressionVisitor<Boolean> v2 = incrementQueryLevel(1);
@@ -10,6 +10,7 @@ import com.lealone.sql.expression.SequenceValue;
 import com.lealone.sql.expression.Variable;
 import com.lealone.sql.expression.aggregate.JavaAggregate;
 import com.lealone.sql.expression.function.Function;
+import com.lealone.sql.expression.window.WindowFunction;
 import com.lealone.sql.query.Select;
 
 public class DeterministicVisitor extends BooleanExpressionVisitor {
@@ -36,6 +37,12 @@ public class DeterministicVisitor extends BooleanExpressionVisitor {
         return false;
     }
 
+    @Override
+    public Boolean visitWindowFunction(WindowFunction e) {
+        // 排序字段有相同值时结果跟行的顺序有关
+        return false;
+    }
+
     @Override
     public Boolean visitFunction(Function e) {
         return super.visitFunction(e) && e.isDeterministic();
@@ -31,6 +31,7 @@ import com.lealone.sql.expression.function.Function;
 import com.lealone.sql.expression.function.JavaFunction;
 import com.lealone.sql.expression.function.TableFunction;
 import com.lealone.sql.expression.subquery.SubQuery;
+import com.lealone.sql.expression.window.WindowFunction;
 import com.lealone.sql.query.Select;
 import com.lealone.sql.query.SelectUnion;
 
@@ -96,6 +97,8 @@ public interface ExpressionVisitor<R> {
 
     R visitTableFunction(TableFunction e);
 
+    R visitWindowFunction(WindowFunction e);
+
     R visitSelect(Select s);
 
     R visitSelectUnion(SelectUnion su);
@@ -31,4 +31,10 @@ public class IndependentVisitor extends BooleanExpressionVisitor {
     public Boolean visitSequenceValue(SequenceValue e) {
         return false;
     }
+
+    // 单例的queryLevel不能被visitSelect修改，否则后面判断是否引用外层字段时就错了
+    @Override
+    protected ExpressionVisitorBase<Boolean> copy() {
+        return new IndependentVisitor();
+    }
 }
@@ -8,7 +8,7 @@ package com.lealone.sql.expression.visitor;
 import com.lealone.sql.expression.ExpressionColumn;
 import com.lealone.sql.expression.SequenceValue;
 import com.lealone.sql.optimizer.TableFilter;
-import com.lealone.sql.query.Query;
+import com.lealone.sql.query.Select;
 
 public class MaxModificationIdVisitor extends VoidExpressionVisitor {
 
@@ -36,11 +36,12 @@ public class MaxModificationIdVisitor extends VoidExpressionVisitor {
         return null;
     }
 
+    // 最外层的查询也要算上，像count(*)这样的查询没有用到表的字段
     @Override
-    protected Void visitQuery(Query query) {
-        super.visitQuery(query);
-        for (int i = 0, size = query.getFilters().size(); i < size; i++) {
-            TableFilter f = query.getFilters().get(i);
+    public Void visitSelect(Select s) {
+        super.visitSelect(s);
+        for (int i = 0, size = s.getFilters().size(); i < size; i++) {
+            TableFilter f = s.getFilters().get(i);
             long m = f.getTable().getMaxDataModificationId();
             setMaxDataModificationId(m);
         }
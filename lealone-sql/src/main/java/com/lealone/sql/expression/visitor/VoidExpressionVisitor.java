@@ -5,6 +5,8 @@
  */
 package com.lealone.sql.expression.visitor;
 
+import com.lealone.sql.expression.window.Window;
+import com.lealone.sql.expression.window.WindowFunction;
 import java.util.ArrayList;
 
 import com.lealone.sql.expression.Alias;
@@ -227,6 +229,25 @@ public class VoidExpressionVisitor extends ExpressionVisitorBase<Void> {
         return null;
     }
 
+    @Override
+    public Void visitWindowFunction(WindowFunction e) {
+        for (Expression e2 : e.getArgs()) {
+            e2.accept(this);
+        }
+        Window w = e.getWindow();
+        if (w.getPartitionBy() != null) {
+            for (Expression e2 : w.getPartitionBy()) {
+                e2.accept(this);
+            }
+        }
+        if (w.getOrderBy() != null) {
+            for (SelectOrderBy o : w.getOrderBy()) {
+                o.expression.accept(this);
+            }
+        }
+        return null;
+    }
+
     @Override
     public Void visitSelect(Select s) {
         ExpressionVisitor<Void> v2 = incrementQueryLevel(1);
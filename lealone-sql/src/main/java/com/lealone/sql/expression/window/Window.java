@@ -0,0 +1,128 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.expression.window;
+
+import java.util.ArrayList;
+
+import com.lealone.common.util.StatementBuilder;
+import com.lealone.db.result.SortOrder;
+import com.lealone.db.session.ServerSession;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.SelectOrderBy;
+
+/**
+ * 窗口函数的OVER子句，由PARTITION BY、ORDER BY和窗口帧组成，每一部分都是可选的。
+ *
+ * @author zhh
+ */
+public class Window {
+
+    private final ArrayList<Expression> partitionBy;
+    private final ArrayList<SelectOrderBy> orderBy;
+    private final WindowFrame frame;
+
+    public Window(ArrayList<Expression> partitionBy, ArrayList<SelectOrderBy> orderBy,
+            WindowFrame frame) {
+        this.partitionBy = partitionBy;
+        this.orderBy = orderBy;
+        this.frame = frame;
+    }
+
+    public ArrayList<Expression> getPartitionBy() {
+        return partitionBy;
+    }
+
+    public ArrayList<SelectOrderBy> getOrderBy() {
+        return orderBy;
+    }
+
+    public WindowFrame getFrame() {
+        return frame;
+    }
+
+    public boolean isEmpty() {
+        return partitionBy == null && orderBy == null && frame == null;
+    }
+
+    public int getPartitionCount() {
+        return partitionBy == null ? 0 : partitionBy.size();
+    }
+
+    public int getOrderCount() {
+        return orderBy == null ? 0 : orderBy.size();
+    }
+
+    /**
+     * 返回ORDER BY中每个表达式的排序类型，跟SortOrder中的定义一样。
+     *
+     * @return 排序类型
+     */
+    public int[] getSortTypes() {
+        int size = getOrderCount();
+        int[] sortTypes = new int[size];
+        for (int i = 0; i < size; i++) {
+            SelectOrderBy o = orderBy.get(i);
+            int type = o.descending ? SortOrder.DESCENDING : SortOrder.ASCENDING;
+            if (o.nullsFirst) {
+                type += SortOrder.NULLS_FIRST;
+            } else if (o.nullsLast) {
+                type += SortOrder.NULLS_LAST;
+            }
+            sortTypes[i] = type;
+        }
+        return sortTypes;
+    }
+
+    public void optimize(ServerSession session) {
+        if (partitionBy != null) {
+            for (int i = 0, size = partitionBy.size(); i < size; i++) {
+                partitionBy.set(i, partitionBy.get(i).optimize(session));
+            }
+        }
+        if (orderBy != null) {
+            for (SelectOrderBy o : orderBy) {
+                o.expression = o.expression.optimize(session);
+            }
+        }
+        if (frame != null) {
+            frame.optimize(session);
+        }
+    }
+
+    public void getSQL(StatementBuilder buff) {
+        buff.append('(');
+        if (partitionBy != null) {
+            buff.append("PARTITION BY ");
+            for (int i = 0, size = partitionBy.size(); i < size; i++) {
+                if (i > 0)
+                    buff.append(", ");
+                partitionBy.get(i).getSQL(buff);
+            }
+        }
+        if (orderBy != null) {
+            if (partitionBy != null)
+                buff.append(' ');
+            buff.append("ORDER BY ");
+            for (int i = 0, size = orderBy.size(); i < size; i++) {
+                if (i > 0)
+                    buff.append(", ");
+                orderBy.get(i).getSQL(buff);
+            }
+        }
+        if (frame != null) {
+            if (partitionBy != null || orderBy != null)
+                buff.append(' ');
+            frame.getSQL(buff);
+        }
+        buff.append(')');
+    }
+
+    public String getSQL() {
+        StatementBuilder buff = new StatementBuilder();
+        getSQL(buff);
+        return buff.toString();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.expression.window;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.common.util.StatementBuilder;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.Parameter;
+
+/**
+ * 窗口帧，ROWS按行数计算边界，RANGE按ORDER BY的值计算边界，CURRENT ROW包含所有相同值的行。
+ * RANGE只支持UNBOUNDED和CURRENT ROW，不支持n PRECEDING和n FOLLOWING。
+ *
+ * @author zhh
+ */
+public class WindowFrame {
+
+    public static final int UNBOUNDED_PRECEDING = 0;
+    public static final int PRECEDING = 1;
+    public static final int CURRENT_ROW = 2;
+    public static final int FOLLOWING = 3;
+    public static final int UNBOUNDED_FOLLOWING = 4;
+
+    private final boolean rows;
+    private int startType;
+    private Expression startOffset;
+    private int endType = CURRENT_ROW; // 只指定一个边界时，另一个是CURRENT ROW
+    private Expression endOffset;
+
+    public WindowFrame(boolean rows) {
+        this.rows = rows;
+    }
+
+    public boolean isRows() {
+        return rows;
+    }
+
+    public int getStartType() {
+        return startType;
+    }
+
+    public Expression getStartOffset() {
+        return startOffset;
+    }
+
+    public int getEndType() {
+        return endType;
+    }
+
+    public Expression getEndOffset() {
+        return endOffset;
+    }
+
+    public void setStart(int type, Expression offset) {
+        checkOffset(type);
+        startType = type;
+        startOffset = offset;
+    }
+
+    public void setEnd(int type, Expression offset) {
+        checkOffset(type);
+        endType = type;
+        endOffset = offset;
+    }
+
+    private void checkOffset(int type) {
+        if (!rows && (type == PRECEDING || type == FOLLOWING)) {
+            throw DbException.getUnsupportedException("RANGE with offset");
+        }
+    }
+
+    public void optimize(ServerSession session) {
+        if (startOffset != null)
+            startOffset = optimizeOffset(session, startOffset);
+        if (endOffset != null)
+            endOffset = optimizeOffset(session, endOffset);
+    }
+
+    // 偏移量只能是常量或参数，每个分区计算一次
+    static Expression optimizeOffset(ServerSession session, Expression offset) {
+        offset = offset.optimize(session);
+        if (!offset.isConstant() && !(offset instanceof Parameter)) {
+            throw DbException.getUnsupportedException("non-constant offset " + offset.getSQL());
+        }
+        return offset;
+    }
+
+    static long getOffsetValue(ServerSession session, Expression offset) {
+        Value v = offset.getValue(session);
+        long n = v == ValueNull.INSTANCE ? -1 : v.getLong();
+        if (n < 0) {
+            throw DbException.getInvalidValueException("offset", v.getTraceSQL());
+        }
+        return n;
+    }
+
+    /**
+     * 计算窗口帧的第一行在分区中的位置，返回的值可能小于0。
+     */
+    int getStart(int row, long offset, int[] peerStart) {
+        return getIndex(startType, offset, row, peerStart);
+    }
+
+    /**
+     * 计算窗口帧的最后一行在分区中的位置，返回的值可能超出分区的范围。
+     */
+    int getEnd(int row, long offset, int[] peerEnd, int rowCount) {
+        if (endType == UNBOUNDED_FOLLOWING)
+            return rowCount - 1;
+        return getIndex(endType, offset, row, peerEnd);
+    }
+
+    private int getIndex(int type, long offset, int row, int[] peers) {
+        switch (type) {
+        case UNBOUNDED_PRECEDING:
+            return 0;
+        case PRECEDING:
+            return (int) Math.max(row - offset, -1);
+        case CURRENT_ROW:
+            return rows ? row : peers[row];
+        case FOLLOWING:
+            return (int) Math.min(row + offset, Integer.MAX_VALUE);
+        default:
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    public void getSQL(StatementBuilder buff) {
+        buff.append(rows ? "ROWS BETWEEN " : "RANGE BETWEEN ");
+        buff.append(getBoundSQL(startType, startOffset));
+        buff.append(" AND ");
+        buff.append(getBoundSQL(endType, endOffset));
+    }
+
+    private static String getBoundSQL(int type, Expression offset) {
+        switch (type) {
+        case UNBOUNDED_PRECEDING:
+            return "UNBOUNDED PRECEDING";
+        case PRECEDING:
+            return offset.getSQL() + " PRECEDING";
+        case CURRENT_ROW:
+            return "CURRENT ROW";
+        case FOLLOWING:
+            return offset.getSQL() + " FOLLOWING";
+        default:
+            return "UNBOUNDED FOLLOWING";
+        }
+    }
+}
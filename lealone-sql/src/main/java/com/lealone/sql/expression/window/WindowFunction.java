@@ -0,0 +1,307 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.expression.window;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.common.util.StatementBuilder;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueLong;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.aggregate.AggregateData;
+import com.lealone.sql.expression.aggregate.BuiltInAggregate;
+import com.lealone.sql.expression.visitor.ExpressionVisitor;
+
+/**
+ * 窗口函数，包括ROW_NUMBER、RANK、DENSE_RANK、LAG、LEAD和带OVER子句的聚合函数。
+ * <p>
+ * 窗口函数的值不能逐行计算，由QWindow按分区调用compute一次算出分区中所有行的值，
+ * 所以只能直接出现在select字段列表中。
+ *
+ * @author zhh
+ */
+public class WindowFunction extends Expression {
+
+    public static final int ROW_NUMBER = 0;
+    public static final int RANK = 1;
+    public static final int DENSE_RANK = 2;
+    public static final int LAG = 3;
+    public static final int LEAD = 4;
+    public static final int AGGREGATE = 5;
+
+    private static final String[] NAMES = { "ROW_NUMBER", "RANK", "DENSE_RANK", "LAG", "LEAD" };
+    private static final HashMap<String, Integer> FUNCTIONS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < NAMES.length; i++) {
+            FUNCTIONS.put(NAMES[i], i);
+        }
+    }
+
+    public static int getFunctionType(String name) {
+        Integer type = FUNCTIONS.get(name);
+        return type == null ? -1 : type.intValue();
+    }
+
+    private final int functionType;
+    private final Expression[] args; // LAG和LEAD的参数: 值, 偏移量, 默认值
+    private final BuiltInAggregate aggregate;
+    private final Window window;
+
+    private int dataType;
+    private int scale;
+    private long precision;
+    private int displaySize;
+
+    public WindowFunction(int functionType, Expression[] args, Window window) {
+        this.functionType = functionType;
+        this.args = args;
+        this.aggregate = null;
+        this.window = window;
+    }
+
+    public WindowFunction(BuiltInAggregate aggregate, Window window) {
+        this.functionType = AGGREGATE;
+        this.args = new Expression[0];
+        this.aggregate = aggregate;
+        this.window = window;
+    }
+
+    public int getFunctionType() {
+        return functionType;
+    }
+
+    public Window getWindow() {
+        return window;
+    }
+
+    public Expression[] getArgs() {
+        if (aggregate != null) {
+            Expression on = aggregate.getOn();
+            return on == null ? args : new Expression[] { on };
+        }
+        return args;
+    }
+
+    /**
+     * 返回需要在每一行上求值的参数，QWindow把它们的值跟select字段一起保存。
+     *
+     * @return 参数列表
+     */
+    public Expression[] getInputExpressions() {
+        switch (functionType) {
+        case LAG:
+        case LEAD:
+            return args.length > 2 ? new Expression[] { args[0], args[2] } : new Expression[] { args[0] };
+        case AGGREGATE:
+            return getArgs();
+        default:
+            return new Expression[0];
+        }
+    }
+
+    @Override
+    public Value getValue(ServerSession session) {
+        // 只有QWindow能计算窗口函数的值
+        throw DbException.getUnsupportedException(getSQL());
+    }
+
+    @Override
+    public int getType() {
+        return dataType;
+    }
+
+    @Override
+    public Expression optimize(ServerSession session) {
+        window.optimize(session);
+        switch (functionType) {
+        case LAG:
+        case LEAD:
+            args[0] = args[0].optimize(session);
+            if (args.length > 1)
+                args[1] = WindowFrame.optimizeOffset(session, args[1]);
+            if (args.length > 2)
+                args[2] = args[2].optimize(session);
+            dataType = args[0].getType();
+            scale = args[0].getScale();
+            precision = args[0].getPrecision();
+            displaySize = args[0].getDisplaySize();
+            break;
+        case AGGREGATE:
+            aggregate.optimize(session);
+            dataType = aggregate.getType();
+            scale = aggregate.getScale();
+            precision = aggregate.getPrecision();
+            displaySize = aggregate.getDisplaySize();
+            break;
+        default:
+            dataType = Value.LONG;
+            scale = 0;
+            precision = ValueLong.PRECISION;
+            displaySize = ValueLong.DISPLAY_SIZE;
+        }
+        return this;
+    }
+
+    @Override
+    public int getScale() {
+        return scale;
+    }
+
+    @Override
+    public long getPrecision() {
+        return precision;
+    }
+
+    @Override
+    public int getDisplaySize() {
+        return displaySize;
+    }
+
+    @Override
+    public void getSQL(StatementBuilder buff) {
+        if (aggregate != null) {
+            aggregate.getSQL(buff);
+        } else {
+            buff.append(NAMES[functionType]).append('(');
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0)
+                    buff.append(", ");
+                args[i].getSQL(buff);
+            }
+            buff.append(')');
+        }
+        buff.append(" OVER ");
+        window.getSQL(buff);
+    }
+
+    @Override
+    public int getCost() {
+        int cost = 1;
+        for (Expression e : getArgs()) {
+            cost += e.getCost();
+        }
+        return cost;
+    }
+
+    @Override
+    public <R> R accept(ExpressionVisitor<R> visitor) {
+        return visitor.visitWindowFunction(this);
+    }
+
+    /**
+     * 计算一个分区中所有行的窗口函数值，分区中的行已经按窗口的ORDER BY排好序。
+     *
+     * @param session 当前session
+     * @param rows 分区中的行
+     * @param resultIndex 窗口函数的值在行中的位置
+     * @param inputIndex getInputExpressions返回的参数值在行中的开始位置
+     * @param peerStart 每一行在排序上相等的第一行的位置
+     * @param peerEnd 每一行在排序上相等的最后一行的位置
+     */
+    public void compute(ServerSession session, ArrayList<Value[]> rows, int resultIndex,
+            int inputIndex, int[] peerStart, int[] peerEnd) {
+        int size = rows.size();
+        switch (functionType) {
+        case ROW_NUMBER:
+            for (int i = 0; i < size; i++) {
+                rows.get(i)[resultIndex] = ValueLong.get(i + 1);
+            }
+            break;
+        case RANK:
+            for (int i = 0; i < size; i++) {
+                rows.get(i)[resultIndex] = ValueLong.get(peerStart[i] + 1);
+            }
+            break;
+        case DENSE_RANK: {
+            long rank = 0;
+            for (int i = 0; i < size; i++) {
+                if (peerStart[i] == i)
+                    rank++;
+                rows.get(i)[resultIndex] = ValueLong.get(rank);
+            }
+            break;
+        }
+        case LAG:
+        case LEAD: {
+            long offset = args.length > 1 ? WindowFrame.getOffsetValue(session, args[1]) : 1;
+            if (functionType == LAG)
+                offset = -offset;
+            for (int i = 0; i < size; i++) {
+                long j = i + offset;
+                Value v;
+                if (j >= 0 && j < size) {
+                    v = rows.get((int) j)[inputIndex];
+                } else if (args.length > 2) {
+                    v = rows.get(i)[inputIndex + 1];
+                } else {
+                    v = ValueNull.INSTANCE;
+                }
+                rows.get(i)[resultIndex] = v.convertTo(dataType);
+            }
+            break;
+        }
+        default:
+            computeAggregate(session, rows, resultIndex, inputIndex, peerStart, peerEnd);
+        }
+    }
+
+    // 窗口帧的开始位置是UNBOUNDED PRECEDING时结束位置只增不减，可以从前往后累加，
+    // 结束位置是UNBOUNDED FOLLOWING时可以从后往前累加，其他情况每个窗口帧单独计算
+    private void computeAggregate(ServerSession session, ArrayList<Value[]> rows, int resultIndex,
+            int inputIndex, int[] peerStart, int[] peerEnd) {
+        int size = rows.size();
+        WindowFrame frame = window.getFrame();
+        if (frame == null) {
+            // 默认是RANGE BETWEEN UNBOUNDED PRECEDING AND CURRENT ROW，没有ORDER BY时就是整个分区
+            frame = new WindowFrame(false);
+        }
+        long startOffset = frame.getStartOffset() == null ? 0
+                : WindowFrame.getOffsetValue(session, frame.getStartOffset());
+        long endOffset = frame.getEndOffset() == null ? 0
+                : WindowFrame.getOffsetValue(session, frame.getEndOffset());
+        int argIndex = getArgs().length == 0 ? -1 : inputIndex;
+        if (frame.getStartType() == WindowFrame.UNBOUNDED_PRECEDING) {
+            AggregateData data = aggregate.createWindowData();
+            int added = 0;
+            for (int i = 0; i < size; i++) {
+                int end = Math.min(frame.getEnd(i, endOffset, peerEnd, size), size - 1);
+                for (; added <= end; added++) {
+                    add(session, data, rows.get(added), argIndex);
+                }
+                rows.get(i)[resultIndex] = aggregate.getWindowValue(session, data);
+            }
+        } else if (frame.getEndType() == WindowFrame.UNBOUNDED_FOLLOWING) {
+            AggregateData data = aggregate.createWindowData();
+            int added = size;
+            for (int i = size - 1; i >= 0; i--) {
+                int start = Math.max(frame.getStart(i, startOffset, peerStart), 0);
+                while (added > start) {
+                    add(session, data, rows.get(--added), argIndex);
+                }
+                rows.get(i)[resultIndex] = aggregate.getWindowValue(session, data);
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                int start = Math.max(frame.getStart(i, startOffset, peerStart), 0);
+                int end = Math.min(frame.getEnd(i, endOffset, peerEnd, size), size - 1);
+                AggregateData data = aggregate.createWindowData();
+                for (int j = start; j <= end; j++) {
+                    add(session, data, rows.get(j), argIndex);
+                }
+                rows.get(i)[resultIndex] = aggregate.getWindowValue(session, data);
+            }
+        }
+    }
+
+    private static void add(ServerSession session, AggregateData data, Value[] row, int argIndex) {
+        data.add(session, argIndex < 0 ? null : row[argIndex]);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.operator;
+
+import com.lealone.db.row.Row;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueNull;
+
+/**
+ * 一批记录中某个字段的所有值，OLAP模式下按列计算查询条件和聚合函数时使用。
+ * <p>
+ * 整数类型(BYTE、SHORT、INT、LONG)的值同时放在longs中，浮点类型(FLOAT、DOUBLE)的值同时放在doubles中，
+ * 其他类型只有values，值为null时nulls中对应的元素为true。
+ */
+public class ColumnVector {
+
+    private final int columnId;
+    private final int vectorType;
+    private final Value[] values;
+    private final boolean[] nulls;
+    private final long[] longs;
+    private final double[] doubles;
+    private int size;
+
+    public ColumnVector(int columnId, int columnType, int capacity) {
+        this.columnId = columnId;
+        vectorType = getVectorType(columnType);
+        values = new Value[capacity];
+        nulls = new boolean[capacity];
+        longs = vectorType == Value.LONG ? new long[capacity] : null;
+        doubles = vectorType == Value.DOUBLE ? new double[capacity] : null;
+    }
+
+    /**
+     * 返回字段类型对应的基本类型，整数类型返回Value.LONG，浮点类型返回Value.DOUBLE，其他类型返回Value.UNKNOWN
+     */
+    public static int getVectorType(int columnType) {
+        switch (columnType) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            return Value.LONG;
+        case Value.FLOAT:
+        case Value.DOUBLE:
+            return Value.DOUBLE;
+        default:
+            return Value.UNKNOWN;
+        }
+    }
+
+    public void load(Row[] rows, int size) {
+        this.size = size;
+        for (int i = 0; i < size; i++) {
+            Value v = rows[i].getValue(columnId);
+            if (v == null)
+                v = ValueNull.INSTANCE;
+            values[i] = v;
+            boolean isNull = v == ValueNull.INSTANCE;
+            nulls[i] = isNull;
+            if (isNull)
+                continue;
+            if (longs != null)
+                longs[i] = v.getLong();
+            else if (doubles != null)
+                doubles[i] = v.getDouble();
+        }
+    }
+
+    public int getColumnId() {
+        return columnId;
+    }
+
+    public int getVectorType() {
+        return vectorType;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public Value[] getValues() {
+        return values;
+    }
+
+    public boolean[] getNulls() {
+        return nulls;
+    }
+
+    public long[] getLongs() {
+        return longs;
+    }
+
+    public double[] getDoubles() {
+        return doubles;
+    }
+
+    /**
+     * 比较两个非null的值，只能用于整数和浮点类型，结果跟Database.compare一样
+     */
+    public int compare(int i, int j) {
+        if (longs != null)
+            return Long.compare(longs[i], longs[j]);
+        else
+            return Double.compare(doubles[i], doubles[j]);
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.lealone.common.util.StatementBuilder;
+import com.lealone.db.Database;
+import com.lealone.db.index.Cursor;
+import com.lealone.db.index.standard.StandardDataType;
+import com.lealone.db.result.SortOrder;
+import com.lealone.db.row.Row;
+import com.lealone.db.row.RowType;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Column;
+import com.lealone.db.table.Table;
+import com.lealone.db.value.CompareMode;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueArray;
+import com.lealone.db.value.ValueLong;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.expression.Expression;
+import com.lealone.storage.Storage;
+import com.lealone.storage.StorageMap;
+import com.lealone.storage.StorageMapCursor;
+
+/**
+ * 等值join时如果内表的join字段上没有索引，外表的每一行都要重新遍历一次内表。
+ * 使用hash join时只遍历一次内表，按join字段把记录放到哈希表中，外表的每一行只需要查一次哈希表。
+ * <p>
+ * 哈希表中的记录估算占用的字节数超过maxJoinMemory后，剩下的记录放到临时的StorageMap中，
+ * 临时map的key是[join字段值, 序号]，查找时从[join字段值, 0]开始遍历。
+ * 这不是分区的(Grace/hybrid) hash join，溢出的部分相当于在磁盘B-tree上做index nested loop join，
+ * 只用来兜底估算不准的情况。优化器估算内表放不进maxJoinMemory时不会选择hash join，见isBuildSideFit。
+ * <p>
+ * 内表的其他条件(包括outer join的on条件)仍然由TableFilter.next()检查，这里只负责按join字段找出候选记录。
+ */
+class HashJoin extends JoinCursor {
+
+    private final Column[] columns; // 内表的join字段
+    private final Expression[] expressions; // 外表那一侧的表达式
+    private final List<IndexCondition> conditions;
+
+    private boolean built;
+    private HashMap<Value, ArrayList<Row>> rows;
+    private StorageMap<Value, ValueArray> spillMap;
+    private long spillRowCount;
+
+    private Value probeKey;
+    private ArrayList<Row> found;
+    private int foundIndex;
+    private StorageMapCursor<Value, ValueArray> spillCursor;
+
+    HashJoin(TableFilter tableFilter, List<IndexCondition> conditions) {
+        super(tableFilter);
+        this.conditions = conditions;
+        int size = conditions.size();
+        columns = new Column[size];
+        expressions = new Expression[size];
+        for (int i = 0; i < size; i++) {
+            IndexCondition c = conditions.get(i);
+            columns[i] = c.getColumn();
+            expressions[i] = c.getExpression();
+        }
+    }
+
+    /**
+     * 判断内表的字段跟外表的表达式能否作为hash join的key，
+     * 只接受等值比较跟Value.equals一致的类型，整数类型统一转成long
+     */
+    static boolean isHashable(ServerSession session, Column column, Expression expression) {
+        int t1 = column.getType();
+        int t2 = expression.getType();
+        if (isInteger(t1) && isInteger(t2))
+            return true;
+        if (t1 != t2)
+            return false;
+        switch (t1) {
+        case Value.BOOLEAN:
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+        case Value.UUID:
+            return true;
+        case Value.STRING:
+        case Value.STRING_FIXED:
+            // 使用了collation时字符串相等不一定equals
+            return CompareMode.OFF.equals(session.getDatabase().getCompareMode().getName());
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * 按内表的记录数和字段类型估算哈希表占用的字节数，放不进maxJoinMemory时不使用hash join。
+     * 跟RowType.getMemory一样估算每条记录，变长字段不知道实际长度，按precision估算并且最多按64个字符算
+     */
+    static boolean isBuildSideFit(ServerSession session, Table table) {
+        long rowCount = table.getRowCountApproximation();
+        long maxMemory = session.getDatabase().getMaxJoinMemory();
+        Column[] columns = table.getColumns();
+        long rowMemory = 32 + 16 + columns.length * 4;
+        for (Column c : columns) {
+            switch (c.getType()) {
+            case Value.STRING:
+            case Value.STRING_FIXED:
+            case Value.STRING_IGNORECASE:
+                rowMemory += 16 + 2 * Math.min(c.getPrecision(), 64);
+                break;
+            case Value.BYTES:
+                rowMemory += 20 + Math.min(c.getPrecision(), 128);
+                break;
+            default:
+                rowMemory += 24;
+            }
+        }
+        // 加上HashMap的entry和ArrayList
+        rowMemory += 64;
+        return rowCount * rowMemory <= maxMemory;
+    }
+
+    @Override
+    void reset() {
+        close();
+        built = false;
+    }
+
+    @Override
+    void close() {
+        rows = null;
+        found = null;
+        current = null;
+        spillCursor = null;
+        if (spillMap != null) {
+            try {
+                spillMap.remove();
+            } finally {
+                spillMap = null;
+                spillRowCount = 0;
+            }
+        }
+    }
+
+    @Override
+    void find(ServerSession session) {
+        if (!built) {
+            build(session);
+            built = true;
+        }
+        found = null;
+        foundIndex = 0;
+        spillCursor = null;
+        probeKey = null;
+        Value[] key = new Value[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Value v = expressions[i].getValue(session);
+            if (v == null || v == ValueNull.INSTANCE) // null跟任何值都不相等
+                return;
+            key[i] = normalize(v);
+        }
+        probeKey = toKey(key);
+        found = rows.get(probeKey);
+        if (spillMap != null) {
+            Value[] from = new Value[key.length + 1];
+            System.arraycopy(key, 0, from, 0, key.length);
+            from[key.length] = ValueLong.get(0);
+            spillCursor = spillMap.cursor(ValueArray.get(from));
+        }
+    }
+
+    @Override
+    boolean next() {
+        if (found != null && foundIndex < found.size()) {
+            current = found.get(foundIndex++);
+            return true;
+        }
+        if (spillCursor != null) {
+            if (spillCursor.next()) {
+                Value[] k = ((ValueArray) spillCursor.getKey()).getList();
+                if (isSameKey(k)) {
+                    Value[] v = spillCursor.getValue().getList();
+                    Value[] data = new Value[v.length - 1];
+                    System.arraycopy(v, 1, data, 0, data.length);
+                    current = new Row(v[0].getLong(), data);
+                    return true;
+                }
+            }
+            spillCursor = null;
+        }
+        current = null;
+        return false;
+    }
+
+    private boolean isSameKey(Value[] k) {
+        if (columns.length == 1)
+            return k[0].equals(probeKey);
+        Value[] key = ((ValueArray) probeKey).getList();
+        for (int i = 0; i < key.length; i++) {
+            if (!k[i].equals(key[i]))
+                return false;
+        }
+        return true;
+    }
+
+    private Value toKey(Value[] key) {
+        return key.length == 1 ? key[0] : ValueArray.get(key);
+    }
+
+    private void build(ServerSession session) {
+        rows = new HashMap<>();
+        Table table = tableFilter.getTable();
+        long maxMemory = session.getDatabase().getMaxJoinMemory();
+        long memory = 0;
+        int scanCount = 0;
+        Cursor cursor = table.getScanIndex(session).find(session, null, null);
+        while (cursor.next()) {
+            if ((++scanCount & 4095) == 0)
+                session.checkCanceled();
+            Row row = cursor.get();
+            if (row == null)
+                continue;
+            Value[] key = new Value[columns.length];
+            boolean hasNull = false;
+            for (int i = 0; i < columns.length; i++) {
+                Value v = row.getValue(columns[i].getColumnId());
+                if (v == null || v == ValueNull.INSTANCE) {
+                    hasNull = true;
+                    break;
+                }
+                key[i] = normalize(v);
+            }
+            if (hasNull)
+                continue;
+            // 按字节估算，宽的记录不会因为行数还没到上限就占满内存
+            if (memory < maxMemory) {
+                rows.computeIfAbsent(toKey(key), k -> new ArrayList<>(1)).add(row);
+                memory += RowType.getMemory(row);
+            } else {
+                spill(session, key, row);
+            }
+        }
+    }
+
+    private void spill(ServerSession session, Value[] key, Row row) {
+        if (spillMap == null)
+            openSpillMap(session);
+        Value[] k = new Value[key.length + 1];
+        System.arraycopy(key, 0, k, 0, key.length);
+        k[key.length] = ValueLong.get(spillRowCount++);
+        Value[] data = row.getColumns();
+        Value[] v = new Value[data.length + 1];
+        v[0] = ValueLong.get(row.getKey());
+        System.arraycopy(data, 0, v, 1, data.length);
+        spillMap.put(ValueArray.get(k), ValueArray.get(v));
+    }
+
+    private void openSpillMap(ServerSession session) {
+        Database db = session.getDatabase();
+        int[] keySortTypes = new int[columns.length + 1];
+        for (int i = 0; i < keySortTypes.length; i++)
+            keySortTypes[i] = SortOrder.ASCENDING;
+        StandardDataType keyType = new StandardDataType(db.getCompareMode(), keySortTypes);
+        int[] valueSortTypes = new int[tableFilter.getTable().getColumns().length + 1];
+        for (int i = 0; i < valueSortTypes.length; i++)
+            valueSortTypes[i] = SortOrder.ASCENDING;
+        StandardDataType valueType = new StandardDataType(db.getCompareMode(), valueSortTypes);
+        Storage storage = db.getStorage(db.getDefaultStorageEngineName());
+        spillMap = storage.openMap(storage.nextTemporaryMapName(), keyType, valueType, null);
+    }
+
+    @Override
+    String getPlanSQL() {
+        StatementBuilder buff = new StatementBuilder("HASH JOIN ");
+        for (IndexCondition condition : conditions) {
+            buff.appendExceptFirst("\n    AND ");
+            buff.append(condition.getSQL());
+        }
+        return buff.toString();
+    }
+}
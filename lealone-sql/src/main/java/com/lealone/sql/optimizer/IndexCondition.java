@@ -17,6 +17,7 @@ import com.lealone.db.index.IndexConditionType;
 import com.lealone.db.result.Result;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.table.Column;
+import com.lealone.db.table.ColumnStatistics;
 import com.lealone.db.table.TableType;
 import com.lealone.db.value.CompareMode;
 import com.lealone.db.value.Value;
@@ -48,8 +49,12 @@ public class IndexCondition {
      * @param compareType the comparison type, see constants in {@link Comparison}
      */
     private IndexCondition(int compareType, ExpressionColumn column, Expression expression) {
+        this(compareType, column == null ? null : column.getColumn(), expression);
+    }
+
+    private IndexCondition(int compareType, Column column, Expression expression) {
         this.compareType = compareType;
-        this.column = column == null ? null : column.getColumn();
+        this.column = column;
         this.expression = expression;
     }
 
@@ -65,6 +70,18 @@ public class IndexCondition {
         return new IndexCondition(compareType, column, expression);
     }
 
+    /**
+     * Create an index condition on the virtual column of an expression index.
+     *
+     * @param compareType the comparison type, see constants in {@link Comparison}
+     * @param column the virtual column
+     * @param expression the expression
+     * @return the index condition
+     */
+    public static IndexCondition getVirtual(int compareType, Column column, Expression expression) {
+        return new IndexCondition(compareType, column, expression);
+    }
+
     /**
      * Create an index condition with the compare type IN_LIST and with the
      * given parameters.
@@ -231,6 +248,61 @@ public class IndexCondition {
         }
     }
 
+    /**
+     * Estimate the fraction of rows matching this condition with the column histogram.
+     *
+     * @param session the session
+     * @return the fraction, 0 if unknown
+     */
+    public double getFraction(ServerSession session) {
+        ColumnStatistics statistics = column.getStatistics();
+        if (statistics == null)
+            return 0;
+        CompareMode mode = session.getDatabase().getCompareMode();
+        try {
+            switch (compareType) {
+            case Comparison.EQUAL:
+            case Comparison.EQUAL_NULL_SAFE:
+                Value v = getConstantValue(session, expression);
+                return v == null ? 0 : statistics.getEqualFraction(v, mode);
+            case Comparison.IN_LIST: {
+                double fraction = 0;
+                for (Expression e : expressionList) {
+                    v = getConstantValue(session, e);
+                    if (v == null)
+                        return 0;
+                    fraction += statistics.getEqualFraction(v, mode);
+                }
+                return Math.min(fraction, 1);
+            }
+            case Comparison.BIGGER_EQUAL:
+            case Comparison.BIGGER:
+                v = getConstantValue(session, expression);
+                return v == null ? 0
+                        : statistics.getGreaterFraction(v, compareType == Comparison.BIGGER_EQUAL,
+                                mode);
+            case Comparison.SMALLER_EQUAL:
+            case Comparison.SMALLER:
+                v = getConstantValue(session, expression);
+                return v == null ? 0
+                        : statistics.getLessFraction(v, compareType == Comparison.SMALLER_EQUAL,
+                                mode);
+            default:
+                return 0;
+            }
+        } catch (DbException e) {
+            // 无法转换成字段类型时当成不知道
+            return 0;
+        }
+    }
+
+    // 只有常量才能在准备语句时估算，参数的值要执行时才知道
+    private Value getConstantValue(ServerSession session, Expression e) {
+        if (e == null || !e.isConstant())
+            return null;
+        return e.getValue(session).convertTo(column.getType());
+    }
+
     /**
      * Check if the result is always false.
      *
@@ -280,6 +352,15 @@ public class IndexCondition {
         return compareType;
     }
 
+    /**
+     * Get the expression.
+     *
+     * @return the expression
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
     /**
      * Get the referenced column.
      *
@@ -289,6 +370,26 @@ public class IndexCondition {
         return column;
     }
 
+    /**
+     * Check if the values of this condition are constants.
+     *
+     * @return true if they are
+     */
+    public boolean isConstant() {
+        if (expression != null) {
+            return expression.isConstant();
+        }
+        if (expressionList != null) {
+            for (Expression e : expressionList) {
+                if (!e.isConstant()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Check if the expression can be evaluated.
      *
@@ -56,7 +56,8 @@ public class IndexCursor implements Cursor {
         this.index = index;
         this.table = index.getTable();
         Column[] columns = table.getColumns();
-        indexColumns = new IndexColumn[columns.length];
+        Column[] virtualColumns = table.getVirtualColumns();
+        indexColumns = new IndexColumn[columns.length + virtualColumns.length];
         IndexColumn[] idxCols = index.getIndexColumns();
         if (idxCols != null) {
             for (int i = 0, len = columns.length; i < len; i++) {
@@ -65,6 +66,15 @@ public class IndexCursor implements Cursor {
                     indexColumns[i] = idxCols[idx];
                 }
             }
+            // 表达式索引的虚拟字段
+            for (int i = 0, len = virtualColumns.length; i < len; i++) {
+                if (virtualColumns[i] == null)
+                    continue;
+                int idx = index.getColumnIndex(virtualColumns[i]);
+                if (idx >= 0) {
+                    indexColumns[columns.length + i] = idxCols[idx];
+                }
+            }
         }
     }
 
@@ -191,7 +201,7 @@ public class IndexCursor implements Cursor {
 
     private SearchRow getSearchRow(ServerSession session, SearchRow row, int id, Value v, boolean max) {
         if (row == null) {
-            row = table.getTemplateRow();
+            row = table.getTemplateSearchRow();
         } else {
             v = getMax(session, row.getValue(id), v, max);
         }
@@ -300,7 +310,7 @@ public class IndexCursor implements Cursor {
     private void find(Value v) {
         int id = inColumn.getColumnId();
         if (start == null) {
-            start = table.getTemplateRow();
+            start = table.getTemplateSearchRow();
         }
         start.setValue(id, v);
         cursor = index.find(tableFilter.getSession(), start, start);
@@ -0,0 +1,60 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.optimizer;
+
+import com.lealone.db.row.Row;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueLong;
+
+/**
+ * 作为join的内表时，代替IndexCursor按join条件查找记录。
+ * 外表每切换一行调用一次find，然后用next遍历内表中匹配的记录。
+ */
+abstract class JoinCursor {
+
+    protected final TableFilter tableFilter;
+    protected Row current;
+
+    JoinCursor(TableFilter tableFilter) {
+        this.tableFilter = tableFilter;
+    }
+
+    abstract void find(ServerSession session);
+
+    abstract boolean next();
+
+    Row get() {
+        return current;
+    }
+
+    // 每次开始执行查询时调用
+    abstract void reset();
+
+    // 查询结束时释放资源
+    abstract void close();
+
+    abstract String getPlanSQL();
+
+    static boolean isInteger(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    // 整数类型统一转成long，这样不同整数类型的字段也能直接比较
+    static Value normalize(Value v) {
+        if (isInteger(v.getType()))
+            return ValueLong.get(v.getLong());
+        return v;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.optimizer;
+
+import java.util.ArrayList;
+
+import com.lealone.db.index.Cursor;
+import com.lealone.db.index.Index;
+import com.lealone.db.index.IndexColumn;
+import com.lealone.db.index.standard.StandardDelegateIndex;
+import com.lealone.db.index.standard.StandardPrimaryIndex;
+import com.lealone.db.index.standard.StandardSecondaryIndex;
+import com.lealone.db.result.SortOrder;
+import com.lealone.db.row.Row;
+import com.lealone.db.row.SearchRow;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Column;
+import com.lealone.db.value.CompareMode;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.expression.Expression;
+
+/**
+ * 外表按join字段的顺序读取记录时，内表也按索引顺序只遍历一次，
+ * 不需要每一条外表记录都通过IndexCursor.find重新定位。
+ * <p>
+ * 内表的游标只会往前走，key相同的记录缓存在group中，外表的下一条记录key不变时直接重放。
+ * 如果外表的key变小了(比如外表的索引被换成了排序用的索引)，就从新的key重新定位游标，结果仍然是正确的。
+ */
+class MergeJoin extends JoinCursor {
+
+    private final IndexCondition condition;
+    private final Column column; // 内表的join字段
+    private final Expression expression; // 外表的join字段
+    private final Index index;
+
+    private CompareMode compareMode;
+    private Cursor cursor;
+    private boolean cursorEnd;
+    private SearchRow nextRow; // 游标已经读出来但还没有匹配的记录
+    private Value nextKey;
+
+    private Value groupKey;
+    private final ArrayList<Row> group = new ArrayList<>();
+    private int groupIndex;
+
+    MergeJoin(TableFilter tableFilter, IndexCondition condition, Index index) {
+        super(tableFilter);
+        this.condition = condition;
+        this.column = condition.getColumn();
+        this.expression = condition.getExpression();
+        this.index = index;
+    }
+
+    /**
+     * 返回索引按升序排列的第一个字段，索引记录不是按字段值排序时返回null
+     */
+    static Column getSortedColumn(Index index) {
+        if (index instanceof StandardPrimaryIndex) {
+            int mainIndexColumn = ((StandardPrimaryIndex) index).getMainIndexColumn();
+            return mainIndexColumn < 0 ? null : index.getTable().getColumns()[mainIndexColumn];
+        }
+        if (index.getIndexType().isHash()) {
+            return null;
+        }
+        if (index instanceof StandardSecondaryIndex || index instanceof StandardDelegateIndex) {
+            IndexColumn[] columns = index.getIndexColumns();
+            if (columns != null && columns.length > 0 && !columns[0].column.isVirtual()
+                    && (columns[0].sortType & SortOrder.DESCENDING) == 0)
+                return columns[0].column;
+        }
+        return null;
+    }
+
+    // 两边的类型相同时按值比较的顺序跟索引中的顺序才是一致的
+    static boolean isComparable(Column c1, Column c2) {
+        int t1 = c1.getType();
+        if (t1 != c2.getType())
+            return false;
+        switch (t1) {
+        case Value.BLOB:
+        case Value.CLOB:
+        case Value.ARRAY:
+        case Value.RESULT_SET:
+        case Value.JAVA_OBJECT:
+        case Value.LIST:
+        case Value.SET:
+        case Value.MAP:
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    @Override
+    void reset() {
+        close();
+    }
+
+    @Override
+    void close() {
+        cursor = null;
+        cursorEnd = false;
+        nextRow = null;
+        nextKey = null;
+        groupKey = null;
+        group.clear();
+        current = null;
+    }
+
+    @Override
+    void find(ServerSession session) {
+        groupIndex = 0;
+        Value v = expression.getValue(session);
+        if (v == null || v == ValueNull.INSTANCE) { // null跟任何值都不相等
+            group.clear();
+            groupKey = null;
+            return;
+        }
+        v = normalize(v);
+        if (groupKey != null) {
+            int c = compare(v, groupKey);
+            if (c == 0) // 外表的key没变，重放上一次的记录
+                return;
+            if (c < 0) // 外表的key变小了，重新定位
+                cursor = null;
+        }
+        if (cursor == null)
+            open(session, v);
+        group.clear();
+        groupKey = v;
+        while (nextRow != null || advance()) {
+            int c = compare(nextKey, v);
+            if (c > 0)
+                break;
+            if (c == 0) {
+                Row row = cursor.get(); // nextRow总是游标的当前记录
+                if (row != null)
+                    group.add(row);
+            }
+            nextRow = null;
+        }
+    }
+
+    private void open(ServerSession session, Value v) {
+        compareMode = session.getDatabase().getCompareMode();
+        SearchRow start = tableFilter.getTable().getTemplateRow();
+        start.setValue(column.getColumnId(), column.convert(v));
+        cursor = index.find(session, start, null);
+        cursorEnd = false;
+        nextRow = null;
+    }
+
+    private boolean advance() {
+        if (cursorEnd)
+            return false;
+        while (cursor.next()) {
+            SearchRow r = cursor.getSearchRow();
+            Value k = r.getValue(column.getColumnId());
+            if (k == null) {
+                r = cursor.get();
+                if (r == null)
+                    continue;
+                k = r.getValue(column.getColumnId());
+            }
+            if (k == null || k == ValueNull.INSTANCE)
+                continue;
+            nextRow = r;
+            nextKey = normalize(k);
+            return true;
+        }
+        cursorEnd = true;
+        return false;
+    }
+
+    private int compare(Value v1, Value v2) {
+        return v1.compareTo(v2, compareMode);
+    }
+
+    @Override
+    boolean next() {
+        if (groupKey != null && groupIndex < group.size()) {
+            current = group.get(groupIndex++);
+            return true;
+        }
+        current = null;
+        return false;
+    }
+
+    @Override
+    String getPlanSQL() {
+        return "MERGE JOIN " + condition.getSQL();
+    }
+}
@@ -6,13 +6,20 @@
 package com.lealone.sql.optimizer;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Random;
+import java.util.Set;
 
 import com.lealone.common.util.BitField;
 import com.lealone.db.index.Index;
 import com.lealone.db.result.SortOrder;
 import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Column;
 import com.lealone.db.table.Table;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.ExpressionColumn;
+import com.lealone.sql.expression.condition.ConditionAndOr;
+import com.lealone.sql.expression.visitor.VoidExpressionVisitor;
 
 /**
  * The optimizer is responsible to find the best execution plan
@@ -27,6 +34,11 @@ public class Optimizer {
     private static final int MAX_BRUTE_FORCE = 2000;
     private static final int MAX_GENETIC = 500;
 
+    // 3到15个表的join用动态规划枚举join顺序，计算的子计划超过MAX_DP_PLANS时还是用原来的算法
+    private static final int MIN_DP_FILTERS = 3;
+    private static final int MAX_DP_FILTERS = 15;
+    private static final int MAX_DP_PLANS = 50000;
+
     // 后面的plan个数等于前面的plan个数乘以后面的filter数
     // 比如第三行是6，等于第三行的filter 3 * 2 = 6
     // possible plans for filters, if using brute force:
@@ -41,6 +53,7 @@ public class Optimizer {
     // 9 filters 362880 plans
     // 10 filters 3628800 filters
     private final TableFilter[] filters;
+    private final Expression condition;
     private final ServerSession session;
 
     private Plan bestPlan;
@@ -51,7 +64,12 @@ public class Optimizer {
     private BitField switched;
 
     public Optimizer(TableFilter[] filters, ServerSession session) {
+        this(filters, null, session);
+    }
+
+    public Optimizer(TableFilter[] filters, Expression condition, ServerSession session) {
         this.filters = filters; // join时才有多个TableFilter，正常只有一个TableFilter
+        this.condition = condition;
         this.session = session;
     }
 
@@ -85,6 +103,10 @@ public class Optimizer {
             testPlan(filters);
         } else {
             start = System.currentTimeMillis();
+            if (filters.length >= MIN_DP_FILTERS && filters.length <= MAX_DP_FILTERS
+                    && calculateDynamicProgramming()) {
+                return;
+            }
             if (filters.length <= MAX_BRUTE_FORCE_FILTERS) {
                 calculateBruteForceAll();
             } else {
@@ -163,6 +185,193 @@ public class Optimizer {
         }
     }
 
+    // 子计划: 一组表按某个顺序join后的代价，parent加上last就是这个子计划的join顺序
+    private static class SubPlan {
+        final SubPlan parent;
+        final int last;
+        final double cost;
+        final int levels; // 包含的TableFilter个数(含outer join和嵌套join的表)
+        final PlanItem firstItem; // 只有一个表时才有，用来判断第二个表能否使用merge join
+
+        SubPlan(SubPlan parent, int last, double cost, int levels, PlanItem firstItem) {
+            this.parent = parent;
+            this.last = last;
+            this.cost = cost;
+            this.levels = levels;
+            this.firstItem = firstItem;
+        }
+
+        int fill(TableFilter[] filters, TableFilter[] list) {
+            int i = parent == null ? 0 : parent.fill(filters, list);
+            list[i] = filters[last];
+            return i + 1;
+        }
+
+        TableFilter first(TableFilter[] filters) {
+            return parent == null ? filters[last] : parent.first(filters);
+        }
+    }
+
+    /**
+     * 用动态规划枚举left-deep的join顺序，每个表集合只保留代价最小的子计划，
+     * 并且只把跟已有子计划有join条件的表加进去，避免枚举没有必要的笛卡尔积。
+     *
+     * @return 子计划太多放弃时返回false
+     */
+    private boolean calculateDynamicProgramming() {
+        int n = filters.length;
+        TableFilter[][] allFilters = new TableFilter[n][];
+        for (int i = 0; i < n; i++) {
+            ArrayList<TableFilter> list = new ArrayList<>();
+            filters[i].visit(f -> list.add(f));
+            allFilters[i] = list.toArray(new TableFilter[0]);
+        }
+        int[] edges = getJoinGraph(allFilters);
+        SubPlan[] best = new SubPlan[1 << n];
+        for (int i = 0; i < n; i++) {
+            best[1 << i] = extend(null, i, allFilters);
+        }
+        int plans = n;
+        for (int set = 1, full = (1 << n) - 1; set <= full; set++) {
+            if (Integer.bitCount(set) < 2)
+                continue;
+            for (int t = 0; t < n; t++) {
+                int bit = 1 << t;
+                if ((set & bit) == 0 || (edges[t] & (set & ~bit)) == 0)
+                    continue;
+                SubPlan parent = best[set & ~bit];
+                if (parent == null)
+                    continue;
+                if (++plans > MAX_DP_PLANS)
+                    return false;
+                SubPlan p = extend(parent, t, allFilters);
+                if (best[set] == null || p.cost < best[set].cost)
+                    best[set] = p;
+            }
+        }
+        SubPlan p = best[(1 << n) - 1];
+        if (p == null)
+            return false;
+        TableFilter[] list = new TableFilter[n];
+        p.fill(filters, list);
+        // 跟其他算法一样重新计算一次完整的计划
+        testPlan(list);
+        return true;
+    }
+
+    // 跟Plan.calculateCost一样计算代价，只是前面的表直接使用子计划的代价，不再重复计算
+    private SubPlan extend(SubPlan parent, int t, TableFilter[][] allFilters) {
+        for (SubPlan p = parent; p != null; p = p.parent) {
+            for (TableFilter f : allFilters[p.last])
+                f.setEvaluatable(f, true);
+        }
+        double cost = parent == null ? 1 : parent.cost;
+        int level = parent == null ? 1 : parent.levels + 1;
+        PlanItem firstItem = null;
+        boolean invalidPlan = false;
+        for (TableFilter f : allFilters[t]) {
+            PlanItem item = f.getBestPlanItem(session, level);
+            if (level == 1) {
+                firstItem = item;
+            } else if (level == 2 && parent != null && parent.firstItem != null) {
+                TableFilter first = parent.first(filters);
+                if (first.getJoin() == null)
+                    f.prepareMergeJoin(session, item, first, parent.firstItem);
+            }
+            level++;
+            cost += item.getJoinCost(cost);
+            f.setEvaluatable(f, true);
+            Expression on = f.getJoinCondition();
+            if (on != null && !on.isEvaluatable()) {
+                invalidPlan = true;
+                break;
+            }
+        }
+        for (TableFilter[] list : allFilters) {
+            for (TableFilter f : list)
+                f.setEvaluatable(f, false);
+        }
+        if (invalidPlan)
+            cost = Double.POSITIVE_INFINITY;
+        return new SubPlan(parent, t, cost, level - 1, firstItem);
+    }
+
+    // 返回每个表跟哪些表有join条件，不连通的几部分之间都当成有边，这样才能生成笛卡尔积
+    private int[] getJoinGraph(TableFilter[][] allFilters) {
+        int n = allFilters.length;
+        IdentityHashMap<ColumnResolver, Integer> owners = new IdentityHashMap<>();
+        for (int i = 0; i < n; i++) {
+            for (TableFilter f : allFilters[i])
+                owners.put(f, i);
+        }
+        int[] edges = new int[n];
+        ArrayList<Expression> conditions = new ArrayList<>();
+        addConditions(condition, conditions);
+        for (TableFilter[] list : allFilters) {
+            for (TableFilter f : list)
+                addConditions(f.getJoinCondition(), conditions);
+        }
+        for (Expression e : conditions) {
+            int[] mask = new int[1];
+            e.accept(new VoidExpressionVisitor() {
+                @Override
+                public Void visitExpressionColumn(ExpressionColumn ec) {
+                    Integer i = owners.get(ec.getColumnResolver());
+                    if (i != null)
+                        mask[0] |= 1 << i;
+                    return null;
+                }
+            });
+            if (Integer.bitCount(mask[0]) >= 2) {
+                for (int i = 0; i < n; i++) {
+                    if ((mask[0] & (1 << i)) != 0)
+                        edges[i] |= mask[0] & ~(1 << i);
+                }
+            }
+        }
+        // 找出连通的几部分
+        int[] components = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int component = 1 << i;
+            for (int reached = 0; reached != component;) {
+                reached = component;
+                for (int j = 0; j < n; j++) {
+                    if ((component & (1 << j)) != 0)
+                        component |= edges[j];
+                }
+            }
+            boolean found = false;
+            for (int j = 0; j < count; j++) {
+                if (components[j] == component)
+                    found = true;
+            }
+            if (!found)
+                components[count++] = component;
+        }
+        if (count > 1) {
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < count; j++) {
+                    if ((components[j] & (1 << i)) == 0)
+                        edges[i] |= components[j];
+                }
+            }
+        }
+        return edges;
+    }
+
+    private static void addConditions(Expression e, ArrayList<Expression> conditions) {
+        if (e == null)
+            return;
+        if (e instanceof ConditionAndOr
+                && ((ConditionAndOr) e).getAndOrType() == ConditionAndOr.AND) {
+            addConditions(((ConditionAndOr) e).getLeft(), conditions);
+            addConditions(((ConditionAndOr) e).getRight(), conditions);
+        } else {
+            conditions.add(e);
+        }
+    }
+
     private void calculateGenetic() {
         TableFilter[] best = new TableFilter[filters.length];
         TableFilter[] list = new TableFilter[filters.length];
@@ -261,6 +470,57 @@ public class Optimizer {
     */
     public static PlanItem getBestPlanItem(ServerSession session, int[] masks, Table table,
             SortOrder sortOrder) {
+        return getBestPlanItem(session, masks, null, table, sortOrder);
+    }
+
+    /**
+     * Get the best plan item, the cost of the indexes is estimated with the fractions
+     * calculated from the column histograms.
+     *
+     * @param session the session
+     * @param masks per-column comparison bit masks
+     * @param fractions per-column fraction of matching rows, 0 means unknown, may be null
+     * @param table the table
+     * @param sortOrder the sort order
+     * @return the plan item
+     */
+    public static PlanItem getBestPlanItem(ServerSession session, int[] masks, double[] fractions,
+            Table table, SortOrder sortOrder) {
+        return getBestPlanItem(session, masks, fractions, table, sortOrder, null);
+    }
+
+    /**
+     * Get the best plan item, an index that covers all the referenced columns is cheaper
+     * because the rows don't need to be looked up in the primary index.
+     *
+     * @param session the session
+     * @param masks per-column comparison bit masks
+     * @param fractions per-column fraction of matching rows, 0 means unknown, may be null
+     * @param table the table
+     * @param sortOrder the sort order
+     * @param referencedColumns the columns referenced by the query, may be null
+     * @return the plan item
+     */
+    public static PlanItem getBestPlanItem(ServerSession session, int[] masks, double[] fractions,
+            Table table, SortOrder sortOrder, Set<Column> referencedColumns) {
+        return getBestPlanItem(session, masks, fractions, table, sortOrder, referencedColumns, null);
+    }
+
+    /**
+     * Get the best plan item, a partial index is only used if the table filter
+     * can prove that the matching rows are all in the index.
+     *
+     * @param session the session
+     * @param masks per-column comparison bit masks
+     * @param fractions per-column fraction of matching rows, 0 means unknown, may be null
+     * @param table the table
+     * @param sortOrder the sort order
+     * @param referencedColumns the columns referenced by the query, may be null
+     * @param filter the table filter, may be null
+     * @return the plan item
+     */
+    public static PlanItem getBestPlanItem(ServerSession session, int[] masks, double[] fractions,
+            Table table, SortOrder sortOrder, Set<Column> referencedColumns, TableFilter filter) {
         PlanItem item = new PlanItem();
         item.setIndex(table.getScanIndex(session));
         item.cost = item.getIndex().getCost(session, null, null);
@@ -269,7 +529,11 @@ public class Optimizer {
             // indexes[0]是ScanIndex，所以可以跳过，从1开始
             for (int i = 1, size = indexes.size(); i < size; i++) {
                 Index index = indexes.get(i);
-                double cost = index.getCost(session, masks, sortOrder);
+                if (index.getPredicate() != null
+                        && (filter == null || !filter.canUsePartialIndex(index)))
+                    continue;
+                double cost = index.getCost(session, masks, fractions, sortOrder,
+                        referencedColumns);
                 if (cost < item.cost) {
                     item.cost = cost;
                     item.setIndex(index);
@@ -88,11 +88,17 @@ public class Plan {
     public double calculateCost(ServerSession session) {
         double cost = 1;
         boolean invalidPlan = false;
-        int level = 1;
-        for (TableFilter tableFilter : allFilters) {
-            PlanItem item = tableFilter.getBestPlanItem(session, level++);
+        for (int i = 0; i < allFilters.length; i++) {
+            TableFilter tableFilter = allFilters[i];
+            PlanItem item = tableFilter.getBestPlanItem(session, i + 1);
+            if (i == 1) {
+                // 第二个表，如果是跟第一个表join的(不是outer join和嵌套join中的表)，看看能不能使用merge join
+                TableFilter first = allFilters[0];
+                if (first.getJoin() == null)
+                    tableFilter.prepareMergeJoin(session, item, first, planItems.get(first));
+            }
             planItems.put(tableFilter, item);
-            cost += cost * item.cost;
+            cost += item.getJoinCost(cost);
             setEvaluatable(tableFilter, true);
             Expression on = tableFilter.getJoinCondition();
             if (on != null && !on.isEvaluatable()) {
@@ -5,6 +5,8 @@
  */
 package com.lealone.sql.optimizer;
 
+import java.util.ArrayList;
+
 import com.lealone.db.index.Index;
 
 /**
@@ -24,6 +26,18 @@ public class PlanItem {
     private PlanItem joinPlan;
     private PlanItem nestedJoinPlan;
 
+    // 能使用hash join时才有值，构建哈希表只需要遍历一次内表，之后外表的每一行只需要查一次哈希表
+    private ArrayList<IndexCondition> hashJoinConditions;
+    private double hashJoinBuildCost;
+    private double hashJoinProbeCost;
+    private boolean hashJoin;
+
+    // 能使用merge join时才有值，内表按索引顺序只遍历一次
+    private IndexCondition mergeJoinCondition;
+    private double mergeJoinScanCost;
+    private double mergeJoinProbeCost;
+    private boolean mergeJoin;
+
     public double getCost() {
         return cost;
     }
@@ -51,4 +65,62 @@ public class PlanItem {
     PlanItem getNestedJoinPlan() {
         return nestedJoinPlan;
     }
+
+    void setHashJoin(ArrayList<IndexCondition> conditions, double buildCost, double probeCost) {
+        hashJoinConditions = conditions;
+        hashJoinBuildCost = buildCost;
+        hashJoinProbeCost = probeCost;
+    }
+
+    ArrayList<IndexCondition> getHashJoinConditions() {
+        return hashJoinConditions;
+    }
+
+    public boolean isHashJoin() {
+        return hashJoin;
+    }
+
+    void setMergeJoin(IndexCondition condition, double scanCost, double probeCost) {
+        mergeJoinCondition = condition;
+        mergeJoinScanCost = scanCost;
+        mergeJoinProbeCost = probeCost;
+    }
+
+    IndexCondition getMergeJoinCondition() {
+        return mergeJoinCondition;
+    }
+
+    public boolean isMergeJoin() {
+        return mergeJoin;
+    }
+
+    /**
+     * 计算作为内表时的代价，nested loop join是外表的代价乘以每次查找内表的代价，
+     * hash join是构建哈希表的代价加上外表的代价乘以每次查哈希表的代价，
+     * merge join是遍历一次内表的代价加上外表的代价乘以每次比较和读取匹配记录的代价，选代价最小的那个。
+     *
+     * @param outerCost 外表的代价
+     * @return join的代价
+     */
+    double getJoinCost(double outerCost) {
+        double joinCost = outerCost * cost;
+        hashJoin = false;
+        mergeJoin = false;
+        if (hashJoinConditions != null) {
+            double hashJoinCost = hashJoinBuildCost + outerCost * hashJoinProbeCost;
+            if (hashJoinCost < joinCost) {
+                hashJoin = true;
+                joinCost = hashJoinCost;
+            }
+        }
+        if (mergeJoinCondition != null) {
+            double mergeJoinCost = mergeJoinScanCost + outerCost * mergeJoinProbeCost;
+            if (mergeJoinCost < joinCost) {
+                hashJoin = false;
+                mergeJoin = true;
+                joinCost = mergeJoinCost;
+            }
+        }
+        return joinCost;
+    }
 }
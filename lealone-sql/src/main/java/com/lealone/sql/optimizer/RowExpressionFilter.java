@@ -0,0 +1,54 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.optimizer;
+
+import com.lealone.db.row.Row;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.session.Session;
+import com.lealone.db.table.Column;
+import com.lealone.db.table.Table;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.IExpression;
+
+/**
+ * 表达式索引和部分索引计算表达式时用的TableFilter。
+ * <p>
+ * 多个调度线程会同时用同一个表达式计算不同的记录，当前记录不放在TableFilter的字段中，
+ * 而是每次调用getExpressionValue时放到当前线程中，所以不需要同步。
+ */
+public class RowExpressionFilter extends TableFilter {
+
+    private final ThreadLocal<Row> currentRow = new ThreadLocal<>();
+
+    public RowExpressionFilter(ServerSession session, Table table) {
+        super(session, table, null, false, null);
+    }
+
+    @Override
+    public Value getValue(Column column) {
+        Row row = currentRow.get();
+        if (row == null)
+            return null;
+        int columnId = column.getColumnId();
+        if (columnId == -1)
+            return row.getPrimaryKey();
+        Value[] columns = row.getColumns();
+        Value v = columnId < columns.length ? columns[columnId] : null;
+        return v == null ? ValueNull.INSTANCE : v;
+    }
+
+    @Override
+    public Value getExpressionValue(Session session, IExpression e, Object data) {
+        Row old = currentRow.get(); // 计算表达式时可能又要计算同一个表达式，算完后要恢复
+        currentRow.set((Row) data);
+        try {
+            return e.getValue(session);
+        } finally {
+            currentRow.set(old);
+        }
+    }
+}
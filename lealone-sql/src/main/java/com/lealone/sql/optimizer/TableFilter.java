@@ -16,6 +16,7 @@ import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.StatementBuilder;
 import com.lealone.common.util.StringUtils;
 import com.lealone.common.util.Utils;
+import com.lealone.db.Constants;
 import com.lealone.db.SysProperties;
 import com.lealone.db.auth.Right;
 import com.lealone.db.index.Index;
@@ -26,13 +27,17 @@ import com.lealone.db.session.ServerSession;
 import com.lealone.db.session.Session;
 import com.lealone.db.table.Column;
 import com.lealone.db.table.Table;
+import com.lealone.db.table.TableType;
 import com.lealone.db.value.Value;
 import com.lealone.db.value.ValueNull;
 import com.lealone.sql.IExpression;
+import com.lealone.sql.LealoneSQLParser;
 import com.lealone.sql.StatementBase;
 import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.ExpressionColumn;
 import com.lealone.sql.expression.condition.Comparison;
 import com.lealone.sql.expression.condition.ConditionAndOr;
+import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
 import com.lealone.sql.query.Select;
 import com.lealone.storage.page.PageKey;
 
@@ -113,6 +118,12 @@ public class TableFilter extends ColumnResolverBase {
     private final int hashCode;
 
     private int[] columnIndexes;
+    private HashSet<Column> referencedColumns;
+
+    /**
+     * 不为null时使用hash join或merge join查找内表的记录，而不是通过cursor
+     */
+    private JoinCursor joinCursor;
 
     /**
      * Create a new table filter object.
@@ -157,6 +168,11 @@ public class TableFilter extends ColumnResolverBase {
      * @return the best plan item
      */
     public PlanItem getBestPlanItem(ServerSession s, int level) {
+        return getBestPlanItem(s, level, level == 1);
+    }
+
+    // first为true表示这是join中的第一个表，它的记录是按索引顺序读出来的
+    private PlanItem getBestPlanItem(ServerSession s, int level, boolean first) {
         PlanItem item = StatementBase.getDistributedBestPlanItem(s, cursor, table);
         if (item != null)
             return item;
@@ -165,7 +181,8 @@ public class TableFilter extends ColumnResolverBase {
             item.setIndex(table.getScanIndex(s));
             item.cost = item.getIndex().getCost(s, null, null);
         } else {
-            int len = table.getColumns().length;
+            // 表达式索引的虚拟字段排在表的字段后面
+            int len = table.getColumns().length + table.getVirtualColumns().length;
             int[] masks = new int[len];
             for (int i = 0, size = indexConditions.size(); i < size; i++) {
                 IndexCondition condition = indexConditions.get(i);
@@ -186,29 +203,183 @@ public class TableFilter extends ColumnResolverBase {
             if (select != null) {
                 sortOrder = select.getSortOrder();
             }
-            item = Optimizer.getBestPlanItem(s, masks, table, sortOrder);
+            double[] fractions = masks == null ? null : getFractions(s, len);
+            item = Optimizer.getBestPlanItem(s, masks, fractions, table, sortOrder,
+                    getReferencedColumns(), this);
             // The more index conditions, the earlier the table.
             // This is to ensure joins without indexes run quickly:
             // x (x.a=10); y (x.b=y.b) - see issue 113
             item.cost -= item.cost * indexConditions.size() / 100 / level;
+            if (masks != null && nestedJoin == null)
+                prepareHashJoin(s, item);
         }
         if (nestedJoin != null) {
             setEvaluatable(true);
-            item.setNestedJoinPlan(nestedJoin.getBestPlanItem(s, level));
+            item.setNestedJoinPlan(nestedJoin.getBestPlanItem(s, level, false));
             // TODO optimizer: calculate cost of a join: should use separate
             // expected row number and lookup cost
             item.cost += item.cost * item.getNestedJoinPlan().cost;
         }
         if (join != null) {
             setEvaluatable(true);
-            item.setJoinPlan(join.getBestPlanItem(s, level));
+            PlanItem joinPlan = join.getBestPlanItem(s, level, false);
+            if (first)
+                join.prepareMergeJoin(s, joinPlan, this, item);
+            item.setJoinPlan(joinPlan);
             // TODO optimizer: calculate cost of a join: should use separate
             // expected row number and lookup cost
-            item.cost += item.cost * item.getJoinPlan().cost;
+            item.cost += joinPlan.getJoinCost(item.cost);
         }
         return item;
     }
 
+    // select引用到的字段，包括join条件中的，用来判断索引能不能覆盖查询，
+    // 漏掉的字段只会影响代价，执行时SearchRow中没有的字段还是会到主索引中读取
+    private HashSet<Column> getReferencedColumns() {
+        if (referencedColumns == null && select != null) {
+            HashSet<Column> columns = select.getReferencedColumns();
+            for (TableFilter f : select.getFilters()) {
+                if (f.joinCondition != null)
+                    f.joinCondition.getColumns(columns);
+                if (f.filterCondition != null)
+                    f.filterCondition.getColumns(columns);
+            }
+            referencedColumns = columns;
+        }
+        return referencedColumns;
+    }
+
+    // 用字段的直方图估算每个字段上的索引条件能匹配的记录比例，0表示不知道，
+    // 同一个字段上有多个条件时，等值条件取最小的，>和<组合成一个区间
+    private double[] getFractions(ServerSession s, int len) {
+        double[] fractions = null;
+        double[] starts = null, ends = null;
+        for (int i = 0, size = indexConditions.size(); i < size; i++) {
+            IndexCondition condition = indexConditions.get(i);
+            Column column = condition.getColumn();
+            int id = column.getColumnId();
+            if (id < 0 || column.getStatistics() == null || !condition.isEvaluatable())
+                continue;
+            if (fractions == null) {
+                fractions = new double[len];
+                starts = new double[len];
+                ends = new double[len];
+                Arrays.fill(fractions, -1);
+            }
+            double f = condition.getFraction(s);
+            switch (condition.getCompareType()) {
+            case Comparison.EQUAL:
+            case Comparison.EQUAL_NULL_SAFE:
+            case Comparison.IN_LIST:
+                if (f <= 0 || fractions[id] == 0)
+                    fractions[id] = 0; // 有一个不知道就按原来的选择度算
+                else if (fractions[id] < 0 || f < fractions[id])
+                    fractions[id] = f;
+                break;
+            case Comparison.BIGGER_EQUAL:
+            case Comparison.BIGGER:
+                starts[id] = starts[id] == 0 ? f : Math.min(starts[id], f);
+                break;
+            case Comparison.SMALLER_EQUAL:
+            case Comparison.SMALLER:
+                ends[id] = ends[id] == 0 ? f : Math.min(ends[id], f);
+                break;
+            default:
+                fractions[id] = 0;
+            }
+        }
+        if (fractions == null)
+            return null;
+        for (int id = 0; id < len; id++) {
+            if (fractions[id] >= 0)
+                continue;
+            double start = starts[id], end = ends[id];
+            if (start > 0 && end > 0)
+                fractions[id] = Math.max(start + end - 1, Math.min(start, end) / 100);
+            else
+                fractions[id] = start > 0 ? start : end;
+        }
+        return fractions;
+    }
+
+    // 内表的join字段上没有可用的索引时，看看能不能使用hash join
+    private void prepareHashJoin(ServerSession s, PlanItem item) {
+        if (table.getTableType() != TableType.STANDARD_TABLE)
+            return;
+        ArrayList<IndexCondition> conditions = null;
+        for (IndexCondition condition : indexConditions) {
+            if (condition.getCompareType() != Comparison.EQUAL || !condition.isEvaluatable())
+                continue;
+            Column column = condition.getColumn();
+            Expression e = condition.getExpression();
+            if (column.getColumnId() < 0 || column.isVirtual() || !isJoinExpression(e))
+                continue;
+            // 索引能用上join字段时还是用nested loop join
+            if (item.getIndex().getColumnIndex(column) >= 0)
+                return;
+            if (!HashJoin.isHashable(s, column, e))
+                continue;
+            if (conditions == null)
+                conditions = new ArrayList<>();
+            conditions.add(condition);
+        }
+        // 内表估算放不进内存时溢出的部分性能很差，还是用nested loop join
+        if (conditions == null || !HashJoin.isBuildSideFit(s, table))
+            return;
+        double buildCost = table.getScanIndex(s).getCost(s, null, null);
+        // 跟IndexBase.getCostRangeIndex一样按字段的选择度估算每个key对应的记录数
+        int selectivity = Math.max(conditions.get(0).getColumn().getSelectivity(), 1);
+        double probeCost = 2 + Math.max(100 / selectivity, 1);
+        item.setHashJoin(conditions, buildCost, probeCost);
+    }
+
+    /**
+     * 外表按join字段的顺序读取记录，并且内表的索引也是按join字段排序时，看看能不能使用merge join。
+     * 外表的记录数太少时nested loop join的代价主要是COST_ROW_OFFSET，不考虑merge join。
+     *
+     * @param s the session
+     * @param item the plan item of this table
+     * @param outer the outer table, must be the first table of the join
+     * @param outerItem the plan item of the outer table
+     */
+    void prepareMergeJoin(ServerSession s, PlanItem item, TableFilter outer, PlanItem outerItem) {
+        if (outerItem == null || outer.nestedJoin != null || nestedJoin != null
+                || table.getTableType() != TableType.STANDARD_TABLE
+                || outer.table.getRowCountApproximation() < Constants.COST_ROW_OFFSET)
+            return;
+        Column outerColumn = MergeJoin.getSortedColumn(outerItem.getIndex());
+        Column innerColumn = MergeJoin.getSortedColumn(item.getIndex());
+        if (outerColumn == null || innerColumn == null)
+            return;
+        for (IndexCondition condition : indexConditions) {
+            if (condition.getCompareType() != Comparison.EQUAL || condition.getColumn() != innerColumn
+                    || !(condition.getExpression() instanceof ExpressionColumn))
+                continue;
+            ExpressionColumn e = (ExpressionColumn) condition.getExpression();
+            if (e.getColumnResolver() == outer && e.getColumn() == outerColumn
+                    && MergeJoin.isComparable(innerColumn, outerColumn)) {
+                // 内表只按索引顺序遍历一次，外表的每一行只需要跟游标的当前记录比较
+                Index index = item.getIndex();
+                double scanCost = index.getCost(s, null, null);
+                double rowsPerKey = index.getIndexType().isUnique() && index.getColumns().length == 1 ? 1
+                        : Math.max(100 / Math.max(innerColumn.getSelectivity(), 1), 1);
+                item.setMergeJoin(condition, scanCost, rowsPerKey);
+                return;
+            }
+        }
+    }
+
+    // 引用了其他表的字段，每次切换外表的记录时值都会变
+    private boolean isJoinExpression(Expression e) {
+        if (e == null || e.isConstant())
+            return false;
+        if (!e.accept(ExpressionVisitorFactory.getNotFromResolverVisitor(this)))
+            return false;
+        HashSet<Column> columns = new HashSet<>();
+        e.getColumns(columns);
+        return !columns.isEmpty();
+    }
+
     /**
      * Set what plan item (index, cost) to use use.
      *
@@ -220,7 +391,16 @@ public class TableFilter extends ColumnResolverBase {
             // this will result in an exception later on
             return;
         }
-        setIndex(item.getIndex());
+        if (item.isHashJoin()) {
+            joinCursor = new HashJoin(this, item.getHashJoinConditions());
+            setIndex(table.getScanIndex(session));
+        } else if (item.isMergeJoin()) {
+            joinCursor = new MergeJoin(this, item.getMergeJoinCondition(), item.getIndex());
+            setIndex(item.getIndex());
+        } else {
+            joinCursor = null;
+            setIndex(item.getIndex());
+        }
         if (nestedJoin != null && item.getNestedJoinPlan() != null) {
             nestedJoin.setPlanItem(item.getNestedJoinPlan());
         }
@@ -284,6 +464,9 @@ public class TableFilter extends ColumnResolverBase {
     public void startQuery(ServerSession s) {
         session = s;
         scanCount = 0;
+        if (joinCursor != null) {
+            joinCursor.reset();
+        }
         if (nestedJoin != null) {
             nestedJoin.startQuery(s);
         }
@@ -292,6 +475,16 @@ public class TableFilter extends ColumnResolverBase {
         }
     }
 
+    /**
+     * End the query. This will release the resources used by hash joins.
+     */
+    public void endQuery() {
+        visit(f -> {
+            if (f.joinCursor != null)
+                f.joinCursor.close();
+        });
+    }
+
     /**
      * Reset to the current position.
      */
@@ -315,7 +508,10 @@ public class TableFilter extends ColumnResolverBase {
         if (state == AFTER_LAST) {
             return false;
         } else if (state == BEFORE_FIRST) {
-            cursor.find(session, indexConditions);
+            if (joinCursor != null)
+                joinCursor.find(session);
+            else
+                cursor.find(session, indexConditions);
             if (!cursor.isAlwaysFalse()) {
                 if (nestedJoin != null) {
                     nestedJoin.reset();
@@ -346,7 +542,14 @@ public class TableFilter extends ColumnResolverBase {
                 if ((++scanCount & 4095) == 0) {
                     checkTimeout();
                 }
-                if (cursor.next()) {
+                if (joinCursor != null) {
+                    if (joinCursor.next()) {
+                        set(joinCursor.get());
+                        state = FOUND;
+                    } else {
+                        state = AFTER_LAST;
+                    }
+                } else if (cursor.next()) {
                     currentSearchRow = cursor.getSearchRow();
                     current = null;
                     state = FOUND;
@@ -454,6 +657,177 @@ public class TableFilter extends ColumnResolverBase {
         return table.getName();
     }
 
+    /**
+     * Find the virtual column of an expression index that has the same expression,
+     * the expressions are compared by the SQL without the table alias.
+     *
+     * @param e the expression
+     * @return the virtual column or null
+     */
+    public Column findVirtualColumn(Expression e) {
+        if (table.getVirtualColumns().length == 0 || e instanceof ExpressionColumn
+                || e.isConstant())
+            return null;
+        // 只能引用当前表的字段
+        HashSet<Column> columns = new HashSet<>();
+        e.getColumns(columns);
+        for (Column c : columns) {
+            if (c.getTable() != table)
+                return null;
+        }
+        if (e.accept(ExpressionVisitorFactory.getNotFromResolverVisitor(this)))
+            return null;
+        boolean quote = session.getDatabase().getSettings().databaseToUpper;
+        String alias = getTableAlias();
+        String prefix = (quote ? LealoneSQLParser.quoteIdentifier(alias) : alias) + ".";
+        return table.findVirtualColumn(removePrefix(e.getSQL(), prefix));
+    }
+
+    // 删除字符串常量之外的表别名前缀
+    private static String removePrefix(String sql, String prefix) {
+        if (sql.indexOf(prefix) < 0)
+            return sql;
+        StringBuilder buff = new StringBuilder(sql.length());
+        boolean inString = false;
+        for (int i = 0, len = sql.length(); i < len; i++) {
+            char c = sql.charAt(i);
+            if (!inString && sql.startsWith(prefix, i)
+                    && (i == 0 || !isIdentifierPart(sql.charAt(i - 1)))) {
+                i += prefix.length() - 1;
+                continue;
+            }
+            if (c == '\'')
+                inString = !inString;
+            buff.append(c);
+        }
+        return buff.toString();
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '"' || c == '.';
+    }
+
+    /**
+     * Check if a partial index can be used, every AND part of its predicate
+     * must be implied by the index conditions of this table filter.
+     *
+     * @param index the index
+     * @return true if the index can be used
+     */
+    public boolean canUsePartialIndex(Index index) {
+        ArrayList<Expression> list = new ArrayList<>();
+        addAndConditions(list, (Expression) index.getPredicate());
+        for (Expression e : list) {
+            if (!isImplied(e))
+                return false;
+        }
+        return true;
+    }
+
+    private static void addAndConditions(ArrayList<Expression> list, Expression e) {
+        if (e instanceof ConditionAndOr
+                && ((ConditionAndOr) e).getAndOrType() == ConditionAndOr.AND) {
+            addAndConditions(list, ((ConditionAndOr) e).getExpression(true));
+            addAndConditions(list, ((ConditionAndOr) e).getExpression(false));
+        } else {
+            list.add(e);
+        }
+    }
+
+    // 只支持"字段 比较运算符 常量"和"字段 IS [NOT] NULL"这样的条件，
+    // 查询在同一个字段上的某个索引条件能推出它就行
+    private boolean isImplied(Expression e) {
+        if (!(e instanceof Comparison))
+            return false;
+        Comparison comparison = (Comparison) e;
+        if (!(comparison.getLeft() instanceof ExpressionColumn))
+            return false;
+        Column column = ((ExpressionColumn) comparison.getLeft()).getColumn();
+        int compareType = comparison.getCompareType();
+        Value v = null;
+        Expression right = comparison.getRight();
+        if (right != null) {
+            if (!right.isConstant())
+                return false;
+            v = right.getValue(session);
+            if (v == ValueNull.INSTANCE)
+                return false;
+        }
+        for (int i = 0, size = indexConditions.size(); i < size; i++) {
+            IndexCondition condition = indexConditions.get(i);
+            if (column.equals(condition.getColumn()) && isImplied(condition, compareType, v))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isImplied(IndexCondition condition, int compareType, Value v) {
+        int type = condition.getCompareType();
+        if (compareType == Comparison.IS_NOT_NULL) {
+            // 除了IS，其他比较都不会匹配NULL
+            return type != Comparison.EQUAL_NULL_SAFE;
+        }
+        if (!condition.isConstant())
+            return false;
+        if (compareType == Comparison.IS_NULL) {
+            return type == Comparison.EQUAL_NULL_SAFE
+                    && condition.getCurrentValue(session) == ValueNull.INSTANCE;
+        }
+        switch (type) {
+        case Comparison.EQUAL:
+        case Comparison.EQUAL_NULL_SAFE: {
+            Value w = condition.getCurrentValue(session);
+            return w != ValueNull.INSTANCE
+                    && Comparison.compareNotNull(session.getDatabase(), w, v, compareType);
+        }
+        case Comparison.IN_LIST:
+            for (Value w : condition.getCurrentValueList(session)) {
+                if (w != ValueNull.INSTANCE
+                        && !Comparison.compareNotNull(session.getDatabase(), w, v, compareType))
+                    return false;
+            }
+            return true;
+        case Comparison.BIGGER_EQUAL:
+        case Comparison.BIGGER: {
+            Value w = condition.getCurrentValue(session);
+            if (w == ValueNull.INSTANCE)
+                return false;
+            // 查询条件是col > w或col >= w
+            int cmp = session.getDatabase().compare(w, v);
+            boolean strict = type == Comparison.BIGGER;
+            switch (compareType) {
+            case Comparison.BIGGER:
+            case Comparison.NOT_EQUAL:
+                return cmp > 0 || cmp == 0 && strict;
+            case Comparison.BIGGER_EQUAL:
+                return cmp >= 0;
+            default:
+                return false;
+            }
+        }
+        case Comparison.SMALLER_EQUAL:
+        case Comparison.SMALLER: {
+            Value w = condition.getCurrentValue(session);
+            if (w == ValueNull.INSTANCE)
+                return false;
+            // 查询条件是col < w或col <= w
+            int cmp = session.getDatabase().compare(w, v);
+            boolean strict = type == Comparison.SMALLER;
+            switch (compareType) {
+            case Comparison.SMALLER:
+            case Comparison.NOT_EQUAL:
+                return cmp < 0 || cmp == 0 && strict;
+            case Comparison.SMALLER_EQUAL:
+                return cmp <= 0;
+            default:
+                return false;
+            }
+        }
+        default:
+            return false;
+        }
+    }
+
     /**
      * Add an index condition.
      *
@@ -623,7 +997,9 @@ public class TableFilter extends ColumnResolverBase {
             buff.append('\n');
             StatementBuilder planBuff = new StatementBuilder();
             planBuff.append(index.getPlanSQL());
-            if (indexConditions.size() > 0) {
+            if (joinCursor != null) {
+                planBuff.append(": ").append(joinCursor.getPlanSQL());
+            } else if (indexConditions.size() > 0) {
                 planBuff.append(": ");
                 for (IndexCondition condition : indexConditions) {
                     planBuff.appendExceptFirst("\n    AND ");
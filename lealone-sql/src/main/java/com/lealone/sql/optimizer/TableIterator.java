@@ -5,6 +5,8 @@
  */
 package com.lealone.sql.optimizer;
 
+import java.util.ArrayDeque;
+
 import com.lealone.db.index.Cursor;
 import com.lealone.db.lock.Lock;
 import com.lealone.db.lock.Lockable;
@@ -12,6 +14,7 @@ import com.lealone.db.row.Row;
 import com.lealone.db.row.SearchRow;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.table.Table;
+import com.lealone.storage.page.PageListener;
 
 public class TableIterator {
 
@@ -20,6 +23,7 @@ public class TableIterator {
     private final Table table;
     private Row oldRow;
     private Cursor cursor;
+    private ArrayDeque<Row> retryRows; // 批量加锁时未能处理的行，需要重新遍历
 
     public TableIterator(ServerSession session, TableFilter tableFilter) {
         this.session = session;
@@ -40,6 +44,10 @@ public class TableIterator {
         tableFilter.reset();
     }
 
+    public void stop() {
+        tableFilter.endQuery();
+    }
+
     public boolean next() {
         if (oldRow != null) {
             Row r = oldRow;
@@ -48,6 +56,12 @@ public class TableIterator {
             if (tableFilter.rebuildSearchRow(session, r) != null)
                 return true;
         }
+        if (retryRows != null) {
+            while (!retryRows.isEmpty()) {
+                if (tableFilter.rebuildSearchRow(session, retryRows.poll()) != null)
+                    return true;
+            }
+        }
         if (cursor == null) {
             return tableFilter.next();
         } else {
@@ -69,22 +83,27 @@ public class TableIterator {
         if (oldRow == null) { // 已经删除了
             return -1;
         }
+        return tryLockRow(oldRow, null);
+    }
+
+    /**
+     * 批量模式下遍历时先不加锁，等同一个page中满足条件的行都收集好之后再逐个调用这个方法加锁。
+     *
+     * @param oldRow 遍历时得到的行
+     * @param evaluatedValue 遍历时计算条件所用的值，加锁后如果值变了需要重新遍历这一行
+     * @return 1表示加锁成功，0表示被其他事务锁住了，-1表示已经删除或需要重新遍历
+     */
+    public int tryLockRow(Row oldRow, Object evaluatedValue) {
         // 总是使用最原始的那个row对象锁，
         // 因为在遍历的时候如果其他事务未提交会为当前事务创建一个新的row对象，不能在新的row对象上加锁
-        Lock lock = oldRow.getLock();
-        if (lock != null) {
-            Lockable lockable = lock.getLockable();
-            if (lockable != null && lockable != oldRow) {
-                oldRow = (Row) lock.getLockable();
-            }
-        }
-        Object oldValue = oldRow.getLockedValue();
+        oldRow = getLockableRow(oldRow);
+        Object oldValue = evaluatedValue != null ? evaluatedValue : oldRow.getLockedValue();
         int ret = table.tryLockRow(session, oldRow);
         if (ret < 0) { // 已经删除或过期了
             if (ret == -2) {// 记录已经过期
                 // 新值被临时放到lock中存放
                 // 重新调用oldRow.getLock()，因为会改变
-                this.oldRow = (Row) oldRow.getLock().getLockable();
+                addRetryRow((Row) oldRow.getLock().getLockable(), evaluatedValue != null);
             }
             return -1;
         } else if (ret == 0) { // 被其他事务锁住了
@@ -92,12 +111,52 @@ public class TableIterator {
             return 0;
         }
         if (oldValue != oldRow.getLockedValue()) { // isRowChanged
-            this.oldRow = oldRow;
+            addRetryRow(oldRow, evaluatedValue != null);
             return -1;
         }
         return 1;
     }
 
+    // 批量加锁时被其他事务锁住后，剩余的行还没有加锁，需要等待后重新遍历
+    public void retry(Row row) {
+        addRetryRow(row, true);
+    }
+
+    private void addRetryRow(Row row, boolean isBatch) {
+        if (isBatch) {
+            if (retryRows == null)
+                retryRows = new ArrayDeque<>();
+            retryRows.add(row);
+        } else {
+            this.oldRow = row;
+        }
+    }
+
+    public static Row getLockableRow(Row row) {
+        Lock lock = row.getLock();
+        if (lock != null) {
+            Lockable lockable = lock.getLockable();
+            if (lockable != null && lockable != row) {
+                row = (Row) lockable;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * 返回行所在的page，批量更新或删除时用它把同一个page中的行分成一组。
+     *
+     * @param row 遍历时得到的行
+     * @return 行所在page的引用，如果不知道在哪个page就返回null
+     */
+    public static Object getPage(Row row) {
+        Lock lock = getLockableRow(row).getLock();
+        if (lock == null)
+            return null;
+        PageListener pageListener = lock.getPageListener();
+        return pageListener == null ? null : pageListener.getPageReference();
+    }
+
     public void onLockedException() {
         oldRow = getRow();
     }
@@ -0,0 +1,141 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.query;
+
+import java.util.HashMap;
+
+import com.lealone.db.value.Value;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.aggregate.ACount;
+import com.lealone.sql.expression.aggregate.ACountAll;
+import com.lealone.sql.expression.aggregate.ADefault;
+import com.lealone.sql.expression.aggregate.AggregateData;
+import com.lealone.sql.expression.aggregate.BuiltInAggregate;
+import com.lealone.sql.expression.evaluator.AlwaysTrueEvaluator;
+import com.lealone.sql.expression.evaluator.ExpressionEvaluator;
+import com.lealone.sql.operator.ColumnVector;
+import com.lealone.sql.operator.Operator;
+
+// 没有group by的聚合查询的olap版本，按批计算查询条件，
+// select字段都是COUNT、SUM、AVG、MIN、MAX这类内置聚合函数时，一批记录只更新一次聚合结果，
+// 聚合函数的参数是当前表的字段时按列计算，否则逐行计算
+class OlapAggregate extends QAggregate {
+
+    private QOperator oldOperator;
+    private OlapBatch batch;
+    private BuiltInAggregate[] aggregates; // 为null时跟QAggregate一样逐行计算
+
+    OlapAggregate(Select select) {
+        this(select, select.currentGroup);
+    }
+
+    // QAggregate的构造函数会创建新的currentGroup，oltp Operator已经算出来的聚合结果要保留
+    private OlapAggregate(Select select, HashMap<Expression, Object> currentGroup) {
+        super(select);
+        select.currentGroup = currentGroup;
+    }
+
+    @Override
+    public ExpressionEvaluator createConditionEvaluator(Expression c) {
+        return new AlwaysTrueEvaluator(); // 查询条件在OlapBatch中计算
+    }
+
+    @Override
+    public void start() {
+        // 不能重置TableFilter，要接着oltp Operator读到的位置往下读
+    }
+
+    @Override
+    public void copyStatus(Operator old) {
+        // 此时oltp Operator还没有处理完当前记录，等到run时再复制它的状态
+        oldOperator = (QOperator) old;
+    }
+
+    @Override
+    public void run() {
+        if (oldOperator != null) {
+            batch = OlapBatch.takeOver(oldOperator, this);
+            oldOperator = null;
+            aggregates = getAggregates();
+        }
+        if (aggregates == null) {
+            super.run();
+            return;
+        }
+        while (batch.read()) {
+            loopCount += batch.size();
+            boolean yield = yieldIfNeeded(loopCount);
+            int count = batch.getSelectedCount();
+            if (sampleSize > 0 && rowCount + count > sampleSize) {
+                count = sampleSize - rowCount;
+                batch.truncate(count);
+            }
+            if (count > 0) {
+                rowCount += count;
+                select.currentGroupRowId++;
+                updateAggregates(count);
+            }
+            if (sampleSize > 0 && rowCount >= sampleSize) {
+                break;
+            }
+            if (yield)
+                return;
+        }
+        // 最后把聚合后的结果增加到结果集中
+        Value[] row = createRow();
+        row = QGroup.toResultRow(row, columnCount, select.resultColumnCount);
+        result.addRow(row);
+        loopEnd = true;
+    }
+
+    @Override
+    protected boolean next() {
+        return batch.nextRow();
+    }
+
+    private BuiltInAggregate[] getAggregates() {
+        BuiltInAggregate[] aggregates = new BuiltInAggregate[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            Expression expr = select.expressions.get(i);
+            if (!(expr instanceof ACountAll || expr instanceof ACount || expr instanceof ADefault))
+                return null;
+            aggregates[i] = (BuiltInAggregate) expr;
+        }
+        return aggregates;
+    }
+
+    private void updateAggregates(int count) {
+        int[] selection = batch.getSelection();
+        for (BuiltInAggregate aggregate : aggregates) {
+            AggregateData data = aggregate.getAggregateData();
+            if (data == null)
+                continue;
+            if (data instanceof ACountAll.AggregateDataCountAll) {
+                ACountAll.AggregateDataCountAll d = (ACountAll.AggregateDataCountAll) data;
+                d.setCount(d.getCount() + count);
+                continue;
+            }
+            Expression on = aggregate.getOn();
+            int columnId = batch.getColumnId(on);
+            if (columnId >= 0) {
+                ColumnVector vector = batch.getVector(columnId);
+                if (data instanceof ADefault.AggregateDataDefault) {
+                    if (((ADefault.AggregateDataDefault) data).addBatch(session, vector, selection,
+                            count))
+                        continue;
+                } else if (data instanceof ACount.AggregateDataCount) {
+                    if (((ACount.AggregateDataCount) data).addBatch(vector, selection, count))
+                        continue;
+                }
+            }
+            // 不能按列计算的逐行计算
+            for (int i = 0; i < count; i++) {
+                topTableFilter.set(batch.getRow(selection[i]));
+                data.add(session, on.getValue(session));
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.query;
+
+import java.util.ArrayList;
+
+import com.lealone.db.row.Row;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Column;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.ExpressionColumn;
+import com.lealone.sql.expression.Parameter;
+import com.lealone.sql.expression.ValueExpression;
+import com.lealone.sql.expression.condition.Comparison;
+import com.lealone.sql.expression.condition.ConditionAndOr;
+import com.lealone.sql.operator.ColumnVector;
+import com.lealone.sql.optimizer.TableFilter;
+import com.lealone.sql.optimizer.TableIterator;
+
+// olap Operator每次从TableIterator读一批记录，
+// 查询条件按AND拆开，字段跟常量比较和is [not] null这样的条件按列计算，剩下的条件再逐行计算，
+// 满足条件的记录在batch中的下标放在selection中
+class OlapBatch {
+
+    private static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final ServerSession session;
+    private final TableFilter tableFilter;
+    private final TableIterator tableIterator;
+    private final int batchSize;
+    private final Row[] rows;
+    private final int[] selection;
+    private final ColumnVector[] vectors;
+    private final ArrayList<VectorCondition> vectorConditions = new ArrayList<>();
+    private final ArrayList<Expression> rowConditions = new ArrayList<>();
+
+    private int size;
+    private int selectedCount;
+    private int position; // nextRow()在selection中的位置
+    private int batchId;
+    private final int[] vectorBatchIds;
+    private boolean end;
+
+    OlapBatch(Select select, TableIterator tableIterator) {
+        session = select.getSession();
+        tableFilter = select.getTopTableFilter();
+        this.tableIterator = tableIterator;
+        int batchSize = session.getOlapBatchSize();
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        rows = new Row[this.batchSize];
+        selection = new int[this.batchSize];
+        int columnCount = tableFilter.getTable().getColumns().length;
+        vectors = new ColumnVector[columnCount];
+        vectorBatchIds = new int[columnCount];
+        Expression c = select.condition;
+        if (c != null && !(c instanceof ValueExpression && c.getValue(session).getBoolean())) {
+            addCondition(c);
+        }
+    }
+
+    /**
+     * olap Operator第一次运行时从oltp Operator复制状态，然后接着它的TableIterator往下读
+     */
+    static OlapBatch takeOver(QOperator oldOperator, QOperator newOperator) {
+        oldOperator.copyStatusTo(newOperator);
+        return new OlapBatch(newOperator.select, oldOperator.tableIterator);
+    }
+
+    private void addCondition(Expression c) {
+        if (c instanceof ConditionAndOr) {
+            ConditionAndOr andOr = (ConditionAndOr) c;
+            if (andOr.getAndOrType() == ConditionAndOr.AND) {
+                addCondition(andOr.getLeft());
+                addCondition(andOr.getRight());
+                return;
+            }
+        }
+        VectorCondition vc = null;
+        if (c instanceof Comparison)
+            vc = VectorCondition.create(session, tableFilter, (Comparison) c);
+        if (vc != null)
+            vectorConditions.add(vc);
+        else
+            rowConditions.add(c);
+    }
+
+    /**
+     * 读下一批记录并计算查询条件
+     *
+     * @return 已经没有记录了就返回false
+     */
+    boolean read() {
+        size = 0;
+        selectedCount = 0;
+        position = 0;
+        if (end)
+            return false;
+        batchId++;
+        while (size < batchSize) {
+            if (!tableIterator.next()) {
+                end = true;
+                break;
+            }
+            rows[size++] = tableFilter.get();
+        }
+        if (size == 0)
+            return false;
+        for (int i = 0; i < size; i++)
+            selection[i] = i;
+        selectedCount = size;
+        for (int i = 0, len = vectorConditions.size(); i < len && selectedCount > 0; i++) {
+            VectorCondition vc = vectorConditions.get(i);
+            selectedCount = vc.filter(getVector(vc.columnId), selection, selectedCount);
+        }
+        if (!rowConditions.isEmpty()) {
+            int count = 0;
+            for (int i = 0; i < selectedCount; i++) {
+                int row = selection[i];
+                tableFilter.set(rows[row]);
+                if (isTrue(rowConditions))
+                    selection[count++] = row;
+            }
+            selectedCount = count;
+        }
+        return true;
+    }
+
+    private boolean isTrue(ArrayList<Expression> conditions) {
+        for (int i = 0, len = conditions.size(); i < len; i++) {
+            if (!conditions.get(i).getBooleanValue(session))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 把满足条件的下一条记录设为TableFilter的当前记录，当前批次读完了会自动读下一批
+     *
+     * @return 已经没有记录了就返回false
+     */
+    boolean nextRow() {
+        while (position >= selectedCount) {
+            if (!read())
+                return false;
+        }
+        tableFilter.set(rows[selection[position++]]);
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getSelectedCount() {
+        return selectedCount;
+    }
+
+    // 只保留前count条满足条件的记录，用于sampleSize
+    void truncate(int count) {
+        if (count < selectedCount)
+            selectedCount = count;
+    }
+
+    int[] getSelection() {
+        return selection;
+    }
+
+    Row getRow(int index) {
+        return rows[index];
+    }
+
+    // 当前批次中某个字段的所有值，第一次用到时才从记录中取出来
+    ColumnVector getVector(int columnId) {
+        ColumnVector vector = vectors[columnId];
+        if (vector == null) {
+            Column column = tableFilter.getTable().getColumns()[columnId];
+            vector = new ColumnVector(columnId, column.getType(), batchSize);
+            vectors[columnId] = vector;
+        }
+        if (vectorBatchIds[columnId] != batchId) {
+            vector.load(rows, size);
+            vectorBatchIds[columnId] = batchId;
+        }
+        return vector;
+    }
+
+    // 返回表达式对应的字段在当前表中的位置，不是当前表的字段就返回-1
+    int getColumnId(Expression e) {
+        if (e instanceof ExpressionColumn) {
+            ExpressionColumn ec = (ExpressionColumn) e;
+            if (ec.getTableFilter() == tableFilter && ec.getColumn().getColumnId() >= 0)
+                return ec.getColumn().getColumnId();
+        }
+        return -1;
+    }
+
+    // 字段跟常量比较或者is [not] null
+    private static class VectorCondition {
+
+        private final int columnId;
+        private final int compareType;
+        private final int vectorType;
+        private final long longValue;
+        private final double doubleValue;
+
+        private VectorCondition(int columnId, int compareType, int vectorType, long longValue,
+                double doubleValue) {
+            this.columnId = columnId;
+            this.compareType = compareType;
+            this.vectorType = vectorType;
+            this.longValue = longValue;
+            this.doubleValue = doubleValue;
+        }
+
+        static VectorCondition create(ServerSession session, TableFilter tableFilter, Comparison c) {
+            Expression left = c.getLeft();
+            Expression right = c.getRight();
+            if (!(left instanceof ExpressionColumn))
+                return null;
+            ExpressionColumn ec = (ExpressionColumn) left;
+            int columnId = ec.getColumn().getColumnId();
+            if (ec.getTableFilter() != tableFilter || columnId < 0)
+                return null;
+            int compareType = c.getCompareType();
+            if (compareType == Comparison.IS_NULL || compareType == Comparison.IS_NOT_NULL) {
+                return new VectorCondition(columnId, compareType, Value.UNKNOWN, 0, 0);
+            }
+            switch (compareType) {
+            case Comparison.EQUAL:
+            case Comparison.NOT_EQUAL:
+            case Comparison.BIGGER_EQUAL:
+            case Comparison.BIGGER:
+            case Comparison.SMALLER_EQUAL:
+            case Comparison.SMALLER:
+                break;
+            default:
+                return null;
+            }
+            if (right == null || !(right.isConstant() || right instanceof Parameter))
+                return null;
+            Value r = right.getValue(session);
+            if (r == ValueNull.INSTANCE)
+                return null;
+            // 要跟Comparison.getValue一样先转成两边的高阶类型再比较，
+            // 所以只处理转换后不丢失精度的组合
+            int columnType = ColumnVector.getVectorType(ec.getType());
+            int valueType = ColumnVector.getVectorType(r.getType());
+            if (columnType == Value.LONG && valueType == Value.LONG) {
+                return new VectorCondition(columnId, compareType, Value.LONG, r.getLong(), 0);
+            }
+            if (columnType == Value.DOUBLE) {
+                int t = Value.getHigherOrder(ec.getType(), r.getType());
+                if (t == Value.DOUBLE || t == Value.FLOAT && r.getType() == Value.FLOAT) {
+                    return new VectorCondition(columnId, compareType, Value.DOUBLE, 0,
+                            r.getDouble());
+                }
+            }
+            return null;
+        }
+
+        int filter(ColumnVector vector, int[] selection, int size) {
+            boolean[] nulls = vector.getNulls();
+            int count = 0;
+            switch (vectorType) {
+            case Value.LONG: {
+                long[] longs = vector.getLongs();
+                long v = longValue;
+                for (int i = 0; i < size; i++) {
+                    int row = selection[i];
+                    if (!nulls[row] && isTrue(Long.compare(longs[row], v)))
+                        selection[count++] = row;
+                }
+                break;
+            }
+            case Value.DOUBLE: {
+                double[] doubles = vector.getDoubles();
+                double v = doubleValue;
+                for (int i = 0; i < size; i++) {
+                    int row = selection[i];
+                    if (!nulls[row] && isTrue(Double.compare(doubles[row], v)))
+                        selection[count++] = row;
+                }
+                break;
+            }
+            default: {
+                boolean isNull = compareType == Comparison.IS_NULL;
+                for (int i = 0; i < size; i++) {
+                    int row = selection[i];
+                    if (nulls[row] == isNull)
+                        selection[count++] = row;
+                }
+            }
+            }
+            return count;
+        }
+
+        private boolean isTrue(int comp) {
+            switch (compareType) {
+            case Comparison.EQUAL:
+                return comp == 0;
+            case Comparison.NOT_EQUAL:
+                return comp != 0;
+            case Comparison.BIGGER_EQUAL:
+                return comp >= 0;
+            case Comparison.BIGGER:
+                return comp > 0;
+            case Comparison.SMALLER_EQUAL:
+                return comp <= 0;
+            default:
+                return comp < 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.query;
+
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.evaluator.AlwaysTrueEvaluator;
+import com.lealone.sql.expression.evaluator.ExpressionEvaluator;
+import com.lealone.sql.operator.Operator;
+
+// 普通查询的olap版本，按批计算查询条件，满足条件的记录再逐行加到结果中
+class OlapFlat extends QFlat {
+
+    private QOperator oldOperator;
+    private OlapBatch batch;
+
+    OlapFlat(Select select) {
+        super(select);
+    }
+
+    @Override
+    public ExpressionEvaluator createConditionEvaluator(Expression c) {
+        return new AlwaysTrueEvaluator(); // 查询条件在OlapBatch中计算
+    }
+
+    @Override
+    public void start() {
+        // 不能重置TableFilter，要接着oltp Operator读到的位置往下读
+    }
+
+    @Override
+    public void copyStatus(Operator old) {
+        // 此时oltp Operator还没有处理完当前记录，等到run时再复制它的状态
+        oldOperator = (QOperator) old;
+    }
+
+    @Override
+    public void run() {
+        if (oldOperator != null) {
+            batch = OlapBatch.takeOver(oldOperator, this);
+            oldOperator = null;
+        }
+        super.run();
+    }
+
+    @Override
+    protected boolean next() {
+        return batch.nextRow();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.query;
+
+import com.lealone.sql.operator.Operator;
+import com.lealone.sql.operator.OperatorFactoryBase;
+import com.lealone.sql.optimizer.TableFilter;
+
+/**
+ * 内置的olap OperatorFactory，扫描的行数超过olapThreshold后由YieldableSelect调用。
+ * <p>
+ * 创建的Operator接着oltp Operator的位置往下读，每次读一批记录，
+ * 先按列计算查询条件和聚合函数，不能按列计算的部分再逐行计算。
+ * 只处理单表的普通查询、聚合查询和group by查询，其他查询返回null，继续使用原来的Operator。
+ */
+public class OlapOperatorFactory extends OperatorFactoryBase {
+
+    public static final String NAME = "olap";
+
+    public OlapOperatorFactory() {
+        super(NAME);
+    }
+
+    @Override
+    public Operator createOperator(Select select) {
+        TableFilter topTableFilter = select.getTopTableFilter();
+        if (select.isForUpdate || topTableFilter.getJoin() != null
+                || topTableFilter.getNestedJoin() != null) {
+            return null;
+        }
+        if (select.isQuickAggregateQuery || select.isDistinctQuery) {
+            return null;
+        }
+        if (select.isGroupQuery) {
+            if (select.isGroupSortedQuery) {
+                return null;
+            }
+            if (select.groupIndex == null) {
+                return new OlapAggregate(select);
+            } else {
+                return new OlapGroup(select);
+            }
+        }
+        return new OlapFlat(select);
+    }
+}
@@ -5,25 +5,44 @@
  */
 package com.lealone.sql.query;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 
 import com.lealone.db.result.ResultTarget;
+import com.lealone.db.result.ResultTempFile;
+import com.lealone.db.row.Row;
 import com.lealone.db.util.ValueHashMap;
 import com.lealone.db.value.Value;
 import com.lealone.db.value.ValueArray;
+import com.lealone.db.value.ValueLong;
 import com.lealone.db.value.ValueNull;
 import com.lealone.sql.expression.Expression;
+import com.lealone.sql.optimizer.TableFilter;
 
 // 只处理group by，且group by的字段没有索引
+// 分组占用的内存超过maxAggregateMemory后，不在内存中的分组对应的记录按分组key的hash值写到多个临时文件，
+// 内存中的分组输出后再逐个处理临时文件，临时文件中的分组还是放不下就继续往下一层拆分
 public class QGroup extends QOperator {
 
-    private final ValueHashMap<HashMap<Expression, Object>> groups;
+    private static final int PARTITION_BITS = 4;
+    private static final int PARTITION_COUNT = 1 << PARTITION_BITS;
+    private static final int MAX_SPILL_LEVEL = 32 / PARTITION_BITS;
+    // 一个分组除了key之外大概占用的字节数，包括HashMap和每个聚合函数的AggregateData
+    private static final int GROUP_MEMORY = 128;
+    private static final int AGGREGATE_MEMORY = 96;
+
+    private ValueHashMap<HashMap<Expression, Object>> groups;
+    private final long maxMemory;
+    private long memory;
+    private ResultTempFile[] partitions;
+    private TableFilter[] filters;
 
     QGroup(Select select) {
         super(select);
         select.currentGroup = null;
         groups = ValueHashMap.newInstance();
+        maxMemory = session.getDatabase().getMaxAggregateMemory();
     }
 
     public ValueHashMap<HashMap<Expression, Object>> getGroups() {
@@ -40,9 +59,14 @@ public class QGroup extends QOperator {
                 }
                 rowCount++;
                 Value key = getKey(select);
-                select.currentGroup = getOrCreateGroup(groups, key);
-                select.currentGroupRowId++;
-                updateAggregate(select, columnCount);
+                HashMap<Expression, Object> group = groups.get(key);
+                if (group == null && (partitions != null || memory > maxMemory)) {
+                    if (partitions == null)
+                        partitions = new ResultTempFile[PARTITION_COUNT];
+                    spill(partitions, key, 0);
+                } else {
+                    updateGroup(groups, group, key);
+                }
                 if (sampleSize > 0 && rowCount >= sampleSize) {
                     break;
                 }
@@ -52,9 +76,141 @@ public class QGroup extends QOperator {
         }
         // 把分组后的记录放到result中
         addGroupRows(groups, select, columnCount, result);
+        groups = ValueHashMap.newInstance();
+        memory = 0;
+        if (partitions != null) {
+            ResultTempFile[] a = partitions;
+            partitions = null;
+            addPartitionRows(a, 1);
+        }
         loopEnd = true;
     }
 
+    @Override
+    public void copyStatusTo(QOperator o) {
+        super.copyStatusTo(o);
+        if (o instanceof QGroup) {
+            QGroup g = (QGroup) o;
+            g.groups = groups;
+            g.memory = memory;
+            g.partitions = partitions;
+            g.filters = filters;
+        }
+    }
+
+    private void updateGroup(ValueHashMap<HashMap<Expression, Object>> groups,
+            HashMap<Expression, Object> group, Value key) {
+        boolean isNew = group == null;
+        if (isNew) {
+            group = new HashMap<>();
+            groups.put(key, group);
+        }
+        select.currentGroup = group;
+        select.currentGroupRowId++;
+        updateAggregate(select, columnCount);
+        if (isNew)
+            memory += key.getMemory() + GROUP_MEMORY + group.size() * AGGREGATE_MEMORY;
+    }
+
+    // 把当前记录写到key所在的临时文件，join时每个表的记录都要写
+    private void spill(ResultTempFile[] partitions, Value key, int level) {
+        if (filters == null) {
+            ArrayList<TableFilter> list = new ArrayList<>();
+            topTableFilter.visit(f -> list.add(f));
+            filters = list.toArray(new TableFilter[0]);
+        }
+        int h = key.hashCode() * 0x9E3779B9;
+        int index = (h >>> (32 - PARTITION_BITS * (level + 1))) & (PARTITION_COUNT - 1);
+        ResultTempFile file = partitions[index];
+        if (file == null) {
+            int count = 0;
+            for (TableFilter f : filters)
+                count += 1 + f.getTable().getColumns().length;
+            file = new ResultTempFile(session.getDatabase(), count);
+            partitions[index] = file;
+        }
+        ArrayList<Value> values = new ArrayList<>();
+        for (TableFilter f : filters) {
+            Row row = f.get();
+            int columnCount = f.getTable().getColumns().length;
+            // outer join中没有匹配的记录用null表示
+            if (row == null || row == f.getTable().getNullRow()) {
+                values.add(ValueNull.INSTANCE);
+                for (int i = 0; i < columnCount; i++)
+                    values.add(ValueNull.INSTANCE);
+            } else {
+                values.add(ValueLong.get(row.getKey()));
+                for (int i = 0; i < columnCount; i++) {
+                    Value v = row.getValue(i);
+                    values.add(v == null ? ValueNull.INSTANCE : v);
+                }
+            }
+        }
+        file.addRow(values.toArray(new Value[0]));
+    }
+
+    // 从临时文件中读出记录恢复各个表的当前记录，然后重新分组
+    private void restore(Value[] values) {
+        int pos = 0;
+        for (TableFilter f : filters) {
+            Value key = values[pos++];
+            int columnCount = f.getTable().getColumns().length;
+            if (key == ValueNull.INSTANCE) {
+                f.set(f.getTable().getNullRow());
+            } else {
+                Value[] data = new Value[columnCount];
+                System.arraycopy(values, pos, data, 0, columnCount);
+                f.set(new Row(key.getLong(), data));
+            }
+            pos += columnCount;
+        }
+    }
+
+    private void addPartitionRows(ResultTempFile[] partitions, int level) {
+        try {
+            for (int i = 0; i < partitions.length; i++) {
+                ResultTempFile file = partitions[i];
+                if (file == null)
+                    continue;
+                partitions[i] = null;
+                file.done();
+                ValueHashMap<HashMap<Expression, Object>> groups = ValueHashMap.newInstance();
+                ResultTempFile[] subPartitions = null;
+                memory = 0;
+                try {
+                    ResultTempFile.Reader reader = file.createReader();
+                    int count = 0;
+                    for (Value[] values = reader.next(); values != null; values = reader.next()) {
+                        if ((++count & 4095) == 0)
+                            session.checkCanceled();
+                        restore(values);
+                        Value key = getKey(select);
+                        HashMap<Expression, Object> group = groups.get(key);
+                        if (group == null && level < MAX_SPILL_LEVEL
+                                && (subPartitions != null || memory > maxMemory)) {
+                            if (subPartitions == null)
+                                subPartitions = new ResultTempFile[PARTITION_COUNT];
+                            spill(subPartitions, key, level);
+                        } else {
+                            updateGroup(groups, group, key);
+                        }
+                    }
+                } finally {
+                    file.close();
+                }
+                addGroupRows(groups, select, columnCount, result);
+                groups = null;
+                if (subPartitions != null)
+                    addPartitionRows(subPartitions, level + 1);
+            }
+        } finally {
+            for (ResultTempFile file : partitions) {
+                if (file != null)
+                    file.close();
+            }
+        }
+    }
+
     public static Value getKey(Select select) {
         // 避免在ExpressionColumn.getValue中取到旧值
         // 例如SELECT id/3 AS A, COUNT(*) FROM mytable GROUP BY A HAVING A>=0
@@ -15,6 +15,7 @@ import com.lealone.sql.expression.ValueExpression;
 import com.lealone.sql.expression.evaluator.AlwaysTrueEvaluator;
 import com.lealone.sql.expression.evaluator.ExpressionEvaluator;
 import com.lealone.sql.expression.evaluator.ExpressionInterpreter;
+import com.lealone.sql.expression.evaluator.ExpressionJit;
 import com.lealone.sql.operator.Operator;
 import com.lealone.sql.optimizer.TableFilter;
 import com.lealone.sql.optimizer.TableIterator;
@@ -26,6 +27,7 @@ public abstract class QOperator implements Operator {
     protected final TableFilter topTableFilter;
     protected final ServerSession session;
     protected final ExpressionEvaluator conditionEvaluator;
+    protected final ExpressionJit expressionJit; // 为null时解释执行
     protected final TableIterator tableIterator;
 
     protected boolean hasNext;
@@ -49,6 +51,7 @@ public abstract class QOperator implements Operator {
         topTableFilter = select.getTopTableFilter();
         session = select.getSession();
         tableIterator = new TableIterator(session, select.getTopTableFilter());
+        expressionJit = select.getExpressionJit();
         Expression c = select.condition;
         // 没有查询条件或者查询条件是常量时看看是否能演算为true,false在IndexCursor.isAlwaysFalse()中已经处理了
         if (c == null || (c instanceof ValueExpression && c.getValue(session).getBoolean())) {
@@ -60,6 +63,11 @@ public abstract class QOperator implements Operator {
 
     // 允许子类覆盖
     public ExpressionEvaluator createConditionEvaluator(Expression c) {
+        if (expressionJit != null && select.jitConditionIndex >= 0) {
+            ExpressionJit jit = expressionJit;
+            int index = select.jitConditionIndex;
+            return () -> jit.getBooleanValue(index, c);
+        }
         return new ExpressionInterpreter(session, c);
     }
 
@@ -105,6 +113,11 @@ public abstract class QOperator implements Operator {
                 limitRows = Long.MAX_VALUE;
             }
         }
+        // 需要排序时只保留前limitRows行
+        if (localResult != null && select.sort != null && !select.sortUsingIndex && !select.distinct
+                && limitRows > 0 && limitRows <= Integer.MAX_VALUE) {
+            localResult.setTopN((int) limitRows);
+        }
         rowCount = 0;
         select.setCurrentRowNumber(0);
         sampleSize = select.getSampleSizeValue(session);
@@ -117,6 +130,7 @@ public abstract class QOperator implements Operator {
 
     @Override
     public void stop() {
+        tableIterator.stop();
         if (select.offsetExpr != null) {
             localResult.setOffset(select.offsetExpr.getValue(session).getInt());
         }
@@ -150,9 +164,13 @@ public abstract class QOperator implements Operator {
 
     public Value[] createRow() {
         Value[] row = new Value[columnCount];
+        int[] indexes = expressionJit != null ? select.jitExpressionIndexes : null;
         for (int i = 0; i < columnCount; i++) {
             Expression expr = select.expressions.get(i);
-            row[i] = expr.getValue(session);
+            if (indexes != null && indexes[i] >= 0)
+                row[i] = expressionJit.getValue(indexes[i], expr);
+            else
+                row[i] = expr.getValue(session);
         }
         return row;
     }
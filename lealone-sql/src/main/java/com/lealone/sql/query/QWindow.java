@@ -0,0 +1,139 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.lealone.db.result.LocalResult;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.expression.Expression;
+
+// 带窗口函数的查询，按分区计算窗口函数的值
+class QWindow extends QOperator {
+
+    private final WindowPlan plan;
+    private ArrayList<Value[]> partition; // 流式计算时的当前分区
+    private LocalResult sortResult; // 需要排序时先保存所有的行
+    private int inputRowCount;
+
+    QWindow(Select select) {
+        super(select);
+        plan = select.windowPlan;
+    }
+
+    @Override
+    public void start() {
+        yieldableSelect.disableOlap(); // 窗口函数不支持olap
+        super.start();
+        if (plan.streaming)
+            partition = new ArrayList<>();
+        else
+            sortResult = plan.createSortResult(session, 0);
+    }
+
+    @Override
+    public void run() {
+        while (next()) {
+            boolean yield = yieldIfNeeded(++loopCount);
+            if (conditionEvaluator.getBooleanValue()) {
+                if (select.isForUpdate && !tryLockRow()) {
+                    return; // 锁记录失败
+                }
+                Value[] row = createWindowRow();
+                if (partition != null) {
+                    // 分区字段变了说明上一个分区的行都已经读完了
+                    if (!partition.isEmpty()
+                            && plan.partitionOrders[0].compare(partition.get(0), row) != 0) {
+                        computePartition(partition, 0, null);
+                        partition = new ArrayList<>();
+                    }
+                    partition.add(row);
+                } else {
+                    sortResult.addRow(row);
+                }
+                // 不能提前按limit退出循环，只能按采样数退出
+                if (sampleSize > 0 && ++inputRowCount >= sampleSize) {
+                    break;
+                }
+            }
+            if (yield)
+                return;
+        }
+        if (partition != null) {
+            if (!partition.isEmpty())
+                computePartition(partition, 0, null);
+            partition = null;
+        } else {
+            computeSorted();
+        }
+        loopEnd = true;
+    }
+
+    @Override
+    public void stop() {
+        if (sortResult != null) {
+            sortResult.close();
+            sortResult = null;
+        }
+        super.stop();
+    }
+
+    // 窗口函数的值先用NULL占位，排序结果写到临时文件时不能有null
+    private Value[] createWindowRow() {
+        Expression[] list = plan.rowExpressions;
+        int len = list.length;
+        Value[] row = new Value[len];
+        int[] indexes = expressionJit != null ? select.jitExpressionIndexes : null;
+        for (int i = 0; i < len; i++) {
+            if (i < columnCount && plan.windowColumns[i])
+                row[i] = ValueNull.INSTANCE;
+            else if (indexes != null && i < indexes.length && indexes[i] >= 0)
+                row[i] = expressionJit.getValue(indexes[i], list[i]);
+            else
+                row[i] = list[i].getValue(session);
+        }
+        return row;
+    }
+
+    // 依次按每个OVER子句排序，算完一个OVER子句的窗口函数再按下一个排序
+    private void computeSorted() {
+        LocalResult r = sortResult;
+        for (int w = 0, count = plan.windows.length; w < count; w++) {
+            r.done();
+            LocalResult next = w + 1 < count ? plan.createSortResult(session, w + 1) : null;
+            ArrayList<Value[]> rows = new ArrayList<>();
+            while (r.next()) {
+                Value[] row = r.currentRow();
+                if (!rows.isEmpty() && plan.partitionOrders[w].compare(rows.get(0), row) != 0) {
+                    computePartition(rows, w, next);
+                    rows = new ArrayList<>();
+                }
+                rows.add(row);
+            }
+            if (!rows.isEmpty())
+                computePartition(rows, w, next);
+            r.close();
+            r = next;
+            sortResult = next;
+        }
+    }
+
+    private void computePartition(ArrayList<Value[]> rows, int windowId, LocalResult next) {
+        plan.compute(session, rows, windowId);
+        for (Value[] row : rows) {
+            if (next != null) {
+                next.addRow(row);
+            } else {
+                if (row.length > columnCount)
+                    row = Arrays.copyOf(row, columnCount);
+                result.addRow(row);
+                rowCount++;
+            }
+        }
+    }
+}
@@ -195,6 +195,15 @@ public abstract class Query extends ManipulationStatement implements com.lealone
      */
     public abstract void addGlobalCondition(Parameter param, int columnId, int comparisonType);
 
+    /**
+     * Add a condition "column IN (params)" to the query.
+     * 物化视图增量刷新时用，一次查询所有待刷新的key。
+     *
+     * @param params the parameters
+     * @param columnId the column index (0 meaning the first column)
+     */
+    public abstract void addGlobalInCondition(ArrayList<Parameter> params, int columnId);
+
     public abstract <R> R accept(ExpressionVisitor<R> visitor);
 
     /**
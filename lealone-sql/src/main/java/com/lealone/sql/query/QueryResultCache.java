@@ -5,11 +5,14 @@
  */
 package com.lealone.sql.query;
 
+import java.sql.Connection;
 import java.util.ArrayList;
 
 import com.lealone.db.Database;
 import com.lealone.db.result.LocalResult;
+import com.lealone.db.session.ResultCache;
 import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.DataType;
 import com.lealone.db.value.Value;
 import com.lealone.sql.expression.Parameter;
 import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
@@ -17,7 +20,7 @@ import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
 class QueryResultCache {
 
     private final Select select;
-    private final ServerSession session;
+    private ServerSession session;
 
     private boolean noCache;
     private int lastLimit;
@@ -26,11 +29,24 @@ class QueryResultCache {
     private LocalResult lastResult;
     private boolean cacheableChecked;
 
+    // 数据库级别的结果缓存
+    private int shareable; // 0: 还没检查，1: 结果可以给其他session用，-1: 不可以
+    private String planSQL;
+    private String sharedKey; // 没有命中时记下key，查询结束后把结果放到数据库级别的结果缓存中
+    private long sharedDataModificationId;
+
     QueryResultCache(Select select) {
         this.select = select;
         session = select.getSession();
     }
 
+    void setSession(ServerSession session) {
+        this.session = session;
+        lastResult = null;
+        lastParameters = null;
+        sharedKey = null;
+    }
+
     void disable() {
         noCache = true;
     }
@@ -43,10 +59,15 @@ class QueryResultCache {
     void setResult(LocalResult r) {
         if (isNotCachable())
             return;
-        if (!isDeterministic())
+        if (!isDeterministic()) {
             disable();
-        else
+        } else {
             lastResult = r;
+            if (sharedKey != null) {
+                session.getDatabase().getResultCache().put(sharedKey, r, sharedDataModificationId);
+                sharedKey = null;
+            }
+        }
     }
 
     LocalResult getResult(int limit) {
@@ -73,8 +94,62 @@ class QueryResultCache {
                 lastResult.close();
                 lastResult = null;
             }
+            return getSharedResult(limit, params);
+        }
+    }
+
+    private LocalResult getSharedResult(int limit, Value[] params) {
+        sharedKey = null;
+        ResultCache cache = session.getDatabase().getResultCache();
+        if (!cache.isEnabled() || !isShareable())
+            return null;
+        // 查询开始前取，查询过程中表被修改了，放到缓存中的结果下次也不会被使用
+        long id = select.getMaxDataModificationId();
+        if (id == Long.MAX_VALUE)
+            return null;
+        String key = getSharedKey(limit, params);
+        if (key == null)
             return null;
+        LocalResult r = cache.get(session, key, id);
+        if (r == null) {
+            sharedKey = key;
+            sharedDataModificationId = id;
+        } else {
+            lastResult = r;
+        }
+        return r;
+    }
+
+    private boolean isShareable() {
+        if (shareable == 0) {
+            shareable = select.isShareable() && isDeterministic()
+                    && select.accept(ExpressionVisitorFactory.getIndependentVisitor()) ? 1 : -1;
+        }
+        if (shareable < 0)
+            return false;
+        // 当前事务修改过表时能读到自己还没提交的数据，读未提交时能读到其他事务还没提交的数据，
+        // 可重复读和串行化在手动提交的事务中读到的是事务开始时的数据，这些结果都不能跟其他session共用
+        if (session.containsModifiedTables())
+            return false;
+        int level = session.getTransactionIsolationLevel();
+        return level == Connection.TRANSACTION_READ_COMMITTED
+                || level > Connection.TRANSACTION_READ_COMMITTED && session.isAutoCommit();
+    }
+
+    // 执行计划SQL中的表名都带有schema，不同用户和当前schema下相同的key对应的是相同的表
+    private String getSharedKey(int limit, Value[] params) {
+        if (planSQL == null)
+            planSQL = select.getPlanSQL();
+        StringBuilder buff = new StringBuilder(planSQL);
+        buff.append('\n').append(limit);
+        if (params != null) {
+            for (Value v : params) {
+                if (DataType.isLargeObject(v.getType()))
+                    return null;
+                buff.append('\n').append(v.getType()).append(':').append(v.getSQL());
+            }
         }
+        return buff.toString();
     }
 
     private boolean isDeterministic() {
@@ -17,6 +17,7 @@ import com.lealone.common.util.StringUtils;
 import com.lealone.common.util.Utils;
 import com.lealone.db.Constants;
 import com.lealone.db.Database;
+import com.lealone.db.DbObject;
 import com.lealone.db.SysProperties;
 import com.lealone.db.api.ErrorCode;
 import com.lealone.db.api.Trigger;
@@ -42,8 +43,12 @@ import com.lealone.sql.expression.ExpressionColumn;
 import com.lealone.sql.expression.Parameter;
 import com.lealone.sql.expression.RowVersion;
 import com.lealone.sql.expression.SelectOrderBy;
+import com.lealone.sql.expression.ValueExpression;
 import com.lealone.sql.expression.condition.Comparison;
 import com.lealone.sql.expression.condition.ConditionAndOr;
+import com.lealone.sql.expression.condition.ConditionIn;
+import com.lealone.sql.expression.evaluator.ExpressionCompiler;
+import com.lealone.sql.expression.evaluator.ExpressionJit;
 import com.lealone.sql.expression.visitor.ExpressionVisitor;
 import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
 import com.lealone.sql.optimizer.ColumnResolver;
@@ -86,10 +91,17 @@ public class Select extends Query {
     boolean isQuickAggregateQuery;
     boolean isDistinctQuery;
     boolean sortUsingIndex;
+    boolean isWindowQuery;
+    WindowPlan windowPlan;
     private double cost;
 
     final QueryResultCache resultCache = new QueryResultCache(this);
 
+    // 编译后的查询条件和select字段，跟Select一起缓存
+    private ExpressionJit expressionJit;
+    int jitConditionIndex = -1;
+    int[] jitExpressionIndexes; // 为null时不编译select字段
+
     public Select(ServerSession session) {
         super(session);
         SystemOutline.createNode(SystemOutlineNode.Select);
@@ -105,6 +117,28 @@ public class Select extends Query {
         return !isForUpdate;
     }
 
+    @Override
+    public boolean isShareable() {
+        if (!isCacheable() || prepareAlways)
+            return false;
+        HashSet<DbObject> dependencies = new HashSet<>();
+        for (TableFilter f : filters)
+            dependencies.add(f.getTable());
+        accept(ExpressionVisitorFactory.getDependenciesVisitor(dependencies));
+        return isShareable(dependencies);
+    }
+
+    @Override
+    public void setSession(ServerSession currentSession) {
+        if (session != currentSession) {
+            // 缓存的结果跟事务相关，不能给其他session用
+            resultCache.setSession(currentSession);
+            if (expressionJit != null)
+                expressionJit.setSession(currentSession);
+        }
+        super.setSession(currentSession);
+    }
+
     public void setExpressions(ArrayList<Expression> expressions) {
         this.expressions = expressions;
     }
@@ -124,6 +158,17 @@ public class Select extends Query {
         return isGroupQuery;
     }
 
+    /**
+     * Called if this query contains window functions.
+     */
+    public void setWindowQuery() {
+        isWindowQuery = true;
+    }
+
+    public boolean isWindowQuery() {
+        return isWindowQuery;
+    }
+
     public boolean isGroupSortedQuery() {
         return isGroupSortedQuery;
     }
@@ -144,6 +189,38 @@ public class Select extends Query {
         return having;
     }
 
+    // EXPRESSION_COMPILE_THRESHOLD大于0时才编译表达式，分组查询只编译查询条件
+    ExpressionJit getExpressionJit() {
+        int threshold = session.getExpressionCompileThreshold();
+        if (threshold <= 0)
+            return null;
+        if (expressionJit == null) {
+            ExpressionJit jit = new ExpressionJit(session, new ExpressionCompiler(session, this),
+                    threshold);
+            if (condition != null)
+                jitConditionIndex = jit.add(condition);
+            if (!isGroupQuery) {
+                int size = expressions.size();
+                int[] indexes = new int[size];
+                boolean compiled = false;
+                for (int i = 0; i < size; i++) {
+                    Expression e = expressions.get(i);
+                    if (e instanceof ExpressionColumn || e instanceof ValueExpression
+                            || e instanceof Parameter) {
+                        indexes[i] = -1; // 直接取值更快
+                    } else {
+                        indexes[i] = jit.add(e);
+                        compiled |= indexes[i] >= 0;
+                    }
+                }
+                if (compiled)
+                    jitExpressionIndexes = indexes;
+            }
+            expressionJit = jit;
+        }
+        return expressionJit;
+    }
+
     public HashMap<Expression, Object> getCurrentGroup() {
         return currentGroup;
     }
@@ -419,7 +496,7 @@ public class Select extends Query {
         // 以下3个if为特殊的distinct、sort、group by选择更合适的索引
         // 1. distinct
         if (distinct && session.getDatabase().getSettings().optimizeDistinct && !isGroupQuery
-                && filters.size() == 1 && condition == null) {
+                && !isWindowQuery && filters.size() == 1 && condition == null) {
             optimizeDistinct();
         }
         // 2. sort
@@ -437,6 +514,10 @@ public class Select extends Query {
                 }
             }
         }
+        // 4. 窗口函数
+        if (isWindowQuery) {
+            windowPlan = WindowPlan.create(this);
+        }
         expressionArray = new Expression[expressions.size()];
         expressions.toArray(expressionArray);
         isPrepared = true;
@@ -558,7 +639,7 @@ public class Select extends Query {
         for (TableFilter t : topArray) {
             t.setFullCondition(condition);
         }
-        Optimizer optimizer = new Optimizer(topArray, session);
+        Optimizer optimizer = new Optimizer(topArray, condition, session);
         topTableFilter = optimizer.optimize();
         setEvaluatableRecursive(topTableFilter);
         topTableFilter.prepare();
@@ -637,6 +718,9 @@ public class Select extends Query {
                 if (index.getIndexType().isHash()) {
                     continue;
                 }
+                if (!canUsePartialIndex(index)) {
+                    continue;
+                }
                 IndexColumn[] indexCols = index.getIndexColumns();
                 if (indexCols.length < sortCols.length) {
                     continue;
@@ -685,6 +769,9 @@ public class Select extends Query {
                     // does not allow scanning entries
                     continue;
                 }
+                if (!canUsePartialIndex(index)) {
+                    continue;
+                }
                 if (isGroupSortedIndex(topTableFilter, index)) {
                     return index;
                 }
@@ -693,6 +780,11 @@ public class Select extends Query {
         return null;
     }
 
+    // 部分索引只有在查询条件蕴含索引条件时才能用来排序
+    private boolean canUsePartialIndex(Index index) {
+        return index.getPredicate() == null || index == topTableFilter.getIndex();
+    }
+
     private boolean isGroupSortedIndex(TableFilter tableFilter, Index index) {
         // check that all the GROUP BY expressions are part of the index
         Column[] indexColumns = index.getColumns();
@@ -913,6 +1005,9 @@ public class Select extends Query {
         if (sortUsingIndex) {
             buff.append("\n/* index sorted */");
         }
+        if (windowPlan != null && windowPlan.streaming) {
+            buff.append("\n/* window sorted */");
+        }
         if (isGroupQuery) {
             if (isGroupSortedQuery) {
                 buff.append("\n/* group sorted */");
@@ -983,6 +1078,24 @@ public class Select extends Query {
             // add the parameter, so it can be set later
             comp = new Comparison(session, Comparison.EQUAL_NULL_SAFE, param, param);
         }
+        addGlobalCondition(comp, columnId);
+    }
+
+    @Override
+    public void addGlobalInCondition(ArrayList<Parameter> params, int columnId) {
+        for (Parameter param : params) {
+            addParameter(param);
+        }
+        Expression col = expressions.get(columnId);
+        col = col.getNonAliasExpression();
+        // 不能比较时不加条件，参数已经加上了，后面照样可以设置
+        if (col.accept(ExpressionVisitorFactory.getQueryComparableVisitor())) {
+            addGlobalCondition(new ConditionIn(session.getDatabase(), col,
+                    new ArrayList<Expression>(params)), columnId);
+        }
+    }
+
+    private void addGlobalCondition(Expression comp, int columnId) {
         comp = comp.optimize(session);
         boolean addToCondition = true;
         if (isGroupQuery) {
@@ -1058,10 +1171,18 @@ public class Select extends Query {
     }
 
     public HashSet<Column> getReferencedColumns() {
-        int len = expressionArray.length;
-        HashSet<Column> columnSet = new HashSet<>(len);
-        for (int i = 0; i < len; i++) {
-            expressionArray[i].getColumns(columnSet);
+        HashSet<Column> columnSet;
+        if (expressionArray == null) { // 选择索引时expressionArray还没有生成
+            columnSet = new HashSet<>(expressions.size());
+            for (Expression e : expressions) {
+                e.getColumns(columnSet);
+            }
+        } else {
+            int len = expressionArray.length;
+            columnSet = new HashSet<>(len);
+            for (int i = 0; i < len; i++) {
+                expressionArray[i].getColumns(columnSet);
+            }
         }
         if (condition != null)
             condition.getColumns(columnSet);
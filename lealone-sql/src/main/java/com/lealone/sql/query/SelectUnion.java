@@ -271,6 +271,28 @@ public class SelectUnion extends Query implements ISelectUnion {
         }
     }
 
+    @Override
+    public void addGlobalInCondition(ArrayList<Parameter> params, int columnId) {
+        for (Parameter param : params) {
+            addParameter(param);
+        }
+        switch (unionType) {
+        case UNION_ALL:
+        case UNION:
+        case INTERSECT: {
+            left.addGlobalInCondition(params, columnId);
+            right.addGlobalInCondition(params, columnId);
+            break;
+        }
+        case EXCEPT: {
+            left.addGlobalInCondition(params, columnId);
+            break;
+        }
+        default:
+            DbException.throwInternalError("type=" + unionType);
+        }
+    }
+
     @Override
     public int getPriority() {
         return Math.min(left.getPriority(), right.getPriority());
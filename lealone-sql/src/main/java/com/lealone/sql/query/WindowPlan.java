@@ -0,0 +1,325 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.query;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.db.Database;
+import com.lealone.db.index.Index;
+import com.lealone.db.index.IndexColumn;
+import com.lealone.db.result.LocalResult;
+import com.lealone.db.result.SortOrder;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Column;
+import com.lealone.db.value.Value;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.ExpressionColumn;
+import com.lealone.sql.expression.SelectOrderBy;
+import com.lealone.sql.expression.visitor.VoidExpressionVisitor;
+import com.lealone.sql.expression.window.Window;
+import com.lealone.sql.expression.window.WindowFunction;
+import com.lealone.sql.optimizer.TableFilter;
+
+/**
+ * 窗口函数的执行计划，在Select.prepare时生成，由QWindow使用。
+ * <p>
+ * 每一行除了select字段外，还要保存每个OVER子句的分区字段和排序字段的值，以及窗口函数参数的值。
+ * OVER子句相同的窗口函数一起计算，每个不同的OVER子句都要按它的分区字段和排序字段排一次序。
+ * 只有一个OVER子句并且扫描用的索引已经按分区字段和排序字段排好序时不需要排序，按分区流式计算。
+ *
+ * @author zhh
+ */
+class WindowPlan {
+
+    final int columnCount; // select字段的个数
+    final Expression[] rowExpressions; // 每一行要计算的所有表达式，前面columnCount个是select字段
+    final boolean[] windowColumns; // select字段是否是窗口函数
+
+    final WindowFunction[] functions;
+    final int[] resultIndexes; // 窗口函数在select字段中的位置
+    final int[] inputIndexes; // 窗口函数的参数值在行中的开始位置
+    final int[] windowIds; // 窗口函数对应的OVER子句
+
+    final Window[] windows;
+    final SortOrder[] partitionOrders; // 只比较分区字段
+    final SortOrder[] peerOrders; // 只比较排序字段
+    final SortOrder[] sortOrders; // 先按分区字段再按排序字段排序
+
+    boolean streaming; // 是否按索引的顺序流式计算
+
+    private WindowPlan(Select select, ArrayList<Integer> indexes) {
+        ArrayList<Expression> expressions = select.expressions;
+        columnCount = expressions.size();
+        ArrayList<Expression> rowList = new ArrayList<>(expressions);
+        windowColumns = new boolean[columnCount];
+
+        int size = indexes.size();
+        functions = new WindowFunction[size];
+        resultIndexes = new int[size];
+        inputIndexes = new int[size];
+        windowIds = new int[size];
+
+        LinkedHashMap<String, Integer> windowMap = new LinkedHashMap<>();
+        ArrayList<Window> windowList = new ArrayList<>();
+        ArrayList<int[]> keyIndexes = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int index = indexes.get(i);
+            WindowFunction f = (WindowFunction) expressions.get(index).getNonAliasExpression();
+            functions[i] = f;
+            resultIndexes[i] = index;
+            windowColumns[index] = true;
+
+            // OVER子句相同的窗口函数共用分区字段和排序字段
+            Window w = f.getWindow();
+            Integer id = windowMap.get(w.getSQL());
+            if (id == null) {
+                id = windowList.size();
+                windowMap.put(w.getSQL(), id);
+                windowList.add(w);
+                int[] keys = new int[w.getPartitionCount() + w.getOrderCount()];
+                int k = 0;
+                for (int j = 0, count = w.getPartitionCount(); j < count; j++) {
+                    keys[k++] = rowList.size();
+                    rowList.add(w.getPartitionBy().get(j));
+                }
+                for (int j = 0, count = w.getOrderCount(); j < count; j++) {
+                    keys[k++] = rowList.size();
+                    rowList.add(w.getOrderBy().get(j).expression);
+                }
+                keyIndexes.add(keys);
+            }
+            windowIds[i] = id;
+            inputIndexes[i] = rowList.size();
+            for (Expression e : f.getInputExpressions()) {
+                rowList.add(e);
+            }
+        }
+        rowExpressions = rowList.toArray(new Expression[rowList.size()]);
+
+        int windowCount = windowList.size();
+        windows = windowList.toArray(new Window[windowCount]);
+        partitionOrders = new SortOrder[windowCount];
+        peerOrders = new SortOrder[windowCount];
+        sortOrders = new SortOrder[windowCount];
+        Database db = select.getSession().getDatabase();
+        for (int i = 0; i < windowCount; i++) {
+            Window w = windows[i];
+            int[] keys = keyIndexes.get(i);
+            int partitionCount = w.getPartitionCount();
+            int[] orderTypes = w.getSortTypes();
+            int[] sortTypes = new int[keys.length];
+            System.arraycopy(orderTypes, 0, sortTypes, partitionCount, orderTypes.length);
+            partitionOrders[i] = new SortOrder(db, copyOf(keys, 0, partitionCount),
+                    new int[partitionCount], null);
+            peerOrders[i] = new SortOrder(db, copyOf(keys, partitionCount, keys.length), orderTypes,
+                    null);
+            sortOrders[i] = new SortOrder(db, keys, sortTypes, null);
+        }
+    }
+
+    private static int[] copyOf(int[] a, int from, int to) {
+        int[] b = new int[to - from];
+        System.arraycopy(a, from, b, 0, b.length);
+        return b;
+    }
+
+    /**
+     * 创建按第windowId个OVER子句排序的结果集，行数太多时会用外部排序。
+     */
+    LocalResult createSortResult(ServerSession session, int windowId) {
+        LocalResult result = new LocalResult(session, rowExpressions, rowExpressions.length);
+        result.setSortOrder(sortOrders[windowId]);
+        return result;
+    }
+
+    /**
+     * 计算一个分区中属于第windowId个OVER子句的所有窗口函数的值。
+     */
+    void compute(ServerSession session, ArrayList<Value[]> rows, int windowId) {
+        int size = rows.size();
+        int[] peerStart = new int[size];
+        int[] peerEnd = new int[size];
+        SortOrder peerOrder = peerOrders[windowId];
+        for (int i = 0; i < size;) {
+            int j = i + 1;
+            while (j < size && peerOrder.compare(rows.get(i), rows.get(j)) == 0) {
+                j++;
+            }
+            for (int k = i; k < j; k++) {
+                peerStart[k] = i;
+                peerEnd[k] = j - 1;
+            }
+            i = j;
+        }
+        for (int i = 0; i < functions.length; i++) {
+            if (windowIds[i] == windowId) {
+                functions[i].compute(session, rows, resultIndexes[i], inputIndexes[i], peerStart,
+                        peerEnd);
+            }
+        }
+    }
+
+    /**
+     * 检查窗口函数的使用是否合法并生成执行计划，没有窗口函数时返回null。
+     */
+    static WindowPlan create(Select select) {
+        if (select.isGroupQuery) {
+            throw DbException.getUnsupportedException("window function in aggregate query");
+        }
+        if (containsWindowFunction(select.condition)) {
+            throw DbException.getUnsupportedException("window function in WHERE");
+        }
+        ArrayList<Expression> expressions = select.expressions;
+        ArrayList<Integer> indexes = new ArrayList<>();
+        for (int i = 0, size = expressions.size(); i < size; i++) {
+            Expression e = expressions.get(i).getNonAliasExpression();
+            if (e instanceof WindowFunction) {
+                WindowFunction f = (WindowFunction) e;
+                for (Expression arg : f.getArgs()) {
+                    checkNotNested(arg);
+                }
+                Window w = f.getWindow();
+                for (int j = 0; j < w.getPartitionCount(); j++) {
+                    checkNotNested(w.getPartitionBy().get(j));
+                }
+                for (int j = 0; j < w.getOrderCount(); j++) {
+                    checkNotNested(w.getOrderBy().get(j).expression);
+                }
+                indexes.add(i);
+            } else {
+                checkNotNested(e);
+            }
+        }
+        if (indexes.isEmpty()) {
+            return null;
+        }
+        WindowPlan plan = new WindowPlan(select, indexes);
+        plan.streaming = plan.canStream(select);
+        // 需要排序时输出的行不再是索引的顺序
+        if (!plan.streaming) {
+            select.sortUsingIndex = false;
+        }
+        return plan;
+    }
+
+    private static void checkNotNested(Expression e) {
+        if (containsWindowFunction(e)) {
+            throw DbException.getUnsupportedException("nested window function " + e.getSQL());
+        }
+    }
+
+    private static boolean containsWindowFunction(Expression e) {
+        if (e == null) {
+            return false;
+        }
+        WindowFunctionFinder finder = new WindowFunctionFinder();
+        e.accept(finder);
+        return finder.found;
+    }
+
+    // 子查询中的窗口函数属于子查询，不用管
+    private static class WindowFunctionFinder extends VoidExpressionVisitor {
+
+        private boolean found;
+
+        @Override
+        public Void visitWindowFunction(WindowFunction e) {
+            found = true;
+            return null;
+        }
+
+        @Override
+        protected Void visitQuery(Query query) {
+            return null;
+        }
+    }
+
+    // 只有一个OVER子句时，如果当前索引的顺序刚好是分区字段加排序字段，就不需要排序了，
+    // 当前用的是扫描索引时，像Select.optimizeSort那样找一个合适的索引
+    private boolean canStream(Select select) {
+        if (windows.length != 1) {
+            return false;
+        }
+        Window w = windows[0];
+        if (w.getPartitionCount() == 0 && w.getOrderCount() == 0) {
+            return true; // 整个结果集就是一个分区
+        }
+        TableFilter filter = select.getTopTableFilter();
+        if (select.getFilters().size() != 1 || filter.hasInComparisons()) {
+            return false;
+        }
+        Index current = filter.getIndex();
+        if (isSortedBy(filter, current, w)) {
+            return true;
+        }
+        if (!current.getIndexType().isScan()) {
+            return false;
+        }
+        ArrayList<Index> list = filter.getTable().getIndexes();
+        if (list != null) {
+            for (int i = 0, size = list.size(); i < size; i++) {
+                Index index = list.get(i);
+                if (index.getCreateSQL() == null || index.getPredicate() != null) {
+                    continue;
+                }
+                if (isSortedBy(filter, index, w)) {
+                    filter.setIndex(index);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // 索引的前面几个字段刚好是所有的分区字段(顺序不限)，接着是跟排序方式一样的排序字段
+    private static boolean isSortedBy(TableFilter filter, Index index, Window w) {
+        IndexColumn[] indexColumns = index.getIndexColumns();
+        if (indexColumns == null || index.getIndexType().isHash()) {
+            return false;
+        }
+        HashSet<Column> partitionColumns = new HashSet<>();
+        for (int i = 0, size = w.getPartitionCount(); i < size; i++) {
+            Column c = getColumn(filter, w.getPartitionBy().get(i));
+            if (c == null) {
+                return false;
+            }
+            partitionColumns.add(c);
+        }
+        int partitionCount = partitionColumns.size();
+        int orderCount = w.getOrderCount();
+        if (partitionCount + orderCount > indexColumns.length) {
+            return false;
+        }
+        for (int i = 0; i < partitionCount; i++) {
+            if (!partitionColumns.contains(indexColumns[i].column)) {
+                return false;
+            }
+        }
+        int[] sortTypes = w.getSortTypes();
+        for (int i = 0; i < orderCount; i++) {
+            SelectOrderBy o = w.getOrderBy().get(i);
+            IndexColumn indexColumn = indexColumns[partitionCount + i];
+            if (getColumn(filter, o.expression) != indexColumn.column
+                    || indexColumn.sortType != sortTypes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Column getColumn(TableFilter filter, Expression e) {
+        if (e instanceof ExpressionColumn) {
+            ExpressionColumn c = (ExpressionColumn) e;
+            if (c.getTableFilter() == filter) {
+                return c.getColumn();
+            }
+        }
+        return null;
+    }
+}
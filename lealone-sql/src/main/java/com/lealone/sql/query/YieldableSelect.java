@@ -66,8 +66,11 @@ public class YieldableSelect extends YieldableQueryBase {
                 olapOperatorFactoryName);
         if (operatorFactory != null) {
             olapOperator = operatorFactory.createOperator(select, queryOperator.getLocalResult());
-            olapOperator.start();
-            olapOperator.copyStatus(queryOperator);
+            // 不支持的查询返回null，继续使用原来的Operator
+            if (olapOperator != null) {
+                olapOperator.start();
+                olapOperator.copyStatus(queryOperator);
+            }
         }
         return olapOperator;
     }
@@ -147,6 +150,8 @@ public class YieldableSelect extends YieldableQueryBase {
                             queryOperator = new QGroup(select);
                         }
                     }
+                } else if (select.windowPlan != null) {
+                    queryOperator = new QWindow(select);
                 } else if (select.isDistinctQuery) {
                     queryOperator = new QDistinct(select);
                 } else {
@@ -5,8 +5,19 @@
  */
 package com.lealone.test.aose;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+
 import org.junit.Test;
 
+import com.lealone.storage.StorageSetting;
+import com.lealone.storage.aose.btree.chunk.RedoLogSegmentManager;
+
 public class BTreeStorageTest extends AoseTestBase {
     @Test
     public void run() {
@@ -54,4 +65,162 @@ public class BTreeStorageTest extends AoseTestBase {
         openMap();
         assertNull(map.get(10));
     }
+
+    @Test
+    public void testRedoLogSegment() {
+        storage = openStorage(pageSize);
+        HashMap<String, String> parameters = new HashMap<>();
+        parameters.put(StorageSetting.REDO_LOG_SEGMENT_SIZE.name(), "64k");
+        String mapName = "testRedoLogSegment";
+        map = storage.openBTreeMap(mapName, null, null, parameters);
+        map.clear();
+        assertNull(map.readRedoLog());
+
+        // 写满多个段
+        for (int i = 0; i < 200; i++)
+            map.writeRedoLog(createRedoLog(i));
+        map.sync();
+        assertRedoLog(map.readRedoLog(), 0, 200);
+        String dir = storage.getStoragePath() + File.separator + mapName;
+        assertTrue(getSegmentCount(dir) > 1);
+
+        // 刷脏页后检查点之前的redo log不需要了，段文件会被回收复用
+        map.put(1, "a");
+        map.save();
+        assertNull(map.readRedoLog());
+        map.writeRedoLog(createRedoLog(200));
+        map.sync();
+        assertRedoLog(map.readRedoLog(), 200, 201);
+        int segmentCount = getSegmentCount(dir);
+        for (int i = 201; i < 400; i++)
+            map.writeRedoLog(createRedoLog(i));
+        map.sync();
+        map.put(2, "b");
+        map.save();
+        assertTrue(getSegmentCount(dir) <= segmentCount + 1);
+
+        // 重新打开后还能读到检查点之后的redo log
+        map.writeRedoLog(createRedoLog(400));
+        map.sync();
+        map.close();
+        map = storage.openBTreeMap(mapName, null, null, parameters);
+        assertRedoLog(map.readRedoLog(), 400, 401);
+        assertEquals("a", map.get(1));
+
+        // 超过段大小的一次写入会分成多块，段文件的大小不变
+        ByteBuffer bigLog = ByteBuffer.allocate(150 * 1000);
+        for (int i = 401; i < 551; i++)
+            bigLog.put(createRedoLog(i));
+        bigLog.flip();
+        map.writeRedoLog(bigLog);
+        map.writeRedoLog(createRedoLog(551));
+        map.sync();
+        map.close();
+        map = storage.openBTreeMap(mapName, null, null, parameters);
+        assertRedoLog(map.readRedoLog(), 400, 552);
+        for (File f : getSegmentFiles(dir))
+            assertTrue(f.length() <= 64 * 1024);
+        map.remove();
+    }
+
+    @Test
+    public void testRedoLogSegmentPreallocate() {
+        storage = openStorage(pageSize);
+        HashMap<String, String> parameters = new HashMap<>();
+        parameters.put(StorageSetting.REDO_LOG_SEGMENT_SIZE.name(), "64k");
+        String mapName = "testRedoLogSegmentPreallocate";
+        map = storage.openBTreeMap(mapName, null, null, parameters);
+        map.clear();
+        String dir = storage.getStoragePath() + File.separator + mapName;
+
+        // 第一个段没有预先分配，写redo log时不会写满0
+        for (int i = 0; i < 40; i++)
+            map.writeRedoLog(createRedoLog(i));
+        map.sync();
+        // 当前段用了一半，检查点时预先分配下一个段
+        map.put(1, "a");
+        map.save();
+        for (int i = 40; i < 80; i++)
+            map.writeRedoLog(createRedoLog(i));
+        map.sync();
+        assertRedoLog(map.readRedoLog(), 40, 80);
+        File[] files = getSegmentFiles(dir);
+        assertEquals(2, files.length);
+        assertTrue(files[0].length() < 64 * 1024);
+        assertEquals(64 * 1024, files[1].length());
+        map.remove();
+    }
+
+    @Test
+    public void testRedoLogSegmentTornTail() {
+        storage = openStorage(pageSize);
+        HashMap<String, String> parameters = new HashMap<>();
+        parameters.put(StorageSetting.REDO_LOG_SEGMENT_SIZE.name(), "64k");
+        String mapName = "testRedoLogSegmentTornTail";
+        map = storage.openBTreeMap(mapName, null, null, parameters);
+        map.clear();
+        map.put(1, "a");
+        map.save();
+        String dir = storage.getStoragePath() + File.separator + mapName;
+        for (int i = 0; i < 200; i++)
+            map.writeRedoLog(createRedoLog(i));
+        map.sync();
+        map.close();
+
+        // 第一个段的第11块坏了，后面的段即使是完整的也不能读
+        File[] files = getSegmentFiles(dir);
+        assertTrue(files.length > 1);
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            long pos = 10 * (16 + 1000) + 16 + 5;
+            file.seek(pos);
+            int b = file.read();
+            file.seek(pos);
+            file.write(b ^ 0xFF);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        map = storage.openBTreeMap(mapName, null, null, parameters);
+        assertRedoLog(map.readRedoLog(), 0, 10);
+        map.remove();
+    }
+
+    private static ByteBuffer createRedoLog(int n) {
+        ByteBuffer log = ByteBuffer.allocate(1000);
+        while (log.hasRemaining())
+            log.putInt(n);
+        log.flip();
+        return log;
+    }
+
+    private static void assertRedoLog(ByteBuffer log, int start, int end) {
+        assertEquals((end - start) * 1000, log.remaining());
+        for (int i = start; i < end; i++) {
+            for (int j = 0; j < 250; j++)
+                assertEquals(i, log.getInt());
+        }
+    }
+
+    // 按段的sequence排序
+    private static File[] getSegmentFiles(String dir) {
+        ArrayList<File> files = new ArrayList<>();
+        for (File f : new File(dir).listFiles()) {
+            if (f.getName().endsWith(RedoLogSegmentManager.SUFFIX_REDO_LOG_FILE))
+                files.add(f);
+        }
+        files.sort(Comparator.comparingLong(f -> {
+            String name = f.getName();
+            return Long.parseLong(name.substring(2,
+                    name.length() - RedoLogSegmentManager.SUFFIX_REDO_LOG_FILE.length()));
+        }));
+        return files.toArray(new File[0]);
+    }
+
+    private static int getSegmentCount(String dir) {
+        int count = 0;
+        for (File f : new File(dir).listFiles()) {
+            if (f.getName().endsWith(RedoLogSegmentManager.SUFFIX_REDO_LOG_FILE))
+                count++;
+        }
+        return count;
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aote;
+
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.lealone.storage.Storage;
+import com.lealone.transaction.Transaction;
+import com.lealone.transaction.TransactionMap;
+import com.lealone.transaction.aote.AOTransactionEngine;
+import com.lealone.transaction.aote.log.LogSyncService;
+
+public class AdaptiveCheckpointTest extends AoteTestBase {
+
+    private static AOTransactionEngine te;
+    private static Storage storage;
+
+    @BeforeClass
+    public static void beforeClass() { // 不会触发父类的before
+        Map<String, String> config = getDefaultConfig(joinDirs("aote", "AdaptiveCheckpointTest"));
+        config.put("checkpoint_service_loop_interval", "100"); // 100ms
+        config.put("log_sync_type", LogSyncService.LOG_SYNC_TYPE_PERIODIC);
+        config.put("checkpoint_period", "2000"); // 2秒
+        config.put("adaptive_checkpoint", "true");
+        // 恢复时间目标内最多只能重放100K的redo log
+        config.put("recovery_time_target", "100"); // 100ms
+        config.put("redo_log_replay_rate", String.valueOf(1024 * 1024));
+
+        // 避免覆盖存在的TransactionEngine
+        config.put("plugin_name", "AdaptiveCheckpointTest");
+        te = new AOTransactionEngine();
+        te.init(config);
+        storage = getStorage(64, "AdaptiveCheckpointTest"); // cacheSize:64M
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        te.close(false);
+    }
+
+    @Test
+    public void testRecoveryTimeTarget() {
+        Transaction t1 = te.beginTransaction();
+        TransactionMap<String, String> map = t1.openMap("testRecoveryTimeTarget", storage);
+        map.remove();
+        map = t1.openMap("testRecoveryTimeTarget", storage);
+        assertEquals(0, map.getDiskSpaceUsed());
+
+        // 脏页占用的内存远小于cacheSize，但是redo log超过了恢复时间目标，也会刷脏页
+        for (int i = 1; i <= 20000; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        t1.commit();
+        assertTrue(map.collectDirtyMemory() < 64 * 1024 * 1024);
+
+        long sleep = 0;
+        while (map.collectDirtyMemory() > 0 && sleep < 5000) {
+            try {
+                Thread.sleep(100); // 等待后端检查点线程完成数据保存
+            } catch (InterruptedException e) {
+            }
+            sleep += 100;
+        }
+        assertEquals(0, map.collectDirtyMemory());
+        assertTrue(map.getDiskSpaceUsed() > 0);
+        assertEquals(20000, map.size());
+    }
+
+    @Test
+    public void testPeriodicCheckpoint() {
+        Transaction t1 = te.beginTransaction();
+        TransactionMap<String, String> map = t1.openMap("testPeriodicCheckpoint", storage);
+        map.remove();
+        map = t1.openMap("testPeriodicCheckpoint", storage);
+
+        // 脏页内存和redo log都低于水位，自适应检查点不会挑选这个map，只能等到周期时再刷
+        for (int i = 1; i <= 100; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        t1.commit();
+
+        long sleep = 0;
+        while (map.collectDirtyMemory() > 0 && sleep < 10000) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+            }
+            sleep += 100;
+        }
+        assertEquals(0, map.collectDirtyMemory());
+        assertTrue(map.getDiskSpaceUsed() > 0);
+        assertEquals(100, map.size());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aote;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.lealone.db.lock.Lockable;
+import com.lealone.storage.Storage;
+import com.lealone.transaction.Transaction;
+import com.lealone.transaction.TransactionMap;
+import com.lealone.transaction.aote.AOTransactionEngine;
+import com.lealone.transaction.aote.TransactionalValue;
+import com.lealone.transaction.aote.log.LogSyncService;
+
+// 批量增加、更新和删除的记录在redo log中只有一条，在子进程中写完后不执行检查点直接退出，
+// 然后在当前进程中重新打开，验证这条redo log能正确重放
+public class BatchRedoLogTest extends AoteTestBase {
+
+    private static final int COUNT = 100;
+    private static final String PATH = "BatchRedoLogTest";
+    private static final String MAP_NAME = "BatchRedoLogTest";
+
+    private static Map<String, String> getConfig() {
+        Map<String, String> config = getDefaultConfig(joinDirs("aote", PATH));
+        config.put("log_sync_type", LogSyncService.LOG_SYNC_TYPE_INSTANT);
+        config.put("checkpoint_service_loop_interval", String.valueOf(3600 * 1000)); // 不自动执行检查点
+        // 避免覆盖存在的TransactionEngine
+        config.put("plugin_name", PATH);
+        return config;
+    }
+
+    @Test
+    public void run() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                BatchRedoLogTest.class.getName()).inheritIO().start();
+        assertEquals(0, p.waitFor());
+
+        AOTransactionEngine te = new AOTransactionEngine();
+        te.init(getConfig());
+        Storage storage = getStorage(0, PATH);
+        try {
+            Transaction t = te.beginTransaction();
+            TransactionMap<Integer, Integer> map = t.openMap(MAP_NAME, storage);
+            te.recover(map.getRawMap(), null);
+            // 1到25被更新成负数，26到50被删除，其他的不变
+            assertEquals(COUNT - 25, map.size());
+            for (int i = 1; i <= COUNT; i++) {
+                if (i <= 25)
+                    assertEquals(-i, map.get(i).intValue());
+                else if (i <= 50)
+                    assertNull(map.get(i));
+                else
+                    assertEquals(i, map.get(i).intValue());
+            }
+            t.commit();
+        } finally {
+            storage.getMap(MAP_NAME).remove();
+            te.close(false);
+        }
+    }
+
+    // 在子进程中运行
+    public static void main(String[] args) throws Exception {
+        AOTransactionEngine te = new AOTransactionEngine();
+        te.init(getConfig());
+        Storage storage = getStorage(0, PATH);
+        Transaction t = te.beginTransaction();
+        t.openMap(MAP_NAME, storage).remove();
+        t.commit();
+
+        t = te.beginTransaction();
+        TransactionMap<Integer, Integer> map = t.openMap(MAP_NAME, storage);
+        ArrayList<Integer> keys = new ArrayList<>(COUNT);
+        ArrayList<Lockable> lockables = new ArrayList<>(COUNT);
+        for (int i = 1; i <= COUNT; i++) {
+            keys.add(i);
+            lockables.add(new TransactionalValue(i));
+        }
+        AtomicReference<Integer> result = new AtomicReference<>();
+        map.addIfAbsent(keys, lockables, new AtomicReference<>(), ar -> result.set(ar.getResult()));
+        assertEquals(Transaction.OPERATION_COMPLETE, result.get().intValue());
+        t.commit();
+
+        t = te.beginTransaction();
+        map = t.openMap(MAP_NAME, storage);
+        ArrayList<Integer> newValues = new ArrayList<>();
+        for (int i = 1; i <= 25; i++)
+            newValues.add(-i);
+        map.tryUpdateOrRemove(keys.subList(0, 25), newValues, lock(map, keys.subList(0, 25)));
+        map.tryUpdateOrRemove(keys.subList(25, 50), null, lock(map, keys.subList(25, 50)));
+        t.commit();
+
+        // 模拟系统崩溃，不执行检查点，也不刷脏页
+        Runtime.getRuntime().halt(0);
+    }
+
+    private static List<Lockable> lock(TransactionMap<Integer, Integer> map, List<Integer> keys) {
+        ArrayList<Lockable> lockables = new ArrayList<>(keys.size());
+        for (Integer key : keys) {
+            Lockable lockable = map.getLockableValue(key);
+            assertTrue(map.tryLock(key, lockable) > 0);
+            lockables.add(lockable);
+        }
+        return lockables;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aote;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.lealone.storage.Storage;
+import com.lealone.transaction.Transaction;
+import com.lealone.transaction.TransactionMap;
+import com.lealone.transaction.aote.AOTransactionEngine;
+import com.lealone.transaction.aote.log.LogSyncService;
+
+// 在子进程中用多个调度器和多个LogSyncService写redo log，不执行检查点直接退出，
+// 然后在当前进程中重新打开，验证所有LogSyncService的redo log都能按提交顺序重放
+public class RedoLogMergeTest extends AoteTestBase {
+
+    private static final int MAP_COUNT = 4;
+    private static final int THREAD_COUNT = 4;
+    private static final int TRANSACTION_COUNT = 100; // 每个线程的事务数
+
+    private static final String PATH = "RedoLogMergeTest";
+
+    private static Map<String, String> getConfig() {
+        Map<String, String> config = getDefaultConfig(joinDirs("aote", PATH));
+        config.put("log_sync_type", LogSyncService.LOG_SYNC_TYPE_INSTANT);
+        config.put("scheduler_count", String.valueOf(THREAD_COUNT));
+        config.put("log_sync_service_count", String.valueOf(MAP_COUNT));
+        config.put("checkpoint_service_loop_interval", String.valueOf(3600 * 1000)); // 不自动执行检查点
+        // 避免覆盖存在的TransactionEngine
+        config.put("plugin_name", PATH);
+        return config;
+    }
+
+    private static String getMapName(int i) {
+        return "RedoLogMergeTest_" + i;
+    }
+
+    @Test
+    public void run() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                RedoLogMergeTest.class.getName()).inheritIO().start();
+        assertEquals(0, p.waitFor());
+
+        AOTransactionEngine te = new AOTransactionEngine();
+        te.init(getConfig());
+        Storage storage = getStorage(0, PATH);
+        try {
+            Transaction t = te.beginTransaction();
+            ArrayList<TransactionMap<String, Integer>> maps = new ArrayList<>(MAP_COUNT);
+            for (int i = 0; i < MAP_COUNT; i++) {
+                TransactionMap<String, Integer> map = t.openMap(getMapName(i), storage);
+                te.recover(map.getRawMap(), null);
+                maps.add(map);
+            }
+            int total = THREAD_COUNT * TRANSACTION_COUNT;
+            int count = 0;
+            for (int i = 0; i < MAP_COUNT; i++) {
+                TransactionMap<String, Integer> map = maps.get(i);
+                count += map.size() - 1; // 减去last
+                // 同一个key被不同调度器上的事务按顺序修改，重放后只能是最后提交的值
+                int last = total;
+                while (last % MAP_COUNT != i && (last + 1) % MAP_COUNT != i)
+                    last--;
+                assertEquals(last, map.get("last").intValue());
+            }
+            assertEquals(total, count);
+            for (int seq = 1; seq <= total; seq++) {
+                assertEquals(seq, maps.get(seq % MAP_COUNT).get("k" + seq).intValue());
+            }
+            t.commit();
+        } finally {
+            for (int i = 0; i < MAP_COUNT; i++)
+                storage.getMap(getMapName(i)).remove();
+            te.close(false);
+        }
+    }
+
+    // 在子进程中运行
+    public static void main(String[] args) throws Exception {
+        AOTransactionEngine te = new AOTransactionEngine();
+        te.init(getConfig());
+        Storage storage = getStorage(0, PATH);
+        for (int i = 0; i < MAP_COUNT; i++) {
+            Transaction t = te.beginTransaction();
+            t.openMap(getMapName(i), storage).remove();
+            t.commit();
+        }
+        Object lock = new Object();
+        int[] seq = new int[1];
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < TRANSACTION_COUNT; j++) {
+                    // 每个线程绑定不同的调度器，事务按顺序提交，每个事务都涉及两个map
+                    synchronized (lock) {
+                        int s = ++seq[0];
+                        Transaction t = te.beginTransaction();
+                        TransactionMap<String, Integer> map1 = t.openMap(getMapName(s % MAP_COUNT),
+                                storage);
+                        TransactionMap<String, Integer> map2 = t
+                                .openMap(getMapName((s + 1) % MAP_COUNT), storage);
+                        map1.put("k" + s, s);
+                        map1.put("last", s);
+                        map2.put("last", s);
+                        t.commit();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        // 模拟系统崩溃，不执行检查点，也不刷脏页
+        Runtime.getRuntime().halt(0);
+    }
+}
@@ -24,6 +24,9 @@ public class BatchTest extends ClientTestBase {
         for (int i = 1; i <= count; i++) {
             testPreparedStatementBatch();
         }
+        testLargePreparedStatementBatch();
+        testMultiRowValuesBatch();
+        testMergeBatch();
         // testConcurrentBatch();
     }
 
@@ -80,6 +83,79 @@ public class BatchTest extends ClientTestBase {
         ps.close();
     }
 
+    // 整个批量作为一条语句执行，每条记录的更新数仍然单独返回
+    void testLargePreparedStatementBatch() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS BatchTest2");
+        executeUpdate("CREATE TABLE IF NOT EXISTS BatchTest2(id int PRIMARY KEY, f1 int, f2 varchar)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS BatchTest2_f1 ON BatchTest2(f1)");
+        int count = 10000;
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO BatchTest2 VALUES(?, ?, ?)");
+        for (int i = 1; i <= count; i++) {
+            ps.setInt(1, count - i);
+            ps.setInt(2, i % 10);
+            ps.setString(3, "v" + i);
+            ps.addBatch();
+        }
+        int[] result = ps.executeBatch();
+        assertEquals(count, result.length);
+        for (int i = 0; i < count; i++) {
+            assertEquals(1, result[i]);
+        }
+        ps.close();
+
+        sql = "SELECT count(*) FROM BatchTest2";
+        assertEquals(count, getIntValue(1, true));
+        sql = "SELECT count(*) FROM BatchTest2 WHERE f1 = 3";
+        assertEquals(count / 10, getIntValue(1, true));
+    }
+
+    // values中有多行时每组参数都会用到所有的行
+    void testMultiRowValuesBatch() throws Exception {
+        executeUpdate("DELETE FROM BatchTest");
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO BatchTest(f1, f2) VALUES(?, 1), (?, 2)");
+        for (int i = 1; i <= 3; i++) {
+            ps.setInt(1, i);
+            ps.setInt(2, i);
+            ps.addBatch();
+        }
+        int[] result = ps.executeBatch();
+        assertEquals(3, result.length);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(2, result[i]);
+        }
+        ps.close();
+
+        sql = "SELECT count(*), sum(f1), sum(f2) FROM BatchTest";
+        executeQuery();
+        assertEquals(6, getIntValue(1));
+        assertEquals(12, getIntValue(2));
+        assertEquals(9, getIntValue(3, true));
+    }
+
+    // merge逐行执行，每组参数更新或增加的记录数可能不一样
+    void testMergeBatch() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS BatchTest3");
+        executeUpdate("CREATE TABLE IF NOT EXISTS BatchTest3(id int auto_increment PRIMARY KEY, f1 int, f2 int)");
+        executeUpdate("INSERT INTO BatchTest3(f1, f2) VALUES(1, 0), (1, 0), (2, 0)");
+        PreparedStatement ps = conn.prepareStatement("MERGE INTO BatchTest3(f1, f2) KEY(f1) VALUES(?, ?)");
+        for (int i = 1; i <= 3; i++) {
+            ps.setInt(1, i);
+            ps.setInt(2, i * 10);
+            ps.addBatch();
+        }
+        int[] result = ps.executeBatch();
+        assertEquals(3, result.length);
+        assertEquals(2, result[0]); // 更新了两条
+        assertEquals(1, result[1]); // 更新了一条
+        assertEquals(1, result[2]); // 新增了一条
+        ps.close();
+
+        sql = "SELECT count(*), sum(f2) FROM BatchTest3";
+        executeQuery();
+        assertEquals(4, getIntValue(1));
+        assertEquals(70, getIntValue(2, true));
+    }
+
     Connection getConn() {
         try {
             return getConnection(dbName);
@@ -0,0 +1,76 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.db.index;
+
+import org.junit.Test;
+
+import com.lealone.db.Constants;
+import com.lealone.db.index.Index;
+import com.lealone.db.index.IndexType;
+import com.lealone.db.index.standard.StandardHashIndex;
+import com.lealone.db.index.standard.StandardSecondaryIndex;
+import com.lealone.db.table.StandardTable;
+
+public class HashIndexLayoutTest extends IndexTestBase {
+    @Test
+    public void run() {
+        executeUpdate("DROP TABLE IF EXISTS HashIndexLayoutTest");
+        executeUpdate("CREATE TABLE IF NOT EXISTS HashIndexLayoutTest"
+                + " (pk int PRIMARY KEY, a int, b varchar)");
+        executeUpdate("INSERT INTO HashIndexLayoutTest"
+                + " SELECT X, MOD(X, 10), 'b' || MOD(X, 7) FROM SYSTEM_RANGE(1, 100)");
+
+        testOldLayout();
+        testNewLayout();
+    }
+
+    // 老版本的多字段hash索引用的是StandardSecondaryIndex，key里没有hash值，
+    // 先建一个普通索引，再把SYS表里的建索引语句改成hash索引，模拟老版本创建的数据库
+    private void testOldLayout() {
+        executeUpdate("CREATE INDEX IF NOT EXISTS HashIndexLayoutOld ON HashIndexLayoutTest(a, b)");
+        Index index = getIndex("HashIndexLayoutOld");
+        StandardTable table = (StandardTable) index.getTable();
+        Index old = new StandardSecondaryIndex(session, table, index.getId(), index.getName(),
+                IndexType.createNonUnique(true), index.getIndexColumns());
+        db.updateMeta(session, old);
+        session.commit();
+
+        reopen();
+        index = getIndex("HashIndexLayoutOld");
+        assertTrue(index.getIndexType().isHash());
+        assertFalse(index instanceof StandardHashIndex);
+        assertQuery();
+    }
+
+    private void testNewLayout() {
+        executeUpdate("DROP INDEX IF EXISTS HashIndexLayoutOld");
+        executeUpdate(
+                "CREATE HASH INDEX IF NOT EXISTS HashIndexLayoutNew ON HashIndexLayoutTest(a, b)");
+        assertTrue(getIndex("HashIndexLayoutNew") instanceof StandardHashIndex);
+        assertQuery();
+
+        reopen();
+        assertTrue(getIndex("HashIndexLayoutNew") instanceof StandardHashIndex);
+        assertQuery();
+        executeUpdate("DROP INDEX IF EXISTS HashIndexLayoutNew");
+    }
+
+    private void assertQuery() {
+        String sql = "SELECT count(*) FROM HashIndexLayoutTest WHERE a = 3 AND b = ";
+        assertEquals(2, getInt(sql + "'b3'", 1)); // X = 3, 73
+        assertEquals(0, getInt(sql + "'b4'", 1));
+        executeUpdate("INSERT INTO HashIndexLayoutTest VALUES(1000, 3, 'b3')");
+        assertEquals(3, getInt(sql + "'b3'", 1));
+        executeUpdate("DELETE FROM HashIndexLayoutTest WHERE pk = 1000");
+        assertEquals(2, getInt(sql + "'b3'", 1));
+    }
+
+    // 复用原有存储重新执行SYS表里的语句，跟重启数据库时一样
+    private void reopen() {
+        db = db.copy();
+        schema = db.findSchema(session, Constants.SCHEMA_MAIN);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.misc;
+
+import java.sql.ResultSet;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+import com.lealone.transaction.TransactionStatistics;
+
+public class TransactionStatisticsTest extends SqlTestBase {
+
+    public TransactionStatisticsTest() {
+        super("TransactionStatisticsTestDB");
+        setEmbedded(true); // 在同一个JVM中才能启用TransactionStatistics
+    }
+
+    @Test
+    public void run() throws Exception {
+        TransactionStatistics.setEnabled(true);
+        try {
+            TransactionStatistics.reset();
+            stmt.executeUpdate("drop table IF EXISTS TransactionStatisticsTest");
+            stmt.executeUpdate("create table IF NOT EXISTS TransactionStatisticsTest(f1 int, f2 int)");
+            for (int i = 1; i <= 10; i++)
+                stmt.executeUpdate("insert into TransactionStatisticsTest(f1, f2) values(" + i + ",2)");
+
+            HashSet<String> phases = new HashSet<>();
+            ResultSet rs = stmt
+                    .executeQuery("select * from PERFORMANCE_SCHEMA.TRANSACTION_STATISTICS");
+            while (rs.next()) {
+                phases.add(rs.getString("PHASE"));
+                assertTrue(rs.getLong("COUNT") > 0);
+                assertTrue(rs.getDouble("MAX_TIME") >= rs.getDouble("P50_TIME"));
+            }
+            rs.close();
+            assertTrue(phases.contains("COMMIT"));
+            assertTrue(phases.contains("UNDO_LOG_COMMIT"));
+            assertTrue(phases.contains("LOG_SYNC_QUEUE"));
+            assertTrue(phases.contains("REDO_LOG_WRITE"));
+        } finally {
+            TransactionStatistics.setEnabled(false);
+        }
+    }
+}
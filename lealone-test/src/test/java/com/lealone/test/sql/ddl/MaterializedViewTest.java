@@ -0,0 +1,144 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.ddl;
+
+import java.sql.ResultSet;
+
+import org.junit.Test;
+
+import com.lealone.db.api.ErrorCode;
+import com.lealone.test.sql.SqlTestBase;
+
+public class MaterializedViewTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP MATERIALIZED VIEW IF EXISTS MaterializedViewTest");
+        executeUpdate("DROP TABLE IF EXISTS MaterializedViewTestOrder");
+        executeUpdate("DROP TABLE IF EXISTS MaterializedViewTestCustomer");
+        executeUpdate("CREATE TABLE MaterializedViewTestCustomer(id int PRIMARY KEY, name varchar)");
+        executeUpdate("CREATE TABLE MaterializedViewTestOrder(id int PRIMARY KEY, cid int, amount int)");
+        // 基表的key字段有索引才会增量刷新
+        executeUpdate("CREATE INDEX IF NOT EXISTS MaterializedViewTestOrderCid"
+                + " ON MaterializedViewTestOrder(cid)");
+        executeUpdate("INSERT INTO MaterializedViewTestCustomer VALUES(1, 'a'), (2, 'b'), (3, 'c')");
+        executeUpdate("INSERT INTO MaterializedViewTestOrder VALUES(1, 1, 10), (2, 1, 20), (3, 2, 30)");
+        executeUpdate("CREATE MATERIALIZED VIEW MaterializedViewTest AS"
+                + " SELECT c.id, c.name, SUM(o.amount) total, COUNT(*) cnt"
+                + " FROM MaterializedViewTestCustomer c JOIN MaterializedViewTestOrder o ON c.id = o.cid"
+                + " GROUP BY c.id, c.name");
+
+        assertTotal(1, 30);
+        assertTotal(2, 30);
+        testIncrementalRefresh();
+        testFullRefresh();
+        testReadOnly();
+        testIncrementalEqualsFull();
+    }
+
+    private void assertTotal(int id, int total) throws Exception {
+        sql = "SELECT total FROM MaterializedViewTest WHERE id = " + id;
+        assertEquals(total, getIntValue(1, true));
+    }
+
+    private void testIncrementalRefresh() throws Exception {
+        executeUpdate("INSERT INTO MaterializedViewTestOrder VALUES(4, 3, 5)");
+        executeUpdate("UPDATE MaterializedViewTestOrder SET amount = 100 WHERE id = 1");
+        // 刷新之前读到的还是旧数据
+        assertTotal(1, 30);
+        sql = "SELECT count(*) FROM MaterializedViewTest";
+        assertEquals(2, getIntValue(1, true));
+
+        // 只重新查询id为1和3的客户
+        assertEquals(2, executeUpdate("REFRESH MATERIALIZED VIEW MaterializedViewTest"));
+        assertTotal(1, 120);
+        assertTotal(2, 30);
+        assertTotal(3, 5);
+        assertEquals(0, executeUpdate("REFRESH MATERIALIZED VIEW MaterializedViewTest"));
+
+        // 客户表的key通过JOIN条件对应到物化视图的id字段
+        executeUpdate("UPDATE MaterializedViewTestCustomer SET name = 'bb' WHERE id = 2");
+        executeUpdate("DELETE FROM MaterializedViewTestOrder WHERE cid = 3");
+        assertEquals(1, executeUpdate("REFRESH MATERIALIZED VIEW MaterializedViewTest"));
+        sql = "SELECT name FROM MaterializedViewTest WHERE id = 2";
+        assertEquals("bb", getStringValue(1, true));
+        sql = "SELECT count(*) FROM MaterializedViewTest WHERE id = 3";
+        assertEquals(0, getIntValue(1, true));
+
+        // 回滚的修改不需要刷新
+        conn.setAutoCommit(false);
+        executeUpdate("INSERT INTO MaterializedViewTestOrder VALUES(5, 2, 1)");
+        conn.rollback();
+        conn.setAutoCommit(true);
+        assertEquals(0, executeUpdate("REFRESH MATERIALIZED VIEW MaterializedViewTest"));
+    }
+
+    private void testFullRefresh() throws Exception {
+        executeUpdate("INSERT INTO MaterializedViewTestOrder VALUES(6, 3, 7)");
+        assertEquals(3, executeUpdate("REFRESH MATERIALIZED VIEW MaterializedViewTest FULL"));
+        assertTotal(3, 7);
+
+        // TRUNCATE不知道删了哪些记录，只能全量刷新
+        executeUpdate("TRUNCATE TABLE MaterializedViewTestOrder");
+        assertEquals(0, executeUpdate("REFRESH MATERIALIZED VIEW MaterializedViewTest"));
+        sql = "SELECT count(*) FROM MaterializedViewTest";
+        assertEquals(0, getIntValue(1, true));
+    }
+
+    private void testReadOnly() throws Exception {
+        executeUpdateThanAssertErrorCode("INSERT INTO MaterializedViewTest VALUES(9, 'x', 1, 1)",
+                ErrorCode.FEATURE_NOT_SUPPORTED_1);
+        executeUpdateThanAssertErrorCode("DELETE FROM MaterializedViewTest",
+                ErrorCode.FEATURE_NOT_SUPPORTED_1);
+        executeUpdateThanAssertErrorCode("TRUNCATE TABLE MaterializedViewTest",
+                ErrorCode.CANNOT_TRUNCATE_1);
+        executeUpdateThanAssertErrorCode("REFRESH MATERIALIZED VIEW MaterializedViewTestOrder",
+                ErrorCode.VIEW_NOT_FOUND_1);
+        executeUpdateThanAssertErrorCode("DROP MATERIALIZED VIEW MaterializedViewTestOrder",
+                ErrorCode.VIEW_NOT_FOUND_1);
+        executeUpdate("DROP MATERIALIZED VIEW MaterializedViewTest");
+    }
+
+    // 各种修改混在一起时，增量刷新的结果要跟全量刷新的一样
+    private void testIncrementalEqualsFull() throws Exception {
+        executeUpdate("DROP MATERIALIZED VIEW IF EXISTS MaterializedViewTestSum");
+        executeUpdate("DROP TABLE IF EXISTS MaterializedViewTestItem");
+        executeUpdate("CREATE TABLE MaterializedViewTestItem(id int PRIMARY KEY, g int, x int)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS MaterializedViewTestItemG"
+                + " ON MaterializedViewTestItem(g)");
+        executeUpdate("INSERT INTO MaterializedViewTestItem"
+                + " SELECT X, MOD(X, 200), X FROM SYSTEM_RANGE(1, 1000)");
+        executeUpdate("CREATE MATERIALIZED VIEW MaterializedViewTestSum AS"
+                + " SELECT g, SUM(x) total, COUNT(*) cnt FROM MaterializedViewTestItem GROUP BY g");
+
+        executeUpdate("INSERT INTO MaterializedViewTestItem VALUES(1001, 3, 7), (1002, 250, 9)");
+        executeUpdate("INSERT INTO MaterializedViewTestItem VALUES(1003, NULL, 1)");
+        executeUpdate("UPDATE MaterializedViewTestItem SET x = x + 100 WHERE id = 10");
+        executeUpdate("UPDATE MaterializedViewTestItem SET g = 21 WHERE id = 20");
+        executeUpdate("DELETE FROM MaterializedViewTestItem WHERE g = 30");
+
+        // 只重新查询g为3、250、NULL、10、20、21的行，g为30的行被删掉了
+        assertEquals(6, executeUpdate("REFRESH MATERIALIZED VIEW MaterializedViewTestSum"));
+        String select = "SELECT g, total, cnt FROM MaterializedViewTestSum ORDER BY g";
+        String incremental = getRows(select);
+        assertEquals(getRows("SELECT g, SUM(x), COUNT(*) FROM MaterializedViewTestItem"
+                + " GROUP BY g ORDER BY g"), incremental);
+        assertEquals(201, executeUpdate("REFRESH MATERIALIZED VIEW MaterializedViewTestSum FULL"));
+        assertEquals(incremental, getRows(select));
+        executeUpdate("DROP MATERIALIZED VIEW MaterializedViewTestSum");
+    }
+
+    private String getRows(String sql) throws Exception {
+        StringBuilder buff = new StringBuilder();
+        ResultSet rs = stmt.executeQuery(sql);
+        while (rs.next()) {
+            buff.append(rs.getString(1)).append(',').append(rs.getString(2)).append(',')
+                    .append(rs.getString(3)).append('\n');
+        }
+        rs.close();
+        return buff.toString();
+    }
+}
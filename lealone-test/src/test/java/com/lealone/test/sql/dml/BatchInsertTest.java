@@ -0,0 +1,176 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.dml;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.Test;
+
+import com.lealone.db.api.ErrorCode;
+import com.lealone.db.api.Trigger;
+import com.lealone.test.sql.SqlTestBase;
+
+public class BatchInsertTest extends SqlTestBase {
+
+    // 批量增加时不会触发行级触发器，f1被改成id * 10就说明走的是逐行增加
+    public static class MyTrigger implements Trigger {
+
+        @Override
+        public void init(Connection conn, String schemaName, String triggerName, String tableName,
+                boolean before, int type) throws SQLException {
+        }
+
+        @Override
+        public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+            newRow[1] = ((Integer) newRow[0]) * 10;
+        }
+
+        @Override
+        public void close() throws SQLException {
+        }
+
+        @Override
+        public void remove() throws SQLException {
+        }
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS BatchInsertTest");
+        executeUpdate("CREATE TABLE BatchInsertTest(id int PRIMARY KEY, f1 int, f2 varchar)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS BatchInsertTest_f1 ON BatchInsertTest(f1)");
+        executeUpdate("CREATE UNIQUE INDEX IF NOT EXISTS BatchInsertTest_f2 ON BatchInsertTest(f2)");
+
+        testInsertFromSelect();
+        testUnorderedKeys();
+        testDuplicateKey();
+        testRollback();
+        testNoPrimaryKey();
+        testCheckConstraint();
+        testRowTrigger();
+        testAutoIncrement();
+    }
+
+    // 递增的key会一直追加到最后一个leaf page，行数多时会切割出很多page
+    private void testInsertFromSelect() throws Exception {
+        executeUpdate("INSERT INTO BatchInsertTest SELECT x, x % 10, 'v' || x FROM SYSTEM_RANGE(1, 5000)");
+        assertCount(5000, "");
+        assertCount(500, "WHERE f1 = 3");
+        assertCount(1, "WHERE f2 = 'v4321'");
+        sql = "SELECT sum(id) FROM BatchInsertTest";
+        assertEquals(5000 * 5001 / 2, getIntValue(1, true));
+    }
+
+    // 乱序的key会落到不同的leaf page中
+    private void testUnorderedKeys() throws Exception {
+        executeUpdate("INSERT INTO BatchInsertTest SELECT 10000 + (x * 7919) % 3001, 100, 'u' || x"
+                + " FROM SYSTEM_RANGE(1, 3000)");
+        assertCount(8000, "");
+        assertCount(3000, "WHERE f1 = 100");
+        assertCount(3000, "WHERE id > 10000");
+        executeUpdate("INSERT INTO BatchInsertTest VALUES(5001, 1, 'a'), (-1, 2, 'b'), (9999, 3, 'c')");
+        assertCount(8003, "");
+    }
+
+    // 重复的key不管是在同一批里还是已经存在，整条语句都不生效
+    private void testDuplicateKey() throws Exception {
+        executeUpdateThanAssertErrorCode(
+                "INSERT INTO BatchInsertTest VALUES(20001, 1, 'd1'), (20002, 1, 'd2'), (20001, 1, 'd3')",
+                ErrorCode.DUPLICATE_KEY_1);
+        executeUpdateThanAssertErrorCode(
+                "INSERT INTO BatchInsertTest VALUES(20001, 1, 'd1'), (20002, 1, 'd2'), (100, 1, 'd3')",
+                ErrorCode.DUPLICATE_KEY_1);
+        executeUpdateThanAssertErrorCode(
+                "INSERT INTO BatchInsertTest VALUES(20001, 1, 'd1'), (20002, 1, 'd1')",
+                ErrorCode.DUPLICATE_KEY_1);
+        executeUpdateThanAssertErrorCode(
+                "INSERT INTO BatchInsertTest VALUES(20001, 1, 'd1'), (20002, 1, 'v10')",
+                ErrorCode.DUPLICATE_KEY_1);
+        assertCount(0, "WHERE id > 20000");
+        assertCount(0, "WHERE f2 LIKE 'd%'");
+    }
+
+    private void testRollback() throws Exception {
+        conn.setAutoCommit(false);
+        executeUpdate("INSERT INTO BatchInsertTest SELECT 30000 + x, 300, 'r' || x FROM SYSTEM_RANGE(1, 1000)");
+        assertCount(1000, "WHERE id > 30000");
+        conn.rollback();
+        conn.setAutoCommit(true);
+        assertCount(0, "WHERE f1 = 300");
+        assertCount(0, "WHERE id > 30000");
+        executeUpdate("INSERT INTO BatchInsertTest VALUES(30001, 300, 'r1')");
+        assertCount(1, "WHERE f1 = 300");
+    }
+
+    // 没有主键时一次分配所有row key
+    private void testNoPrimaryKey() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS BatchInsertTest2");
+        executeUpdate("CREATE TABLE BatchInsertTest2(f1 int, f2 int)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS BatchInsertTest2_f1 ON BatchInsertTest2(f1)");
+        executeUpdate("INSERT INTO BatchInsertTest2 SELECT x, x FROM SYSTEM_RANGE(1, 1000)");
+        executeUpdate("INSERT INTO BatchInsertTest2 VALUES(1, 1), (2, 2)");
+        sql = "SELECT count(*), count(distinct _rowid_) FROM BatchInsertTest2";
+        executeQuery();
+        assertEquals(1002, getIntValue(1));
+        assertEquals(1002, getIntValue(2, true));
+        sql = "SELECT count(*) FROM BatchInsertTest2 WHERE f1 = 2";
+        assertEquals(2, getIntValue(1, true));
+    }
+
+    // 有表级CHECK约束时逐行增加，每一行都会检查(列上的CHECK约束在两种方式中都会检查)
+    private void testCheckConstraint() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS BatchInsertTest3");
+        executeUpdate("CREATE TABLE BatchInsertTest3(id int PRIMARY KEY, f1 int)");
+        executeUpdate("ALTER TABLE BatchInsertTest3 ADD CONSTRAINT BatchInsertTest3_check CHECK (f1 >= 0)");
+        executeUpdateThanAssertErrorCode(
+                "INSERT INTO BatchInsertTest3 SELECT x, 500 - x FROM SYSTEM_RANGE(1, 1000)",
+                ErrorCode.CHECK_CONSTRAINT_VIOLATED_1);
+        executeUpdateThanAssertErrorCode(
+                "INSERT INTO BatchInsertTest3 VALUES(1, 1), (2, 2), (3, -3)",
+                ErrorCode.CHECK_CONSTRAINT_VIOLATED_1);
+        sql = "SELECT count(*) FROM BatchInsertTest3";
+        assertEquals(0, getIntValue(1, true));
+        executeUpdate("INSERT INTO BatchInsertTest3 SELECT x, x FROM SYSTEM_RANGE(1, 1000)");
+        assertEquals(1000, getIntValue(1, true));
+    }
+
+    // 有行级触发器时逐行增加，每一行都会触发
+    private void testRowTrigger() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS BatchInsertTest4");
+        executeUpdate("CREATE TABLE BatchInsertTest4(id int PRIMARY KEY, f1 int)");
+        executeUpdate("CREATE TRIGGER IF NOT EXISTS BatchInsertTest4_trigger"
+                + " BEFORE INSERT ON BatchInsertTest4 FOR EACH ROW"
+                + " CALL \"" + MyTrigger.class.getName() + "\"");
+        executeUpdate("INSERT INTO BatchInsertTest4 SELECT x, x FROM SYSTEM_RANGE(1, 1000)");
+        executeUpdate("INSERT INTO BatchInsertTest4 VALUES(1001, 1), (1002, 2)");
+        sql = "SELECT count(*) FROM BatchInsertTest4 WHERE f1 = id * 10";
+        assertEquals(1002, getIntValue(1, true));
+    }
+
+    // 批量增加时整批的自增值在增加到表之前就生成了，语句失败后这一批的自增值都用掉了，
+    // 不像逐行增加那样只用到失败的那一行为止
+    private void testAutoIncrement() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS BatchInsertTest5");
+        executeUpdate("CREATE TABLE BatchInsertTest5(id int AUTO_INCREMENT PRIMARY KEY, f1 int)");
+        executeUpdate("CREATE UNIQUE INDEX IF NOT EXISTS BatchInsertTest5_f1"
+                + " ON BatchInsertTest5(f1)");
+        // 第7行跟第1行重复
+        executeUpdateThanAssertErrorCode("INSERT INTO BatchInsertTest5(f1)"
+                + " SELECT CASEWHEN(x = 7, 1, x) FROM SYSTEM_RANGE(1, 100)",
+                ErrorCode.DUPLICATE_KEY_1);
+        sql = "SELECT count(*) FROM BatchInsertTest5";
+        assertEquals(0, getIntValue(1, true));
+        executeUpdate("INSERT INTO BatchInsertTest5(f1) VALUES(1000)");
+        sql = "SELECT id FROM BatchInsertTest5 WHERE f1 = 1000";
+        assertEquals(101, getIntValue(1, true));
+    }
+
+    private void assertCount(int expected, String where) throws Exception {
+        sql = "SELECT count(*) FROM BatchInsertTest " + where;
+        assertEquals(expected, getIntValue(1, true));
+    }
+}
@@ -11,10 +11,39 @@ import com.lealone.test.sql.SqlTestBase;
 
 public class DeleteTest extends SqlTestBase {
     @Test
-    public void run() {
+    public void run() throws Exception {
         createTable("DeleteTest");
         testInsert();
         testDelete();
+        testBatchDelete();
+    }
+
+    // 删除多个page中的记录时会走批量模式
+    void testBatchDelete() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS testBatchDelete");
+        executeUpdate("CREATE TABLE testBatchDelete (pk int PRIMARY KEY, f1 int UNIQUE, f2 int)");
+        executeUpdate("CREATE INDEX i_batch_delete_f2 ON testBatchDelete(f2)");
+        int rows = 3000;
+        for (int i = 1; i <= rows; i++) {
+            executeUpdate("INSERT INTO testBatchDelete(pk, f1, f2) VALUES(" + i + ", " + i + ", "
+                    + (i % 2) + ")");
+        }
+        conn.setAutoCommit(false);
+        sql = "DELETE FROM testBatchDelete WHERE f2 = 0";
+        assertEquals(rows / 2, executeUpdate(sql));
+        conn.rollback();
+        conn.setAutoCommit(true);
+        sql = "SELECT count(*) FROM testBatchDelete";
+        assertEquals(rows, getIntValue(1, true));
+
+        sql = "DELETE FROM testBatchDelete WHERE f2 = 0";
+        assertEquals(rows / 2, executeUpdate(sql));
+        sql = "SELECT count(*) FROM testBatchDelete";
+        assertEquals(rows / 2, getIntValue(1, true));
+        sql = "SELECT count(*) FROM testBatchDelete WHERE f1 = 10";
+        assertEquals(0, getIntValue(1, true));
+        sql = "SELECT count(*) FROM testBatchDelete WHERE f1 = 11";
+        assertEquals(1, getIntValue(1, true));
     }
 
     void testInsert() {
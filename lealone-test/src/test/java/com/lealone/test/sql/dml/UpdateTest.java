@@ -11,12 +11,47 @@ import com.lealone.test.sql.SqlTestBase;
 
 public class UpdateTest extends SqlTestBase {
     @Test
-    public void run() {
+    public void run() throws Exception {
         createTable("UpdateTest");
         testInsert();
         testUpdate();
         testUpdatePrimaryKey();
         testUpdateIndex();
+        testBatchUpdate();
+    }
+
+    // 更新多个page中的记录时会走批量模式
+    void testBatchUpdate() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS testBatchUpdate");
+        executeUpdate("CREATE TABLE testBatchUpdate (pk int PRIMARY KEY, f1 int UNIQUE, f2 int)");
+        executeUpdate("CREATE INDEX i_batch_f2 ON testBatchUpdate(f2)");
+        int rows = 3000;
+        for (int i = 1; i <= rows; i++) {
+            executeUpdate("INSERT INTO testBatchUpdate(pk, f1, f2) VALUES(" + i + ", " + i + ", 1)");
+        }
+        sql = "UPDATE testBatchUpdate SET f2 = f2 + 1 WHERE f1 > 0";
+        assertEquals(rows, executeUpdate(sql));
+        sql = "SELECT count(*) FROM testBatchUpdate WHERE f2 = 2";
+        assertEquals(rows, getIntValue(1, true));
+
+        // 更新唯一索引字段
+        sql = "UPDATE testBatchUpdate SET f1 = f1 + " + rows;
+        assertEquals(rows, executeUpdate(sql));
+        sql = "SELECT count(*) FROM testBatchUpdate WHERE f1 > " + rows;
+        assertEquals(rows, getIntValue(1, true));
+        sql = "SELECT pk FROM testBatchUpdate WHERE f1 = " + (rows + 10);
+        assertEquals(10, getIntValue(1, true));
+
+        // 回滚后批量更新的记录和索引都要恢复
+        conn.setAutoCommit(false);
+        sql = "UPDATE testBatchUpdate SET f2 = 3 WHERE pk > 1000";
+        assertEquals(rows - 1000, executeUpdate(sql));
+        conn.rollback();
+        conn.setAutoCommit(true);
+        sql = "SELECT count(*) FROM testBatchUpdate WHERE f2 = 2";
+        assertEquals(rows, getIntValue(1, true));
+        sql = "SELECT count(*) FROM testBatchUpdate WHERE f2 = 3";
+        assertEquals(0, getIntValue(1, true));
     }
 
     void testUpdatePrimaryKey() {
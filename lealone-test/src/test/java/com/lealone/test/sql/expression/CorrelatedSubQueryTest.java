@@ -0,0 +1,110 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.expression;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+public class CorrelatedSubQueryTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS CorrelatedSubQueryTest1");
+        executeUpdate("DROP TABLE IF EXISTS CorrelatedSubQueryTest2");
+        executeUpdate("CREATE TABLE CorrelatedSubQueryTest1(id int PRIMARY KEY, a int, c int)");
+        executeUpdate("CREATE TABLE CorrelatedSubQueryTest2(id int PRIMARY KEY, b int, c int)");
+        // 外层表的c只有3个不同的值，相同的c只需要执行一次子查询
+        executeUpdate("INSERT INTO CorrelatedSubQueryTest1 SELECT X, X, MOD(X, 3)"
+                + " FROM SYSTEM_RANGE(1, 90)");
+        executeUpdate("INSERT INTO CorrelatedSubQueryTest2 SELECT X, X, MOD(X + 1, 3)"
+                + " FROM SYSTEM_RANGE(1, 90)");
+
+        testIn();
+        testExists();
+        testScalar();
+        testDataChange();
+        testParameter();
+    }
+
+    private void testIn() throws Exception {
+        // b和c的关系是c = (b + 1) % 3，所以a = b时c不可能相等
+        sql = "SELECT count(*) FROM CorrelatedSubQueryTest1 t1 WHERE a IN"
+                + " (SELECT b FROM CorrelatedSubQueryTest2 t2 WHERE t2.c = t1.c)";
+        assertEquals(0, getIntValue(1, true));
+        sql = "SELECT count(*) FROM CorrelatedSubQueryTest1 t1 WHERE a IN"
+                + " (SELECT b FROM CorrelatedSubQueryTest2 t2 WHERE t2.c = MOD(t1.c + 1, 3))";
+        assertEquals(90, getIntValue(1, true));
+        sql = "SELECT count(*) FROM CorrelatedSubQueryTest1 t1 WHERE a > ALL"
+                + " (SELECT b FROM CorrelatedSubQueryTest2 t2 WHERE t2.c = t1.c AND t2.b < 30)";
+        assertEquals(63, getIntValue(1, true));
+    }
+
+    private void testExists() throws Exception {
+        sql = "SELECT count(*) FROM CorrelatedSubQueryTest1 t1 WHERE EXISTS"
+                + " (SELECT 1 FROM CorrelatedSubQueryTest2 t2 WHERE t2.b = t1.a + 50)";
+        assertEquals(40, getIntValue(1, true));
+        sql = "SELECT count(*) FROM CorrelatedSubQueryTest1 t1 WHERE NOT EXISTS"
+                + " (SELECT 1 FROM CorrelatedSubQueryTest2 t2 WHERE t2.b = t1.a + 50)";
+        assertEquals(50, getIntValue(1, true));
+        // 子查询的JOIN ... ON中引用外层字段
+        sql = "SELECT count(*) FROM CorrelatedSubQueryTest1 t1 WHERE EXISTS"
+                + " (SELECT 1 FROM CorrelatedSubQueryTest2 t2 JOIN CorrelatedSubQueryTest2 t3"
+                + " ON t3.id = t2.id AND t3.b = t1.a * 2)";
+        assertEquals(45, getIntValue(1, true));
+    }
+
+    private void testScalar() throws Exception {
+        ResultSet rs = stmt.executeQuery("SELECT c, (SELECT max(b) FROM CorrelatedSubQueryTest2 t2"
+                + " WHERE t2.c = t1.c) FROM CorrelatedSubQueryTest1 t1");
+        // c为0、1、2时max(b)分别是89、90、88
+        int[] expected = { 89, 90, 88 };
+        int count = 0;
+        while (rs.next()) {
+            assertEquals(expected[rs.getInt(1)], rs.getInt(2));
+            count++;
+        }
+        rs.close();
+        assertEquals(90, count);
+    }
+
+    // 数据有变化时缓存的结果不能再用
+    private void testDataChange() throws Exception {
+        String query = "SELECT count(*) FROM CorrelatedSubQueryTest1 t1 WHERE EXISTS"
+                + " (SELECT 1 FROM CorrelatedSubQueryTest2 t2 WHERE t2.c = t1.c AND t2.b > 88)";
+        PreparedStatement ps = conn.prepareStatement(query);
+        assertEquals(60, getCount(ps));
+        executeUpdate("UPDATE CorrelatedSubQueryTest2 SET b = 0 WHERE id = 90");
+        assertEquals(30, getCount(ps));
+        executeUpdate("UPDATE CorrelatedSubQueryTest2 SET b = 90 WHERE id = 90");
+        assertEquals(60, getCount(ps));
+        ps.close();
+    }
+
+    private void testParameter() throws Exception {
+        String query = "SELECT count(*) FROM CorrelatedSubQueryTest1 t1 WHERE a IN"
+                + " (SELECT b + ? FROM CorrelatedSubQueryTest2 t2 WHERE t2.c = MOD(t1.c + 1, 3))";
+        PreparedStatement ps = conn.prepareStatement(query);
+        ps.setInt(1, 0);
+        assertEquals(90, getCount(ps));
+        ps.setInt(1, 1);
+        assertEquals(0, getCount(ps));
+        ps.setInt(1, 3);
+        assertEquals(87, getCount(ps));
+        ps.close();
+    }
+
+    private static int getCount(PreparedStatement ps) throws Exception {
+        ResultSet rs = ps.executeQuery();
+        rs.next();
+        int count = rs.getInt(1);
+        rs.close();
+        return count;
+    }
+}
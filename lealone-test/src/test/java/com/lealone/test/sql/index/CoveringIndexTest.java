@@ -0,0 +1,124 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.index;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import com.lealone.db.api.ErrorCode;
+import com.lealone.test.sql.SqlTestBase;
+
+public class CoveringIndexTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS CoveringIndexTest");
+        executeUpdate("CREATE TABLE CoveringIndexTest(pk int PRIMARY KEY, a int, b int,"
+                + " c varchar, d int)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS CoveringIndexTest_a ON CoveringIndexTest(a)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS CoveringIndexTest_a_bc ON CoveringIndexTest(a)"
+                + " INCLUDE(b, c)");
+        executeUpdate("INSERT INTO CoveringIndexTest SELECT X, MOD(X, 100), X * 2, 'c' || X, X"
+                + " FROM SYSTEM_RANGE(1, 1000)");
+
+        testIndexOnlyScan();
+        testUpdate();
+        testIsolation();
+        testUnique();
+        testDDL();
+    }
+
+    private void testIndexOnlyScan() throws Exception {
+        // b和c都在索引中，选择带include字段的索引
+        sql = "EXPLAIN SELECT b, c FROM CoveringIndexTest WHERE a = 10";
+        String plan = getStringValue(1, true);
+        assertTrue(plan, plan.contains("COVERINGINDEXTEST_A_BC"));
+        sql = "SELECT sum(b), count(c) FROM CoveringIndexTest WHERE a = 10";
+        executeQuery();
+        assertEquals(9200, getIntValue(1));
+        assertEquals(10, getIntValue(2, true));
+        sql = "SELECT c FROM CoveringIndexTest WHERE a = 10 AND pk = 510";
+        assertEquals("c510", getStringValue(1, true));
+        // d不在索引中，还是要到主索引中读
+        sql = "SELECT sum(d) FROM CoveringIndexTest WHERE a = 10";
+        assertEquals(10 * (10 + 910) / 2, getIntValue(1, true));
+    }
+
+    private void testUpdate() throws Exception {
+        executeUpdate("UPDATE CoveringIndexTest SET b = -1 WHERE pk = 10");
+        sql = "SELECT b FROM CoveringIndexTest WHERE a = 10 AND pk = 10";
+        assertEquals(-1, getIntValue(1, true));
+        executeUpdate("UPDATE CoveringIndexTest SET b = 20 WHERE pk = 10");
+        sql = "SELECT b FROM CoveringIndexTest WHERE a = 10 AND pk = 10";
+        assertEquals(20, getIntValue(1, true));
+        // 索引字段和include字段一起更新
+        executeUpdate("UPDATE CoveringIndexTest SET a = 1000, c = 'x' WHERE pk = 10");
+        sql = "SELECT c FROM CoveringIndexTest WHERE a = 1000";
+        assertEquals("x", getStringValue(1, true));
+        sql = "SELECT count(*) FROM CoveringIndexTest WHERE a = 10";
+        assertEquals(9, getIntValue(1, true));
+        executeUpdate("UPDATE CoveringIndexTest SET a = 10, c = 'c10' WHERE pk = 10");
+        executeUpdate("DELETE FROM CoveringIndexTest WHERE pk = 1000");
+        sql = "SELECT count(c) FROM CoveringIndexTest WHERE a = 0";
+        assertEquals(9, getIntValue(1, true));
+        executeUpdate("INSERT INTO CoveringIndexTest VALUES(1000, 0, 2000, 'c1000', 1000)");
+    }
+
+    // 其他事务还没有提交时读到的include字段是旧值
+    private void testIsolation() throws Exception {
+        Connection conn2 = getConnection();
+        conn2.setAutoCommit(false);
+        Statement stmt2 = conn2.createStatement();
+        stmt2.executeUpdate("UPDATE CoveringIndexTest SET b = 0 WHERE pk = 20");
+        sql = "SELECT b FROM CoveringIndexTest WHERE a = 20 AND pk = 20";
+        assertEquals(40, getIntValue(1, true));
+        ResultSet rs2 = stmt2.executeQuery(sql);
+        assertTrue(rs2.next());
+        assertEquals(0, rs2.getInt(1));
+        rs2.close();
+        conn2.rollback();
+        assertEquals(40, getIntValue(1, true));
+
+        stmt2.executeUpdate("UPDATE CoveringIndexTest SET b = 0 WHERE pk = 20");
+        conn2.commit();
+        assertEquals(0, getIntValue(1, true));
+        stmt2.close();
+        conn2.close();
+    }
+
+    private void testUnique() throws Exception {
+        executeUpdate("CREATE UNIQUE INDEX IF NOT EXISTS CoveringIndexTest_c ON CoveringIndexTest(c)"
+                + " INCLUDE(d)");
+        sql = "SELECT d FROM CoveringIndexTest WHERE c = 'c123'";
+        assertEquals(123, getIntValue(1, true));
+        executeUpdate("INSERT INTO CoveringIndexTest VALUES(1001, 1, 1, 'u1', 1)");
+        executeUpdateThanAssertErrorCode(
+                "INSERT INTO CoveringIndexTest VALUES(1002, 1, 1, 'u1', 1)", ErrorCode.DUPLICATE_KEY_1);
+        executeUpdate("DROP INDEX CoveringIndexTest_c");
+        executeUpdate("DELETE FROM CoveringIndexTest WHERE pk = 1001");
+    }
+
+    private void testDDL() throws Exception {
+        ResultSet rs = stmt.executeQuery("SCRIPT NODATA TABLE CoveringIndexTest");
+        boolean found = false;
+        while (rs.next()) {
+            String s = rs.getString(1);
+            if (s.contains("COVERINGINDEXTEST_A_BC")) {
+                assertTrue(s, s.contains("(A) INCLUDE(B, C)"));
+                found = true;
+            }
+        }
+        rs.close();
+        assertTrue(found);
+        executeUpdateThanAssertErrorCode("ALTER TABLE CoveringIndexTest DROP COLUMN b",
+                ErrorCode.COLUMN_IS_REFERENCED_1);
+        executeUpdateThanAssertErrorCode("CREATE INDEX CoveringIndexTest_err ON CoveringIndexTest(a)"
+                + " INCLUDE(a)", ErrorCode.DUPLICATE_COLUMN_NAME_1);
+    }
+}
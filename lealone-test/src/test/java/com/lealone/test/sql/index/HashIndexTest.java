@@ -0,0 +1,98 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.index;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import com.lealone.db.api.ErrorCode;
+import com.lealone.test.sql.SqlTestBase;
+
+public class HashIndexTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS HashIndexTest");
+        executeUpdate("CREATE TABLE HashIndexTest(pk int PRIMARY KEY, a int, b varchar, c int)");
+        executeUpdate("CREATE UNIQUE HASH INDEX IF NOT EXISTS HashIndexTest_ab ON HashIndexTest(a, b)");
+        executeUpdate("CREATE HASH INDEX IF NOT EXISTS HashIndexTest_c ON HashIndexTest(c)");
+        executeUpdate("INSERT INTO HashIndexTest SELECT X, MOD(X, 100), 'b' || MOD(X, 7), MOD(X, 10)"
+                + " FROM SYSTEM_RANGE(1, 700)");
+
+        testLookup();
+        testUpdate();
+        testIsolation();
+        testDecimal();
+    }
+
+    private void testLookup() throws Exception {
+        sql = "EXPLAIN SELECT * FROM HashIndexTest WHERE a = 5 AND b = 'b5'";
+        String plan = getStringValue(1, true);
+        assertTrue(plan, plan.contains("HASHINDEXTEST_AB"));
+        sql = "SELECT pk FROM HashIndexTest WHERE a = 5 AND b = 'b5'";
+        assertEquals(5, getIntValue(1, true));
+        sql = "SELECT count(*) FROM HashIndexTest WHERE a = 5 AND b = 'b7'";
+        assertEquals(0, getIntValue(1, true));
+        sql = "SELECT count(*) FROM HashIndexTest WHERE c = 3";
+        assertEquals(70, getIntValue(1, true));
+        // 只有部分字段是等值条件时不能用hash索引
+        sql = "EXPLAIN SELECT * FROM HashIndexTest WHERE a = 5";
+        plan = getStringValue(1, true);
+        assertFalse(plan, plan.contains("HASHINDEXTEST_AB"));
+        sql = "SELECT count(*) FROM HashIndexTest WHERE c > 7";
+        assertEquals(140, getIntValue(1, true));
+        executeUpdateThanAssertErrorCode("INSERT INTO HashIndexTest VALUES(1000, 5, 'b5', 1)",
+                ErrorCode.DUPLICATE_KEY_1);
+    }
+
+    private void testUpdate() throws Exception {
+        executeUpdate("UPDATE HashIndexTest SET b = 'x' WHERE pk = 5");
+        sql = "SELECT pk FROM HashIndexTest WHERE a = 5 AND b = 'x'";
+        assertEquals(5, getIntValue(1, true));
+        sql = "SELECT count(*) FROM HashIndexTest WHERE a = 5 AND b = 'b5'";
+        assertEquals(0, getIntValue(1, true));
+        executeUpdate("UPDATE HashIndexTest SET b = 'b5' WHERE pk = 5");
+
+        executeUpdate("DELETE FROM HashIndexTest WHERE c = 3");
+        sql = "SELECT count(*) FROM HashIndexTest WHERE c = 3";
+        assertEquals(0, getIntValue(1, true));
+    }
+
+    // 其他事务还没有提交的记录不可见
+    private void testIsolation() throws Exception {
+        Connection conn2 = getConnection();
+        conn2.setAutoCommit(false);
+        Statement stmt2 = conn2.createStatement();
+        stmt2.executeUpdate("INSERT INTO HashIndexTest VALUES(2000, 2000, 'y', 3)");
+        sql = "SELECT count(*) FROM HashIndexTest WHERE a = 2000 AND b = 'y'";
+        assertEquals(0, getIntValue(1, true));
+        ResultSet rs2 = stmt2.executeQuery(sql);
+        assertTrue(rs2.next());
+        assertEquals(1, rs2.getInt(1));
+        rs2.close();
+        conn2.rollback();
+        assertEquals(0, getIntValue(1, true));
+
+        stmt2.executeUpdate("INSERT INTO HashIndexTest VALUES(2000, 2000, 'y', 3)");
+        conn2.commit();
+        assertEquals(1, getIntValue(1, true));
+        stmt2.close();
+        conn2.close();
+    }
+
+    // 比较相等的值要有相同的hash值
+    private void testDecimal() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS HashIndexTest2");
+        executeUpdate("CREATE TABLE HashIndexTest2(pk int PRIMARY KEY, v decimal, s varchar_ignorecase)");
+        executeUpdate("CREATE HASH INDEX IF NOT EXISTS HashIndexTest2_vs ON HashIndexTest2(v, s)");
+        executeUpdate("INSERT INTO HashIndexTest2 VALUES(1, 1.0, 'Abc'), (2, 1.00, 'aBC'), (3, 2, 'abc')");
+        sql = "SELECT count(*) FROM HashIndexTest2 WHERE v = 1 AND s = 'ABC'";
+        assertEquals(2, getIntValue(1, true));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.index;
+
+import org.junit.Test;
+
+import com.lealone.db.api.ErrorCode;
+import com.lealone.test.sql.SqlTestBase;
+
+public class PartialIndexTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS PartialIndexTest");
+        executeUpdate("CREATE TABLE PartialIndexTest(pk int PRIMARY KEY, email varchar, active int, a int)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS PartialIndexTest_email"
+                + " ON PartialIndexTest(LOWER(email))");
+        executeUpdate("CREATE INDEX IF NOT EXISTS PartialIndexTest_a"
+                + " ON PartialIndexTest(a) WHERE active = 1");
+        executeUpdate("INSERT INTO PartialIndexTest SELECT X, 'User' || X, MOD(X, 2), MOD(X, 10)"
+                + " FROM SYSTEM_RANGE(1, 100)");
+
+        testExpressionIndex();
+        testPartialIndex();
+        testDropColumn();
+    }
+
+    private void testExpressionIndex() throws Exception {
+        sql = "EXPLAIN SELECT * FROM PartialIndexTest WHERE LOWER(email) = 'user5'";
+        String plan = getStringValue(1, true);
+        assertTrue(plan, plan.contains("PARTIALINDEXTEST_EMAIL"));
+        sql = "SELECT pk FROM PartialIndexTest WHERE LOWER(email) = 'user5'";
+        assertEquals(5, getIntValue(1, true));
+        sql = "SELECT pk FROM PartialIndexTest t WHERE LOWER(t.email) = 'user8'";
+        assertEquals(8, getIntValue(1, true));
+
+        executeUpdate("UPDATE PartialIndexTest SET email = 'ABC' WHERE pk = 7");
+        sql = "SELECT pk FROM PartialIndexTest WHERE LOWER(email) = 'abc'";
+        assertEquals(7, getIntValue(1, true));
+        sql = "SELECT count(*) FROM PartialIndexTest WHERE LOWER(email) = 'user7'";
+        assertEquals(0, getIntValue(1, true));
+
+        // 没有更新表达式中引用的字段时不需要更新表达式索引
+        executeUpdate("UPDATE PartialIndexTest SET a = a WHERE pk = 8");
+        executeUpdate("UPDATE PartialIndexTest SET active = active WHERE pk = 8");
+        sql = "SELECT pk FROM PartialIndexTest WHERE LOWER(email) = 'user8'";
+        assertEquals(8, getIntValue(1, true));
+
+        // 常量表达式不能建索引
+        executeUpdateThanAssertErrorCode("CREATE INDEX PartialIndexTest_c ON PartialIndexTest(1 + 2)",
+                ErrorCode.FEATURE_NOT_SUPPORTED_1);
+    }
+
+    private void testPartialIndex() throws Exception {
+        sql = "EXPLAIN SELECT * FROM PartialIndexTest WHERE a = 5 AND active = 1";
+        String plan = getStringValue(1, true);
+        assertTrue(plan, plan.contains("PARTIALINDEXTEST_A"));
+        sql = "SELECT count(*) FROM PartialIndexTest WHERE a = 5 AND active = 1";
+        assertEquals(10, getIntValue(1, true));
+
+        // 查询条件不蕴含索引条件时不能用部分索引
+        sql = "EXPLAIN SELECT * FROM PartialIndexTest WHERE a = 5";
+        plan = getStringValue(1, true);
+        assertFalse(plan, plan.contains("PARTIALINDEXTEST_A"));
+        sql = "SELECT count(*) FROM PartialIndexTest WHERE a = 5";
+        assertEquals(10, getIntValue(1, true));
+        sql = "SELECT count(*) FROM PartialIndexTest WHERE a = 6";
+        assertEquals(10, getIntValue(1, true));
+
+        // 修改后不满足索引条件的记录要从索引中删除，反之要加入
+        executeUpdate("UPDATE PartialIndexTest SET active = 0 WHERE pk = 5");
+        executeUpdate("UPDATE PartialIndexTest SET active = 1 WHERE pk = 6");
+        sql = "SELECT count(*) FROM PartialIndexTest WHERE a = 5 AND active = 1";
+        assertEquals(9, getIntValue(1, true));
+        sql = "SELECT count(*) FROM PartialIndexTest WHERE a = 6 AND active = 1";
+        assertEquals(1, getIntValue(1, true));
+
+        executeUpdate("DELETE FROM PartialIndexTest WHERE pk = 15");
+        sql = "SELECT count(*) FROM PartialIndexTest WHERE a = 5 AND active = 1";
+        assertEquals(8, getIntValue(1, true));
+
+        // 过滤条件中的字段没有变，只更新索引字段
+        executeUpdate("UPDATE PartialIndexTest SET a = 7 WHERE pk = 25");
+        sql = "SELECT count(*) FROM PartialIndexTest WHERE a = 5 AND active = 1";
+        assertEquals(7, getIntValue(1, true));
+        sql = "SELECT count(*) FROM PartialIndexTest WHERE a = 7 AND active = 1";
+        assertEquals(11, getIntValue(1, true));
+    }
+
+    private void testDropColumn() throws Exception {
+        executeUpdateThanAssertErrorCode("ALTER TABLE PartialIndexTest DROP COLUMN active",
+                ErrorCode.COLUMN_IS_REFERENCED_1);
+        executeUpdate("DROP INDEX PartialIndexTest_a");
+        executeUpdate("ALTER TABLE PartialIndexTest DROP COLUMN active");
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.index;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+public class SkipScanTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS SkipScanTest");
+        executeUpdate("CREATE TABLE SkipScanTest(pk int PRIMARY KEY, tenant int, status int, v int)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS SkipScanTest_ts ON SkipScanTest(tenant, status)");
+        executeUpdate("INSERT INTO SkipScanTest SELECT X, MOD(X, 5), MOD(X, 100), X"
+                + " FROM SYSTEM_RANGE(1, 10000)");
+        executeUpdate("ANALYZE TABLE SkipScanTest");
+
+        testEquality();
+        testRange();
+        testOrder();
+        testHighCardinality();
+    }
+
+    private void testEquality() throws Exception {
+        // 没有tenant的条件，tenant只有5个不同的值，按tenant逐个跳到status = 7的子范围
+        sql = "EXPLAIN SELECT count(*) FROM SkipScanTest WHERE status = 7";
+        String plan = getStringValue(1, true);
+        assertTrue(plan, plan.contains("SKIPSCANTEST_TS"));
+        sql = "SELECT count(*), sum(v) FROM SkipScanTest WHERE status = 7";
+        executeQuery();
+        assertEquals(100, getIntValue(1));
+        assertEquals(495700, getIntValue(2, true));
+        sql = "SELECT count(*) FROM SkipScanTest WHERE status = 1000";
+        assertEquals(0, getIntValue(1, true));
+    }
+
+    private void testRange() throws Exception {
+        sql = "SELECT count(*) FROM SkipScanTest WHERE status >= 7 AND status < 9";
+        assertEquals(200, getIntValue(1, true));
+        sql = "SELECT count(*) FROM SkipScanTest WHERE status > 97";
+        assertEquals(200, getIntValue(1, true));
+        sql = "SELECT count(*) FROM SkipScanTest WHERE status < 2";
+        assertEquals(200, getIntValue(1, true));
+    }
+
+    private void testOrder() throws Exception {
+        executeUpdate("INSERT INTO SkipScanTest VALUES(10001, 0, 8, 0), (10002, 4, 8, 0)");
+        sql = "SELECT tenant FROM SkipScanTest WHERE status = 8 ORDER BY tenant, status";
+        rs = stmt.executeQuery(sql);
+        int count = 0;
+        int last = -1;
+        while (rs.next()) {
+            int tenant = rs.getInt(1);
+            assertTrue(tenant >= last);
+            last = tenant;
+            count++;
+        }
+        closeResultSet();
+        assertEquals(102, count);
+        executeUpdate("DELETE FROM SkipScanTest WHERE pk > 10000");
+    }
+
+    // 第一个索引字段的不同值太多时不用跳跃扫描
+    private void testHighCardinality() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS SkipScanTest2");
+        executeUpdate("CREATE TABLE SkipScanTest2(pk int PRIMARY KEY, a int, b int)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS SkipScanTest2_ab ON SkipScanTest2(a, b)");
+        executeUpdate("INSERT INTO SkipScanTest2 SELECT X, X, MOD(X, 10) FROM SYSTEM_RANGE(1, 1000)");
+        executeUpdate("ANALYZE TABLE SkipScanTest2");
+        sql = "SELECT count(*) FROM SkipScanTest2 WHERE b = 3";
+        assertEquals(100, getIntValue(1, true));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.lealone.db.Constants;
+import com.lealone.db.api.ErrorCode;
+import com.lealone.test.sql.SqlTestBase;
+
+public class ExpressionCompileTest extends SqlTestBase {
+
+    private static final String[] QUERIES = {
+            "SELECT pk, v + 1, v * 2 - pk, -v, v / 3, v % 7 FROM ExpressionCompileTest"
+                    + " WHERE (v > 10 AND pk <= 150 OR v IS NULL)",
+            "SELECT pk, d * 2, d + v, d / 4, f FROM ExpressionCompileTest"
+                    + " WHERE d >= 20.5 AND f < 60 AND NOT (v = 3)",
+            "SELECT pk FROM ExpressionCompileTest WHERE (v IN (1, 3, 5, NULL) OR l IN (7, 9))",
+            "SELECT pk FROM ExpressionCompileTest WHERE NOT (v IN (2, 4, 6)) AND v IS NOT NULL",
+            "SELECT pk, l * 3, l - v FROM ExpressionCompileTest WHERE l <> 5 AND (v < 3 OR v > 95)",
+            "SELECT pk, name FROM ExpressionCompileTest WHERE name > 'n150' AND v < 60",
+            "SELECT pk, v + 0.5, upper(name) FROM ExpressionCompileTest WHERE f = pk AND v >= 1.5",
+            "SELECT count(*), sum(v) FROM ExpressionCompileTest WHERE (v * 2 > 100 OR d < 10)" };
+
+    // 编译好的类在数据库级别的缓存中一直存在，每次运行都在WHERE后面加一个不同的常量，
+    // 这样生成的源代码跟上一次运行不一样，一定会重新编译
+    private final String runCondition = " AND pk <> -" + (1 + System.nanoTime() % 1000000000);
+
+    public ExpressionCompileTest() {
+        super("ExpressionCompileTestDB");
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS ExpressionCompileTest");
+        executeUpdate("CREATE TABLE ExpressionCompileTest(pk int PRIMARY KEY, v int, l bigint,"
+                + " d double, f real, name varchar)");
+        // pk是13的倍数时v为null
+        executeUpdate("INSERT INTO ExpressionCompileTest SELECT X,"
+                + " CASEWHEN(MOD(X, 13) = 0, null, MOD(X, 100)), MOD(X, 11), X / 2.0, X,"
+                + " 'n' || X FROM SYSTEM_RANGE(1, 300)");
+
+        String[] queries = new String[QUERIES.length];
+        ArrayList<ArrayList<String>> expected = new ArrayList<>();
+        for (int i = 0; i < QUERIES.length; i++) {
+            queries[i] = QUERIES[i] + runCondition;
+            expected.add(query(queries[i]));
+        }
+
+        // 执行一次后就编译，关掉数据库级别的结果缓存，确保每次都会计算表达式
+        executeUpdate("SET EXPRESSION_COMPILE_THRESHOLD 1");
+        executeUpdate("SET RESULT_CACHE_SIZE 0");
+        try {
+            long entries = getStatistic("COMPILED_CLASS_CACHE_ENTRIES");
+            for (int i = 0; i < queries.length; i++)
+                assertEquals(expected.get(i), query(queries[i]));
+            // 在后台编译，等编译好后再用生成的代码执行
+            waitCompiled(entries + queries.length);
+            for (int n = 0; n < 2; n++) {
+                for (int i = 0; i < queries.length; i++)
+                    assertEquals(expected.get(i), query(queries[i]));
+            }
+            testSharedClass();
+            testPreparedStatement();
+            testArithmeticException();
+        } finally {
+            executeUpdate("SET EXPRESSION_COMPILE_THRESHOLD 0");
+            executeUpdate("SET RESULT_CACHE_SIZE " + Constants.DEFAULT_RESULT_CACHE_SIZE);
+        }
+    }
+
+    // 不同的语句中有相同的表达式时共用一个编译好的类
+    private void testSharedClass() throws Exception {
+        String sql = "SELECT pk, v * 3 FROM ExpressionCompileTest WHERE v > 42" + runCondition;
+        long entries = getStatistic("COMPILED_CLASS_CACHE_ENTRIES");
+        ArrayList<String> result = query(sql);
+        entries = waitCompiled(entries + 1);
+        long hits = getStatistic("COMPILED_CLASS_CACHE_HITS");
+        assertEquals(result, query(sql.toLowerCase()));
+        assertEquals(hits + 1, getStatistic("COMPILED_CLASS_CACHE_HITS"));
+        assertEquals(entries, getStatistic("COMPILED_CLASS_CACHE_ENTRIES"));
+    }
+
+    private long waitCompiled(long entries) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            long n = getStatistic("COMPILED_CLASS_CACHE_ENTRIES");
+            if (n >= entries)
+                return n;
+            Thread.sleep(100);
+        }
+        fail("expressions are not compiled");
+        return -1;
+    }
+
+    // 用另一个没有设置EXPRESSION_COMPILE_THRESHOLD的连接查询，查询本身不会增加编译的类
+    private long getStatistic(String name) throws Exception {
+        try (Connection conn = getConnection(); Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery(
+                    "SELECT value FROM INFORMATION_SCHEMA.SETTINGS WHERE name = '" + name + "'");
+            assertTrue(rs.next());
+            return rs.getLong(1);
+        }
+    }
+
+    private void testPreparedStatement() throws Exception {
+        sql = "SELECT count(*) FROM ExpressionCompileTest WHERE v > ? AND l < ?";
+        PreparedStatement ps = conn.prepareStatement(sql);
+        for (int i = 0; i < 3; i++) {
+            ps.setInt(1, 90);
+            ps.setInt(2, 5 + i);
+            ResultSet rs = ps.executeQuery();
+            assertTrue(rs.next());
+            int count = rs.getInt(1);
+            rs.close();
+            rs = stmt.executeQuery("SELECT count(*) FROM ExpressionCompileTest"
+                    + " WHERE v > 90 AND l < " + (5 + i));
+            assertTrue(rs.next());
+            assertEquals(rs.getInt(1), count);
+            rs.close();
+        }
+        ps.close();
+    }
+
+    // 溢出和除0要跟解释执行一样报错
+    private void testArithmeticException() throws Exception {
+        try {
+            query("SELECT v * 2147483647 FROM ExpressionCompileTest WHERE pk > 1");
+            fail();
+        } catch (SQLException e) {
+            assertEquals(ErrorCode.NUMERIC_VALUE_OUT_OF_RANGE_1, e.getErrorCode());
+        }
+        try {
+            query("SELECT v / (l - l) FROM ExpressionCompileTest WHERE v IS NOT NULL");
+            fail();
+        } catch (SQLException e) {
+            assertEquals(ErrorCode.DIVISION_BY_ZERO_1, e.getErrorCode());
+        }
+        assertEquals(55, query("SELECT l * 9223372036854775807 FROM ExpressionCompileTest"
+                + " WHERE l <= 1").size());
+    }
+
+    private ArrayList<String> query(String sql) throws Exception {
+        ArrayList<String> list = new ArrayList<>();
+        ResultSet rs = stmt.executeQuery(sql);
+        int columnCount = rs.getMetaData().getColumnCount();
+        while (rs.next()) {
+            StringBuilder buff = new StringBuilder();
+            for (int i = 1; i <= columnCount; i++) {
+                if (i > 1)
+                    buff.append(',');
+                buff.append(rs.getString(i));
+            }
+            list.add(buff.toString());
+        }
+        rs.close();
+        return list;
+    }
+}
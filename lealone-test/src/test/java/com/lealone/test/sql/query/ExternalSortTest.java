@@ -0,0 +1,92 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import java.sql.ResultSet;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+public class ExternalSortTest extends SqlTestBase {
+
+    public ExternalSortTest() {
+        super("ExternalSortTestDB");
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS ExternalSortTest");
+        executeUpdate("CREATE TABLE ExternalSortTest(pk int PRIMARY KEY, v int, name varchar)");
+        // v从0到99，每个值有30条记录
+        executeUpdate("INSERT INTO ExternalSortTest SELECT X, MOD(X, 100), 'n' || X"
+                + " FROM SYSTEM_RANGE(1, 3000)");
+        executeUpdate("INSERT INTO ExternalSortTest VALUES(3001, null, 'n3001')");
+
+        // 每个run只能放很少的记录，run的个数超过一次能归并的个数
+        executeUpdate("SET MAX_MEMORY_ROWS 10");
+        executeUpdate("SET MAX_SORT_MEMORY 1024");
+        try {
+            testSort();
+        } finally {
+            executeUpdate("SET MAX_MEMORY_ROWS 100000");
+            executeUpdate("SET MAX_SORT_MEMORY 16777216");
+        }
+        testSort();
+    }
+
+    private void testSort() throws Exception {
+        ResultSet rs = stmt.executeQuery("SELECT pk, v FROM ExternalSortTest ORDER BY v DESC, pk");
+        int count = 0;
+        int lastV = Integer.MAX_VALUE;
+        int lastPk = 0;
+        while (rs.next()) {
+            int pk = rs.getInt(1);
+            int v = rs.getInt(2);
+            if (rs.wasNull()) {
+                // null排在最前面，降序时排在最后面
+                assertEquals(3001, pk);
+                assertEquals(3000, count);
+            } else {
+                assertTrue(v < lastV || v == lastV && pk > lastPk);
+                lastV = v;
+                lastPk = pk;
+            }
+            count++;
+        }
+        rs.close();
+        assertEquals(3001, count);
+
+        // 排序字段不是第一个字段，排序字段相同时按读到的顺序返回
+        rs = stmt.executeQuery("SELECT pk FROM ExternalSortTest WHERE v IS NOT NULL ORDER BY v");
+        for (int v = 0; v < 100; v++) {
+            for (int i = 0; i < 30; i++) {
+                assertTrue(rs.next());
+                assertEquals(i * 100 + (v == 0 ? 100 : v), rs.getInt(1));
+            }
+        }
+        assertFalse(rs.next());
+        rs.close();
+
+        sql = "SELECT pk FROM ExternalSortTest ORDER BY name LIMIT 2 OFFSET 1";
+        rs = stmt.executeQuery(sql);
+        assertTrue(rs.next());
+        assertEquals(10, rs.getInt(1));
+        assertTrue(rs.next());
+        assertEquals(100, rs.getInt(1));
+        assertFalse(rs.next());
+        rs.close();
+
+        rs = stmt.executeQuery("SELECT DISTINCT v FROM ExternalSortTest ORDER BY v DESC");
+        assertTrue(rs.next());
+        assertEquals(99, rs.getInt(1));
+        count = 1;
+        while (rs.next())
+            count++;
+        rs.close();
+        assertEquals(101, count);
+    }
+}
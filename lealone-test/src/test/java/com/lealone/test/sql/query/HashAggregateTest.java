@@ -0,0 +1,86 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+public class HashAggregateTest extends SqlTestBase {
+
+    private static final String[] QUERIES = {
+            "SELECT g, count(*), sum(v), avg(v), min(name), max(d), sum(d) FROM HashAggregateTest1 GROUP BY g",
+            "SELECT g, count(DISTINCT v), group_concat(pk ORDER BY pk) FROM HashAggregateTest1 GROUP BY g",
+            "SELECT g FROM HashAggregateTest1 GROUP BY g HAVING count(*) > 2",
+            "SELECT t2.name, count(t1.pk), sum(t1.v) FROM HashAggregateTest1 t1"
+                    + " LEFT JOIN HashAggregateTest2 t2 ON t1.g = t2.pk GROUP BY t2.name" };
+
+    public HashAggregateTest() {
+        super("HashAggregateTestDB");
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS HashAggregateTest1");
+        executeUpdate("DROP TABLE IF EXISTS HashAggregateTest2");
+        executeUpdate("CREATE TABLE HashAggregateTest1(pk int PRIMARY KEY, g int, v int, d double,"
+                + " name varchar)");
+        executeUpdate("CREATE TABLE HashAggregateTest2(pk int PRIMARY KEY, name varchar)");
+        // g从0到1999，g为1到1000的分组有3条记录，其他分组有2条记录
+        executeUpdate("INSERT INTO HashAggregateTest1 SELECT X, MOD(X, 2000), X, X / 2.0, 'n' || X"
+                + " FROM SYSTEM_RANGE(1, 5000)");
+        executeUpdate("INSERT INTO HashAggregateTest2 SELECT X, 'n' || X FROM SYSTEM_RANGE(1, 1000)");
+
+        ArrayList<ArrayList<String>> expected = new ArrayList<>();
+        for (String query : QUERIES)
+            expected.add(query(query));
+        assertEquals(2000, expected.get(0).size());
+        assertEquals(1000, expected.get(2).size());
+        // g为0和1001到1999的记录在t2中没有匹配
+        assertEquals(1001, expected.get(3).size());
+        assertTrue(expected.get(3).contains("null,2000,5001000"));
+
+        // 分组在内存中放不下，需要写到临时文件再重新分组，还会继续拆分
+        executeUpdate("SET MAX_AGGREGATE_MEMORY 1024");
+        try {
+            for (int i = 0; i < QUERIES.length; i++)
+                assertEquals(expected.get(i), query(QUERIES[i]));
+        } finally {
+            executeUpdate("SET MAX_AGGREGATE_MEMORY 67108864");
+        }
+
+        sql = "SELECT sum(v), avg(v), sum(d) FROM HashAggregateTest1";
+        ResultSet rs = stmt.executeQuery(sql);
+        assertTrue(rs.next());
+        assertEquals(12502500L, rs.getLong(1));
+        assertEquals(2500, rs.getInt(2));
+        assertEquals(6251250.0, rs.getDouble(3), 0.0);
+        rs.close();
+    }
+
+    // 分组的输出顺序是不确定的，排好序再比较
+    private ArrayList<String> query(String sql) throws Exception {
+        ArrayList<String> list = new ArrayList<>();
+        ResultSet rs = stmt.executeQuery(sql);
+        int columnCount = rs.getMetaData().getColumnCount();
+        while (rs.next()) {
+            StringBuilder buff = new StringBuilder();
+            for (int i = 1; i <= columnCount; i++) {
+                if (i > 1)
+                    buff.append(',');
+                buff.append(rs.getString(i));
+            }
+            list.add(buff.toString());
+        }
+        rs.close();
+        Collections.sort(list);
+        return list;
+    }
+}
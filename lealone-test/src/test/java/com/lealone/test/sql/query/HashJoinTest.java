@@ -0,0 +1,74 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+public class HashJoinTest extends SqlTestBase {
+
+    public HashJoinTest() {
+        super("HashJoinTestDB");
+    }
+
+    @Test
+    public void run() throws Exception {
+        init();
+        testJoin(true);
+        // 估算内表放不进内存时不使用hash join
+        executeUpdate("SET MAX_JOIN_MEMORY 1024");
+        try {
+            testJoin(false);
+        } finally {
+            executeUpdate("SET MAX_JOIN_MEMORY 67108864");
+        }
+    }
+
+    void init() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS HashJoinTest1");
+        executeUpdate("DROP TABLE IF EXISTS HashJoinTest2");
+        executeUpdate("CREATE TABLE HashJoinTest1(pk int PRIMARY KEY, a int, name varchar)");
+        executeUpdate("CREATE TABLE HashJoinTest2(pk int PRIMARY KEY, a bigint, name varchar)");
+        // join字段上都没有索引
+        for (int i = 1; i <= 200; i++)
+            executeUpdate("INSERT INTO HashJoinTest1 VALUES(" + i + ", " + (i % 50) + ", 'n" + i + "')");
+        executeUpdate("INSERT INTO HashJoinTest1 VALUES(201, null, 'n201')");
+        for (int i = 1; i <= 100; i++)
+            executeUpdate("INSERT INTO HashJoinTest2 VALUES(" + i + ", " + i + ", 'n" + i + "')");
+        executeUpdate("INSERT INTO HashJoinTest2 VALUES(101, null, 'n101')");
+    }
+
+    void testJoin(boolean hashJoin) throws Exception {
+        sql = "EXPLAIN SELECT * FROM HashJoinTest1 t1 LEFT JOIN HashJoinTest2 t2 ON t1.a = t2.a";
+        assertEquals(hashJoin, getStringValue(1, true).contains("HASH JOIN"));
+
+        // a为1到49的记录各有4条能匹配上
+        sql = "SELECT count(*) FROM HashJoinTest1 t1 JOIN HashJoinTest2 t2 ON t1.a = t2.a";
+        assertEquals(196, getIntValue(1, true));
+        sql = "SELECT count(*) FROM HashJoinTest1 t1, HashJoinTest2 t2 WHERE t1.a = t2.a";
+        assertEquals(196, getIntValue(1, true));
+
+        // a为0的4条记录和a为null的1条记录匹配不上
+        sql = "SELECT count(*) FROM HashJoinTest1 t1 LEFT JOIN HashJoinTest2 t2 ON t1.a = t2.a";
+        assertEquals(201, getIntValue(1, true));
+        sql = "SELECT count(*) FROM HashJoinTest1 t1 LEFT JOIN HashJoinTest2 t2 ON t1.a = t2.a"
+                + " WHERE t2.pk IS NULL";
+        assertEquals(5, getIntValue(1, true));
+
+        // on中的其他条件仍然要检查
+        sql = "SELECT count(*) FROM HashJoinTest1 t1 LEFT JOIN HashJoinTest2 t2"
+                + " ON t1.a = t2.a AND t2.name = t1.name";
+        assertEquals(201, getIntValue(1, true));
+        sql = "SELECT count(*) FROM HashJoinTest1 t1 JOIN HashJoinTest2 t2"
+                + " ON t1.a = t2.a AND t2.name = t1.name";
+        assertEquals(49, getIntValue(1, true));
+
+        sql = "SELECT t2.name FROM HashJoinTest1 t1 JOIN HashJoinTest2 t2 ON t1.a = t2.a"
+                + " WHERE t1.pk = 123";
+        assertEquals("n23", getStringValue(1, true));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import java.sql.ResultSet;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+public class HistogramTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS HistogramTest");
+        executeUpdate("CREATE TABLE HistogramTest(pk int PRIMARY KEY, a int, b int)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS HistogramTest_a ON HistogramTest(a)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS HistogramTest_b ON HistogramTest(b)");
+        // a的值严重倾斜，95%的记录是1，其他记录的a等于pk；b是均匀分布的，每个值有100条记录
+        executeUpdate("INSERT INTO HistogramTest SELECT X, CASEWHEN(MOD(X, 20) = 0, X, 1),"
+                + " MOD(X, 100) FROM SYSTEM_RANGE(1, 10000)");
+        executeUpdate("ANALYZE TABLE HistogramTest HISTOGRAM BUCKETS 64");
+
+        // a = 1 几乎是全表，用b上的索引
+        assertIndex("a = 1 AND b = 5", "HISTOGRAMTEST_B", 100);
+        // a = 40 只有一条记录，用a上的索引
+        assertIndex("a = 40 AND b = 40", "HISTOGRAMTEST_A", 1);
+        assertIndex("a > 9900 AND b = 0", "HISTOGRAMTEST_A", 1);
+        assertIndex("a >= 1 AND a < 100 AND b = 0", "HISTOGRAMTEST_B", 0);
+
+        testStatisticsSQL();
+        testCreateWithStatistics();
+    }
+
+    private void assertIndex(String where, String index, int count) throws Exception {
+        sql = "EXPLAIN SELECT * FROM HistogramTest WHERE " + where;
+        String plan = getStringValue(1, true);
+        assertTrue(plan, plan.toUpperCase().contains(index));
+        sql = "SELECT count(*) FROM HistogramTest WHERE " + where;
+        assertEquals(count, getIntValue(1, true));
+    }
+
+    // 统计信息跟字段定义一起保存
+    private void testStatisticsSQL() throws Exception {
+        ResultSet rs = stmt.executeQuery("SCRIPT NODATA TABLE HistogramTest");
+        boolean found = false;
+        while (rs.next()) {
+            String s = rs.getString(1);
+            if (s.startsWith("CREATE") && s.contains("TABLE PUBLIC.HISTOGRAMTEST(")) {
+                assertTrue(s, s.contains("STATISTICS(10000, 0, "));
+                found = true;
+            }
+        }
+        rs.close();
+        assertTrue(found);
+    }
+
+    private void testCreateWithStatistics() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS HistogramTest2");
+        executeUpdate("CREATE TABLE HistogramTest2(pk int PRIMARY KEY,"
+                + " a int STATISTICS(100, 10, 3, 1, 1, 1, 2, 3),"
+                + " s varchar STATISTICS(100, 0, 100, 'a', 'm', 'z'))");
+        executeUpdate("INSERT INTO HistogramTest2 VALUES(1, 1, 'b')");
+        sql = "SELECT count(*) FROM HistogramTest2 WHERE a = 1 AND s > 'a'";
+        assertEquals(1, getIntValue(1, true));
+    }
+}
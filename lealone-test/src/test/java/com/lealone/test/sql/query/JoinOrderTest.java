@@ -0,0 +1,71 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+public class JoinOrderTest extends SqlTestBase {
+
+    private static final int TABLE_COUNT = 12;
+
+    @Test
+    public void run() throws Exception {
+        for (int i = 1; i <= TABLE_COUNT; i++) {
+            executeUpdate("DROP TABLE IF EXISTS JoinOrderTest" + i);
+            executeUpdate("CREATE TABLE JoinOrderTest" + i + "(id int PRIMARY KEY, fk int)");
+            executeUpdate("CREATE INDEX IF NOT EXISTS JoinOrderTest" + i + "_fk ON JoinOrderTest"
+                    + i + "(fk)");
+            executeUpdate("INSERT INTO JoinOrderTest" + i + " SELECT X, X FROM SYSTEM_RANGE(1, "
+                    + (100 * i) + ")");
+        }
+        testChain();
+        testOuterJoin();
+        testCrossJoin();
+    }
+
+    // t1.fk = t2.id AND t2.fk = t3.id ... 最后一个表按主键查找，应该从它开始join
+    private void testChain() throws Exception {
+        StringBuilder buff = new StringBuilder();
+        buff.append(" FROM ");
+        for (int i = 1; i <= TABLE_COUNT; i++) {
+            if (i > 1)
+                buff.append(", ");
+            buff.append("JoinOrderTest").append(i).append(" t").append(i);
+        }
+        buff.append(" WHERE t").append(TABLE_COUNT).append(".id = 50");
+        for (int i = 1; i < TABLE_COUNT; i++) {
+            buff.append(" AND t").append(i).append(".fk = t").append(i + 1).append(".id");
+        }
+        sql = "EXPLAIN SELECT *" + buff;
+        String plan = getStringValue(1, true);
+        int first = plan.indexOf("JOINORDERTEST" + TABLE_COUNT + " ");
+        for (int i = 1; i < TABLE_COUNT; i++)
+            assertTrue(plan, first < plan.indexOf("JOINORDERTEST" + i + " "));
+        sql = "SELECT count(*)" + buff;
+        assertEquals(1, getIntValue(1, true));
+    }
+
+    private void testOuterJoin() throws Exception {
+        sql = "SELECT count(*) FROM JoinOrderTest1 t1 JOIN JoinOrderTest2 t2 ON t1.id = t2.fk"
+                + " LEFT JOIN JoinOrderTest3 t3 ON t2.id = t3.fk AND t3.id > 150"
+                + " JOIN JoinOrderTest4 t4 ON t4.id = t2.id WHERE t4.fk <= 80";
+        assertEquals(80, getIntValue(1, true));
+        sql = "SELECT count(t3.id) FROM JoinOrderTest1 t1 JOIN JoinOrderTest2 t2 ON t1.id = t2.fk"
+                + " LEFT JOIN JoinOrderTest3 t3 ON t2.id = t3.fk AND t3.id > 50"
+                + " JOIN JoinOrderTest4 t4 ON t4.id = t2.id WHERE t4.fk <= 80";
+        assertEquals(30, getIntValue(1, true));
+    }
+
+    // 没有join条件的表之间也要能生成笛卡尔积
+    private void testCrossJoin() throws Exception {
+        sql = "SELECT count(*) FROM JoinOrderTest1 t1, JoinOrderTest2 t2, JoinOrderTest3 t3,"
+                + " JoinOrderTest4 t4 WHERE t1.id = t2.fk AND t3.id = t4.fk"
+                + " AND t1.id <= 3 AND t3.id <= 5";
+        assertEquals(15, getIntValue(1, true));
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+public class MergeJoinTest extends SqlTestBase {
+
+    public MergeJoinTest() {
+        super("MergeJoinTestDB");
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS MergeJoinTest1");
+        executeUpdate("DROP TABLE IF EXISTS MergeJoinTest2");
+        executeUpdate("CREATE TABLE MergeJoinTest1(pk int PRIMARY KEY, name varchar)");
+        executeUpdate("CREATE TABLE MergeJoinTest2(pk int PRIMARY KEY, fk int, name varchar)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS MergeJoinTest2_fk ON MergeJoinTest2(fk)");
+        executeUpdate("INSERT INTO MergeJoinTest1 SELECT X, 'n' || X FROM SYSTEM_RANGE(1, 2000)");
+        // fk从1到1500，每个值有两条记录
+        executeUpdate("INSERT INTO MergeJoinTest2 SELECT X, MOD(X, 1500) + 1, 'n' || X"
+                + " FROM SYSTEM_RANGE(1, 3000)");
+        executeUpdate("INSERT INTO MergeJoinTest2 VALUES(3001, null, 'n3001')");
+
+        sql = "EXPLAIN SELECT * FROM MergeJoinTest1 t1 JOIN MergeJoinTest2 t2 ON t1.pk = t2.fk";
+        assertTrue(getStringValue(1, true).contains("MERGE JOIN"));
+        sql = "SELECT count(*) FROM MergeJoinTest1 t1 JOIN MergeJoinTest2 t2 ON t1.pk = t2.fk";
+        assertEquals(3000, getIntValue(1, true));
+
+        sql = "EXPLAIN SELECT * FROM MergeJoinTest1 t1 LEFT JOIN MergeJoinTest2 t2 ON t1.pk = t2.fk";
+        assertTrue(getStringValue(1, true).contains("MERGE JOIN"));
+        // pk从1501到2000的记录匹配不上
+        sql = "SELECT count(*) FROM MergeJoinTest1 t1 LEFT JOIN MergeJoinTest2 t2 ON t1.pk = t2.fk";
+        assertEquals(3500, getIntValue(1, true));
+        sql = "SELECT count(*) FROM MergeJoinTest1 t1 LEFT JOIN MergeJoinTest2 t2 ON t1.pk = t2.fk"
+                + " WHERE t2.pk IS NULL";
+        assertEquals(500, getIntValue(1, true));
+
+        // 外表的记录不是按join字段的顺序读取时也要返回正确的结果
+        sql = "SELECT count(*) FROM MergeJoinTest1 t1 JOIN MergeJoinTest2 t2 ON t1.pk = t2.fk"
+                + " WHERE t1.pk IN(1400, 3, 1000, 3)";
+        assertEquals(6, getIntValue(1, true));
+        sql = "SELECT sum(t2.pk) FROM MergeJoinTest1 t1 JOIN MergeJoinTest2 t2 ON t1.pk = t2.fk"
+                + " WHERE t1.name = 'n10'";
+        assertEquals(9 + 1509, getIntValue(1, true));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+public class OlapOperatorTest extends SqlTestBase {
+
+    private static final String[] QUERIES = {
+            "SELECT pk, v, name FROM OlapOperatorTest"
+                    + " WHERE v > 10 AND d <= 2000.5 AND name LIKE 'n1%'",
+            "SELECT pk FROM OlapOperatorTest WHERE v IS NULL OR f = 3",
+            "SELECT pk FROM OlapOperatorTest WHERE v IS NOT NULL AND 20 >= v AND f < 1000.0",
+            "SELECT count(*) FROM (SELECT pk FROM OlapOperatorTest WHERE v > 50 LIMIT 10)",
+            "SELECT count(*), count(v), sum(v), avg(v), min(v), max(v),"
+                    + " sum(d), avg(d), min(d), max(f) FROM OlapOperatorTest WHERE v <> 3",
+            "SELECT count(*), sum(v * 2), stddev_pop(v), count(DISTINCT v), max(name)"
+                    + " FROM OlapOperatorTest WHERE pk >= 10",
+            "SELECT sum(v) + 1, count(*) FROM OlapOperatorTest WHERE d > 100",
+            "SELECT v, count(*), sum(d), min(pk) FROM OlapOperatorTest WHERE f < 4000 GROUP BY v" };
+
+    public OlapOperatorTest() {
+        super("OlapOperatorTestDB");
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS OlapOperatorTest");
+        executeUpdate("CREATE TABLE OlapOperatorTest(pk int PRIMARY KEY, v int, d double, f real,"
+                + " name varchar)");
+        // v从0到99，pk是97的倍数时v为null
+        executeUpdate("INSERT INTO OlapOperatorTest SELECT X,"
+                + " CASEWHEN(MOD(X, 97) = 0, null, MOD(X, 100)), X / 2.0, X, 'n' || X"
+                + " FROM SYSTEM_RANGE(1, 5000)");
+
+        ArrayList<ArrayList<String>> expected = new ArrayList<>();
+        for (String query : QUERIES)
+            expected.add(query(query));
+
+        // 扫描超过100行后转到olap Operator，每批读300行
+        executeUpdate("SET OLAP_THRESHOLD 100");
+        executeUpdate("SET OLAP_BATCH_SIZE 300");
+        try {
+            for (int i = 0; i < QUERIES.length; i++)
+                assertEquals(expected.get(i), query(QUERIES[i]));
+
+            sql = "SELECT count(*), sum(v), min(v), max(d) FROM OlapOperatorTest WHERE v >= 98";
+            ResultSet rs = stmt.executeQuery(sql);
+            assertTrue(rs.next());
+            assertEquals(99, rs.getInt(1));
+            assertEquals(9752, rs.getLong(2));
+            assertEquals(98, rs.getInt(3));
+            assertEquals(2499.5, rs.getDouble(4), 0.0);
+            rs.close();
+        } finally {
+            executeUpdate("SET OLAP_THRESHOLD 0");
+            executeUpdate("SET OLAP_BATCH_SIZE 0");
+        }
+    }
+
+    private ArrayList<String> query(String sql) throws Exception {
+        ArrayList<String> list = new ArrayList<>();
+        ResultSet rs = stmt.executeQuery(sql);
+        int columnCount = rs.getMetaData().getColumnCount();
+        while (rs.next()) {
+            StringBuilder buff = new StringBuilder();
+            for (int i = 1; i <= columnCount; i++) {
+                if (i > 1)
+                    buff.append(',');
+                buff.append(rs.getString(i));
+            }
+            list.add(buff.toString());
+        }
+        rs.close();
+        Collections.sort(list);
+        return list;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import com.lealone.db.Constants;
+import com.lealone.db.api.ErrorCode;
+import com.lealone.test.sql.SqlTestBase;
+
+public class PlanCacheTest extends SqlTestBase {
+
+    private static final int COUNT = 20; // 超过session语句缓存的大小
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS PlanCacheTest");
+        executeUpdate("CREATE TABLE PlanCacheTest(pk int PRIMARY KEY, v int)");
+        executeUpdate("INSERT INTO PlanCacheTest SELECT X, X * 10 FROM SYSTEM_RANGE(1, " + COUNT + ")");
+        executeUpdate("CREATE SCHEMA IF NOT EXISTS PlanCacheSchema");
+        executeUpdate("DROP TABLE IF EXISTS PlanCacheSchema.PlanCacheTest");
+        executeUpdate("CREATE TABLE PlanCacheSchema.PlanCacheTest(pk int PRIMARY KEY, v int)");
+        executeUpdate("INSERT INTO PlanCacheSchema.PlanCacheTest SELECT X, X * 100"
+                + " FROM SYSTEM_RANGE(1, " + COUNT + ")");
+
+        testShare();
+        testSchema();
+        testDDL();
+        testLocalTemporaryTable();
+        testSessionSettings();
+    }
+
+    // 一个session用过的语句其他session可以接着用
+    private void testShare() throws Exception {
+        Connection conn1 = getConnection();
+        query(conn1, 10);
+        update(conn1, 1);
+        conn1.close();
+
+        Connection conn2 = getConnection();
+        query(conn2, 11);
+        update(conn2, -1);
+        query(conn2, 10);
+        conn2.close();
+    }
+
+    private void testSchema() throws Exception {
+        Connection conn1 = getConnection();
+        query(conn1, 10);
+        conn1.close();
+
+        Connection conn2 = getConnection();
+        Statement stmt2 = conn2.createStatement();
+        stmt2.executeUpdate("SET SCHEMA PlanCacheSchema");
+        query(conn2, 100);
+        conn2.close();
+    }
+
+    // DDL之后缓存的语句不能再用
+    private void testDDL() throws Exception {
+        Connection conn1 = getConnection();
+        query(conn1, 10);
+        selectAll(conn1, 2);
+        conn1.close();
+
+        executeUpdate("ALTER TABLE PlanCacheTest ADD COLUMN w int DEFAULT 7");
+        try {
+            Connection conn2 = getConnection();
+            selectAll(conn2, 3);
+            query(conn2, 10);
+            conn2.close();
+        } finally {
+            executeUpdate("ALTER TABLE PlanCacheTest DROP COLUMN w");
+        }
+    }
+
+    // 引用局部临时表的语句不能给其他session用
+    private void testLocalTemporaryTable() throws Exception {
+        Connection conn1 = getConnection();
+        Statement stmt1 = conn1.createStatement();
+        stmt1.executeUpdate("CREATE LOCAL TEMPORARY TABLE PlanCacheTemp(id int)");
+        ResultSet rs = stmt1.executeQuery("SELECT count(*) FROM PlanCacheTemp");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+        stmt1.close();
+        query(conn1, 10); // 把上面的语句挤出session的语句缓存
+
+        Connection conn2 = getConnection();
+        Statement stmt2 = conn2.createStatement();
+        try {
+            stmt2.executeQuery("SELECT count(*) FROM PlanCacheTemp");
+            fail();
+        } catch (SQLException e) {
+            assertEquals(ErrorCode.TABLE_OR_VIEW_NOT_FOUND_1, e.getErrorCode());
+        }
+        conn2.close();
+        conn1.close();
+    }
+
+    // EXPRESSION_COMPILE_THRESHOLD不同的session不能共用语句，
+    // 否则阈值是1的session会用到阈值是1000的ExpressionJit，不会去编译表达式
+    private void testSessionSettings() throws Exception {
+        // 关掉结果缓存，确保每次都会计算表达式
+        executeUpdate("SET RESULT_CACHE_SIZE 0");
+        Connection conn1 = getConnection();
+        Connection conn2 = getConnection();
+        try {
+            conn1.createStatement().executeUpdate("SET EXPRESSION_COMPILE_THRESHOLD 1000");
+            conn2.createStatement().executeUpdate("SET EXPRESSION_COMPILE_THRESHOLD 1");
+            // 用一个每次运行都不同的常量，避免用到之前编译好的类
+            String sql = "SELECT v * 3 + " + System.nanoTime() % 1000000 + " FROM PlanCacheTest";
+            assertEquals(COUNT, count(conn1, sql));
+            conn1.close(); // 语句放到数据库级别的执行计划缓存中
+
+            long lookups = getCompiledClassCacheLookups();
+            assertEquals(COUNT, count(conn2, sql));
+            assertEquals(lookups + 1, getCompiledClassCacheLookups());
+        } finally {
+            conn1.close();
+            conn2.close();
+            executeUpdate("SET RESULT_CACHE_SIZE " + Constants.DEFAULT_RESULT_CACHE_SIZE);
+        }
+    }
+
+    private int count(Connection conn, String sql) throws Exception {
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery(sql);
+        int count = 0;
+        while (rs.next())
+            count++;
+        rs.close();
+        stmt.close();
+        return count;
+    }
+
+    // 编译表达式时会先查一次编译类缓存，不管有没有找到
+    private long getCompiledClassCacheLookups() throws Exception {
+        ResultSet rs = stmt.executeQuery("SELECT sum(CAST(value AS BIGINT))"
+                + " FROM INFORMATION_SCHEMA.SETTINGS WHERE name IN"
+                + " ('COMPILED_CLASS_CACHE_HITS', 'COMPILED_CLASS_CACHE_MISSES')");
+        assertTrue(rs.next());
+        long lookups = rs.getLong(1);
+        rs.close();
+        return lookups;
+    }
+
+    private void query(Connection conn, int factor) throws Exception {
+        for (int i = 1; i <= COUNT; i++) {
+            Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT v FROM PlanCacheTest WHERE pk = " + i);
+            assertTrue(rs.next());
+            assertEquals(i * factor, rs.getInt(1));
+            rs.close();
+            stmt.close();
+        }
+    }
+
+    private void update(Connection conn, int delta) throws Exception {
+        for (int i = 1; i <= COUNT; i++) {
+            PreparedStatement ps = conn.prepareStatement(
+                    "UPDATE PlanCacheTest SET v = v + ? * pk WHERE pk = " + i);
+            ps.setInt(1, delta);
+            assertEquals(1, ps.executeUpdate());
+            ps.close();
+        }
+    }
+
+    private void selectAll(Connection conn, int columnCount) throws Exception {
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT * FROM PlanCacheTest WHERE pk = 1");
+        assertEquals(columnCount, rs.getMetaData().getColumnCount());
+        assertTrue(rs.next());
+        rs.close();
+        stmt.close();
+    }
+}
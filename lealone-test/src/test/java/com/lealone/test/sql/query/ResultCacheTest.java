@@ -0,0 +1,117 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+public class ResultCacheTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS ResultCacheTestRef");
+        executeUpdate("DROP TABLE IF EXISTS ResultCacheTestLog");
+        executeUpdate("CREATE TABLE ResultCacheTestRef(id int PRIMARY KEY, name varchar)");
+        executeUpdate("CREATE TABLE ResultCacheTestLog(id int PRIMARY KEY, v int)");
+        executeUpdate("INSERT INTO ResultCacheTestRef VALUES(1, 'a'), (2, 'b'), (3, 'c')");
+
+        testShare();
+        testOtherTableModified();
+        testUncommitted();
+        testDistinctAndLimit();
+    }
+
+    // 一个session的查询结果其他session可以直接用
+    private void testShare() throws Exception {
+        Connection conn1 = getConnection();
+        assertEquals("b", queryName(conn1, 2));
+        long hits = getStatistic("RESULT_CACHE_HITS");
+        Connection conn2 = getConnection();
+        assertEquals("b", queryName(conn2, 2));
+        assertEquals(hits + 1, getStatistic("RESULT_CACHE_HITS"));
+        conn1.close();
+        conn2.close();
+    }
+
+    // 修改其他表不影响缓存的结果，修改查询用到的表后结果就失效了
+    private void testOtherTableModified() throws Exception {
+        Connection conn1 = getConnection();
+        Connection conn2 = getConnection();
+        assertEquals("c", queryName(conn1, 3));
+        executeUpdate("INSERT INTO ResultCacheTestLog VALUES(1, 1)");
+        long hits = getStatistic("RESULT_CACHE_HITS");
+        assertEquals("c", queryName(conn2, 3));
+        assertEquals(hits + 1, getStatistic("RESULT_CACHE_HITS"));
+
+        executeUpdate("UPDATE ResultCacheTestRef SET name = 'cc' WHERE id = 3");
+        hits = getStatistic("RESULT_CACHE_HITS");
+        assertEquals("cc", queryName(conn2, 3));
+        assertEquals(hits, getStatistic("RESULT_CACHE_HITS"));
+        assertEquals("cc", queryName(conn1, 3));
+        assertEquals(hits + 1, getStatistic("RESULT_CACHE_HITS"));
+        conn1.close();
+        conn2.close();
+    }
+
+    // 没有提交的数据不能放到缓存中，提交之前放到缓存中的结果提交后就失效了
+    private void testUncommitted() throws Exception {
+        Connection conn1 = getConnection();
+        Connection conn2 = getConnection();
+        conn1.setAutoCommit(false);
+        Statement stmt1 = conn1.createStatement();
+        stmt1.executeUpdate("UPDATE ResultCacheTestRef SET name = 'x' WHERE id = 1");
+        assertEquals("x", queryName(conn1, 1));
+        assertEquals("a", queryName(conn2, 1));
+        assertEquals("a", queryName(conn2, 1));
+        conn1.commit();
+        assertEquals("x", queryName(conn2, 1));
+        conn1.setAutoCommit(true);
+        stmt1.close();
+        conn1.close();
+        conn2.close();
+    }
+
+    // 缓存的结果已经做完了distinct和limit
+    private void testDistinctAndLimit() throws Exception {
+        executeUpdate("INSERT INTO ResultCacheTestLog VALUES(2, 1), (3, 2), (4, 2), (5, 3)");
+        String sql = "SELECT DISTINCT v FROM ResultCacheTestLog ORDER BY v DESC LIMIT 2";
+        for (int i = 0; i < 2; i++) {
+            Connection conn = getConnection();
+            Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery(sql);
+            assertTrue(rs.next());
+            assertEquals(3, rs.getInt(1));
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+            assertFalse(rs.next());
+            rs.close();
+            stmt.close();
+            conn.close();
+        }
+    }
+
+    private static String queryName(Connection conn, int id) throws Exception {
+        PreparedStatement ps = conn.prepareStatement("SELECT name FROM ResultCacheTestRef WHERE id = ?");
+        ps.setInt(1, id);
+        ResultSet rs = ps.executeQuery();
+        assertTrue(rs.next());
+        String name = rs.getString(1);
+        rs.close();
+        ps.close();
+        return name;
+    }
+
+    private long getStatistic(String name) throws Exception {
+        sql = "SELECT value FROM INFORMATION_SCHEMA.SETTINGS WHERE name = '" + name + "'";
+        return Long.parseLong(getStringValue(1, true));
+    }
+}
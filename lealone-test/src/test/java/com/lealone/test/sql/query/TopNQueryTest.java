@@ -0,0 +1,67 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import java.sql.ResultSet;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+public class TopNQueryTest extends SqlTestBase {
+
+    public TopNQueryTest() {
+        super("TopNQueryTestDB");
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS TopNQueryTest");
+        executeUpdate("CREATE TABLE TopNQueryTest(pk int PRIMARY KEY, v int, name varchar)");
+        // v从0到99，每个值有10条记录
+        executeUpdate("INSERT INTO TopNQueryTest SELECT X, MOD(X, 100), 'n' || X"
+                + " FROM SYSTEM_RANGE(1, 1000)");
+        executeUpdate("INSERT INTO TopNQueryTest VALUES(1001, null, 'n1001')");
+
+        testTopN();
+        // limit比maxMemoryRows大时不使用top-N，结果也要一样
+        executeUpdate("SET MAX_MEMORY_ROWS 10");
+        try {
+            testTopN();
+        } finally {
+            executeUpdate("SET MAX_MEMORY_ROWS 100000");
+        }
+    }
+
+    private void testTopN() throws Exception {
+        sql = "SELECT pk FROM TopNQueryTest ORDER BY v DESC, pk LIMIT 3";
+        assertRows(99, 199, 299);
+        sql = "SELECT pk FROM TopNQueryTest ORDER BY v DESC, pk LIMIT 3 OFFSET 9";
+        assertRows(999, 98, 198);
+        // 排序字段相同时先读到的记录排在前面
+        sql = "SELECT pk FROM TopNQueryTest WHERE v = 5 ORDER BY v LIMIT 2";
+        assertRows(5, 105);
+        // null排在最前面
+        sql = "SELECT pk FROM TopNQueryTest ORDER BY v, pk LIMIT 2";
+        assertRows(1001, 100);
+        sql = "SELECT v FROM TopNQueryTest GROUP BY v ORDER BY v DESC LIMIT 2";
+        assertRows(99, 98);
+        sql = "SELECT count(*) FROM (SELECT pk FROM TopNQueryTest ORDER BY name LIMIT 50)";
+        assertEquals(50, getIntValue(1, true));
+        sql = "SELECT pk FROM TopNQueryTest ORDER BY v DESC, pk LIMIT 0";
+        assertRows();
+    }
+
+    private void assertRows(int... values) throws Exception {
+        ResultSet rs = stmt.executeQuery(sql);
+        for (int v : values) {
+            assertTrue(rs.next());
+            assertEquals(v, rs.getInt(1));
+        }
+        assertFalse(rs.next());
+        rs.close();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import org.junit.Test;
+
+import com.lealone.db.api.ErrorCode;
+import com.lealone.test.sql.SqlTestBase;
+
+public class WindowFunctionTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS WindowFunctionTest");
+        executeUpdate("CREATE TABLE WindowFunctionTest(pk int PRIMARY KEY, g int, v int)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS WindowFunctionTest_gv ON WindowFunctionTest(g, v)");
+        executeUpdate("INSERT INTO WindowFunctionTest VALUES(1, 1, 10), (2, 1, 20), (3, 1, 20),"
+                + " (4, 1, 30), (5, 2, 5), (6, 2, 15)");
+
+        testRank();
+        testAggregate();
+        testFrame();
+        testLagLead();
+        testStreaming();
+        testUnsupported();
+    }
+
+    private void testRank() throws Exception {
+        sql = "SELECT pk, ROW_NUMBER() OVER (PARTITION BY g ORDER BY v, pk),"
+                + " RANK() OVER (PARTITION BY g ORDER BY v),"
+                + " DENSE_RANK() OVER (PARTITION BY g ORDER BY v)"
+                + " FROM WindowFunctionTest ORDER BY pk";
+        rs = stmt.executeQuery(sql);
+        int[][] expected = { { 1, 1, 1 }, { 2, 2, 2 }, { 3, 2, 2 }, { 4, 4, 3 }, { 1, 1, 1 },
+                { 2, 2, 2 } };
+        for (int[] e : expected) {
+            assertTrue(rs.next());
+            assertEquals(e[0], rs.getInt(2));
+            assertEquals(e[1], rs.getInt(3));
+            assertEquals(e[2], rs.getInt(4));
+        }
+        assertFalse(rs.next());
+        closeResultSet();
+    }
+
+    private void testAggregate() throws Exception {
+        // 默认窗口帧是RANGE BETWEEN UNBOUNDED PRECEDING AND CURRENT ROW，相同的v一起累加
+        sql = "SELECT pk, SUM(v) OVER (PARTITION BY g ORDER BY v), COUNT(*) OVER (PARTITION BY g)"
+                + " FROM WindowFunctionTest ORDER BY pk";
+        rs = stmt.executeQuery(sql);
+        int[][] expected = { { 10, 4 }, { 50, 4 }, { 50, 4 }, { 80, 4 }, { 5, 2 }, { 20, 2 } };
+        for (int[] e : expected) {
+            assertTrue(rs.next());
+            assertEquals(e[0], rs.getInt(2));
+            assertEquals(e[1], rs.getInt(3));
+        }
+        assertFalse(rs.next());
+        closeResultSet();
+
+        sql = "SELECT MAX(v) OVER () FROM WindowFunctionTest WHERE pk = 1";
+        assertEquals(10, getIntValue(1, true));
+    }
+
+    private void testFrame() throws Exception {
+        sql = "SELECT pk, SUM(v) OVER (ORDER BY pk ROWS BETWEEN 1 PRECEDING AND 1 FOLLOWING)"
+                + " FROM WindowFunctionTest ORDER BY pk";
+        rs = stmt.executeQuery(sql);
+        int[] expected = { 30, 50, 70, 55, 50, 20 };
+        for (int e : expected) {
+            assertTrue(rs.next());
+            assertEquals(e, rs.getInt(2));
+        }
+        closeResultSet();
+
+        sql = "SELECT SUM(v) OVER (ORDER BY pk ROWS BETWEEN CURRENT ROW AND UNBOUNDED FOLLOWING)"
+                + " FROM WindowFunctionTest ORDER BY pk";
+        assertEquals(100, getIntValue(1, true));
+    }
+
+    private void testLagLead() throws Exception {
+        sql = "SELECT pk, LAG(v) OVER (ORDER BY pk), LEAD(v, 2, -1) OVER (ORDER BY pk)"
+                + " FROM WindowFunctionTest ORDER BY pk";
+        rs = stmt.executeQuery(sql);
+        assertTrue(rs.next());
+        rs.getInt(2);
+        assertTrue(rs.wasNull());
+        assertEquals(20, rs.getInt(3));
+        for (int i = 0; i < 4; i++)
+            assertTrue(rs.next());
+        assertEquals(30, rs.getInt(2));
+        assertEquals(-1, rs.getInt(3));
+        closeResultSet();
+    }
+
+    private void testStreaming() throws Exception {
+        // 索引(g, v)的顺序跟OVER子句一样，不需要排序
+        sql = "EXPLAIN SELECT pk, RANK() OVER (PARTITION BY g ORDER BY v) FROM WindowFunctionTest";
+        String plan = getStringValue(1, true);
+        assertTrue(plan, plan.contains("window sorted"));
+        assertTrue(plan, plan.contains("WINDOWFUNCTIONTEST_GV"));
+
+        sql = "EXPLAIN SELECT pk, RANK() OVER (PARTITION BY g ORDER BY v DESC) FROM WindowFunctionTest";
+        plan = getStringValue(1, true);
+        assertFalse(plan, plan.contains("window sorted"));
+
+        sql = "SELECT count(*) FROM (SELECT RANK() OVER (PARTITION BY g ORDER BY v) r"
+                + " FROM WindowFunctionTest) WHERE r = 1";
+        assertEquals(2, getIntValue(1, true));
+    }
+
+    private void testUnsupported() throws Exception {
+        executeQueryThanAssertErrorCode(
+                "SELECT pk FROM WindowFunctionTest WHERE RANK() OVER (ORDER BY v) = 1",
+                ErrorCode.FEATURE_NOT_SUPPORTED_1);
+        executeQueryThanAssertErrorCode(
+                "SELECT g, RANK() OVER (ORDER BY g) FROM WindowFunctionTest GROUP BY g",
+                ErrorCode.FEATURE_NOT_SUPPORTED_1);
+        executeQueryThanAssertErrorCode(
+                "SELECT SUM(v) OVER (ORDER BY v RANGE BETWEEN 1 PRECEDING AND CURRENT ROW)"
+                        + " FROM WindowFunctionTest",
+                ErrorCode.FEATURE_NOT_SUPPORTED_1);
+    }
+}